@@ -0,0 +1,222 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+import static org.dcache.xrootd.protocol.messages.SigverRequest.kXR_SHA256;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_nodata;
+
+/**
+ * Encoded client requests, as they arrive on the wire, for feeding
+ * the decoders in benchmarks.
+ */
+public final class RequestFrames
+{
+    public static final String PATH =
+        "/pnfs/example.org/data/atlas/datadisk/rucio/mc16_13TeV/8a/4f/" +
+        "AOD.15136473._000123.pool.root.1";
+
+    public static final String OPAQUE =
+        "oss.asize=2147483648&tpc.key=1cdf0e4a5b3c&tpc.org=user.1234@client.example.org" +
+        "&tpc.src=source.example.org:1094&tpc.dst=destination.example.org:1094";
+
+    private RequestFrames()
+    {
+    }
+
+    /**
+     * Returns a frame for the request with the given name, which is the
+     * request id without the kXR_ prefix.
+     */
+    public static ByteBuf frame(String request)
+    {
+        switch (request) {
+        case "auth":
+            return frame(kXR_auth, header -> header.writeZero(16),
+                         "unix" + "\0\0\0\0");
+        case "login":
+            return frame(kXR_login, header -> {
+                header.writeInt(4711);                        // pid
+                header.writeBytes("user\0\0\0\0".getBytes(US_ASCII));
+                header.writeByte(0);                          // ability
+                header.writeByte(0);                          // reserved
+                header.writeByte(kXR_ver002);                 // capver
+                header.writeByte(0);                          // role
+            }, "");
+        case "protocol":
+            return frame(kXR_protocol, header -> {
+                header.writeInt(PROTOCOL_VERSION);
+                header.writeByte(0);
+                header.writeZero(11);
+            }, "");
+        case "open":
+            return frame(kXR_open, header -> {
+                header.writeShort(0);                         // mode
+                header.writeShort(kXR_open_read);
+                header.writeZero(12);
+            }, PATH + "?" + OPAQUE);
+        case "stat":
+            return frame(kXR_stat, header -> header.writeZero(16), PATH);
+        case "statx":
+            return frame(kXR_statx, header -> header.writeZero(16),
+                         PATH + "\n" + PATH + ".2\n" + PATH + ".3");
+        case "read":
+            return read(1 << 20, 1 << 20);
+        case "readv":
+            return readv(64, 1 << 16);
+        case "write":
+            return write(1 << 16);
+        case "sync":
+            return frame(kXR_sync, header -> header.writeZero(16), "");
+        case "close":
+            return frame(kXR_close, header -> header.writeZero(16), "");
+        case "rm":
+            return frame(kXR_rm, header -> header.writeZero(16), PATH);
+        case "rmdir":
+            return frame(kXR_rmdir, header -> header.writeZero(16), PATH);
+        case "mkdir":
+            return frame(kXR_mkdir, header -> header.writeZero(16), PATH);
+        case "mv":
+            return frame(kXR_mv, header -> header.writeZero(16),
+                         PATH + " " + PATH + ".moved");
+        case "dirlist":
+            return frame(kXR_dirlist, header -> header.writeZero(16), PATH);
+        case "prepare":
+            return frame(kXR_prepare, header -> header.writeZero(16),
+                         PATH + "\n" + PATH + ".2");
+        case "locate":
+            return frame(kXR_locate, header -> header.writeZero(16), PATH);
+        case "query":
+            return frame(kXR_query, header -> {
+                header.writeShort(kXR_Qcksum);
+                header.writeZero(14);
+            }, PATH + "?" + OPAQUE);
+        case "set":
+            return frame(kXR_set, header -> header.writeZero(16),
+                         "appid dcache-benchmark");
+        case "endsess":
+            return frame(kXR_endsess, header -> header.writeZero(16), "");
+        default:
+            throw new IllegalArgumentException("Unknown request: " + request);
+        }
+    }
+
+    /**
+     * Returns a kXR_read frame for {@code length} bytes at {@code offset}.
+     */
+    public static ByteBuf read(long offset, int length)
+    {
+        return frame(kXR_read, header -> {
+            header.writeInt(0);                               // fhandle
+            header.writeLong(offset);                         // offset
+            header.writeInt(length);                          // rlen
+        }, "");
+    }
+
+    /**
+     * Returns a kXR_readv frame with {@code count} segments of
+     * {@code length} bytes.
+     */
+    public static ByteBuf readv(int count, int length)
+    {
+        ByteBuf frame = Unpooled.buffer(CLIENT_REQUEST_LEN + 16 * count);
+        frame.writeShort(1);
+        frame.writeShort(kXR_readv);
+        frame.writeZero(16);
+        frame.writeInt(16 * count);
+        for (int i = 0; i < count; i++) {
+            frame.writeInt(0);
+            frame.writeInt(length);
+            frame.writeLong((long) i * length);
+        }
+        return frame;
+    }
+
+    /**
+     * Returns a kXR_write frame carrying {@code length} bytes.
+     */
+    public static ByteBuf write(int length)
+    {
+        ByteBuf frame = Unpooled.buffer(CLIENT_REQUEST_LEN + length);
+        frame.writeShort(1);
+        frame.writeShort(kXR_write);
+        frame.writeInt(0);                                    // fhandle
+        frame.writeLong(0);                                   // offset
+        frame.writeZero(4);
+        frame.writeInt(length);
+        frame.writeZero(length);
+        return frame;
+    }
+
+    /**
+     * Returns the kXR_sigver frame signing {@code request} with the
+     * given sequence number. As for real clients, only the header of a
+     * kXR_write is signed.
+     */
+    public static ByteBuf sigver(ByteBuf request, long seqno)
+        throws NoSuchAlgorithmException
+    {
+        boolean isWrite = request.getUnsignedShort(2) == kXR_write;
+        ByteBuf signed = isWrite ? request.slice(0, CLIENT_REQUEST_LEN) : request;
+
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        digest.update(Unpooled.buffer(8).writeLong(seqno).nioBuffer());
+        digest.update(signed.nioBuffer());
+        byte[] signature = digest.digest();
+
+        ByteBuf frame = Unpooled.buffer(CLIENT_REQUEST_LEN + signature.length);
+        frame.writeShort(request.getUnsignedShort(0));
+        frame.writeShort(kXR_sigver);
+        frame.writeShort(request.getUnsignedShort(2));        // expectrid
+        frame.writeByte(0);                                   // version
+        frame.writeByte(isWrite ? kXR_nodata : 0);            // flags
+        frame.writeLong(seqno);
+        frame.writeByte(kXR_SHA256);
+        frame.writeZero(3);
+        frame.writeInt(signature.length);
+        frame.writeBytes(signature);
+        return frame;
+    }
+
+    private interface Header
+    {
+        /**
+         * Writes the 16 request specific header bytes.
+         */
+        void write(ByteBuf header);
+    }
+
+    private static ByteBuf frame(int requestId, Header header, String payload)
+    {
+        ByteBuf frame = Unpooled.buffer(CLIENT_REQUEST_LEN + payload.length());
+        frame.writeShort(1);
+        frame.writeShort(requestId);
+        header.write(frame);
+        frame.writeInt(payload.length());
+        frame.writeCharSequence(payload, US_ASCII);
+        return frame;
+    }
+}
@@ -0,0 +1,76 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures decoding a single request frame into an XrootdRequest, for
+ * every request type understood by the decoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XrootdDecoderBenchmark
+{
+    @Param({"auth", "login", "protocol", "open", "stat", "statx", "read",
+            "readv", "write", "sync", "close", "rm", "rmdir", "mkdir", "mv",
+            "dirlist", "prepare", "locate", "query", "set", "endsess"})
+    public String request;
+
+    private final XrootdDecoder decoder = new XrootdDecoder();
+    private final List<Object> out = new ArrayList<>(1);
+    private ByteBuf frame;
+
+    @Setup
+    public void setUp()
+    {
+        frame = RequestFrames.frame(request);
+    }
+
+    @Benchmark
+    public Object decode()
+    {
+        frame.readerIndex(0);
+        out.clear();
+        decoder.decode(null, frame, out);
+        Object decoded = out.get(0);
+        ReferenceCountUtil.release(decoded);
+        return decoded;
+    }
+}
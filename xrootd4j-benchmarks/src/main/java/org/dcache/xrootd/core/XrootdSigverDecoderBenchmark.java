@@ -0,0 +1,93 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.xrootd.security.SigningPolicy;
+
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_secPedantic;
+
+/**
+ * Measures verification of signed requests: decoding a kXR_sigver frame
+ * followed by the request it signs and checking the SHA-256 hash.
+ *
+ * Sequence numbers must increase on a connection, so each invocation
+ * decodes a batch of pre-signed requests on a fresh decoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class XrootdSigverDecoderBenchmark
+{
+    private static final int BATCH = 256;
+
+    @Param({"stat", "open", "read", "write"})
+    public String request;
+
+    private ByteBuf[] sigvers;
+    private ByteBuf[] requests;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        sigvers = new ByteBuf[BATCH];
+        requests = new ByteBuf[BATCH];
+        for (int i = 0; i < BATCH; i++) {
+            requests[i] = RequestFrames.frame(request);
+            sigvers[i] = RequestFrames.sigver(requests[i], i + 1);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH)
+    public void verify(Blackhole blackhole)
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(
+                new XrootdSigverDecoder(new SigningPolicy(kXR_secPedantic, true), null));
+        for (int i = 0; i < BATCH; i++) {
+            channel.writeInbound(sigvers[i].retain().readerIndex(0));
+            channel.writeInbound(requests[i].retain().readerIndex(0));
+            Object decoded = channel.readInbound();
+            blackhole.consume(decoded);
+            ReferenceCountUtil.release(decoded);
+        }
+        channel.finishAndReleaseAll();
+    }
+}
@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.protocol.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.xrootd.core.RequestFrames;
+import org.dcache.xrootd.util.FileStatus;
+
+/**
+ * Measures serializing a directory listing, with and without the
+ * kXR_dstat file status of each entry.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DirListResponseBenchmark
+{
+    @Param({"100", "1000"})
+    public int entries;
+
+    @Param({"false", "true"})
+    public boolean dstat;
+
+    private DirListResponse response;
+    private ByteBuf buffer;
+
+    @Setup
+    public void setUp()
+    {
+        DirListRequest request =
+            new DirListRequest(RequestFrames.frame("dirlist"));
+        List<String> names = new ArrayList<>(entries);
+        List<FileStatus> status = new ArrayList<>(entries);
+        for (int i = 0; i < entries; i++) {
+            names.add(String.format("AOD.15136473._%06d.pool.root.1", i));
+            status.add(new FileStatus(i, 1L << 31, 16, 1545000000L + i));
+        }
+        response = dstat
+                   ? new DirListStatResponse(request, names, status)
+                   : new DirListResponse(request, names);
+        buffer = PooledByteBufAllocator.DEFAULT.buffer(response.getDataLength());
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        buffer.release();
+    }
+
+    @Benchmark
+    public ByteBuf getBytes()
+    {
+        buffer.clear();
+        response.getDataLength();
+        response.getBytes(buffer);
+        return buffer;
+    }
+}
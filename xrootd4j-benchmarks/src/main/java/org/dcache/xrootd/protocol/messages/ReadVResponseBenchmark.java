@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.protocol.messages;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.xrootd.core.RequestFrames;
+import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
+
+/**
+ * Measures encoding a kXR_readv response through the XrootdEncoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadVResponseBenchmark
+{
+    @Param({"1", "64", "1024"})
+    public int segments;
+
+    @Param({"16", "4096"})
+    public int segmentSize;
+
+    private EmbeddedChannel channel;
+    private ReadVRequest request;
+    private EmbeddedReadRequest[] requests;
+    private ByteBuf data;
+
+    @Setup
+    public void setUp()
+    {
+        channel = new EmbeddedChannel(new XrootdEncoder());
+        ByteBuf frame = RequestFrames.readv(segments, segmentSize);
+        request = new ReadVRequest(frame);
+        requests = request.getReadRequestList();
+        data = Unpooled.directBuffer(segments * segmentSize)
+                .writeZero(segments * segmentSize);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        channel.finishAndReleaseAll();
+        data.release();
+    }
+
+    @Benchmark
+    public Object writeTo()
+    {
+        ByteBuf[] segments = new ByteBuf[this.segments];
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = data.retainedSlice(i * segmentSize, segmentSize);
+        }
+        channel.writeOutbound(new ReadVResponse(request, requests, segments,
+                                                0, segments.length, false));
+        Object encoded = channel.readOutbound();
+        ReferenceCountUtil.release(encoded);
+        return encoded;
+    }
+}
@@ -0,0 +1,131 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.xrootd.core.RequestFrames;
+import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.ReadResponse;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+
+/**
+ * Measures draining a chunked read response through the
+ * ChunkedResponseWriteHandler and the XrootdEncoder.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ChunkedResponseWriteHandlerBenchmark
+{
+    @Param({"1", "16", "256"})
+    public int chunks;
+
+    @Param({"8192", "65536"})
+    public int chunkSize;
+
+    private EmbeddedChannel channel;
+    private ReadRequest request;
+    private ByteBuf data;
+
+    @Setup
+    public void setUp()
+    {
+        channel = new EmbeddedChannel(new XrootdEncoder(),
+                                      new ChunkedResponseWriteHandler());
+        request = new ReadRequest(RequestFrames.frame("read"));
+        data = Unpooled.directBuffer(chunks * chunkSize)
+                .writeZero(chunks * chunkSize);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        channel.finishAndReleaseAll();
+        data.release();
+    }
+
+    @Benchmark
+    public void drain(Blackhole blackhole)
+    {
+        channel.writeOutbound(new SlicedResponse());
+        Object chunk;
+        while ((chunk = channel.readOutbound()) != null) {
+            blackhole.consume(chunk);
+            ReferenceCountUtil.release(chunk);
+        }
+    }
+
+    /**
+     * Serves the read from slices of an in-memory buffer.
+     */
+    private class SlicedResponse implements ChunkedResponse
+    {
+        private int next;
+
+        @Override
+        public ReadRequest getRequest()
+        {
+            return request;
+        }
+
+        @Override
+        public XrootdResponse<?> nextChunk(ByteBufAllocator alloc)
+        {
+            int index = next++;
+            return new ReadResponse(request,
+                                    data.retainedSlice(index * chunkSize, chunkSize),
+                                    next < chunks);
+        }
+
+        @Override
+        public boolean isEndOfInput()
+        {
+            return next == chunks;
+        }
+
+        @Override
+        public void close()
+        {
+        }
+    }
+}
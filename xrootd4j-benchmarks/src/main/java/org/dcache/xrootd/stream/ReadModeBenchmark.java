@@ -0,0 +1,178 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.xrootd.core.RequestFrames;
+import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.ZeroCopyReadResponse;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * Measures sending the responses to kXR_read requests for random parts
+ * of a file in the page cache to a loopback socket, copying the data
+ * through buffers, sending it from memory mapped regions of the file, or
+ * sending it with zero-copy.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ReadModeBenchmark
+{
+    private static final int FILE_SIZE = 64 << 20;
+    private static final int MAX_FRAME_SIZE = 2 << 20;
+
+    @Param({"copy", "mmap", "zerocopy"})
+    public String mode;
+
+    @Param({"4096", "65536", "1048576"})
+    public int readSize;
+
+    private Path path;
+    private FileChannel file;
+    private MappedFileCache mappings;
+    private EmbeddedChannel channel;
+    private ServerSocketChannel server;
+    private SocketChannel socket;
+    private Thread drain;
+
+    @Setup
+    public void setUp() throws IOException
+    {
+        path = Files.createTempFile("read-mode", null);
+        try (FileChannel out = FileChannel.open(path, WRITE)) {
+            ByteBuffer block = ByteBuffer.allocateDirect(1 << 20);
+            for (long position = 0; position < FILE_SIZE; position += block.capacity()) {
+                block.clear();
+                out.write(block, position);
+            }
+        }
+        file = FileChannel.open(path, READ);
+        mappings = new MappedFileCache(FILE_SIZE, 16 << 20);
+        channel = new EmbeddedChannel(new XrootdEncoder(),
+                                      new ChunkedResponseWriteHandler());
+
+        server = ServerSocketChannel.open().bind(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0));
+        socket = SocketChannel.open(server.getLocalAddress());
+        SocketChannel peer = server.accept();
+        drain = new Thread(() -> {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 20);
+            try {
+                while (peer.read(buffer) >= 0) {
+                    buffer.clear();
+                }
+                peer.close();
+            } catch (IOException ignored) {
+            }
+        }, "drain");
+        drain.setDaemon(true);
+        drain.start();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException, InterruptedException
+    {
+        channel.finishAndReleaseAll();
+        socket.close();
+        drain.join();
+        server.close();
+        mappings.unmap(file);
+        file.close();
+        Files.delete(path);
+    }
+
+    @Benchmark
+    public void read() throws IOException
+    {
+        long offset = (long) ThreadLocalRandom.current().nextInt(FILE_SIZE / readSize) * readSize;
+        ReadRequest request = new ReadRequest(RequestFrames.read(offset, readSize));
+        switch (mode) {
+        case "copy":
+            channel.writeOutbound(new ChunkedFileChannelReadResponse(request, MAX_FRAME_SIZE, file));
+            break;
+        case "mmap":
+            channel.writeOutbound(new ChunkedFileChannelReadResponse(request, MAX_FRAME_SIZE, file, mappings));
+            break;
+        case "zerocopy":
+            channel.writeOutbound(new ZeroCopyReadResponse(request, file));
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown mode: " + mode);
+        }
+        Object msg;
+        while ((msg = channel.readOutbound()) != null) {
+            try {
+                send(msg);
+            } finally {
+                ReferenceCountUtil.release(msg);
+            }
+        }
+    }
+
+    private void send(Object msg) throws IOException
+    {
+        if (msg instanceof FileRegion) {
+            FileRegion region = (FileRegion) msg;
+            while (region.transferred() < region.count()) {
+                region.transferTo(socket, region.transferred());
+            }
+        } else {
+            ByteBuf buffer = (ByteBuf) msg;
+            ByteBuffer[] buffers = buffer.nioBuffers();
+            long remaining = buffer.readableBytes();
+            while (remaining > 0) {
+                remaining -= socket.write(buffers);
+            }
+        }
+    }
+}
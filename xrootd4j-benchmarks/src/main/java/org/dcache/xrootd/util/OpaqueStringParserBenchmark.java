@@ -0,0 +1,85 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * Measures parsing the opaque part of a path, from an empty string to
+ * the keys sent by third party copy clients.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OpaqueStringParserBenchmark
+{
+    @Param({"",
+            "oss.asize=2147483648",
+            "org.dcache.uuid=7b0c1f1e-9d43-4bd4-8a4c-0f3dd5e3e0d2&org.dcache.xrootd.client=user.1234@client.example.org",
+            "tpc.key=1cdf0e4a5b3c&tpc.org=user.1234@client.example.org&tpc.src=source.example.org:1094&tpc.dst=destination.example.org:1094&tpc.stage=copy&oss.asize=2147483648"})
+    public String opaque;
+
+    private ByteBuf buffer;
+
+    @Setup
+    public void setUp()
+    {
+        buffer = Unpooled.copiedBuffer(opaque, US_ASCII);
+    }
+
+    @TearDown
+    public void tearDown()
+    {
+        buffer.release();
+    }
+
+    @Benchmark
+    public Map<String,String> getOpaqueMap() throws ParseException
+    {
+        return OpaqueStringParser.getOpaqueMap(opaque);
+    }
+
+    @Benchmark
+    public Map<String,String> getOpaqueMapFromBuffer() throws ParseException
+    {
+        return OpaqueStringParser.getOpaqueMap(buffer, buffer.readerIndex(),
+                                               buffer.readableBytes());
+    }
+}
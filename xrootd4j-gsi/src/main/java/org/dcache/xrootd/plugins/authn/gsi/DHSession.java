@@ -58,6 +58,10 @@ import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.RANDOM;
  * has been completed, the resulting session key can be used for (symmetric) encryption/
  * decryption.
  *
+ * The session key and the initialised cipher are kept per mode, so that
+ * encrypting or decrypting a buffer only re-initialises the IV.  A session
+ * is not thread safe; it belongs to a single connection.
+ *
  * @author radicke
  * @author tzangerl
  *
@@ -94,6 +98,39 @@ public class DHSession
     private byte[] IV;
     private boolean paddedKey;
 
+    /*
+     * Initialised ciphers, one per mode, reused as long as the cipher
+     * parameters do not change.
+     */
+    private CachedCipher _encryptCipher;
+    private CachedCipher _decryptCipher;
+
+    private static class CachedCipher
+    {
+        final String    cipherSpec;
+        final String    keySpec;
+        final int       blocksize;
+        final Cipher    cipher;
+        final SecretKey sessionKey;
+
+        CachedCipher(String cipherSpec, String keySpec, int blocksize,
+                     Cipher cipher, SecretKey sessionKey)
+        {
+            this.cipherSpec = cipherSpec;
+            this.keySpec = keySpec;
+            this.blocksize = blocksize;
+            this.cipher = cipher;
+            this.sessionKey = sessionKey;
+        }
+
+        boolean matches(String cipherSpec, String keySpec, int blocksize)
+        {
+            return this.blocksize == blocksize
+                            && this.cipherSpec.equals(cipherSpec)
+                            && this.keySpec.equals(keySpec);
+        }
+    }
+
     /**
      * Construct new Diffie-Hellman key exchange session
      * @throws InvalidAlgorithmParameterException Invalid DH parameters (primes)
@@ -192,6 +229,7 @@ public class DHSession
 
         // finalise DH key agreement
         _keyAgreement.doPhase(remotePubKey, true);
+        invalidateCiphers();
     }
 
     public byte[] decrypt(String cipherSpec,
@@ -232,6 +270,7 @@ public class DHSession
     public void setPaddedKey(boolean paddedKey)
     {
         this.paddedKey = paddedKey;
+        invalidateCiphers();
     }
 
     public void setSessionIVLen(int len)
@@ -350,9 +389,36 @@ public class DHSession
                BadPaddingException, InvalidAlgorithmParameterException,
                NoSuchProviderException
     {
-        IvParameterSpec paramSpec = new IvParameterSpec(IV);
-        Cipher cipher = Cipher.getInstance(cipherSpec,"BC");
+        CachedCipher cached = mode == Cipher.ENCRYPT_MODE ? _encryptCipher
+                                                          : _decryptCipher;
+
+        if (cached == null || !cached.matches(cipherSpec, keySpec, blocksize)) {
+            cached = new CachedCipher(cipherSpec,
+                                      keySpec,
+                                      blocksize,
+                                      Cipher.getInstance(cipherSpec, "BC"),
+                                      generateSessionKey(keySpec,
+                                                         blocksize,
+                                                         mode));
+            if (mode == Cipher.ENCRYPT_MODE) {
+                _encryptCipher = cached;
+            } else {
+                _decryptCipher = cached;
+            }
+        }
+
+        /*
+         *  The key is fixed for the session; only the IV changes.
+         */
+        cached.cipher.init(mode, cached.sessionKey, new IvParameterSpec(IV));
+        return cached.cipher.doFinal(buffer);
+    }
 
+    private SecretKey generateSessionKey(String keySpec,
+                                         int blocksize,
+                                         int mode)
+        throws InvalidKeyException, NoSuchAlgorithmException
+    {
         byte[] encoded;
 
         if (paddedKey) {
@@ -395,12 +461,13 @@ public class DHSession
         }
 
         /* need a 128-bit key, that's the way to get it */
-        SecretKey sessionKey = new SecretKeySpec(encoded,
-                                                 0,
-                                                 blocksize,
-                                                 keySpec);
-        cipher.init(mode, sessionKey, paramSpec);
-        return cipher.doFinal(buffer);
+        return new SecretKeySpec(encoded, 0, blocksize, keySpec);
+    }
+
+    private void invalidateCiphers()
+    {
+        _encryptCipher = null;
+        _decryptCipher = null;
     }
 
     /**
@@ -0,0 +1,111 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.plugins.authn.gsi;
+
+import org.bouncycastle.jce.provider.BouncyCastleProvider;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.security.Security;
+import java.util.concurrent.TimeUnit;
+
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.SYNC_CIPHER_BLOCKSIZE;
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.SYNC_CIPHER_MODE_PADDED;
+import static org.dcache.xrootd.plugins.authn.gsi.GSIRequestHandler.SYNC_CIPHER_NAME;
+
+/**
+ * Measures the cost of decrypting one DH-encrypted buffer, as is done for
+ * every signed request when the session key is used to encrypt the
+ * kXR_sigver signature.
+ *
+ * Run with
+ *
+ *     mvn -pl xrootd4j-gsi test-compile exec:java \
+ *         -Dexec.classpathScope=test \
+ *         -Dexec.mainClass=org.dcache.xrootd.plugins.authn.gsi.DHSessionBenchmark
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DHSessionBenchmark
+{
+    /**
+     * Size of the unencrypted buffer; 32 is the size of a SHA-256 signature.
+     */
+    @Param({"32", "1024"})
+    public int size;
+
+    /**
+     * Length of the IV prefix; 0 for pre-4.9 clients.
+     */
+    @Param({"0", "16"})
+    public int sessionIVLen;
+
+    private DHSession server;
+    private byte[] encrypted;
+
+    @Setup
+    public void setUp() throws Exception
+    {
+        Security.addProvider(new BouncyCastleProvider());
+
+        server = new DHSession(true, sessionIVLen);
+        DHSession client = new DHSession(false, sessionIVLen);
+        client.finaliseKeyAgreement(server.getEncodedDHMaterial());
+        server.finaliseKeyAgreement(client.getEncodedDHMaterial());
+
+        byte[] unencrypted = new byte[size];
+        GSIRequestHandler.RANDOM.nextBytes(unencrypted);
+        encrypted = client.encrypt(SYNC_CIPHER_MODE_PADDED,
+                                   SYNC_CIPHER_NAME,
+                                   SYNC_CIPHER_BLOCKSIZE,
+                                   unencrypted);
+    }
+
+    @Benchmark
+    public byte[] decrypt() throws Exception
+    {
+        return server.decrypt(SYNC_CIPHER_MODE_PADDED,
+                              SYNC_CIPHER_NAME,
+                              SYNC_CIPHER_BLOCKSIZE,
+                              encrypted);
+    }
+
+    public static void main(String[] args) throws RunnerException
+    {
+        new Runner(new OptionsBuilder()
+                                   .include(DHSessionBenchmark.class.getSimpleName())
+                                   .build()).run();
+    }
+}
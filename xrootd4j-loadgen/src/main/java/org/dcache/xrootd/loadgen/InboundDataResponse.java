@@ -0,0 +1,51 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import io.netty.buffer.ByteBuf;
+
+import org.dcache.xrootd.tpc.protocol.messages.AbstractXrootdInboundResponse;
+
+/**
+ * <p>A kXR_ok or kXR_oksofar response of which only the size is of
+ *    interest. The payload is skipped rather than copied.</p>
+ */
+public class InboundDataResponse extends AbstractXrootdInboundResponse
+{
+    private final int requestId;
+    private final int length;
+
+    public InboundDataResponse(ByteBuf buffer, int requestId)
+    {
+        super(buffer);
+        this.requestId = requestId;
+        length = buffer.getInt(4);
+    }
+
+    public int getLength()
+    {
+        return length;
+    }
+
+    @Override
+    public int getRequestId()
+    {
+        return requestId;
+    }
+}
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.handler.codec.ByteToMessageDecoder;
+import io.netty.handler.codec.CorruptedFrameException;
+
+import java.util.List;
+import java.util.function.IntSupplier;
+
+import org.dcache.xrootd.tpc.protocol.messages.InboundErrorResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundHandshakeResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundLoginResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundOpenReadOnlyResponse;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+
+/**
+ * <p>FrameDecoder for the responses received by a load session.</p>
+ *
+ * <p>Like {@link org.dcache.xrootd.tpc.core.XrootdClientDecoder}, the
+ *    response type is derived from the request the session is waiting
+ *    for. Responses that only carry data are decoded as
+ *    {@link InboundDataResponse} to avoid copying the payload.</p>
+ */
+public class LoadClientDecoder extends ByteToMessageDecoder
+{
+    private final IntSupplier expectedResponse;
+
+    public LoadClientDecoder(IntSupplier expectedResponse)
+    {
+        this.expectedResponse = expectedResponse;
+    }
+
+    @Override
+    protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
+        throws Exception
+    {
+        int readable = in.readableBytes();
+        if (readable < SERVER_RESPONSE_LEN) {
+            return;
+        }
+
+        int pos = in.readerIndex();
+        int headerFrameLength = in.getInt(pos + 4);
+        if (headerFrameLength < 0) {
+            throw new CorruptedFrameException("Illegal frame length in xrootd header: "
+                                              + headerFrameLength);
+        }
+
+        int length = SERVER_RESPONSE_LEN + headerFrameLength;
+        if (readable < length) {
+            return;
+        }
+
+        ByteBuf frame = in.readSlice(length);
+        int requestId = expectedResponse.getAsInt();
+
+        switch (frame.getUnsignedShort(2)) {
+        case kXR_ok:
+        case kXR_oksofar:
+            break;
+        case kXR_error:
+            out.add(new InboundErrorResponse(frame));
+            return;
+        default:
+            throw new CorruptedFrameException("Unsupported response status "
+                                              + frame.getUnsignedShort(2));
+        }
+
+        switch (requestId) {
+        case kXR_handshake:
+            out.add(new InboundHandshakeResponse(frame));
+            break;
+        case kXR_login:
+            out.add(new InboundLoginResponse(frame));
+            break;
+        case kXR_open:
+            out.add(new InboundOpenReadOnlyResponse(frame));
+            break;
+        default:
+            out.add(new InboundDataResponse(frame, requestId));
+            break;
+        }
+    }
+}
@@ -0,0 +1,266 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import com.google.common.collect.Lists;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import joptsimple.OptionException;
+import joptsimple.OptionSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.stream.Stream;
+
+import org.dcache.xrootd.standalone.DataServer;
+import org.dcache.xrootd.standalone.DataServerConfiguration;
+import org.dcache.xrootd.tpc.core.XrootdClientEncoder;
+
+/**
+ * Drives a data server running in the same JVM with a configurable
+ * number of concurrent sessions over the loopback interface, and
+ * reports throughput and latency percentiles per request type as well
+ * as garbage collection pressure.
+ */
+public class LoadGenerator
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadGenerator.class);
+
+    private static final long CONNECT_TIMEOUT = TimeUnit.SECONDS.toMillis(10);
+
+    private final LoadGeneratorConfiguration _configuration;
+
+    public LoadGenerator(LoadGeneratorConfiguration configuration)
+    {
+        _configuration = configuration;
+    }
+
+    public static String dataFileName(int index)
+    {
+        return "loadgen-" + index + ".dat";
+    }
+
+    public static String outputFileName(int session)
+    {
+        return "loadgen-session-" + session + ".out";
+    }
+
+    public void run(PrintStream out) throws Exception
+    {
+        Path root = (_configuration.root != null)
+                    ? _configuration.root.toPath()
+                    : Files.createTempDirectory("xrootd4j-loadgen");
+        try {
+            createDataFiles(root);
+            InetSocketAddress address = startDataServer(root.toFile());
+
+            out.format("%d sessions, mix %s, %d s warm-up, %d s measurement%n%n",
+                       _configuration.sessions, _configuration.mix,
+                       _configuration.warmup, _configuration.duration);
+
+            LoadStatistics statistics = runSessions(address);
+            statistics.report(out);
+        } finally {
+            if (_configuration.root == null) {
+                delete(root);
+            } else {
+                for (int i = 0; i < _configuration.sessions; i++) {
+                    Files.deleteIfExists(root.resolve(outputFileName(i)));
+                }
+            }
+        }
+    }
+
+    private LoadStatistics runSessions(InetSocketAddress address) throws Exception
+    {
+        AtomicReference<LoadStatistics> current = new AtomicReference<>(new LoadStatistics());
+        ByteBuf payload = Unpooled.unreleasableBuffer(
+                Unpooled.directBuffer(_configuration.writeSize)
+                        .writeBytes(randomBytes(_configuration.writeSize)));
+
+        EventLoopGroup group = new NioEventLoopGroup();
+        try {
+            List<Channel> channels = new ArrayList<>();
+            for (int i = 0; i < _configuration.sessions; i++) {
+                LoadSession session = new LoadSession(i, _configuration, current::get, payload);
+                Bootstrap bootstrap = new Bootstrap()
+                        .group(group)
+                        .channel(NioSocketChannel.class)
+                        .option(ChannelOption.TCP_NODELAY, true)
+                        .handler(new ChannelInitializer<SocketChannel>()
+                        {
+                            @Override
+                            protected void initChannel(SocketChannel ch)
+                            {
+                                ChannelPipeline pipeline = ch.pipeline();
+                                pipeline.addLast("decoder", new LoadClientDecoder(session::getExpectedResponse));
+                                pipeline.addLast("encoder", new XrootdClientEncoder(null));
+                                pipeline.addLast("session", session);
+                            }
+                        });
+                channels.add(bootstrap.connect(address).sync().channel());
+            }
+
+            TimeUnit.SECONDS.sleep(_configuration.warmup);
+            current.set(new LoadStatistics());
+            TimeUnit.SECONDS.sleep(_configuration.duration);
+            LoadStatistics statistics = current.getAndSet(null);
+            statistics.stop();
+
+            for (Channel channel : channels) {
+                if (!channel.closeFuture().await(CONNECT_TIMEOUT)) {
+                    channel.close();
+                }
+            }
+            return statistics;
+        } finally {
+            group.shutdownGracefully(0, 1, TimeUnit.SECONDS).await();
+        }
+    }
+
+    private InetSocketAddress startDataServer(File root) throws Exception
+    {
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+
+        List<String> args = Lists.newArrayList("--port", String.valueOf(port),
+                                               "--root", root.getPath());
+        args.addAll(_configuration.serverOptions);
+        DataServerConfiguration configuration =
+                DataServer.loadConfiguration(args.toArray(new String[args.size()]));
+        Thread thread = new Thread(() -> {
+            try {
+                new DataServer(configuration).start();
+            } catch (InterruptedException ignored) {
+            } catch (Exception e) {
+                LOGGER.error("Data server failed", e);
+            }
+        }, "data-server");
+        thread.setDaemon(true);
+        thread.start();
+
+        InetSocketAddress address = new InetSocketAddress(InetAddress.getLoopbackAddress(), port);
+        long deadline = System.currentTimeMillis() + CONNECT_TIMEOUT;
+        while (true) {
+            try (Socket ignored = new Socket(address.getAddress(), port)) {
+                return address;
+            } catch (IOException e) {
+                if (!thread.isAlive() || System.currentTimeMillis() > deadline) {
+                    throw new IOException("Data server did not start: " + e.getMessage(), e);
+                }
+                TimeUnit.MILLISECONDS.sleep(50);
+            }
+        }
+    }
+
+    private void createDataFiles(Path root) throws IOException
+    {
+        byte[] block = randomBytes(1 << 20);
+        for (int i = 0; i < _configuration.files; i++) {
+            Path file = root.resolve(dataFileName(i));
+            if (Files.exists(file) && Files.size(file) == _configuration.fileSize) {
+                continue;
+            }
+            try (OutputStream out = Files.newOutputStream(file)) {
+                for (long remaining = _configuration.fileSize; remaining > 0; remaining -= block.length) {
+                    out.write(block, 0, (int) Math.min(block.length, remaining));
+                }
+            }
+        }
+    }
+
+    private static byte[] randomBytes(int length)
+    {
+        byte[] bytes = new byte[length];
+        new Random().nextBytes(bytes);
+        return bytes;
+    }
+
+    private static void delete(Path root) throws IOException
+    {
+        try (Stream<Path> paths = Files.walk(root)) {
+            for (Path path : (Iterable<Path>) paths.sorted(Comparator.reverseOrder())::iterator) {
+                Files.delete(path);
+            }
+        }
+    }
+
+    public static LoadGeneratorConfiguration loadConfiguration(String[] args)
+    {
+        LoadGeneratorOptionParser parser = new LoadGeneratorOptionParser();
+        OptionSet options = parser.parse(args);
+        if (options.has(parser.help)) {
+            try {
+                parser.printHelpOn(System.out);
+            } catch (IOException ignored) {
+            }
+            System.exit(0);
+        }
+        return new LoadGeneratorConfiguration(parser, options);
+    }
+
+    public static void main(String[] args)
+    {
+        /* The data server logs every error response at info level. */
+        if (System.getProperty("log") == null) {
+            System.setProperty("log", "warn");
+        }
+        try {
+            new LoadGenerator(loadConfiguration(args)).run(System.out);
+            System.exit(0);
+        }  catch (OptionException | IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Try --help for more information.");
+            System.exit(2);
+        }  catch (RuntimeException e) {
+            e.printStackTrace();
+            System.exit(1);
+        }  catch (Exception e) {
+            System.err.println(e.getMessage());
+            System.exit(1);
+        }
+    }
+}
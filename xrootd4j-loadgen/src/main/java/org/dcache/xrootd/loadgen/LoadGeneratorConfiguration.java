@@ -0,0 +1,69 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import joptsimple.OptionSet;
+
+import java.io.File;
+import java.util.List;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public class LoadGeneratorConfiguration
+{
+    public final int sessions;
+    public final int duration;
+    public final int warmup;
+    public final OperationMix mix;
+    public final int files;
+    public final long fileSize;
+    public final int readSize;
+    public final int readvSegments;
+    public final int readvSize;
+    public final int writeSize;
+    public final File root;
+    public final List<String> serverOptions;
+
+    public LoadGeneratorConfiguration(LoadGeneratorOptionParser parser, OptionSet options)
+    {
+        sessions = options.valueOf(parser.sessions);
+        duration = options.valueOf(parser.duration);
+        warmup = options.valueOf(parser.warmup);
+        mix = new OperationMix(options.valueOf(parser.mix));
+        files = options.valueOf(parser.files);
+        fileSize = options.valueOf(parser.fileSize);
+        readSize = options.valueOf(parser.readSize);
+        readvSegments = options.valueOf(parser.readvSegments);
+        readvSize = options.valueOf(parser.readvSize);
+        writeSize = options.valueOf(parser.writeSize);
+        root = options.valueOf(parser.root);
+        serverOptions = options.valuesOf(parser.serverOptions);
+
+        checkArgument(sessions > 0, "At least one session is required.");
+        checkArgument(duration > 0, "Duration must be positive.");
+        checkArgument(warmup >= 0, "Warm-up must not be negative.");
+        checkArgument(files > 0, "At least one file is required.");
+        checkArgument(readSize > 0 && readSize <= fileSize,
+                      "Read size must be positive and not exceed the file size.");
+        checkArgument(readvSegments > 0 && readvSize > 0 && readvSize <= fileSize,
+                      "Vector reads must have a positive number of segments not exceeding the file size.");
+        checkArgument(writeSize > 0 && writeSize <= fileSize,
+                      "Write size must be positive and not exceed the file size.");
+    }
+}
@@ -0,0 +1,101 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import java.io.File;
+import static java.util.Arrays.asList;
+
+import joptsimple.OptionParser;
+import joptsimple.OptionSpec;
+
+public class LoadGeneratorOptionParser extends OptionParser
+{
+    public final OptionSpec<Void> help;
+    public final OptionSpec<Integer> sessions;
+    public final OptionSpec<Integer> duration;
+    public final OptionSpec<Integer> warmup;
+    public final OptionSpec<String> mix;
+    public final OptionSpec<Integer> files;
+    public final OptionSpec<Long> fileSize;
+    public final OptionSpec<Integer> readSize;
+    public final OptionSpec<Integer> readvSegments;
+    public final OptionSpec<Integer> readvSize;
+    public final OptionSpec<Integer> writeSize;
+    public final OptionSpec<File> root;
+    public final OptionSpec<String> serverOptions;
+
+    {
+        help = acceptsAll(asList("h", "?", "help"), "show help");
+        sessions = acceptsAll(asList("s", "sessions"), "number of concurrent sessions")
+            .withRequiredArg()
+            .describedAs("count")
+            .ofType(Integer.class)
+            .defaultsTo(16);
+        duration = acceptsAll(asList("d", "duration"), "measurement duration")
+            .withRequiredArg()
+            .describedAs("seconds")
+            .ofType(Integer.class)
+            .defaultsTo(30);
+        warmup = acceptsAll(asList("w", "warmup"), "warm-up duration, not measured")
+            .withRequiredArg()
+            .describedAs("seconds")
+            .ofType(Integer.class)
+            .defaultsTo(5);
+        mix = acceptsAll(asList("m", "mix"), "relative weights of open, read, readv, write, stat and dirlist")
+            .withRequiredArg()
+            .describedAs("op=weight,...")
+            .ofType(String.class)
+            .defaultsTo("read=60,readv=10,write=10,stat=10,dirlist=10");
+        files = acceptsAll(asList("files"), "number of files to read from")
+            .withRequiredArg()
+            .describedAs("count")
+            .ofType(Integer.class)
+            .defaultsTo(16);
+        fileSize = acceptsAll(asList("file-size"), "size of each file")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Long.class)
+            .defaultsTo(16L << 20);
+        readSize = acceptsAll(asList("read-size"), "bytes per kXR_read")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Integer.class)
+            .defaultsTo(128 << 10);
+        readvSegments = acceptsAll(asList("readv-segments"), "segments per kXR_readv")
+            .withRequiredArg()
+            .describedAs("count")
+            .ofType(Integer.class)
+            .defaultsTo(16);
+        readvSize = acceptsAll(asList("readv-size"), "bytes per kXR_readv segment")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Integer.class)
+            .defaultsTo(4096);
+        writeSize = acceptsAll(asList("write-size"), "bytes per kXR_write")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Integer.class)
+            .defaultsTo(128 << 10);
+        root = acceptsAll(asList("r", "root"), "data server root directory; defaults to a temporary directory that is deleted afterwards")
+            .withRequiredArg()
+            .describedAs("path")
+            .ofType(File.class);
+        serverOptions = nonOptions("options passed to the data server, following --");
+    }
+}
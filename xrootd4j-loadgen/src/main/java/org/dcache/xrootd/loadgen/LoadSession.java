@@ -0,0 +1,257 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelFutureListener;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Random;
+import java.util.function.Supplier;
+
+import org.dcache.xrootd.tpc.protocol.messages.InboundErrorResponse;
+import org.dcache.xrootd.tpc.protocol.messages.InboundOpenReadOnlyResponse;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundCloseRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundHandshakeRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundLoginRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundOpenReadOnlyRequest;
+import org.dcache.xrootd.tpc.protocol.messages.OutboundReadRequest;
+import org.dcache.xrootd.tpc.protocol.messages.XrootdOutboundRequest;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+
+/**
+ * <p>A single client connection issuing requests back to back.</p>
+ *
+ * <p>After the handshake and login, the session opens one of the data
+ *    files for reading and, if the mix contains writes, a file of its
+ *    own for writing. It then keeps exactly one request outstanding,
+ *    choosing each request according to the operation mix, until the
+ *    statistics supplier returns null.</p>
+ *
+ * <p>An open opens a random data file and, once opened, closes it
+ *    again; both requests count as one operation.</p>
+ */
+public class LoadSession extends ChannelInboundHandlerAdapter
+{
+    private static final Logger LOGGER = LoggerFactory.getLogger(LoadSession.class);
+
+    private enum State
+    {
+        HANDSHAKE, LOGIN, OPEN_READ, OPEN_WRITE, RUNNING
+    }
+
+    private final int id;
+    private final LoadGeneratorConfiguration configuration;
+    private final Supplier<LoadStatistics> statistics;
+    private final ByteBuf payload;
+    private final Random random;
+
+    private State state = State.HANDSHAKE;
+    private int expectedResponse = kXR_handshake;
+    private int streamId;
+
+    private int readHandle;
+    private int writeHandle;
+    private long writeOffset;
+
+    private Operation operation;
+    private long started;
+    private long bytes;
+
+    /**
+     * @param id distinguishes this session from the others
+     * @param statistics supplies the statistics to record to; returns
+     *                   null once the session should stop
+     * @param payload data sent with each kXR_write
+     */
+    public LoadSession(int id, LoadGeneratorConfiguration configuration,
+                       Supplier<LoadStatistics> statistics, ByteBuf payload)
+    {
+        this.id = id;
+        this.configuration = configuration;
+        this.statistics = statistics;
+        this.payload = payload;
+        this.random = new Random(id);
+    }
+
+    /**
+     * Returns the request type of the outstanding request.
+     */
+    public int getExpectedResponse()
+    {
+        return expectedResponse;
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception
+    {
+        send(ctx, kXR_handshake, new OutboundHandshakeRequest());
+        super.channelActive(ctx);
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg)
+    {
+        if (msg instanceof InboundErrorResponse) {
+            InboundErrorResponse error = (InboundErrorResponse) msg;
+            if (state != State.RUNNING) {
+                LOGGER.error("Session {} failed during {}: {} [{}]", id, state,
+                             error.getErrorMessage(), error.getError());
+                ctx.close();
+                return;
+            }
+            LOGGER.debug("Session {}: {} failed: {} [{}]", id, operation,
+                         error.getErrorMessage(), error.getError());
+            LoadStatistics current = statistics.get();
+            if (current != null) {
+                current.failure(operation);
+            }
+            next(ctx, current);
+            return;
+        }
+
+        switch (state) {
+        case HANDSHAKE:
+            state = State.LOGIN;
+            send(ctx, kXR_login, new OutboundLoginRequest(nextStreamId(), id, "loadgen", null));
+            break;
+        case LOGIN:
+            state = State.OPEN_READ;
+            String path = "/" + LoadGenerator.dataFileName(id % configuration.files);
+            send(ctx, kXR_open, new OutboundOpenReadOnlyRequest(nextStreamId(), path));
+            break;
+        case OPEN_READ:
+            readHandle = ((InboundOpenReadOnlyResponse) msg).getFhandle();
+            if (configuration.mix.includes(Operation.WRITE)) {
+                state = State.OPEN_WRITE;
+                send(ctx, kXR_open,
+                     new OutboundOpenRequest(nextStreamId(), "/" + LoadGenerator.outputFileName(id),
+                                             kXR_ur | kXR_uw,
+                                             kXR_open_updt | kXR_delete | kXR_retstat));
+            } else {
+                state = State.RUNNING;
+                next(ctx, statistics.get());
+            }
+            break;
+        case OPEN_WRITE:
+            writeHandle = ((InboundOpenReadOnlyResponse) msg).getFhandle();
+            state = State.RUNNING;
+            next(ctx, statistics.get());
+            break;
+        case RUNNING:
+            if (msg instanceof InboundOpenReadOnlyResponse) {
+                send(ctx, kXR_close,
+                     new OutboundCloseRequest(nextStreamId(),
+                                              ((InboundOpenReadOnlyResponse) msg).getFhandle()));
+                break;
+            }
+            InboundDataResponse response = (InboundDataResponse) msg;
+            bytes += response.getLength();
+            if (response.getStatus() == kXR_ok) {
+                long latency = System.nanoTime() - started;
+                LoadStatistics current = statistics.get();
+                if (current != null) {
+                    current.success(operation, latency,
+                                    (operation == Operation.WRITE) ? payload.readableBytes() : bytes);
+                }
+                next(ctx, current);
+            }
+            break;
+        }
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause)
+    {
+        LOGGER.error("Session {} failed: {}", id, cause.toString());
+        ctx.close();
+    }
+
+    private void next(ChannelHandlerContext ctx, LoadStatistics current)
+    {
+        if (current == null) {
+            ctx.close();
+            return;
+        }
+
+        operation = configuration.mix.next(random);
+        bytes = 0;
+        started = System.nanoTime();
+
+        String readPath = "/" + LoadGenerator.dataFileName(id % configuration.files);
+        switch (operation) {
+        case OPEN:
+            String openPath = "/" + LoadGenerator.dataFileName(random.nextInt(configuration.files));
+            send(ctx, kXR_open, new OutboundOpenReadOnlyRequest(nextStreamId(), openPath));
+            break;
+        case READ:
+            long blocks = configuration.fileSize / configuration.readSize;
+            send(ctx, kXR_read,
+                 new OutboundReadRequest(nextStreamId(), readHandle,
+                                         randomOffset(blocks, configuration.readSize),
+                                         configuration.readSize));
+            break;
+        case READV:
+            long segments = configuration.fileSize / configuration.readvSize;
+            long[] offsets = new long[configuration.readvSegments];
+            for (int i = 0; i < offsets.length; i++) {
+                offsets[i] = randomOffset(segments, configuration.readvSize);
+            }
+            send(ctx, kXR_readv,
+                 new OutboundReadVRequest(nextStreamId(), readHandle, offsets,
+                                          configuration.readvSize));
+            break;
+        case WRITE:
+            if (writeOffset + payload.readableBytes() > configuration.fileSize) {
+                writeOffset = 0;
+            }
+            send(ctx, kXR_write,
+                 new OutboundWriteRequest(nextStreamId(), writeHandle, writeOffset, payload));
+            writeOffset += payload.readableBytes();
+            break;
+        case STAT:
+            send(ctx, kXR_stat, new OutboundPathRequest(nextStreamId(), kXR_stat, readPath));
+            break;
+        case DIRLIST:
+            send(ctx, kXR_dirlist, new OutboundPathRequest(nextStreamId(), kXR_dirlist, "/"));
+            break;
+        }
+    }
+
+    private long randomOffset(long blocks, int blockSize)
+    {
+        return (long) random.nextInt((int) Math.min(blocks, Integer.MAX_VALUE)) * blockSize;
+    }
+
+    private int nextStreamId()
+    {
+        streamId = (streamId + 1) & 0xFFFF;
+        return streamId;
+    }
+
+    private void send(ChannelHandlerContext ctx, int requestId, XrootdOutboundRequest request)
+    {
+        expectedResponse = requestId;
+        ctx.writeAndFlush(request).addListener(ChannelFutureListener.FIRE_EXCEPTION_ON_FAILURE);
+    }
+}
@@ -0,0 +1,190 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import java.io.PrintStream;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dcache.xrootd.util.Histogram;
+
+/**
+ * Latency, throughput and garbage collection statistics of one
+ * measurement interval.
+ *
+ * Latencies are recorded per operation type, from sending a request
+ * until its final response has been received. Garbage collection and
+ * allocation figures are JVM wide and thus include the data server
+ * when it runs in the same process.
+ */
+public class LoadStatistics
+{
+    private static final double MiB = 1 << 20;
+
+    private final Map<Operation,Counters> counters = new EnumMap<>(Operation.class);
+
+    private final long startTime;
+    private final Snapshot startSnapshot;
+    private long stopTime;
+    private Snapshot stopSnapshot;
+
+    public LoadStatistics()
+    {
+        for (Operation operation : Operation.values()) {
+            counters.put(operation, new Counters());
+        }
+        startSnapshot = new Snapshot();
+        startTime = System.nanoTime();
+    }
+
+    public void success(Operation operation, long latency, long bytes)
+    {
+        Counters c = counters.get(operation);
+        c.latency.record(latency);
+        c.bytes.add(bytes);
+    }
+
+    public void failure(Operation operation)
+    {
+        counters.get(operation).errors.increment();
+    }
+
+    /**
+     * Ends the measurement interval. Operations completing afterwards
+     * are still counted, but do not affect the reported rates.
+     */
+    public synchronized void stop()
+    {
+        if (stopSnapshot == null) {
+            stopTime = System.nanoTime();
+            stopSnapshot = new Snapshot();
+        }
+    }
+
+    public synchronized void report(PrintStream out)
+    {
+        stop();
+        double seconds = (stopTime - startTime) / 1e9;
+
+        out.format("%-8s %10s %10s %10s %10s %10s %10s %10s %8s%n",
+                   "op", "count", "ops/s", "MiB/s",
+                   "p50(us)", "p99(us)", "p99.9(us)", "max(us)", "errors");
+        long totalCount = 0;
+        long totalBytes = 0;
+        long totalErrors = 0;
+        for (Map.Entry<Operation,Counters> entry : counters.entrySet()) {
+            Counters c = entry.getValue();
+            Histogram latency = c.latency;
+            long count = latency.getCount();
+            long bytes = c.bytes.sum();
+            long errors = c.errors.sum();
+            if (count == 0 && errors == 0) {
+                continue;
+            }
+            out.format("%-8s %10d %10.1f %10.1f %10d %10d %10d %10d %8d%n",
+                       entry.getKey().getLabel(), count, count / seconds,
+                       bytes / MiB / seconds,
+                       micros(latency.getValueAtPercentile(50)),
+                       micros(latency.getValueAtPercentile(99)),
+                       micros(latency.getValueAtPercentile(99.9)),
+                       micros(latency.getMax()), errors);
+            totalCount += count;
+            totalBytes += bytes;
+            totalErrors += errors;
+        }
+        out.format("%-8s %10d %10.1f %10.1f %10s %10s %10s %10s %8d%n",
+                   "total", totalCount, totalCount / seconds,
+                   totalBytes / MiB / seconds, "", "", "", "", totalErrors);
+
+        long collections = stopSnapshot.collections - startSnapshot.collections;
+        long gcTime = stopSnapshot.collectionTime - startSnapshot.collectionTime;
+        out.format("%ngc: %d collections, %d ms (%.2f%% of %.1f s)%n",
+                   collections, gcTime, gcTime / 10.0 / seconds, seconds);
+        if (startSnapshot.allocated >= 0 && stopSnapshot.allocated >= 0) {
+            long allocated = stopSnapshot.allocated - startSnapshot.allocated;
+            out.format("allocated: %.1f MiB (%.1f MiB/s, %.0f bytes/op)%n",
+                       allocated / MiB, allocated / MiB / seconds,
+                       (totalCount == 0) ? 0.0 : (double) allocated / totalCount);
+        }
+    }
+
+    private static long micros(long nanos)
+    {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    private static class Counters
+    {
+        final Histogram latency = new Histogram();
+        final LongAdder bytes = new LongAdder();
+        final LongAdder errors = new LongAdder();
+    }
+
+    /**
+     * JVM wide garbage collection and allocation counters.
+     */
+    private static class Snapshot
+    {
+        final long collections;
+        final long collectionTime;
+        final long allocated;
+
+        Snapshot()
+        {
+            long count = 0;
+            long time = 0;
+            for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+                count += Math.max(0, gc.getCollectionCount());
+                time += Math.max(0, gc.getCollectionTime());
+            }
+            collections = count;
+            collectionTime = time;
+            allocated = allocatedBytes();
+        }
+
+        /**
+         * Returns the bytes allocated by all live threads, or -1 if
+         * the JVM does not provide this information. Threads are
+         * expected to outlive the measurement interval.
+         */
+        private static long allocatedBytes()
+        {
+            ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+            if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+                return -1;
+            }
+            com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) threads;
+            if (!bean.isThreadAllocatedMemorySupported() || !bean.isThreadAllocatedMemoryEnabled()) {
+                return -1;
+            }
+            long sum = 0;
+            for (long allocated : bean.getThreadAllocatedBytes(bean.getAllThreadIds())) {
+                if (allocated > 0) {
+                    sum += allocated;
+                }
+            }
+            return sum;
+        }
+    }
+}
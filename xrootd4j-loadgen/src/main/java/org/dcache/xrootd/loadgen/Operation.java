@@ -0,0 +1,53 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+
+/**
+ * The requests a load session issues against the data server. An
+ * OPEN opens a data file and closes it again, and is measured from
+ * sending the kXR_open until the kXR_close has completed.
+ */
+public enum Operation
+{
+    OPEN(kXR_open),
+    READ(kXR_read),
+    READV(kXR_readv),
+    WRITE(kXR_write),
+    STAT(kXR_stat),
+    DIRLIST(kXR_dirlist);
+
+    private final int requestId;
+
+    Operation(int requestId)
+    {
+        this.requestId = requestId;
+    }
+
+    public int getRequestId()
+    {
+        return requestId;
+    }
+
+    public String getLabel()
+    {
+        return name().toLowerCase();
+    }
+}
@@ -0,0 +1,97 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import com.google.common.base.Splitter;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Random;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Weighted selection of operations, described as a comma separated
+ * list of name=weight pairs, e.g. {@code read=60,readv=10,write=30}.
+ * The names are those of {@link Operation}: open, read, readv, write,
+ * stat and dirlist.
+ */
+public class OperationMix
+{
+    private final Map<Operation,Integer> weights = new EnumMap<>(Operation.class);
+    private final Operation[] operations;
+    private final int[] cumulative;
+    private final int total;
+
+    public OperationMix(String description)
+    {
+        Map<String,String> pairs = Splitter.on(',').trimResults().omitEmptyStrings()
+                .withKeyValueSeparator('=').split(description);
+        for (Map.Entry<String,String> pair : pairs.entrySet()) {
+            Operation operation = Operation.valueOf(pair.getKey().toUpperCase());
+            int weight = Integer.parseInt(pair.getValue());
+            checkArgument(weight >= 0, "Negative weight for %s", pair.getKey());
+            if (weight > 0) {
+                weights.put(operation, weight);
+            }
+        }
+        checkArgument(!weights.isEmpty(), "Operation mix is empty: %s", description);
+
+        operations = new Operation[weights.size()];
+        cumulative = new int[weights.size()];
+        int i = 0;
+        int sum = 0;
+        for (Map.Entry<Operation,Integer> entry : weights.entrySet()) {
+            sum += entry.getValue();
+            operations[i] = entry.getKey();
+            cumulative[i] = sum;
+            i++;
+        }
+        total = sum;
+    }
+
+    public boolean includes(Operation operation)
+    {
+        return weights.containsKey(operation);
+    }
+
+    public Operation next(Random random)
+    {
+        int value = random.nextInt(total);
+        for (int i = 0; i < cumulative.length; i++) {
+            if (value < cumulative[i]) {
+                return operations[i];
+            }
+        }
+        throw new AssertionError();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder s = new StringBuilder();
+        for (Map.Entry<Operation,Integer> entry : weights.entrySet()) {
+            if (s.length() > 0) {
+                s.append(',');
+            }
+            s.append(entry.getKey().getLabel()).append('=').append(entry.getValue());
+        }
+        return s.toString();
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import io.netty.buffer.ByteBuf;
+
+import org.dcache.xrootd.tpc.protocol.messages.AbstractXrootdOutboundRequest;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_open;
+
+/**
+ * <p>Opens a file with arbitrary mode and options; unlike
+ *    {@link org.dcache.xrootd.tpc.protocol.messages.OutboundOpenReadOnlyRequest}
+ *    this allows opening files for writing.</p>
+ */
+public class OutboundOpenRequest extends AbstractXrootdOutboundRequest
+{
+    private final String path;
+    private final int mode;
+    private final int options;
+
+    public OutboundOpenRequest(int streamId, String path, int mode, int options)
+    {
+        super(streamId, kXR_open);
+        this.path = path;
+        this.mode = mode;
+        this.options = options;
+    }
+
+    @Override
+    protected void getParams(ByteBuf buffer)
+    {
+        buffer.writeShort(mode);
+        buffer.writeShort(options);
+        buffer.writeZero(12);
+        buffer.writeInt(path.length());
+        buffer.writeCharSequence(path, US_ASCII);
+    }
+
+    @Override
+    protected int getParamsLen()
+    {
+        return 20 + path.length();
+    }
+}
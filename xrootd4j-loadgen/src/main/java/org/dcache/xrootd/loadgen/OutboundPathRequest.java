@@ -0,0 +1,54 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import io.netty.buffer.ByteBuf;
+
+import org.dcache.xrootd.tpc.protocol.messages.AbstractXrootdOutboundRequest;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+
+/**
+ * <p>A request whose only argument is a path, such as kXR_stat or
+ *    kXR_dirlist.</p>
+ */
+public class OutboundPathRequest extends AbstractXrootdOutboundRequest
+{
+    private final String path;
+
+    public OutboundPathRequest(int streamId, int requestId, String path)
+    {
+        super(streamId, requestId);
+        this.path = path;
+    }
+
+    @Override
+    protected void getParams(ByteBuf buffer)
+    {
+        buffer.writeZero(16);
+        buffer.writeInt(path.length());
+        buffer.writeCharSequence(path, US_ASCII);
+    }
+
+    @Override
+    protected int getParamsLen()
+    {
+        return 20 + path.length();
+    }
+}
@@ -0,0 +1,61 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.loadgen;
+
+import io.netty.buffer.ByteBuf;
+
+import org.dcache.xrootd.tpc.protocol.messages.AbstractXrootdOutboundRequest;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_readv;
+
+/**
+ * <p>Vector read of equally sized segments of a single file.</p>
+ */
+public class OutboundReadVRequest extends AbstractXrootdOutboundRequest
+{
+    private final int fhandle;
+    private final long[] offsets;
+    private final int length;
+
+    public OutboundReadVRequest(int streamId, int fhandle, long[] offsets, int length)
+    {
+        super(streamId, kXR_readv);
+        this.fhandle = fhandle;
+        this.offsets = offsets;
+        this.length = length;
+    }
+
+    @Override
+    protected void getParams(ByteBuf buffer)
+    {
+        buffer.writeZero(16);
+        buffer.writeInt(16 * offsets.length);
+        for (long offset : offsets) {
+            buffer.writeInt(fhandle);
+            buffer.writeInt(length);
+            buffer.writeLong(offset);
+        }
+    }
+
+    @Override
+    protected int getParamsLen()
+    {
+        return 20 + 16 * offsets.length;
+    }
+}
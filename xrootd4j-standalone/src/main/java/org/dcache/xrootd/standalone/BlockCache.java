@@ -0,0 +1,431 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+/**
+ * Cache of the data of files in blocks of 1 MiB in direct memory,
+ * shared by all connections.
+ *
+ * Blocks are identified by the inode, the modification and change
+ * times in nanoseconds and the size of their file when it was opened,
+ * and their index in the file, so a file replaced or modified between
+ * opens is not served from stale blocks. A file whose size changed
+ * while it is open is read from the file, bypassing the cache. Blocks
+ * of files modified through this server are invalidated explicitly.
+ *
+ * Evicting the least recently used block makes room for a new block,
+ * but a new block is only admitted if it was requested more often
+ * than the block it would evict (TinyLFU). The request frequencies are
+ * estimated by a small sketch that forgets old requests over time. A
+ * scan of a large file therefore does not flush the popular blocks
+ * from the cache.
+ */
+public class BlockCache
+{
+    public static final int BLOCK_SIZE = 1 << 20;
+
+    private final long capacity;
+    private final ByteBufAllocator alloc = PooledByteBufAllocator.DEFAULT;
+
+    /**
+     * Cached blocks, least recently used first.
+     */
+    private final LinkedHashMap<BlockKey, ByteBuf> blocks = new LinkedHashMap<>(16, 0.75f, true);
+
+    private final FrequencySketch sketch;
+
+    /**
+     * Bytes held by cached blocks.
+     */
+    private long size;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /**
+     * @param capacity maximum number of bytes of cached blocks
+     */
+    public BlockCache(long capacity)
+    {
+        this.capacity = capacity;
+        this.sketch = new FrequencySketch((int) Math.min(1 << 24, Math.max(1, capacity / BLOCK_SIZE)));
+    }
+
+    /**
+     * Returns a file to read through the cache.
+     *
+     * @param channel the open file
+     * @param path the path of the file, to identify the version opened
+     */
+    public CachedFile newFile(FileChannel channel, Path path) throws IOException
+    {
+        Map<String, Object> attributes;
+        long inode;
+        long changeTime;
+        try {
+            attributes = Files.readAttributes(path, "unix:ino,size,lastModifiedTime,ctime");
+            inode = (Long) attributes.get("ino");
+            changeTime = nanos(attributes.get("ctime"));
+        } catch (UnsupportedOperationException e) {
+            attributes = Files.readAttributes(path, "size,lastModifiedTime");
+            inode = 0;
+            changeTime = 0;
+        }
+        return new CachedFile(channel, inode, nanos(attributes.get("lastModifiedTime")), changeTime,
+                              (Long) attributes.get("size"));
+    }
+
+    private static long nanos(Object time)
+    {
+        return ((FileTime) time).to(NANOSECONDS);
+    }
+
+    /**
+     * Reads data from a file, loading missing blocks from the file.
+     *
+     * @return a buffer the caller must release; it is shorter than
+     *         {@code length} if the file ends before
+     */
+    public ByteBuf read(CachedFile file, long position, int length) throws IOException
+    {
+        long size = file.channel.size();
+        if (size != file.size) {
+            /* The file changed since it was opened, so the version of the file the
+             * blocks are cached for no longer exists.
+             */
+            return load(file.channel, position, (int) Math.max(0, Math.min(length, size - position)));
+        }
+
+        long end = Math.min(position + length, file.size);
+        if (position >= end) {
+            return alloc.buffer(0, 0);
+        }
+
+        long first = position / BLOCK_SIZE;
+        long last = (end - 1) / BLOCK_SIZE;
+        if (first == last) {
+            ByteBuf block = getBlock(file, first);
+            try {
+                return block.retainedSlice((int) (position - first * BLOCK_SIZE), (int) (end - position));
+            } finally {
+                block.release();
+            }
+        }
+
+        CompositeByteBuf data = alloc.compositeBuffer((int) (last - first + 1));
+        try {
+            for (long index = first; index <= last; index++) {
+                long from = Math.max(position, index * BLOCK_SIZE);
+                long to = Math.min(end, (index + 1) * BLOCK_SIZE);
+                ByteBuf block = getBlock(file, index);
+                try {
+                    data.addComponent(true, block.retainedSlice((int) (from - index * BLOCK_SIZE),
+                                                                (int) (to - from)));
+                } finally {
+                    block.release();
+                }
+            }
+            return data;
+        } catch (IOException | RuntimeException e) {
+            data.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Discards the cached blocks of a file.
+     */
+    public synchronized void invalidate(long inode)
+    {
+        Iterator<Map.Entry<BlockKey, ByteBuf>> entries = blocks.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<BlockKey, ByteBuf> entry = entries.next();
+            if (entry.getKey().inode == inode) {
+                size -= entry.getValue().capacity();
+                entry.getValue().release();
+                entries.remove();
+            }
+        }
+    }
+
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    public long getHits()
+    {
+        return hits.sum();
+    }
+
+    public long getMisses()
+    {
+        return misses.sum();
+    }
+
+    /**
+     * Returns a block of a file, which the caller must release.
+     */
+    private ByteBuf getBlock(CachedFile file, long index) throws IOException
+    {
+        BlockKey key = new BlockKey(file, index);
+        synchronized (this) {
+            sketch.increment(key.hashCode());
+            ByteBuf block = blocks.get(key);
+            if (block != null) {
+                hits.increment();
+                return block.retain();
+            }
+        }
+        misses.increment();
+
+        long position = index * BLOCK_SIZE;
+        ByteBuf block = load(file.channel, position, (int) Math.min(BLOCK_SIZE, file.size - position));
+        try {
+            synchronized (this) {
+                ByteBuf existing = blocks.get(key);
+                if (existing != null) {
+                    block.release();
+                    return existing.retain();
+                }
+                if (admit(key, block.capacity())) {
+                    blocks.put(key, block.retain());
+                    size += block.capacity();
+                }
+            }
+            return block;
+        } catch (RuntimeException e) {
+            block.release();
+            throw e;
+        }
+    }
+
+    private ByteBuf load(FileChannel channel, long position, int length) throws IOException
+    {
+        ByteBuf block = alloc.directBuffer(length, length);
+        try {
+            ByteBuffer buffer = block.nioBuffer(0, length);
+            while (buffer.hasRemaining()) {
+                int bytes = channel.read(buffer, position + buffer.position());
+                if (bytes < 0) {
+                    break;
+                }
+            }
+            block.writerIndex(buffer.position());
+            return block;
+        } catch (IOException | RuntimeException e) {
+            block.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Makes room for a new block by evicting the least recently used
+     * blocks, provided the new block is requested more often than each
+     * of them.
+     *
+     * @return true if the block may be cached
+     */
+    private boolean admit(BlockKey key, int length)
+    {
+        if (length > capacity) {
+            return false;
+        }
+        int frequency = sketch.frequency(key.hashCode());
+        List<BlockKey> victims = new ArrayList<>();
+        long available = capacity - size;
+        Iterator<Map.Entry<BlockKey, ByteBuf>> lru = blocks.entrySet().iterator();
+        while (available < length) {
+            if (!lru.hasNext()) {
+                return false;
+            }
+            Map.Entry<BlockKey, ByteBuf> victim = lru.next();
+            if (sketch.frequency(victim.getKey().hashCode()) >= frequency) {
+                return false;
+            }
+            victims.add(victim.getKey());
+            available += victim.getValue().capacity();
+        }
+        for (BlockKey victim : victims) {
+            ByteBuf block = blocks.remove(victim);
+            size -= block.capacity();
+            block.release();
+        }
+        return true;
+    }
+
+    /**
+     * A file read through the cache.
+     */
+    public static class CachedFile
+    {
+        private final FileChannel channel;
+        private final long inode;
+        private final long modificationTime;
+        private final long changeTime;
+        private final long size;
+
+        private CachedFile(FileChannel channel, long inode, long modificationTime, long changeTime, long size)
+        {
+            this.channel = channel;
+            this.inode = inode;
+            this.modificationTime = modificationTime;
+            this.changeTime = changeTime;
+            this.size = size;
+        }
+
+        /**
+         * Returns the current size of the file.
+         */
+        public long getSize() throws IOException
+        {
+            return channel.size();
+        }
+    }
+
+    private static class BlockKey
+    {
+        private final long inode;
+        private final long modificationTime;
+        private final long changeTime;
+        private final long size;
+        private final long index;
+
+        BlockKey(CachedFile file, long index)
+        {
+            this.inode = file.inode;
+            this.modificationTime = file.modificationTime;
+            this.changeTime = file.changeTime;
+            this.size = file.size;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof BlockKey)) {
+                return false;
+            }
+            BlockKey other = (BlockKey) o;
+            return inode == other.inode && modificationTime == other.modificationTime
+                   && changeTime == other.changeTime && size == other.size && index == other.index;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            long h = inode * 0x9E3779B97F4A7C15L;
+            h = (h ^ modificationTime) * 0x9E3779B97F4A7C15L;
+            h = (h ^ changeTime) * 0x9E3779B97F4A7C15L;
+            h = (h ^ size) * 0x9E3779B97F4A7C15L;
+            h = (h ^ index) * 0x9E3779B97F4A7C15L;
+            return (int) (h ^ (h >>> 32));
+        }
+    }
+
+    /**
+     * Count-min sketch estimating how often a block was requested.
+     *
+     * Counters saturate at 15. Once the number of recorded requests
+     * reaches ten times the number of counters per row, all counters are
+     * halved, so that the estimates follow changes in popularity.
+     */
+    static class FrequencySketch
+    {
+        private static final int DEPTH = 4;
+        private static final int MAX_COUNT = 15;
+        private static final int[] SEEDS = { 0x97CB3127, 0xB0F5C96D, 0x1F0E3A5B, 0x5C2B7E1D };
+
+        private final byte[][] counters;
+        private final int mask;
+        private final int sampleSize;
+        private int samples;
+
+        FrequencySketch(int expectedEntries)
+        {
+            int width = Integer.highestOneBit(Math.max(16, expectedEntries * 4) - 1) << 1;
+            counters = new byte[DEPTH][width];
+            mask = width - 1;
+            sampleSize = 10 * width;
+        }
+
+        void increment(int hash)
+        {
+            boolean isIncremented = false;
+            for (int i = 0; i < DEPTH; i++) {
+                int index = index(hash, i);
+                if (counters[i][index] < MAX_COUNT) {
+                    counters[i][index]++;
+                    isIncremented = true;
+                }
+            }
+            if (isIncremented && ++samples >= sampleSize) {
+                reset();
+            }
+        }
+
+        int frequency(int hash)
+        {
+            int frequency = MAX_COUNT;
+            for (int i = 0; i < DEPTH; i++) {
+                frequency = Math.min(frequency, counters[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private int index(int hash, int i)
+        {
+            int h = (hash ^ SEEDS[i]) * 0x9E3779B9;
+            return (h ^ (h >>> 16)) & mask;
+        }
+
+        private void reset()
+        {
+            for (byte[] row : counters) {
+                for (int j = 0; j < row.length; j++) {
+                    row[j] >>= 1;
+                }
+            }
+            samples /= 2;
+        }
+    }
+}
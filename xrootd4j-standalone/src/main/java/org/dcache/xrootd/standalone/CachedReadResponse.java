@@ -0,0 +1,49 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.io.IOException;
+
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.stream.AbstractChunkedReadResponse;
+
+/**
+ * Response to a kXR_read served through the {@link BlockCache}.
+ */
+public class CachedReadResponse extends AbstractChunkedReadResponse
+{
+    private final BlockCache cache;
+    private final BlockCache.CachedFile file;
+
+    public CachedReadResponse(ReadRequest request, int maxFrameSize, BlockCache cache, BlockCache.CachedFile file)
+    {
+        super(request, maxFrameSize);
+        this.cache = cache;
+        this.file = file;
+    }
+
+    @Override
+    protected ByteBuf read(ByteBufAllocator alloc, long position, int length) throws IOException
+    {
+        return cache.read(file, position, length);
+    }
+}
@@ -0,0 +1,65 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Map;
+
+import org.dcache.xrootd.core.XrootdException;
+import org.dcache.xrootd.protocol.messages.ReadVRequest;
+import org.dcache.xrootd.stream.ChunkedFileReadvResponse;
+import org.dcache.xrootd.util.FileHandleTable;
+
+/**
+ * Response to a kXR_readv serving the segments of files opened for
+ * reading through the {@link BlockCache}, and the segments of other
+ * files directly from the file.
+ */
+public class CachedReadvResponse extends ChunkedFileReadvResponse
+{
+    private final BlockCache cache;
+    private final Map<Integer, BlockCache.CachedFile> cachedFiles;
+
+    public CachedReadvResponse(ReadVRequest request, int maxFrameSize, FileHandleTable<RandomAccessFile> table,
+                               BlockCache cache, Map<Integer, BlockCache.CachedFile> cachedFiles)
+    {
+        super(request, maxFrameSize, table);
+        this.cache = cache;
+        this.cachedFiles = cachedFiles;
+    }
+
+    @Override
+    protected long getSize(int fd) throws IOException, XrootdException
+    {
+        BlockCache.CachedFile file = cachedFiles.get(fd);
+        return (file != null) ? file.getSize() : super.getSize(fd);
+    }
+
+    @Override
+    protected ByteBuf read(ByteBufAllocator alloc, int fd, long position, int length)
+        throws IOException, XrootdException
+    {
+        BlockCache.CachedFile file = cachedFiles.get(fd);
+        return (file != null) ? cache.read(file, position, length) : super.read(alloc, fd, position, length);
+    }
+}
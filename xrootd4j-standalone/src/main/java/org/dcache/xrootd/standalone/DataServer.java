@@ -19,18 +19,21 @@
 package org.dcache.xrootd.standalone;
 
 import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
 import io.netty.channel.ChannelOption;
 import io.netty.channel.EventLoopGroup;
-import io.netty.channel.nio.NioEventLoopGroup;
-import io.netty.channel.oio.OioEventLoopGroup;
-import io.netty.channel.socket.ServerSocketChannel;
-import io.netty.channel.socket.nio.NioServerSocketChannel;
-import io.netty.channel.socket.oio.OioServerSocketChannel;
 import joptsimple.OptionException;
 import joptsimple.OptionSet;
 
+import javax.management.JMException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
+import org.dcache.xrootd.stream.FileRegionSizeEstimator;
+
 public class DataServer
 {
     private final DataServerConfiguration _configuration;
@@ -40,23 +43,39 @@ public class DataServer
         _configuration = configuration;
     }
 
-    public void start() throws InterruptedException
+    public void start() throws InterruptedException, IOException, JMException
     {
-        final EventLoopGroup bossGroup;
-        final EventLoopGroup workerGroup;
-        Class<? extends ServerSocketChannel> channelClass;
-        if (_configuration.useBlockingIo) {
-            bossGroup = new OioEventLoopGroup();
-            workerGroup = new OioEventLoopGroup();
-            channelClass = OioServerSocketChannel.class;
+        final EventLoopGroup bossGroup = _configuration.createEventLoopGroup(_configuration.acceptThreads);
+        final EventLoopGroup workerGroup = _configuration.createEventLoopGroup(0);
+        final DataServerMetrics metrics;
+        if (_configuration.metrics != null) {
+            metrics = new DataServerMetrics(_configuration.metrics, _configuration.blockCache);
+            metrics.start(_configuration.metricsAddress);
         } else {
-            bossGroup = new NioEventLoopGroup();
-            workerGroup = new NioEventLoopGroup();
-            channelClass = NioServerSocketChannel.class;
+            metrics = null;
         }
         Runtime.getRuntime().addShutdownHook(new Thread() {
             @Override
             public void run() {
+                if (metrics != null) {
+                    metrics.stop();
+                }
+                if (_configuration.requestExecutor != null) {
+                    _configuration.requestExecutor.shutdown();
+                }
+                if (_configuration.readAheadExecutor != null) {
+                    _configuration.readAheadExecutor.shutdown();
+                }
+                if (_configuration.writeBehindExecutor != null) {
+                    _configuration.writeBehindExecutor.shutdown();
+                }
+                if (_configuration.statExecutor != null) {
+                    _configuration.statExecutor.shutdown();
+                }
+                if (_configuration.openFileCache != null) {
+                    _configuration.openFileCache.shutdown();
+                }
+
                 // Shut down all event loops to terminate all threads.
                 bossGroup.shutdownGracefully();
                 workerGroup.shutdownGracefully();
@@ -71,13 +90,41 @@ public class DataServer
         });
         ServerBootstrap bootstrap = new ServerBootstrap()
                 .group(bossGroup, workerGroup)
-                .channel(channelClass)
+                .channel(_configuration.getServerChannelClass())
                 .localAddress(_configuration.port)
                 .childOption(ChannelOption.TCP_NODELAY, true)
                 .childOption(ChannelOption.SO_KEEPALIVE, true)
+                .childOption(ChannelOption.ALLOCATOR, _configuration.allocator)
+                .childOption(ChannelOption.MESSAGE_SIZE_ESTIMATOR, FileRegionSizeEstimator.DEFAULT)
                 .childHandler(new DataServerChannelInitializer(_configuration));
+        if (_configuration.sendBufferSize > 0) {
+            bootstrap.childOption(ChannelOption.SO_SNDBUF, _configuration.sendBufferSize);
+        }
+        if (_configuration.receiveBufferSize > 0) {
+            /* Set on the server socket, so that the window scale offered
+             * during the handshake accounts for it.
+             */
+            bootstrap.option(ChannelOption.SO_RCVBUF, _configuration.receiveBufferSize);
+        }
+        if (_configuration.writeBufferWaterMark != null) {
+            bootstrap.childOption(ChannelOption.WRITE_BUFFER_WATER_MARK, _configuration.writeBufferWaterMark);
+        }
 
-        bootstrap.bind().sync().channel().closeFuture().sync();
+        if (_configuration.acceptThreads > 1) {
+            /* Each server channel is registered with its own thread of the
+             * boss group, and the kernel balances connections among them.
+             */
+            bootstrap.option(_configuration.getReusePortOption(), true);
+            List<Channel> channels = new ArrayList<>();
+            for (int i = 0; i < _configuration.acceptThreads; i++) {
+                channels.add(bootstrap.bind().sync().channel());
+            }
+            for (Channel channel : channels) {
+                channel.closeFuture().sync();
+            }
+        } else {
+            bootstrap.bind().sync().channel().closeFuture().sync();
+        }
     }
 
     public static DataServerConfiguration loadConfiguration(String[] args)
@@ -101,6 +148,9 @@ public class DataServer
             System.err.println(e.getMessage());
             System.err.println("Try --help for more information.");
             System.exit(2);
+        }  catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.exit(2);
         }  catch (NoSuchElementException e) {
             System.err.println(e.getMessage());
             System.exit(1);
@@ -27,7 +27,10 @@ import org.slf4j.LoggerFactory;
 
 import org.dcache.xrootd.core.XrootdDecoder;
 import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.core.XrootdFlushConsolidationHandler;
 import org.dcache.xrootd.core.XrootdHandshakeHandler;
+import org.dcache.xrootd.core.XrootdTrafficCounter;
+import org.dcache.xrootd.core.XrootdWriteBufferTuner;
 import org.dcache.xrootd.plugins.ChannelHandlerFactory;
 import org.dcache.xrootd.stream.ChunkedResponseWriteHandler;
 
@@ -48,9 +51,26 @@ public class DataServerChannelInitializer extends ChannelInitializer<SocketChann
     protected void initChannel(SocketChannel ch) throws Exception
     {
         ChannelPipeline pipeline = ch.pipeline();
+        XrootdWriteBufferTuner tuner = null;
+        if (_options.metrics != null) {
+            pipeline.addLast("traffic", new XrootdTrafficCounter(_options.metrics));
+        }
+        if (_options.autoTuneLimit > 0) {
+            int minimum = (_options.writeBufferWaterMark != null)
+                          ? _options.writeBufferWaterMark.high()
+                          : ch.config().getWriteBufferHighWaterMark();
+            tuner = new XrootdWriteBufferTuner(minimum, Math.max(minimum, _options.autoTuneLimit));
+            pipeline.addLast("tuner", tuner);
+        }
+        if (_options.flushThreshold > 0) {
+            pipeline.addLast("flusher", new XrootdFlushConsolidationHandler(_options.flushThreshold));
+        }
         pipeline.addLast("handshaker", new XrootdHandshakeHandler(DATA_SERVER));
         pipeline.addLast("encoder", new XrootdEncoder());
         pipeline.addLast("decoder", new XrootdDecoder());
+        if (tuner != null) {
+            pipeline.addLast("tuner-requests", tuner.newRequestTracker());
+        }
         if (logger.isDebugEnabled()) {
             pipeline.addLast("logger", new LoggingHandler(DataServerChannelInitializer.class));
         }
@@ -19,6 +19,14 @@
 package org.dcache.xrootd.standalone;
 
 import com.google.common.io.PatternFilenameFilter;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.socket.ServerSocketChannel;
 import joptsimple.OptionSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -27,6 +35,7 @@ import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.InetSocketAddress;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.net.URLClassLoader;
@@ -35,11 +44,18 @@ import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Properties;
 import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 import org.dcache.xrootd.core.XrootdAuthenticationHandlerProvider;
 import org.dcache.xrootd.core.XrootdAuthorizationHandlerProvider;
+import org.dcache.xrootd.core.XrootdMetrics;
 import org.dcache.xrootd.plugins.ChannelHandlerFactory;
 import org.dcache.xrootd.plugins.ChannelHandlerProvider;
+import org.dcache.xrootd.stream.MappedFileCache;
+import org.dcache.xrootd.stream.ReadAheadCache;
+import org.dcache.xrootd.util.FileHandleTable;
 
 public class DataServerConfiguration
 {
@@ -51,6 +67,26 @@ public class DataServerConfiguration
     private static final FilenameFilter PROPERTIES_FILTER =
         new PatternFilenameFilter(".*\\.properties");
 
+    /**
+     * Maximum number of files whose status is cached.
+     */
+    private static final int STAT_CACHE_SIZE = 100_000;
+
+    private static final int READ_AHEAD_THREADS = 4;
+
+    private static final int WRITE_BEHIND_THREADS = 4;
+
+    /**
+     * Prefetched data is sent in a single frame, hence windows must not
+     * be larger than the maximum frame size.
+     */
+    private static final int MAX_READ_AHEAD_WINDOW = 2 << 20;
+
+    /**
+     * Number of bytes of a file mapped at a time.
+     */
+    private static final int MAPPED_REGION_SIZE = 16 << 20;
+
     private final ClassLoader _pluginLoader;
     private final ServiceLoader<ChannelHandlerProvider> _channelHandlerProviders;
     private final Properties _pluginDefaults;
@@ -60,8 +96,124 @@ public class DataServerConfiguration
     public final List<File> pluginPath;
     public final List<String> channelHandlerPlugins;
     public final boolean useBlockingIo;
+    public final DataServerTransport transport;
+    public final int acceptThreads;
+
+    /**
+     * Socket buffer sizes in bytes, or -1 to leave them to the kernel.
+     */
+    public final int sendBufferSize;
+    public final int receiveBufferSize;
+
+    /**
+     * Write buffer water marks, or null for Netty's default.
+     */
+    public final WriteBufferWaterMark writeBufferWaterMark;
+
+    public final ByteBufAllocator allocator;
+
+    /**
+     * Upper bound of automatically tuned write buffer water marks, or -1
+     * if not tuned.
+     */
+    public final int autoTuneLimit;
     public final boolean useZeroCopy;
 
+    /**
+     * Minimum number of bytes of a read to be sent with zero copy.
+     */
+    public final int zeroCopyThreshold;
+
+    /**
+     * Address of the HTTP endpoint serving metrics, or null if metrics
+     * are not served over HTTP.
+     */
+    public final InetSocketAddress metricsAddress;
+
+    /**
+     * Status of files, shared by all channels.
+     */
+    public final FileStatusCache statCache;
+
+    public final int maxOpenFiles;
+
+    /**
+     * Permits for the files open on all connections, or null if not
+     * limited.
+     */
+    public final Semaphore openFiles;
+
+    /**
+     * Files opened for reading, shared by all channels, or null if files
+     * are not shared.
+     */
+    public final OpenFileCache openFileCache;
+
+    /**
+     * Memory mapped regions of files, shared by all channels, or null if
+     * files are not memory mapped.
+     */
+    public final MappedFileCache mappedFiles;
+
+    public final int statThreads;
+
+    /**
+     * Looks up the status of files in parallel, or null if files are
+     * looked up on the thread processing the request.
+     */
+    public final ExecutorService statExecutor;
+
+    /**
+     * Data prefetched for sequential readers, shared by all channels, or
+     * null if read-ahead is disabled.
+     */
+    public final ReadAheadCache readAheadCache;
+
+    /**
+     * Reads the prefetched data, or null if read-ahead is disabled.
+     */
+    public final ExecutorService readAheadExecutor;
+
+    /**
+     * Data of files opened for reading, shared by all channels, or null
+     * if disabled.
+     */
+    public final BlockCache blockCache;
+
+    /**
+     * When writes are acknowledged if written in the background, or null
+     * if writes are written by the thread processing the request.
+     */
+    public final WriteBehindFile.Durability writeBehind;
+
+    /**
+     * Number of bytes of a file queued for writing beyond which writes
+     * are acknowledged only once written.
+     */
+    public final int writeBehindQueueSize;
+
+    /**
+     * Writes queued data, or null if write-behind is disabled.
+     */
+    public final ExecutorService writeBehindExecutor;
+
+    /**
+     * Number of unflushed bytes at which responses are flushed during a
+     * read, or -1 if flushes are not consolidated.
+     */
+    public final int flushThreshold;
+
+    /**
+     * Request metrics shared by all channels, or null if disabled.
+     */
+    public final XrootdMetrics metrics;
+
+    /**
+     * Processes requests concurrently, or null if requests are processed
+     * on the event loop of their channel.
+     */
+    public final ExecutorService requestExecutor;
+
     public final List<ChannelHandlerFactory> channelHandlerFactories;
 
     public DataServerConfiguration(DataServerOptionParser parser, OptionSet options)
@@ -72,7 +224,131 @@ public class DataServerConfiguration
         pluginPath = options.valuesOf(parser.pluginPath);
         channelHandlerPlugins = options.valuesOf(parser.handlerPlugins);
         useBlockingIo = options.has(parser.blocking);
+        transport = useBlockingIo ? DataServerTransport.OIO : options.valueOf(parser.transport);
+        acceptThreads = options.valueOf(parser.acceptThreads);
+        if (acceptThreads < 1) {
+            throw new IllegalArgumentException("Number of accept threads must be positive");
+        }
+        if (acceptThreads > 1 && !transport.supportsReusePort()) {
+            throw new IllegalArgumentException("Multiple accept threads are not supported by the " +
+                                               transport + " transport");
+        }
         useZeroCopy = options.has(parser.zeroCopy);
+        zeroCopyThreshold = options.valueOf(parser.zeroCopyThreshold);
+        if (zeroCopyThreshold < 0) {
+            throw new IllegalArgumentException("Zero copy threshold must not be negative");
+        }
+        int statCacheTtl = options.valueOf(parser.statCacheTtl);
+        if (statCacheTtl < 0) {
+            throw new IllegalArgumentException("Stat cache time to live must not be negative");
+        }
+        statCache = new FileStatusCache(statCacheTtl, STAT_CACHE_SIZE);
+        maxOpenFiles = options.valueOf(parser.maxOpenFiles);
+        if (maxOpenFiles < 1 || maxOpenFiles > FileHandleTable.MAX_HANDLES) {
+            throw new IllegalArgumentException("Maximum number of open files per connection must be between 1 and " +
+                                               FileHandleTable.MAX_HANDLES);
+        }
+        openFiles = options.has(parser.maxOpenFilesTotal)
+                    ? new Semaphore(options.valueOf(parser.maxOpenFilesTotal)) : null;
+        int sharedFileTimeout = options.valueOf(parser.sharedFileTimeout);
+        if (sharedFileTimeout < 0) {
+            throw new IllegalArgumentException("Shared file timeout must not be negative");
+        }
+        long mmap = options.valueOf(parser.mmap);
+        if (mmap < 0) {
+            throw new IllegalArgumentException("Memory mapped bytes must not be negative");
+        }
+        mappedFiles = (mmap > 0)
+                      ? new MappedFileCache(mmap, (int) Math.min(mmap, MAPPED_REGION_SIZE))
+                      : null;
+        openFileCache = (sharedFileTimeout > 0) ? new OpenFileCache(sharedFileTimeout, mappedFiles) : null;
+        statThreads = options.valueOf(parser.statThreads);
+        if (statThreads < 0) {
+            throw new IllegalArgumentException("Number of stat threads must not be negative");
+        }
+        statExecutor = (statThreads > 0)
+                       ? Executors.newFixedThreadPool(statThreads,
+                                                      new ThreadFactoryBuilder()
+                                                              .setNameFormat("stat-%d")
+                                                              .setDaemon(true)
+                                                              .build())
+                       : null;
+        long readAhead = options.valueOf(parser.readAhead);
+        int readAheadWindow = options.valueOf(parser.readAheadWindow);
+        if (readAhead < 0) {
+            throw new IllegalArgumentException("Read-ahead memory must not be negative");
+        }
+        if (readAheadWindow <= 0 || readAheadWindow > MAX_READ_AHEAD_WINDOW) {
+            throw new IllegalArgumentException("Read-ahead window must be between 1 and " + MAX_READ_AHEAD_WINDOW);
+        }
+        if (readAhead > 0) {
+            readAheadExecutor = Executors.newFixedThreadPool(READ_AHEAD_THREADS,
+                                                             new ThreadFactoryBuilder()
+                                                                     .setNameFormat("read-ahead-%d")
+                                                                     .setDaemon(true)
+                                                                     .build());
+            readAheadCache = new ReadAheadCache(readAhead, readAheadWindow, readAheadExecutor);
+        } else {
+            readAheadExecutor = null;
+            readAheadCache = null;
+        }
+        long blockCacheSize = options.valueOf(parser.blockCache);
+        if (blockCacheSize < 0) {
+            throw new IllegalArgumentException("Block cache size must not be negative");
+        }
+        blockCache = (blockCacheSize > 0) ? new BlockCache(blockCacheSize) : null;
+        writeBehind = options.valueOf(parser.writeBehind);
+        writeBehindQueueSize = options.valueOf(parser.writeBehindQueue);
+        if (writeBehindQueueSize < 0) {
+            throw new IllegalArgumentException("Write-behind queue size must not be negative");
+        }
+        writeBehindExecutor = (writeBehind != null)
+                              ? Executors.newFixedThreadPool(WRITE_BEHIND_THREADS,
+                                                             new ThreadFactoryBuilder()
+                                                                     .setNameFormat("write-behind-%d")
+                                                                     .setDaemon(true)
+                                                                     .build())
+                              : null;
+        sendBufferSize = options.has(parser.sendBuffer) ? options.valueOf(parser.sendBuffer) : -1;
+        receiveBufferSize = options.has(parser.receiveBuffer) ? options.valueOf(parser.receiveBuffer) : -1;
+        if (options.has(parser.writeBuffer)) {
+            List<Integer> marks = options.valuesOf(parser.writeBuffer);
+            if (marks.size() != 2) {
+                throw new IllegalArgumentException("Write buffer water marks must be given as low,high");
+            }
+            writeBufferWaterMark = new WriteBufferWaterMark(marks.get(0), marks.get(1));
+        } else {
+            writeBufferWaterMark = null;
+        }
+        switch (options.valueOf(parser.allocator)) {
+        case "pooled":
+            allocator = PooledByteBufAllocator.DEFAULT;
+            break;
+        case "unpooled":
+            allocator = UnpooledByteBufAllocator.DEFAULT;
+            break;
+        default:
+            throw new IllegalArgumentException("Unknown allocator: " + options.valueOf(parser.allocator));
+        }
+        autoTuneLimit = options.has(parser.autoTune) ? options.valueOf(parser.autoTune) : -1;
+        metricsAddress = options.has(parser.metricsPort)
+                         ? new InetSocketAddress(options.valueOf(parser.metricsAddress),
+                                                 options.valueOf(parser.metricsPort))
+                         : null;
+        if (metricsAddress != null && metricsAddress.isUnresolved()) {
+            throw new IllegalArgumentException("Unknown metrics address: " + options.valueOf(parser.metricsAddress));
+        }
+        metrics = (options.has(parser.metrics) || options.has(parser.metricsPort))
+                  ? new XrootdMetrics() : null;
+        flushThreshold = options.has(parser.consolidateFlushes)
+                         ? options.valueOf(parser.consolidateFlushes) : -1;
+        requestExecutor = options.has(parser.requestThreads)
+                          ? Executors.newFixedThreadPool(options.valueOf(parser.requestThreads),
+                                                         new ThreadFactoryBuilder()
+                                                                 .setNameFormat("request-%d")
+                                                                 .setDaemon(true)
+                                                                 .build())
+                          : null;
 
         _pluginDefaults = loadDefaultProperties(pluginPath);
 
@@ -86,6 +362,7 @@ public class DataServerConfiguration
         XrootdAuthorizationHandlerProvider.setPluginClassLoader(_pluginLoader);
         _channelHandlerProviders =
             ServiceLoader.load(ChannelHandlerProvider.class, _pluginLoader);
+        transport.checkAvailable(_pluginLoader);
 
         channelHandlerFactories = new ArrayList<>();
         for (String plugin: channelHandlerPlugins) {
@@ -93,6 +370,29 @@ public class DataServerConfiguration
         }
     }
 
+    /**
+     * Creates an event loop group of the configured transport.
+     *
+     * @param threads number of threads, or 0 for Netty's default
+     */
+    public EventLoopGroup createEventLoopGroup(int threads)
+    {
+        return transport.createEventLoopGroup(_pluginLoader, threads);
+    }
+
+    public Class<? extends ServerSocketChannel> getServerChannelClass()
+    {
+        return transport.getServerChannelClass(_pluginLoader);
+    }
+
+    /**
+     * Returns the SO_REUSEPORT option of the configured transport.
+     */
+    public ChannelOption<Boolean> getReusePortOption()
+    {
+        return transport.getReusePortOption(_pluginLoader);
+    }
+
     private static Properties loadDefaultProperties(List<File> paths)
         throws IOException, MalformedURLException
     {
@@ -18,13 +18,16 @@
  */
 package org.dcache.xrootd.standalone;
 
+import com.google.common.base.Throwables;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.ReferenceCountUtil;
 import org.apache.commons.io.FilenameUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.FileNotFoundException;
 import java.io.IOException;
@@ -34,16 +37,23 @@ import java.nio.channels.ClosedChannelException;
 import java.nio.channels.FileChannel;
 import java.nio.file.DirectoryStream;
 import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
 import java.nio.file.NotDirectoryException;
 import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.function.Consumer;
 
 import org.dcache.xrootd.core.XrootdException;
+import org.dcache.xrootd.core.XrootdMetricsSink;
 import org.dcache.xrootd.core.XrootdRequestHandler;
 import org.dcache.xrootd.protocol.messages.CloseRequest;
 import org.dcache.xrootd.protocol.messages.DirListRequest;
-import org.dcache.xrootd.protocol.messages.DirListResponse;
 import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
 import org.dcache.xrootd.protocol.messages.LocateRequest;
 import org.dcache.xrootd.protocol.messages.LocateResponse;
@@ -69,10 +79,14 @@ import org.dcache.xrootd.protocol.messages.StatxRequest;
 import org.dcache.xrootd.protocol.messages.StatxResponse;
 import org.dcache.xrootd.protocol.messages.SyncRequest;
 import org.dcache.xrootd.protocol.messages.WriteRequest;
-import org.dcache.xrootd.protocol.messages.ZeroCopyReadResponse;
-import org.dcache.xrootd.stream.ChunkedFileChannelReadResponse;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.dcache.xrootd.stream.ChunkedDirListResponse;
 import org.dcache.xrootd.stream.ChunkedFileReadvResponse;
+import org.dcache.xrootd.stream.ReadAheadCache;
+import org.dcache.xrootd.stream.ReadEngine;
+import org.dcache.xrootd.util.FileHandleTable;
 import org.dcache.xrootd.util.FileStatus;
+import org.dcache.xrootd.util.ParallelBatches;
 
 import static org.dcache.xrootd.protocol.XrootdProtocol.*;
 
@@ -87,14 +101,84 @@ public class DataServerHandler extends XrootdRequestHandler
      */
     private static final int MAX_FRAME_SIZE = 2 << 20;
 
-    private final List<RandomAccessFile> _openFiles =
-        new ArrayList<>();
+    /**
+     * Open files by file handle.
+     */
+    private final FileHandleTable<RandomAccessFile> _openFiles;
+
+    /**
+     * Files opened for writing, by file handle, so that their cached
+     * status and data can be invalidated once they are closed.
+     */
+    private final Map<Integer, WritableFile> _writableFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Read-ahead streams of the files opened for reading, by file handle.
+     */
+    private final Map<Integer, ReadAheadCache.Stream> _readAheads = new ConcurrentHashMap<>();
+
+    /**
+     * Files opened for reading through the block cache, by file handle.
+     */
+    private final Map<Integer, BlockCache.CachedFile> _cachedFiles = new ConcurrentHashMap<>();
+
+    /**
+     * Write-behind queues of the files opened for writing, by file handle.
+     */
+    private final Map<Integer, WriteBehindFile> _writeBehinds = new ConcurrentHashMap<>();
 
     private final DataServerConfiguration _configuration;
 
+    private final ReadEngine _readEngine;
+
     public DataServerHandler(DataServerConfiguration configuration)
     {
+        super(metricsOf(configuration), configuration.requestExecutor);
         _configuration = configuration;
+        _openFiles = new FileHandleTable<>(configuration.maxOpenFiles, configuration.openFiles);
+        _readEngine = new ReadEngine(configuration.useZeroCopy, configuration.zeroCopyThreshold,
+                                     MAX_FRAME_SIZE, metricsOf(configuration), configuration.mappedFiles);
+    }
+
+    private static XrootdMetricsSink metricsOf(DataServerConfiguration configuration)
+    {
+        return configuration.metrics != null ? configuration.metrics : XrootdMetricsSink.NONE;
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception
+    {
+        for (ReadAheadCache.Stream readAhead : _readAheads.values()) {
+            readAhead.close();
+        }
+        _readAheads.clear();
+        _cachedFiles.clear();
+        for (Map.Entry<Integer, WriteBehindFile> entry : _writeBehinds.entrySet()) {
+            Closeable file = removeOpenFile(entry.getKey());
+            entry.getValue().afterWrites(error -> {
+                if (error != null) {
+                    _log.warn("Failed to write file: {}", error.toString());
+                }
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    _log.warn("Failed to close file: {}", e.toString());
+                }
+            });
+        }
+        _writeBehinds.clear();
+        for (RandomAccessFile raf : _openFiles.removeAll()) {
+            try {
+                closeFile(raf);
+            } catch (IOException e) {
+                _log.warn("Failed to close file: {}", e.toString());
+            }
+        }
+        for (WritableFile file : _writableFiles.values()) {
+            invalidate(file.path, file.inode);
+        }
+        _writableFiles.clear();
+        super.channelInactive(ctx);
     }
 
     @Override
@@ -125,11 +209,12 @@ public class DataServerHandler extends XrootdRequestHandler
         throws XrootdException
     {
         File file = getFile(req.getPath());
-        if (!file.exists()) {
+        try {
+            return new StatResponse(req, _configuration.statCache.getStatus(file.toPath()));
+        } catch (NoSuchFileException e) {
             throw new XrootdException(kXR_NotFound, "No such file");
-        } else {
-            FileStatus fs = getFileStatusOf(file);
-            return new StatResponse(req, fs);
+        } catch (IOException e) {
+            throw new XrootdException(kXR_IOError, e.getMessage());
         }
     }
 
@@ -142,18 +227,11 @@ public class DataServerHandler extends XrootdRequestHandler
             throw new XrootdException(kXR_ArgMissing, "no paths specified");
         }
 
-        String[] paths = req.getPaths();
-        String[] opaques = req.getOpaques();
-        int[] flags = new int[paths.length];
-        for (int i = 0; i < paths.length; i++) {
-            File file = getFile(paths[i]);
-            if (!file.exists()) {
-                flags[i] = kXR_other;
-            } else {
-                flags[i] = getFileStatusFlagsOf(file);
-            }
+        FileStatus[] status = getStatusIfExists(req.getPaths());
+        int[] flags = new int[status.length];
+        for (int i = 0; i < status.length; i++) {
+            flags[i] = (status[i] == null) ? kXR_other : status[i].getFlags();
         }
-
         return new StatxResponse(req, flags);
     }
 
@@ -166,6 +244,7 @@ public class DataServerHandler extends XrootdRequestHandler
         }
 
         File file = getFile(req.getPath());
+        long inode = inodeOf(file.toPath());
         if (!file.exists()) {
             throw new XrootdException(kXR_NotFound,
                                       "No such directory or file: " + file);
@@ -176,6 +255,7 @@ public class DataServerHandler extends XrootdRequestHandler
             throw new XrootdException(kXR_IOError,
                                       "Failed to delete file: " + file);
         }
+        invalidate(file.toPath(), inode);
         return withOk(req);
     }
 
@@ -198,6 +278,10 @@ public class DataServerHandler extends XrootdRequestHandler
             throw new XrootdException(kXR_IOError,
                                       "Failed to delete directory: " + file);
         }
+        _configuration.statCache.invalidate(file.toPath());
+        if (_configuration.openFileCache != null) {
+            _configuration.openFileCache.invalidate(file.toPath());
+        }
         return withOk(req);
     }
 
@@ -246,15 +330,19 @@ public class DataServerHandler extends XrootdRequestHandler
             throw new XrootdException(kXR_NotFound, "No such file");
         }
         File targetFile = getFile(req.getTargetPath());
+        long sourceInode = inodeOf(sourceFile.toPath());
+        long targetInode = inodeOf(targetFile.toPath());
         if (!sourceFile.renameTo(targetFile)) {
             throw new XrootdException(kXR_IOError, "Failed to move file");
         }
+        invalidate(sourceFile.toPath(), sourceInode);
+        invalidate(targetFile.toPath(), targetInode);
         return withOk(req);
     }
 
     @Override
-    protected DirListResponse doOnDirList(ChannelHandlerContext context,
-                                          DirListRequest request)
+    protected ChunkedDirListResponse doOnDirList(ChannelHandlerContext context,
+                                                 DirListRequest request)
         throws XrootdException
     {
         String listPath = request.getPath();
@@ -263,16 +351,18 @@ public class DataServerHandler extends XrootdRequestHandler
         }
 
         Path dir = getFile(listPath).toPath();
-        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
-            DirListResponse.Builder builder = DirListResponse.builder(request);
-            for (Path path : paths) {
-                builder.add(path.getFileName().toString(), request.isDirectoryStat() ? getFileStatusOf(path.toFile()) : null);
-                if (builder.count() >= 1000) {
-                    respond(context, builder.buildPartial());
-                }
-            }
-            return builder.buildFinal();
-        } catch (FileNotFoundException e) {
+        try {
+            DirectoryStream<Path> paths = Files.newDirectoryStream(dir);
+            /* The response writer runs on the event loop; the entries are
+             * read and looked up on an executor so as not to block it.
+             */
+            Executor executor = (_configuration.statExecutor != null)
+                    ? _configuration.statExecutor
+                    : _configuration.requestExecutor;
+            return new ChunkedDirListResponse(request, paths, MAX_FRAME_SIZE,
+                                              request.isDirectoryStat() ? this::getStatusIfExists : null,
+                                              executor, _configuration.statThreads);
+        } catch (FileNotFoundException | NoSuchFileException e) {
             throw new XrootdException(kXR_NotFound, "No such directory: " + dir);
         } catch (NotDirectoryException e) {
             throw new XrootdException(kXR_IOError, "Not a directory: " + dir);
@@ -281,9 +371,57 @@ public class DataServerHandler extends XrootdRequestHandler
         }
     }
 
+    private FileStatus getStatusIfExists(Path path) throws IOException
+    {
+        try {
+            return _configuration.statCache.getStatus(path);
+        } catch (NoSuchFileException e) {
+            return null;
+        }
+    }
+
+    /**
+     * Looks up the status of the files of a bulk request, in parallel
+     * batches if a stat executor is configured.
+     *
+     * @return the status of each file, or null for files that do not exist
+     */
+    private FileStatus[] getStatusIfExists(String[] paths) throws XrootdException
+    {
+        Path[] files = new Path[paths.length];
+        for (int i = 0; i < paths.length; i++) {
+            files[i] = getFile(paths[i]).toPath();
+        }
+        FileStatus[] status = new FileStatus[paths.length];
+        try {
+            ParallelBatches.runAndWait(files.length, i -> status[i] = getStatusIfExists(files[i]),
+                                       _configuration.statExecutor, _configuration.statThreads);
+        } catch (IOException e) {
+            throw new XrootdException(kXR_IOError, e.getMessage());
+        } catch (Exception e) {
+            throw Throwables.propagate(e);
+        }
+        return status;
+    }
+
+    /**
+     * Files on disk are always online, so preparing them only checks
+     * that they exist, unless the client asked not to be told about
+     * errors.
+     */
     @Override
     protected OkResponse<PrepareRequest> doOnPrepare(ChannelHandlerContext ctx, PrepareRequest msg)
+        throws XrootdException
     {
+        if (!msg.isCancel() && !msg.isNoErrors()) {
+            String[] paths = msg.getPathList();
+            FileStatus[] status = getStatusIfExists(paths);
+            for (int i = 0; i < status.length; i++) {
+                if (status[i] == null) {
+                    throw new XrootdException(kXR_NotFound, "No such file: " + paths[i]);
+                }
+            }
+        }
         return withOk(msg);
     }
 
@@ -307,6 +445,7 @@ public class DataServerHandler extends XrootdRequestHandler
             File parent = file.getParentFile();
 
             RandomAccessFile raf;
+            FileStatus sharedStat = null;
             if (msg.isReadWrite()) {
                 if (msg.isMkPath() && !parent.exists() && !parent.mkdirs()) {
                     throw new XrootdException(kXR_IOError, "Failed to create directories: " + parent);
@@ -315,6 +454,9 @@ public class DataServerHandler extends XrootdRequestHandler
                     throw new XrootdException(kXR_IOError, "Failed to create file: " + file);
                 }
                 raf = new RandomAccessFile(file, "rw");
+            } else if (_configuration.openFileCache != null) {
+                sharedStat = FileStatusCache.readStatus(file.toPath());
+                raf = _configuration.openFileCache.open(file.toPath(), sharedStat.getId());
             } else {
                 raf = new RandomAccessFile(file, "r");
             }
@@ -324,12 +466,40 @@ public class DataServerHandler extends XrootdRequestHandler
                     raf.setLength(0);
                 }
 
+                long inode = -1;
+                Object fileKey = null;
+                if (msg.isReadWrite()) {
+                    inode = invalidate(file.toPath());
+                    if (_configuration.readAheadCache != null) {
+                        fileKey = fileKeyOf(file.toPath());
+                        if (msg.isDelete()) {
+                            _configuration.readAheadCache.invalidate(fileKey);
+                        }
+                    }
+                }
+
                 FileStatus stat = null;
                 if (msg.isRetStat()) {
-                    stat = getFileStatusOf(file);
+                    stat = (sharedStat != null) ? sharedStat : FileStatusCache.readStatus(file.toPath());
                 }
 
                 int fd = addOpenFile(raf);
+                if (msg.isReadWrite()) {
+                    WritableFile writable = new WritableFile(file.toPath(), inode, fileKey);
+                    _writableFiles.put(fd, writable);
+                    if (_configuration.writeBehind != null) {
+                        _writeBehinds.put(fd, new WriteBehindFile(raf.getChannel(),
+                                                                  _configuration.writeBehind,
+                                                                  _configuration.writeBehindQueueSize,
+                                                                  _configuration.writeBehindExecutor,
+                                                                  () -> invalidateReadAhead(writable)));
+                    }
+                } else if (_configuration.blockCache != null) {
+                    _cachedFiles.put(fd, _configuration.blockCache.newFile(raf.getChannel(), file.toPath()));
+                } else if (_configuration.readAheadCache != null) {
+                    _readAheads.put(fd, _configuration.readAheadCache.newStream(raf.getChannel(),
+                                                                                fileKeyOf(file.toPath())));
+                }
                 raf = null;
                 return new OpenResponse(msg,
                                         fd,
@@ -338,10 +508,10 @@ public class DataServerHandler extends XrootdRequestHandler
                                         stat);
             } finally {
                 if (raf != null) {
-                    raf.close();
+                    closeFile(raf);
                 }
             }
-        } catch (FileNotFoundException e) {
+        } catch (FileNotFoundException | NoSuchFileException e) {
             throw new XrootdException(kXR_NotFound, e.getMessage());
         } catch (IOException e) {
             throw new XrootdException(kXR_IOError, e.getMessage());
@@ -363,15 +533,16 @@ public class DataServerHandler extends XrootdRequestHandler
         RandomAccessFile raf = getOpenFile(msg.getFileHandle());
         if (msg.bytesToRead() == 0) {
             return withOk(msg);
-        } else if (_configuration.useZeroCopy) {
-            try {
-                return new ZeroCopyReadResponse(msg, raf.getChannel());
-            } catch (IOException e) {
-                throw new XrootdException(kXR_IOError, e.getMessage());
-            }
-        } else {
-            return new ChunkedFileChannelReadResponse(msg, MAX_FRAME_SIZE, raf.getChannel());
         }
+        /* Reads see the queued writes; failed writes are reported by sync and close. */
+        return afterWrites(ctx, msg, writeBehindsOf(msg.getFileHandle()), error -> {
+            BlockCache.CachedFile cachedFile = _cachedFiles.get(msg.getFileHandle());
+            if (cachedFile != null) {
+                return new CachedReadResponse(msg, MAX_FRAME_SIZE, _configuration.blockCache, cachedFile);
+            }
+            return _readEngine.read(ctx.channel(), msg, raf.getChannel(),
+                                    _readAheads.get(msg.getFileHandle()));
+        });
     }
 
     /**
@@ -386,8 +557,7 @@ public class DataServerHandler extends XrootdRequestHandler
      * @param msg The actual request.
      */
     @Override
-    protected ChunkedFileReadvResponse doOnReadV(ChannelHandlerContext ctx,
-                                                 ReadVRequest msg)
+    protected Object doOnReadV(ChannelHandlerContext ctx, ReadVRequest msg)
         throws XrootdException
     {
         EmbeddedReadRequest[] requests = msg.getReadRequestList();
@@ -396,7 +566,13 @@ public class DataServerHandler extends XrootdRequestHandler
                                       "Request contains no vector");
         }
 
-        return new ChunkedFileReadvResponse(msg, MAX_FRAME_SIZE, _openFiles);
+        int[] fds = Arrays.stream(requests).mapToInt(EmbeddedReadRequest::getFileHandle).distinct().toArray();
+        return afterWrites(ctx, msg, writeBehindsOf(fds), error -> {
+            if (_configuration.blockCache != null) {
+                return new CachedReadvResponse(msg, MAX_FRAME_SIZE, _openFiles, _configuration.blockCache, _cachedFiles);
+            }
+            return new ChunkedFileReadvResponse(msg, MAX_FRAME_SIZE, _openFiles);
+        });
     }
 
     /**
@@ -414,8 +590,20 @@ public class DataServerHandler extends XrootdRequestHandler
         try {
             FileChannel channel =
                 getOpenFile(msg.getFileHandle()).getChannel();
+            WriteBehindFile writeBehind = _writeBehinds.get(msg.getFileHandle());
+            if (writeBehind != null) {
+                if (writeBehind.write(msg, error -> respond(ctx, error == null
+                                                                 ? withOk(msg)
+                                                                 : withError(msg, kXR_IOError, error.getMessage())))) {
+                    return withOk(msg);
+                }
+                /* Acknowledged once written; the queue holds its own reference. */
+                msg.release();
+                return null;
+            }
             channel.position(msg.getWriteOffset());
             msg.getData(channel);
+            invalidateReadAhead(_writableFiles.get(msg.getFileHandle()));
             return withOk(msg);
         } catch (IOException e) {
             throw new XrootdException(kXR_IOError, e.getMessage());
@@ -430,15 +618,17 @@ public class DataServerHandler extends XrootdRequestHandler
      * @param msg The actual request
      */
     @Override
-    protected OkResponse<SyncRequest> doOnSync(ChannelHandlerContext ctx, SyncRequest msg)
+    protected Object doOnSync(ChannelHandlerContext ctx, SyncRequest msg)
         throws XrootdException
     {
-        try {
-            getOpenFile(msg.getFileHandle()).getFD().sync();
+        RandomAccessFile raf = getOpenFile(msg.getFileHandle());
+        return afterWrites(ctx, msg, writeBehindsOf(msg.getFileHandle()), error -> {
+            if (error != null) {
+                throw error;
+            }
+            raf.getFD().sync();
             return withOk(msg);
-        } catch (IOException e) {
-            throw new XrootdException(kXR_IOError, e.getMessage());
-        }
+        });
     }
 
     /**
@@ -449,15 +639,19 @@ public class DataServerHandler extends XrootdRequestHandler
      * @param msg The actual request
      */
     @Override
-    protected OkResponse<CloseRequest> doOnClose(ChannelHandlerContext ctx, CloseRequest msg)
+    protected Object doOnClose(ChannelHandlerContext ctx, CloseRequest msg)
         throws XrootdException
     {
-        try {
-            closeOpenFile(msg.getFileHandle());
+        List<WriteBehindFile> writeBehinds = writeBehindsOf(msg.getFileHandle());
+        Closeable file = removeOpenFile(msg.getFileHandle());
+        _writeBehinds.remove(msg.getFileHandle());
+        return afterWrites(ctx, msg, writeBehinds, error -> {
+            file.close();
+            if (error != null) {
+                throw error;
+            }
             return withOk(msg);
-        } catch (IOException e) {
-            throw new XrootdException(kXR_IOError, e.getMessage());
-        }
+        });
     }
 
     @Override
@@ -543,34 +737,182 @@ public class DataServerHandler extends XrootdRequestHandler
     }
 
     private int addOpenFile(RandomAccessFile raf)
+        throws XrootdException
     {
-       for (int i = 0; i < _openFiles.size(); i++) {
-           if (_openFiles.get(i) == null) {
-               _openFiles.set(i, raf);
-               return i;
-           }
-       }
-       _openFiles.add(raf);
-       return _openFiles.size() - 1;
+        return _openFiles.add(raf);
     }
 
     private RandomAccessFile getOpenFile(int fd)
         throws XrootdException
     {
-        if (fd >= 0 && fd < _openFiles.size()) {
-            RandomAccessFile raf = _openFiles.get(fd);
-            if (raf != null) {
-                return raf;
+        return _openFiles.get(fd);
+    }
+
+    /**
+     * Removes an open file from the tables of this handler.
+     *
+     * @return closes the file and invalidates its cached status and data
+     */
+    private Closeable removeOpenFile(int fd)
+        throws XrootdException
+    {
+        RandomAccessFile raf = _openFiles.remove(fd);
+        WritableFile writable = _writableFiles.remove(fd);
+        ReadAheadCache.Stream readAhead = _readAheads.remove(fd);
+        if (readAhead != null) {
+            readAhead.close();
+        }
+        _cachedFiles.remove(fd);
+        return () -> {
+            try {
+                closeFile(raf);
+            } finally {
+                if (writable != null) {
+                    invalidate(writable.path, writable.inode);
+                }
+            }
+        };
+    }
+
+    private List<WriteBehindFile> writeBehindsOf(int... fds)
+    {
+        List<WriteBehindFile> writeBehinds = new ArrayList<>();
+        for (int fd : fds) {
+            WriteBehindFile writeBehind = _writeBehinds.get(fd);
+            if (writeBehind != null) {
+                writeBehinds.add(writeBehind);
+            }
+        }
+        return writeBehinds;
+    }
+
+    /**
+     * Performs an operation once the queued writes to the given files have
+     * been written. Without queued writes, the operation is performed right
+     * away and its response returned. Otherwise the response is sent once
+     * the writes have been written, without blocking the calling thread,
+     * and null is returned.
+     */
+    private Object afterWrites(ChannelHandlerContext ctx, XrootdRequest msg,
+                               List<WriteBehindFile> writeBehinds, Operation operation)
+        throws XrootdException
+    {
+        if (writeBehinds.isEmpty()) {
+            try {
+                return operation.apply(null);
+            } catch (IOException e) {
+                throw new XrootdException(kXR_IOError, e.getMessage());
             }
         }
-        throw new XrootdException(kXR_FileNotOpen, "Invalid file descriptor");
+        afterWrites(writeBehinds, 0, null, error -> {
+            Object response;
+            try {
+                response = operation.apply(error);
+            } catch (XrootdException e) {
+                response = withError(msg, e.getError(), e.getMessage());
+            } catch (IOException e) {
+                response = withError(msg, kXR_IOError, e.getMessage());
+            } catch (RuntimeException e) {
+                _log.error("xrootd server error while processing " + msg + " (please report this to support@dcache.org)", e);
+                response = withError(msg, kXR_ServerError,
+                                     String.format("Internal server error (%s)", e.getMessage()));
+            }
+            respond(ctx, response);
+            ReferenceCountUtil.release(msg);
+        });
+        return null;
+    }
+
+    private static void afterWrites(List<WriteBehindFile> writeBehinds, int index,
+                                    IOException error, Consumer<IOException> action)
+    {
+        if (index == writeBehinds.size()) {
+            action.accept(error);
+        } else {
+            writeBehinds.get(index).afterWrites(
+                    e -> afterWrites(writeBehinds, index + 1, (error != null) ? error : e, action));
+        }
+    }
+
+    /**
+     * Discards the data prefetched by readers of a file written through
+     * this server.
+     */
+    private void invalidateReadAhead(WritableFile writable)
+    {
+        if (writable != null && writable.fileKey != null) {
+            _configuration.readAheadCache.invalidate(writable.fileKey);
+        }
+    }
+
+    /**
+     * Returns the key identifying the file at a path for the read-ahead
+     * cache.
+     */
+    private static Object fileKeyOf(Path path) throws IOException
+    {
+        Object fileKey = Files.readAttributes(path, BasicFileAttributes.class).fileKey();
+        return (fileKey != null) ? fileKey : path.toAbsolutePath();
+    }
+
+    /**
+     * Invalidates the cached status and data of a file modified through
+     * this server.
+     *
+     * @return the inode of the file, as returned by {@link #inodeOf}
+     */
+    private long invalidate(Path path)
+    {
+        long inode = inodeOf(path);
+        invalidate(path, inode);
+        return inode;
+    }
+
+    /**
+     * Invalidates the cached status of a path, the cached data of the
+     * file with the given inode and the unused shared files opened at the
+     * path. Unlike {@link #invalidate(Path)}, this works after the file has
+     * been removed or replaced, provided the inode was determined before.
+     */
+    private void invalidate(Path path, long inode)
+    {
+        _configuration.statCache.invalidate(path);
+        if (_configuration.openFileCache != null) {
+            _configuration.openFileCache.invalidate(path);
+        }
+        if (_configuration.blockCache != null && inode != -1) {
+            _configuration.blockCache.invalidate(inode);
+        }
+    }
+
+    /**
+     * Returns the inode of a file whose cached data may have to be
+     * invalidated, or -1 if the file does not exist or no data is cached.
+     */
+    private long inodeOf(Path path)
+    {
+        if (_configuration.blockCache == null) {
+            return -1;
+        }
+        try {
+            return FileStatusCache.readStatus(path).getId();
+        } catch (IOException e) {
+            return -1;
+        }
     }
 
-    private void closeOpenFile(int fd)
-        throws XrootdException, IOException
+    /**
+     * Closes a file, or releases it if it is shared with other
+     * connections.
+     */
+    private void closeFile(RandomAccessFile raf) throws IOException
     {
-        getOpenFile(fd).close();
-        _openFiles.set(fd, null);
+        if (_configuration.openFileCache == null || !_configuration.openFileCache.release(raf)) {
+            if (_configuration.mappedFiles != null) {
+                _configuration.mappedFiles.unmap(raf.getChannel());
+            }
+            raf.close();
+        }
     }
 
     private File getFile(String path)
@@ -583,33 +925,40 @@ public class DataServerHandler extends XrootdRequestHandler
         return new File(_configuration.root, normalized);
     }
 
-    private int getFileStatusFlagsOf(File file)
+    /**
+     * A file opened for writing.
+     */
+    /**
+     * An operation on a file that depends on its queued writes.
+     */
+    private interface Operation
     {
-        int flags = 0;
-        if (file.isDirectory()) {
-            flags |= kXR_isDir;
-        }
-        if (!file.isFile() && !file.isDirectory()) {
-            flags |= kXR_other;
-        }
-        if (file.canExecute()) {
-            flags |= kXR_xset;
-        }
-        if (file.canRead()) {
-            flags |= kXR_readable;
-        }
-        if (file.canWrite()) {
-            flags |= kXR_writable;
-        }
-        return flags;
+        /**
+         * @param writeError the error of a failed write, or null
+         * @return the response to the request
+         */
+        Object apply(IOException writeError) throws XrootdException, IOException;
     }
 
-    private FileStatus getFileStatusOf(File file)
+    private static class WritableFile
     {
-        int flags = getFileStatusFlagsOf(file);
-        return new FileStatus(0,
-                              file.length(),
-                              flags,
-                              file.lastModified() / 1000);
+        final Path path;
+
+        /**
+         * Inode determined when the file was opened, or -1.
+         */
+        final long inode;
+
+        /**
+         * Key of the file in the read-ahead cache, or null.
+         */
+        final Object fileKey;
+
+        WritableFile(Path path, long inode, Object fileKey)
+        {
+            this.path = path;
+            this.inode = inode;
+            this.fileKey = fileKey;
+        }
     }
 }
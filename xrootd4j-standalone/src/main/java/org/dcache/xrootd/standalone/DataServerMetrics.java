@@ -0,0 +1,282 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+
+import org.dcache.xrootd.core.XrootdMetrics;
+import org.dcache.xrootd.util.Histogram;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_auth;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sigver;
+
+/**
+ * Publishes the request metrics of the data server through JMX and,
+ * optionally, as a Prometheus text endpoint at /metrics.
+ */
+public class DataServerMetrics implements DataServerMetricsMXBean
+{
+    private static final Logger _log =
+        LoggerFactory.getLogger(DataServerMetrics.class);
+
+    private static final String OBJECT_NAME = "org.dcache.xrootd:type=DataServerMetrics";
+    private static final double[] QUANTILES = { 0.5, 0.99, 0.999 };
+
+    private final XrootdMetrics _metrics;
+    private final BlockCache _blockCache;
+    private HttpServer _httpServer;
+    private ObjectName _objectName;
+
+    /**
+     * @param blockCache the block cache, or null if disabled
+     */
+    public DataServerMetrics(XrootdMetrics metrics, BlockCache blockCache)
+    {
+        _metrics = metrics;
+        _blockCache = blockCache;
+    }
+
+    /**
+     * Registers the MXBean and, if {@code address} is not null, starts
+     * the HTTP endpoint on it.
+     */
+    public void start(InetSocketAddress address) throws IOException, JMException
+    {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        _objectName = new ObjectName(OBJECT_NAME);
+        server.registerMBean(this, _objectName);
+
+        if (address != null) {
+            _httpServer = HttpServer.create(address, 0);
+            _httpServer.createContext("/metrics", this::handle);
+            _httpServer.start();
+            _log.info("Serving metrics on {}", _httpServer.getAddress());
+        }
+    }
+
+    public void stop()
+    {
+        if (_httpServer != null) {
+            _httpServer.stop(0);
+        }
+        if (_objectName != null) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(_objectName);
+            } catch (JMException e) {
+                _log.warn("Failed to unregister {}: {}", _objectName, e.toString());
+            }
+        }
+    }
+
+    @Override
+    public long getBytesReceived()
+    {
+        return _metrics.getBytesReceived();
+    }
+
+    @Override
+    public long getBytesSent()
+    {
+        return _metrics.getBytesSent();
+    }
+
+    @Override
+    public long getZeroCopyReads()
+    {
+        return _metrics.getZeroCopyReads();
+    }
+
+    @Override
+    public long getZeroCopyBytes()
+    {
+        return _metrics.getZeroCopyBytes();
+    }
+
+    @Override
+    public long getCopiedReads()
+    {
+        return _metrics.getCopiedReads();
+    }
+
+    @Override
+    public long getCopiedBytes()
+    {
+        return _metrics.getCopiedBytes();
+    }
+
+    @Override
+    public long getPrefetchedReads()
+    {
+        return _metrics.getPrefetchedReads();
+    }
+
+    @Override
+    public long getPrefetchedBytes()
+    {
+        return _metrics.getPrefetchedBytes();
+    }
+
+    @Override
+    public long getBlockCacheHits()
+    {
+        return (_blockCache == null) ? 0 : _blockCache.getHits();
+    }
+
+    @Override
+    public long getBlockCacheMisses()
+    {
+        return (_blockCache == null) ? 0 : _blockCache.getMisses();
+    }
+
+    @Override
+    public long getBlockCacheBytes()
+    {
+        return (_blockCache == null) ? 0 : _blockCache.getSize();
+    }
+
+    @Override
+    public List<RequestStatistics> getRequests()
+    {
+        List<RequestStatistics> requests = new ArrayList<>();
+        for (int id = kXR_auth; id <= kXR_sigver; id++) {
+            Histogram latency = _metrics.getLatency(id);
+            long count = _metrics.getRequests(id);
+            if (count > 0) {
+                requests.add(new RequestStatistics(XrootdMetrics.getRequestName(id), count,
+                                                   _metrics.getErrors(id),
+                                                   latency.getMean() / 1000,
+                                                   micros(latency.getValueAtPercentile(50)),
+                                                   micros(latency.getValueAtPercentile(99)),
+                                                   micros(latency.getValueAtPercentile(99.9)),
+                                                   micros(latency.getMax())));
+            }
+        }
+        return requests;
+    }
+
+    /**
+     * Returns the metrics in the Prometheus text exposition format.
+     */
+    public String toPrometheusText()
+    {
+        StringBuilder out = new StringBuilder();
+        header(out, "xrootd_requests_total", "counter", "Requests processed, by request type.");
+        for (int id = kXR_auth; id <= kXR_sigver; id++) {
+            if (_metrics.getRequests(id) > 0) {
+                sample(out, "xrootd_requests_total", id, null, _metrics.getRequests(id));
+            }
+        }
+        header(out, "xrootd_request_errors_total", "counter", "Requests answered with an error, by request type.");
+        for (int id = kXR_auth; id <= kXR_sigver; id++) {
+            if (_metrics.getRequests(id) > 0) {
+                sample(out, "xrootd_request_errors_total", id, null, _metrics.getErrors(id));
+            }
+        }
+        header(out, "xrootd_request_duration_seconds", "summary",
+               "Time from dispatching a request until its response has been written.");
+        for (int id = kXR_auth; id <= kXR_sigver; id++) {
+            Histogram latency = _metrics.getLatency(id);
+            if (latency.getCount() > 0) {
+                for (double quantile : QUANTILES) {
+                    sample(out, "xrootd_request_duration_seconds", id, quantile,
+                           latency.getValueAtPercentile(quantile * 100) / 1e9);
+                }
+                sample(out, "xrootd_request_duration_seconds_sum", id, null, latency.getSum() / 1e9);
+                sample(out, "xrootd_request_duration_seconds_count", id, null, latency.getCount());
+            }
+        }
+        header(out, "xrootd_received_bytes_total", "counter", "Bytes received from clients.");
+        out.append("xrootd_received_bytes_total ").append(_metrics.getBytesReceived()).append('\n');
+        header(out, "xrootd_sent_bytes_total", "counter", "Bytes sent to clients.");
+        out.append("xrootd_sent_bytes_total ").append(_metrics.getBytesSent()).append('\n');
+        header(out, "xrootd_reads_total", "counter", "Reads, by the path chosen to send the data.");
+        out.append("xrootd_reads_total{path=\"zerocopy\"} ").append(_metrics.getZeroCopyReads()).append('\n');
+        out.append("xrootd_reads_total{path=\"copy\"} ").append(_metrics.getCopiedReads()).append('\n');
+        out.append("xrootd_reads_total{path=\"readahead\"} ").append(_metrics.getPrefetchedReads()).append('\n');
+        header(out, "xrootd_read_bytes_total", "counter", "Bytes requested by reads, by the path chosen to send the data.");
+        out.append("xrootd_read_bytes_total{path=\"zerocopy\"} ").append(_metrics.getZeroCopyBytes()).append('\n');
+        out.append("xrootd_read_bytes_total{path=\"copy\"} ").append(_metrics.getCopiedBytes()).append('\n');
+        out.append("xrootd_read_bytes_total{path=\"readahead\"} ").append(_metrics.getPrefetchedBytes()).append('\n');
+        if (_blockCache != null) {
+            header(out, "xrootd_block_cache_requests_total", "counter", "Block cache lookups, by result.");
+            out.append("xrootd_block_cache_requests_total{result=\"hit\"} ").append(_blockCache.getHits()).append('\n');
+            out.append("xrootd_block_cache_requests_total{result=\"miss\"} ").append(_blockCache.getMisses()).append('\n');
+            header(out, "xrootd_block_cache_bytes", "gauge", "Bytes held by the block cache.");
+            out.append("xrootd_block_cache_bytes ").append(_blockCache.getSize()).append('\n');
+        }
+        return out.toString();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException
+    {
+        try {
+            byte[] body = toPrometheusText().getBytes(UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static void header(StringBuilder out, String name, String type, String help)
+    {
+        out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+        out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+    }
+
+    private static void sample(StringBuilder out, String name, int requestId, Double quantile, Number value)
+    {
+        out.append(name).append("{request=\"").append(XrootdMetrics.getRequestName(requestId)).append('"');
+        if (quantile != null) {
+            out.append(",quantile=\"").append(quantile).append('"');
+        }
+        out.append("} ");
+        if (value instanceof Double) {
+            out.append(String.format(Locale.ROOT, "%.9f", value.doubleValue()));
+        } else {
+            out.append(value.longValue());
+        }
+        out.append('\n');
+    }
+
+    private static long micros(long nanos)
+    {
+        return NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,122 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import java.beans.ConstructorProperties;
+import java.util.List;
+
+/**
+ * JMX view of the request metrics of the data server.
+ */
+public interface DataServerMetricsMXBean
+{
+    long getBytesReceived();
+
+    long getBytesSent();
+
+    long getZeroCopyReads();
+
+    long getZeroCopyBytes();
+
+    long getCopiedReads();
+
+    long getCopiedBytes();
+
+    long getPrefetchedReads();
+
+    long getPrefetchedBytes();
+
+    long getBlockCacheHits();
+
+    long getBlockCacheMisses();
+
+    long getBlockCacheBytes();
+
+    /**
+     * Returns the metrics of every request type received so far.
+     */
+    List<RequestStatistics> getRequests();
+
+    class RequestStatistics
+    {
+        private final String request;
+        private final long count;
+        private final long errors;
+        private final double meanMicros;
+        private final long p50Micros;
+        private final long p99Micros;
+        private final long p999Micros;
+        private final long maxMicros;
+
+        @ConstructorProperties({"request", "count", "errors", "meanMicros",
+                                "p50Micros", "p99Micros", "p999Micros", "maxMicros"})
+        public RequestStatistics(String request, long count, long errors, double meanMicros,
+                                 long p50Micros, long p99Micros, long p999Micros, long maxMicros)
+        {
+            this.request = request;
+            this.count = count;
+            this.errors = errors;
+            this.meanMicros = meanMicros;
+            this.p50Micros = p50Micros;
+            this.p99Micros = p99Micros;
+            this.p999Micros = p999Micros;
+            this.maxMicros = maxMicros;
+        }
+
+        public String getRequest()
+        {
+            return request;
+        }
+
+        public long getCount()
+        {
+            return count;
+        }
+
+        public long getErrors()
+        {
+            return errors;
+        }
+
+        public double getMeanMicros()
+        {
+            return meanMicros;
+        }
+
+        public long getP50Micros()
+        {
+            return p50Micros;
+        }
+
+        public long getP99Micros()
+        {
+            return p99Micros;
+        }
+
+        public long getP999Micros()
+        {
+            return p999Micros;
+        }
+
+        public long getMaxMicros()
+        {
+            return maxMicros;
+        }
+    }
+}
@@ -33,6 +33,30 @@ public class DataServerOptionParser extends OptionParser
     public final OptionSpec<File> pluginPath;
     public final OptionSpec<Void> blocking;
     public final OptionSpec<Void> zeroCopy;
+    public final OptionSpec<Integer> zeroCopyThreshold;
+    public final OptionSpec<Integer> statCacheTtl;
+    public final OptionSpec<Integer> maxOpenFiles;
+    public final OptionSpec<Integer> maxOpenFilesTotal;
+    public final OptionSpec<Integer> sharedFileTimeout;
+    public final OptionSpec<Integer> statThreads;
+    public final OptionSpec<Long> readAhead;
+    public final OptionSpec<Long> blockCache;
+    public final OptionSpec<Long> mmap;
+    public final OptionSpec<WriteBehindFile.Durability> writeBehind;
+    public final OptionSpec<Integer> writeBehindQueue;
+    public final OptionSpec<Integer> readAheadWindow;
+    public final OptionSpec<Void> metrics;
+    public final OptionSpec<Integer> metricsPort;
+    public final OptionSpec<String> metricsAddress;
+    public final OptionSpec<Integer> consolidateFlushes;
+    public final OptionSpec<Integer> requestThreads;
+    public final OptionSpec<DataServerTransport> transport;
+    public final OptionSpec<Integer> acceptThreads;
+    public final OptionSpec<Integer> sendBuffer;
+    public final OptionSpec<Integer> receiveBuffer;
+    public final OptionSpec<Integer> writeBuffer;
+    public final OptionSpec<String> allocator;
+    public final OptionSpec<Integer> autoTune;
 
     {
         port = acceptsAll(asList("p", "port"))
@@ -57,7 +81,117 @@ public class DataServerOptionParser extends OptionParser
             .withValuesSeparatedBy(File.pathSeparatorChar)
             .describedAs("url")
             .ofType(File.class);
-        blocking = acceptsAll(asList("b", "blocking"), "Use blocking IO calls");
-        zeroCopy = acceptsAll(asList("z", "zerocopy"), "Use zero copy reads");
+        blocking = acceptsAll(asList("b", "blocking"), "Use blocking IO calls; same as --transport OIO");
+        transport = acceptsAll(asList("transport"), "Netty transport: NIO, EPOLL (native, Linux only) or OIO")
+            .withRequiredArg()
+            .describedAs("transport")
+            .ofType(DataServerTransport.class)
+            .defaultsTo(DataServerTransport.NIO);
+        acceptThreads = acceptsAll(asList("accept-threads"), "Number of server sockets accepting connections on the port; more than one requires --transport EPOLL")
+            .withRequiredArg()
+            .describedAs("threads")
+            .ofType(Integer.class)
+            .defaultsTo(1);
+        sendBuffer = acceptsAll(asList("send-buffer"), "Size of the socket send buffer (SO_SNDBUF); disables the kernel's tuning of it")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Integer.class);
+        receiveBuffer = acceptsAll(asList("receive-buffer"), "Size of the socket receive buffer (SO_RCVBUF); disables the kernel's tuning of it")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Integer.class);
+        writeBuffer = acceptsAll(asList("write-buffer"), "Low and high water mark of the write buffer of each connection")
+            .withRequiredArg()
+            .describedAs("low,high")
+            .ofType(Integer.class)
+            .withValuesSeparatedBy(',');
+        allocator = acceptsAll(asList("allocator"), "Buffer allocator: pooled or unpooled")
+            .withRequiredArg()
+            .describedAs("allocator")
+            .ofType(String.class)
+            .defaultsTo("pooled");
+        autoTune = acceptsAll(asList("auto-tune"), "Size the write buffer of each connection to its bandwidth-delay product, up to this many bytes")
+            .withOptionalArg()
+            .describedAs("bytes")
+            .ofType(Integer.class)
+            .defaultsTo(16 << 20);
+        zeroCopy = acceptsAll(asList("z", "zerocopy"), "Use zero copy reads where the transport supports them");
+        zeroCopyThreshold = acceptsAll(asList("zerocopy-threshold"), "Copy reads smaller than this many bytes even if zero copy is enabled")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Integer.class)
+            .defaultsTo(65536);
+        statCacheTtl = acceptsAll(asList("stat-cache-ttl"), "Cache the status of files for this many milliseconds; 0 disables the cache")
+            .withRequiredArg()
+            .describedAs("ms")
+            .ofType(Integer.class)
+            .defaultsTo(1000);
+        maxOpenFiles = acceptsAll(asList("max-open-files"), "Maximum number of files a connection may have open")
+            .withRequiredArg()
+            .describedAs("files")
+            .ofType(Integer.class)
+            .defaultsTo(65536);
+        maxOpenFilesTotal = acceptsAll(asList("max-open-files-total"), "Maximum number of files open on all connections")
+            .withRequiredArg()
+            .describedAs("files")
+            .ofType(Integer.class);
+        sharedFileTimeout = acceptsAll(asList("shared-file-timeout"), "Share files opened for reading among connections and close them after being unused for this many milliseconds; 0 disables sharing")
+            .withRequiredArg()
+            .describedAs("ms")
+            .ofType(Integer.class)
+            .defaultsTo(10000);
+        statThreads = acceptsAll(asList("stat-threads"), "Look up the status of directory entries and of the paths of kXR_statx and kXR_prepare requests in parallel on this many threads")
+            .withRequiredArg()
+            .describedAs("threads")
+            .ofType(Integer.class)
+            .defaultsTo(0);
+        readAhead = acceptsAll(asList("read-ahead"), "Prefetch data for sequential readers in up to this many bytes of memory; 0 disables read-ahead")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Long.class)
+            .defaultsTo(0L);
+        readAheadWindow = acceptsAll(asList("read-ahead-window"), "Number of bytes prefetched at a time for a sequential reader")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Integer.class)
+            .defaultsTo(1 << 20);
+        blockCache = acceptsAll(asList("block-cache"), "Cache the data of files opened for reading in up to this many bytes of memory; 0 disables the cache")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Long.class)
+            .defaultsTo(0L);
+        mmap = acceptsAll(asList("mmap"), "Send reads not using zero-copy from memory mapped files, mapping up to this many bytes at a time; 0 disables memory mapping")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Long.class)
+            .defaultsTo(0L);
+        writeBehind = acceptsAll(asList("write-behind"), "Write data in the background, coalescing adjacent writes, and acknowledge writes once QUEUED, WRITTEN to the file or SYNCED to disk; write errors are reported by the next sync or close")
+            .withRequiredArg()
+            .describedAs("durability")
+            .ofType(WriteBehindFile.Durability.class);
+        writeBehindQueue = acceptsAll(asList("write-behind-queue"), "Acknowledge writes only once written while more than this many bytes of a file are queued")
+            .withRequiredArg()
+            .describedAs("bytes")
+            .ofType(Integer.class)
+            .defaultsTo(16 << 20);
+        metrics = acceptsAll(asList("metrics"), "Collect request metrics and publish them through JMX");
+        metricsPort = acceptsAll(asList("metrics-port"), "Serve request metrics in Prometheus text format; implies --metrics")
+            .withRequiredArg()
+            .describedAs("TCP port")
+            .ofType(Integer.class);
+        metricsAddress = acceptsAll(asList("metrics-address"), "Address on which --metrics-port listens")
+            .withRequiredArg()
+            .describedAs("host")
+            .ofType(String.class)
+            .defaultsTo("127.0.0.1");
+        consolidateFlushes = acceptsAll(asList("consolidate-flushes"), "Delay flushing responses to pipelined requests until the end of the read or until this many bytes are pending")
+            .withOptionalArg()
+            .describedAs("bytes")
+            .ofType(Integer.class)
+            .defaultsTo(65536);
+        requestThreads = acceptsAll(asList("request-threads"), "Process requests with different stream ids concurrently on this many threads")
+            .withRequiredArg()
+            .describedAs("threads")
+            .ofType(Integer.class);
     }
 }
@@ -0,0 +1,171 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.oio.OioEventLoopGroup;
+import io.netty.channel.socket.ServerSocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.channel.socket.oio.OioServerSocketChannel;
+
+import java.util.NoSuchElementException;
+
+/**
+ * The Netty transports the data server can use.
+ *
+ * The native epoll transport is not a dependency of the data server. It
+ * is loaded by name if netty-transport-native-epoll is found on the class
+ * path or in a plugin directory.
+ */
+public enum DataServerTransport
+{
+    NIO {
+        @Override
+        public EventLoopGroup createEventLoopGroup(ClassLoader loader, int threads)
+        {
+            return new NioEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> getServerChannelClass(ClassLoader loader)
+        {
+            return NioServerSocketChannel.class;
+        }
+    },
+
+    OIO {
+        @Override
+        public EventLoopGroup createEventLoopGroup(ClassLoader loader, int threads)
+        {
+            return new OioEventLoopGroup(threads);
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> getServerChannelClass(ClassLoader loader)
+        {
+            return OioServerSocketChannel.class;
+        }
+    },
+
+    EPOLL {
+        @Override
+        public void checkAvailable(ClassLoader loader)
+        {
+            Throwable cause;
+            try {
+                Class<?> epoll = loadNativeClass(loader, "io.netty.channel.epoll.Epoll");
+                cause = (Throwable) epoll.getMethod("unavailabilityCause").invoke(null);
+            } catch (ReflectiveOperationException e) {
+                cause = e;
+            }
+            if (cause != null) {
+                throw new NoSuchElementException("Native epoll transport is not available: " + cause);
+            }
+        }
+
+        @Override
+        public EventLoopGroup createEventLoopGroup(ClassLoader loader, int threads)
+        {
+            try {
+                return (EventLoopGroup) loadNativeClass(loader, "io.netty.channel.epoll.EpollEventLoopGroup")
+                        .getConstructor(int.class).newInstance(threads);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Failed to create epoll event loop: " + e, e);
+            }
+        }
+
+        @Override
+        public Class<? extends ServerSocketChannel> getServerChannelClass(ClassLoader loader)
+        {
+            return loadNativeClass(loader, "io.netty.channel.epoll.EpollServerSocketChannel")
+                    .asSubclass(ServerSocketChannel.class);
+        }
+
+        @Override
+        public boolean supportsReusePort()
+        {
+            return true;
+        }
+
+        /**
+         * Netty registers the option under the name of the class defining
+         * it, so it has to be taken from EpollChannelOption rather than be
+         * looked up by name.
+         */
+        @Override
+        @SuppressWarnings("unchecked")
+        public ChannelOption<Boolean> getReusePortOption(ClassLoader loader)
+        {
+            try {
+                return (ChannelOption<Boolean>) loadNativeClass(loader, "io.netty.channel.epoll.EpollChannelOption")
+                        .getField("SO_REUSEPORT").get(null);
+            } catch (ReflectiveOperationException e) {
+                throw new RuntimeException("Failed to load SO_REUSEPORT option: " + e, e);
+            }
+        }
+    };
+
+    /**
+     * Throws NoSuchElementException if the transport cannot be used on
+     * this host.
+     */
+    public void checkAvailable(ClassLoader loader)
+    {
+    }
+
+    /**
+     * @param threads number of threads, or 0 for Netty's default
+     */
+    public abstract EventLoopGroup createEventLoopGroup(ClassLoader loader, int threads);
+
+    public abstract Class<? extends ServerSocketChannel> getServerChannelClass(ClassLoader loader);
+
+    /**
+     * Whether several server channels may bind the same port with
+     * SO_REUSEPORT, letting the kernel distribute the connections among
+     * them.
+     */
+    public boolean supportsReusePort()
+    {
+        return false;
+    }
+
+    /**
+     * Returns the SO_REUSEPORT option of the transport.
+     *
+     * @throws UnsupportedOperationException if the transport does not
+     *         support the option
+     */
+    public ChannelOption<Boolean> getReusePortOption(ClassLoader loader)
+    {
+        throw new UnsupportedOperationException("SO_REUSEPORT is not supported by the " + this + " transport");
+    }
+
+    private static Class<?> loadNativeClass(ClassLoader loader, String name)
+    {
+        try {
+            return Class.forName(name, true, loader);
+        } catch (ClassNotFoundException e) {
+            throw new NoSuchElementException("Native transport is not available: " +
+                                             name + " not found");
+        }
+    }
+}
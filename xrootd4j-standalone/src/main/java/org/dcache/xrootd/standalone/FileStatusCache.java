@@ -0,0 +1,226 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.sun.security.auth.module.UnixSystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.attribute.FileTime;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.xrootd.util.FileStatus;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+
+/**
+ * Reads the status of files with a single stat system call and caches
+ * it for a short time.
+ *
+ * Uses the unix attribute view, which unlike java.io.File provides the
+ * inode number and the mode bits in one call. The access flags are
+ * derived from the mode bits and the identity of the server process;
+ * ACLs are not taken into account. On file systems without the unix
+ * view, the status is assembled from java.io.File as before.
+ *
+ * Changes made by this server invalidate the cache; changes made by
+ * others become visible after at most the time to live. When full, the
+ * least recently used entries are evicted.
+ */
+public class FileStatusCache
+{
+    private static final String ATTRIBUTES = "unix:ino,mode,uid,gid,size,lastModifiedTime";
+
+    private static final int S_IFMT = 0170000;
+    private static final int S_IFDIR = 0040000;
+    private static final int S_IFREG = 0100000;
+
+    private static final long UID;
+    private static final long[] GIDS;
+
+    static {
+        long uid;
+        long[] gids;
+        try {
+            UnixSystem system = new UnixSystem();
+            uid = system.getUid();
+            long[] groups = system.getGroups();
+            gids = new long[groups.length + 1];
+            gids[0] = system.getGid();
+            System.arraycopy(groups, 0, gids, 1, groups.length);
+        } catch (LinkageError e) {
+            uid = -1;
+            gids = new long[0];
+        }
+        UID = uid;
+        GIDS = gids;
+    }
+
+    private final Cache<Path, FileStatus> entries;
+
+    /**
+     * @param ttl milliseconds for which a status is cached, or 0 to not cache
+     * @param maxEntries maximum number of cached entries
+     */
+    public FileStatusCache(long ttl, int maxEntries)
+    {
+        this(ttl, maxEntries, Ticker.systemTicker());
+    }
+
+    FileStatusCache(long ttl, int maxEntries, Ticker ticker)
+    {
+        entries = CacheBuilder.newBuilder()
+                .maximumSize(maxEntries)
+                .expireAfterWrite(ttl, TimeUnit.MILLISECONDS)
+                .ticker(ticker)
+                .build();
+    }
+
+    /**
+     * Returns the possibly cached status of a file.
+     *
+     * @throws NoSuchFileException if the file does not exist
+     */
+    public FileStatus getStatus(Path path) throws IOException
+    {
+        FileStatus status = entries.getIfPresent(path);
+        if (status == null) {
+            status = readStatus(path);
+            entries.put(path, status);
+        }
+        return status;
+    }
+
+    /**
+     * Removes the status of a file from the cache. To be called after
+     * this server modified the file.
+     */
+    public void invalidate(Path path)
+    {
+        entries.invalidate(path);
+    }
+
+    long size()
+    {
+        return entries.size();
+    }
+
+    /**
+     * Reads the status of a file, bypassing the cache.
+     *
+     * @throws NoSuchFileException if the file does not exist
+     */
+    public static FileStatus readStatus(Path path) throws IOException
+    {
+        Map<String, Object> attributes;
+        try {
+            attributes = Files.readAttributes(path, ATTRIBUTES);
+        } catch (UnsupportedOperationException e) {
+            return readStatus(path.toFile());
+        }
+        int mode = (Integer) attributes.get("mode");
+        int flags = 0;
+        switch (mode & S_IFMT) {
+        case S_IFDIR:
+            flags |= kXR_isDir;
+            break;
+        case S_IFREG:
+            break;
+        default:
+            flags |= kXR_other;
+            break;
+        }
+        flags |= accessFlags(mode, (Integer) attributes.get("uid"), (Integer) attributes.get("gid"));
+        return new FileStatus((Long) attributes.get("ino"),
+                              (Long) attributes.get("size"),
+                              flags,
+                              ((FileTime) attributes.get("lastModifiedTime")).toMillis() / 1000);
+    }
+
+    /**
+     * Returns the kXR_readable, kXR_writable and kXR_xset flags the mode
+     * bits grant to this process, following the rules of access(2).
+     */
+    private static int accessFlags(int mode, int uid, int gid)
+    {
+        if (UID == 0) {
+            return kXR_readable | kXR_writable | (((mode & 0111) != 0) ? kXR_xset : 0);
+        }
+        int bits;
+        if (uid == UID) {
+            bits = mode >> 6;
+        } else if (isMember(gid)) {
+            bits = mode >> 3;
+        } else {
+            bits = mode;
+        }
+        int flags = 0;
+        if ((bits & 04) != 0) {
+            flags |= kXR_readable;
+        }
+        if ((bits & 02) != 0) {
+            flags |= kXR_writable;
+        }
+        if ((bits & 01) != 0) {
+            flags |= kXR_xset;
+        }
+        return flags;
+    }
+
+    private static boolean isMember(int gid)
+    {
+        for (long g : GIDS) {
+            if (g == gid) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static FileStatus readStatus(File file) throws IOException
+    {
+        if (!file.exists()) {
+            throw new NoSuchFileException(file.getPath());
+        }
+        int flags = 0;
+        if (file.isDirectory()) {
+            flags |= kXR_isDir;
+        }
+        if (!file.isFile() && !file.isDirectory()) {
+            flags |= kXR_other;
+        }
+        if (file.canExecute()) {
+            flags |= kXR_xset;
+        }
+        if (file.canRead()) {
+            flags |= kXR_readable;
+        }
+        if (file.canWrite()) {
+            flags |= kXR_writable;
+        }
+        return new FileStatus(0, file.length(), flags, file.lastModified() / 1000);
+    }
+}
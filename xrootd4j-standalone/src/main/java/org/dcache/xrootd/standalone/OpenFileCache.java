@@ -0,0 +1,244 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.xrootd.stream.MappedFileCache;
+
+/**
+ * Shares read-only files among all connections of the server.
+ *
+ * A file opened for reading by several clients at a time is opened
+ * once, and its RandomAccessFile is handed to each of them. Reads use
+ * positional I/O on its channel, so they do not interfere. A file is
+ * closed once no client has had it open for the idle timeout.
+ *
+ * Files are looked up by path and inode, so a file replaced under the
+ * same path is opened anew rather than served from the old inode.
+ */
+public class OpenFileCache
+{
+    private static final Logger _log = LoggerFactory.getLogger(OpenFileCache.class);
+
+    private final long _idleTimeout;
+
+    private final Map<Key, Entry> _entries = new HashMap<>();
+
+    private final Map<RandomAccessFile, Entry> _entriesByFile = new IdentityHashMap<>();
+
+    private final ScheduledExecutorService _timer;
+
+    private final MappedFileCache _mappedFiles;
+
+    /**
+     * @param idleTimeout milliseconds after which a file no client has
+     *                    open is closed
+     * @param mappedFiles memory mapped regions of files to drop when a file
+     *                    is closed, or null
+     */
+    public OpenFileCache(long idleTimeout, MappedFileCache mappedFiles)
+    {
+        _idleTimeout = idleTimeout;
+        _mappedFiles = mappedFiles;
+        _timer = Executors.newSingleThreadScheduledExecutor(
+                new ThreadFactoryBuilder().setNameFormat("file-cache").setDaemon(true).build());
+        long period = Math.max(idleTimeout / 2, 1);
+        _timer.scheduleWithFixedDelay(this::closeIdleFiles, period, period, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Opens a file for reading. The file must be released with
+     * {@link #release} rather than closed.
+     *
+     * @param path the file to open
+     * @param inode the inode of the file
+     */
+    public RandomAccessFile open(Path path, long inode) throws IOException
+    {
+        Key key = new Key(path, inode);
+        synchronized (this) {
+            Entry entry = _entries.get(key);
+            if (entry != null) {
+                entry.references++;
+                return entry.file;
+            }
+        }
+
+        /* Open outside the lock, so a slow file system does not block
+         * opening other files.
+         */
+        RandomAccessFile file = new RandomAccessFile(path.toFile(), "r");
+        RandomAccessFile shared;
+        synchronized (this) {
+            Entry entry = _entries.get(key);
+            if (entry == null) {
+                entry = new Entry(key, file);
+                _entries.put(key, entry);
+                _entriesByFile.put(file, entry);
+                return file;
+            }
+            entry.references++;
+            shared = entry.file;
+        }
+        file.close();
+        return shared;
+    }
+
+    /**
+     * Releases a file obtained from {@link #open}.
+     *
+     * @return false if the file was not obtained from this cache, in
+     *         which case the caller has to close it
+     */
+    public synchronized boolean release(RandomAccessFile file)
+    {
+        Entry entry = _entriesByFile.get(file);
+        if (entry == null) {
+            return false;
+        }
+        if (--entry.references == 0) {
+            entry.released = System.nanoTime();
+        }
+        return true;
+    }
+
+    /**
+     * Closes the unused files with the given path, e.g. after it has
+     * been removed, replaced or truncated, so that its space is freed and
+     * no stale mappings of it are kept.
+     */
+    public void invalidate(Path path)
+    {
+        List<RandomAccessFile> closed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry> iterator = _entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.references == 0 && entry.key.path.equals(path)) {
+                    iterator.remove();
+                    _entriesByFile.remove(entry.file);
+                    closed.add(entry.file);
+                }
+            }
+        }
+        close(closed);
+    }
+
+    public synchronized int size()
+    {
+        return _entries.size();
+    }
+
+    public void shutdown()
+    {
+        _timer.shutdown();
+    }
+
+    private void closeIdleFiles()
+    {
+        long now = System.nanoTime();
+        List<RandomAccessFile> closed = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Entry> iterator = _entries.values().iterator();
+            while (iterator.hasNext()) {
+                Entry entry = iterator.next();
+                if (entry.references == 0 &&
+                        TimeUnit.NANOSECONDS.toMillis(now - entry.released) >= _idleTimeout) {
+                    iterator.remove();
+                    _entriesByFile.remove(entry.file);
+                    closed.add(entry.file);
+                }
+            }
+        }
+        close(closed);
+    }
+
+    private void close(List<RandomAccessFile> files)
+    {
+        for (RandomAccessFile file : files) {
+            if (_mappedFiles != null) {
+                _mappedFiles.unmap(file.getChannel());
+            }
+            try {
+                file.close();
+            } catch (IOException e) {
+                _log.warn("Failed to close file: {}", e.toString());
+            }
+        }
+    }
+
+    private static class Key
+    {
+        private final Path path;
+        private final long inode;
+
+        Key(Path path, long inode)
+        {
+            this.path = path;
+            this.inode = inode;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (!(o instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) o;
+            return inode == other.inode && path.equals(other.path);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(path, inode);
+        }
+    }
+
+    private static class Entry
+    {
+        private final Key key;
+        private final RandomAccessFile file;
+        private int references = 1;
+        private long released;
+
+        Entry(Key key, RandomAccessFile file)
+        {
+            this.key = key;
+            this.file = file;
+        }
+    }
+}
@@ -0,0 +1,289 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.function.Consumer;
+
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+
+/**
+ * Writes the data of kXR_write requests to a file in the background.
+ *
+ * Writes are queued and written in order by at most one task at a time
+ * on a shared executor. The task takes all writes queued so far and
+ * writes each run of writes to adjacent ranges of the file with a single
+ * gathering write, so that many small sequential writes of a client
+ * become few large writes.
+ *
+ * Once a write has failed, all later writes fail with the same error, and
+ * the error is passed to the actions given to {@link #afterWrites}, i.e. to
+ * the next kXR_sync or kXR_close of the file.
+ *
+ * No method blocks, so the queue may be used on the event loop.
+ *
+ * The position of the file channel is used by the write task, so the file
+ * must not be written by other means while it is in use.
+ */
+public class WriteBehindFile
+{
+    /**
+     * When a write is acknowledged to the client.
+     */
+    public enum Durability
+    {
+        /**
+         * Once queued, unless the queue is full.
+         */
+        QUEUED,
+
+        /**
+         * Once written to the file.
+         */
+        WRITTEN,
+
+        /**
+         * Once written to the file and synchronized to disk.
+         */
+        SYNCED
+    }
+
+    private final FileChannel _channel;
+    private final Durability _durability;
+    private final long _maxQueued;
+    private final Executor _executor;
+    private final Runnable _onWrite;
+
+    private final ArrayDeque<Write> _queue = new ArrayDeque<>();
+
+    /**
+     * Bytes queued or being written.
+     */
+    private long _queued;
+
+    private boolean _isWriting;
+
+    private IOException _error;
+
+    /**
+     * @param channel the file to write to
+     * @param durability when writes are acknowledged
+     * @param maxQueued number of bytes beyond which writes are acknowledged
+     *                  only once written, even if durability is QUEUED
+     * @param executor runs the write task
+     */
+    public WriteBehindFile(FileChannel channel, Durability durability, long maxQueued, Executor executor)
+    {
+        this(channel, durability, maxQueued, executor, () -> {});
+    }
+
+    /**
+     * @param channel the file to write to
+     * @param durability when writes are acknowledged
+     * @param maxQueued number of bytes beyond which writes are acknowledged
+     *                  only once written, even if durability is QUEUED
+     * @param executor runs the write task
+     * @param onWrite called after data has been written to the file and
+     *                before the writes are acknowledged, e.g. to invalidate
+     *                cached data of the file
+     */
+    public WriteBehindFile(FileChannel channel, Durability durability, long maxQueued, Executor executor,
+                           Runnable onWrite)
+    {
+        _channel = channel;
+        _durability = durability;
+        _maxQueued = maxQueued;
+        _executor = executor;
+        _onWrite = onWrite;
+    }
+
+    /**
+     * Queues the data of a write request. The request is retained until
+     * its data has been written.
+     *
+     * @param request the write request
+     * @param onWritten called with null once the data has been written,
+     *                  or with the error that prevented it, unless the
+     *                  write may be acknowledged right away
+     * @return true if the write may be acknowledged right away, in which
+     *         case {@code onWritten} is not called
+     * @throws IOException if an earlier write failed
+     */
+    public boolean write(WriteRequest request, Consumer<IOException> onWritten) throws IOException
+    {
+        boolean isAcknowledged;
+        boolean isStarting;
+        synchronized (this) {
+            if (_error != null) {
+                throw _error;
+            }
+            isAcknowledged = _durability == Durability.QUEUED && _queued < _maxQueued;
+            _queue.add(new Write(request.retain(), isAcknowledged ? null : onWritten));
+            _queued += request.getDataLength();
+            isStarting = !_isWriting;
+            _isWriting = true;
+        }
+        if (isStarting) {
+            try {
+                _executor.execute(this::drain);
+            } catch (RejectedExecutionException e) {
+                /* The server is shutting down. */
+                drain();
+            }
+        }
+        return isAcknowledged;
+    }
+
+    /**
+     * Runs an action once all writes queued so far have been written, e.g.
+     * before reading, synchronizing or closing the file. The action runs
+     * right away if no writes are queued, and otherwise on the thread of the
+     * write task, in the order in which writes and actions were queued.
+     *
+     * @param action called with the error of a failed write, or null
+     */
+    public void afterWrites(Consumer<IOException> action)
+    {
+        IOException error;
+        synchronized (this) {
+            if (_isWriting) {
+                _queue.add(new Write(null, action));
+                return;
+            }
+            error = _error;
+        }
+        action.accept(error);
+    }
+
+    private void drain()
+    {
+        while (true) {
+            List<Write> batch = new ArrayList<>();
+            Write barrier = null;
+            IOException error;
+            synchronized (this) {
+                if (_queue.isEmpty()) {
+                    _isWriting = false;
+                    return;
+                }
+                while (!_queue.isEmpty() && _queue.peek().request != null) {
+                    batch.add(_queue.poll());
+                }
+                if (batch.isEmpty()) {
+                    barrier = _queue.poll();
+                }
+                error = _error;
+            }
+
+            if (barrier != null) {
+                barrier.onWritten.accept(error);
+                continue;
+            }
+
+            long bytes = 0;
+            for (Write write : batch) {
+                bytes += write.request.getDataLength();
+            }
+            if (error == null) {
+                try {
+                    write(batch);
+                    if (_durability == Durability.SYNCED) {
+                        _channel.force(false);
+                    }
+                } catch (IOException e) {
+                    error = e;
+                }
+                _onWrite.run();
+            }
+
+            synchronized (this) {
+                _queued -= bytes;
+                if (_error == null) {
+                    _error = error;
+                }
+            }
+            for (Write write : batch) {
+                write.request.release();
+                if (write.onWritten != null) {
+                    write.onWritten.accept(error);
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes each run of writes to adjacent ranges with a single gathering
+     * write.
+     */
+    private void write(List<Write> batch) throws IOException
+    {
+        int start = 0;
+        while (start < batch.size()) {
+            long position = batch.get(start).request.getWriteOffset();
+            long end = position;
+            int next = start;
+            List<ByteBuffer> buffers = new ArrayList<>();
+            while (next < batch.size() && batch.get(next).request.getWriteOffset() == end) {
+                WriteRequest request = batch.get(next).request;
+                for (ByteBuffer buffer : request.toByteBuffers()) {
+                    buffers.add(buffer);
+                }
+                end += request.getDataLength();
+                next++;
+            }
+            write(position, buffers.toArray(new ByteBuffer[buffers.size()]));
+            start = next;
+        }
+    }
+
+    private void write(long position, ByteBuffer[] buffers) throws IOException
+    {
+        _channel.position(position);
+        int first = 0;
+        while (first < buffers.length) {
+            _channel.write(buffers, first, buffers.length - first);
+            while (first < buffers.length && !buffers[first].hasRemaining()) {
+                first++;
+            }
+        }
+    }
+
+    /**
+     * A queued write, or an action to run once the preceding writes have
+     * been written if the request is null.
+     */
+    private static class Write
+    {
+        private final WriteRequest request;
+        private final Consumer<IOException> onWritten;
+
+        Write(WriteRequest request, Consumer<IOException> onWritten)
+        {
+            this.request = request;
+            this.onWritten = onWritten;
+        }
+    }
+}
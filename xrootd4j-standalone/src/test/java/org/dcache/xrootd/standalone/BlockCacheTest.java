@@ -0,0 +1,201 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.dcache.xrootd.standalone.BlockCache.BLOCK_SIZE;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class BlockCacheTest
+{
+    private Path dir;
+    private final List<FileChannel> channels = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("blockcache");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for (FileChannel channel : channels) {
+            channel.close();
+        }
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void shouldServeRepeatedReadsFromCache() throws Exception
+    {
+        BlockCache cache = new BlockCache(4 * BLOCK_SIZE);
+        BlockCache.CachedFile file = open(cache, givenFile("a", 2 * BLOCK_SIZE, 'a'));
+
+        assertThat(read(cache, file, 0, 100), is(filled(100, 'a')));
+        assertThat(read(cache, file, BLOCK_SIZE - 50, 100), is(filled(100, 'a')));
+
+        assertThat(cache.getMisses(), is(2L));
+        assertThat(cache.getHits(), is(1L));
+        assertThat(cache.getSize(), is((long) 2 * BLOCK_SIZE));
+    }
+
+    @Test
+    public void shouldKeepPopularBlocksDuringScan() throws Exception
+    {
+        BlockCache cache = new BlockCache(4 * BLOCK_SIZE);
+        BlockCache.CachedFile hot = open(cache, givenFile("hot", 2 * BLOCK_SIZE, 'h'));
+        BlockCache.CachedFile scan = open(cache, givenFile("scan", 20 * BLOCK_SIZE, 's'));
+        // Saturate the estimated frequency of the hot blocks
+        for (int i = 0; i < 16; i++) {
+            read(cache, hot, 0, 2 * BLOCK_SIZE);
+        }
+
+        for (int i = 0; i < 20; i++) {
+            read(cache, scan, (long) i * BLOCK_SIZE, BLOCK_SIZE);
+        }
+        long hits = cache.getHits();
+        read(cache, hot, 0, 2 * BLOCK_SIZE);
+
+        assertThat(cache.getHits(), is(hits + 2));
+        assertThat(cache.getSize(), is(lessThanOrEqualTo((long) 4 * BLOCK_SIZE)));
+    }
+
+    @Test
+    public void shouldNotServeBlocksOfFileRewrittenInPlace() throws Exception
+    {
+        BlockCache cache = new BlockCache(4 * BLOCK_SIZE);
+        Path path = givenFile("f", BLOCK_SIZE, 'a');
+        read(cache, open(cache, path), 0, 100);
+
+        // Let the coarse file system clock advance
+        Thread.sleep(20);
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap(filled(BLOCK_SIZE, 'b')), 0);
+        }
+
+        assertThat(read(cache, open(cache, path), 0, 100), is(filled(100, 'b')));
+    }
+
+    @Test
+    public void shouldReadDataAppendedWhileOpen() throws Exception
+    {
+        BlockCache cache = new BlockCache(4 * BLOCK_SIZE);
+        Path path = givenFile("f", 1000, 'a');
+        BlockCache.CachedFile file = open(cache, path);
+        read(cache, file, 0, 1000);
+
+        Files.write(path, filled(500, 'b'), StandardOpenOption.APPEND);
+
+        assertThat(file.getSize(), is(1500L));
+        assertThat(read(cache, file, 1000, 1000), is(filled(500, 'b')));
+    }
+
+    @Test
+    public void shouldDiscardBlocksOfInvalidatedFile() throws Exception
+    {
+        BlockCache cache = new BlockCache(4 * BLOCK_SIZE);
+        Path path = givenFile("f", 2 * BLOCK_SIZE, 'a');
+        read(cache, open(cache, path), 0, 2 * BLOCK_SIZE);
+
+        cache.invalidate(FileStatusCache.readStatus(path).getId());
+
+        assertThat(cache.getSize(), is(0L));
+    }
+
+    @Test
+    public void shouldNotCacheBlocksLargerThanCapacity() throws Exception
+    {
+        BlockCache cache = new BlockCache(BLOCK_SIZE / 2);
+        BlockCache.CachedFile file = open(cache, givenFile("f", BLOCK_SIZE, 'a'));
+
+        assertThat(read(cache, file, 0, BLOCK_SIZE), is(filled(BLOCK_SIZE, 'a')));
+        assertThat(cache.getSize(), is(0L));
+    }
+
+    @Test
+    public void shouldHalveFrequenciesOnceSampleIsFull()
+    {
+        BlockCache.FrequencySketch sketch = new BlockCache.FrequencySketch(1024);
+        for (int i = 0; i < 20; i++) {
+            sketch.increment(42);
+        }
+        assertThat(sketch.frequency(42), is(15));
+
+        int hash = 0;
+        while (sketch.frequency(42) == 15 && hash < 1_000_000) {
+            sketch.increment(++hash * 0x61C88647);
+        }
+
+        assertThat(sketch.frequency(42), is(lessThanOrEqualTo(7)));
+    }
+
+    private Path givenFile(String name, int size, char c) throws IOException
+    {
+        return Files.write(dir.resolve(name), filled(size, c));
+    }
+
+    private BlockCache.CachedFile open(BlockCache cache, Path path) throws IOException
+    {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        channels.add(channel);
+        return cache.newFile(channel, path);
+    }
+
+    private static byte[] read(BlockCache cache, BlockCache.CachedFile file, long position, int length)
+        throws IOException
+    {
+        ByteBuf data = cache.read(file, position, length);
+        try {
+            byte[] bytes = new byte[data.readableBytes()];
+            data.readBytes(bytes);
+            return bytes;
+        } finally {
+            data.release();
+        }
+    }
+
+    private static byte[] filled(int size, char c)
+    {
+        byte[] bytes = new byte[size];
+        Arrays.fill(bytes, (byte) c);
+        return bytes;
+    }
+}
@@ -0,0 +1,73 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.EventLoopGroup;
+import org.junit.Test;
+
+import java.net.InetSocketAddress;
+import java.util.NoSuchElementException;
+
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeNoException;
+
+public class DataServerTransportTest
+{
+    private final ClassLoader loader = DataServerTransportTest.class.getClassLoader();
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void shouldNotProvideReusePortForNio()
+    {
+        DataServerTransport.NIO.getReusePortOption(loader);
+    }
+
+    @Test
+    public void shouldBindTwiceOnOnePortWithReusePort() throws Exception
+    {
+        try {
+            DataServerTransport.EPOLL.checkAvailable(loader);
+        } catch (NoSuchElementException e) {
+            assumeNoException(e);
+        }
+
+        EventLoopGroup group = DataServerTransport.EPOLL.createEventLoopGroup(loader, 2);
+        try {
+            ServerBootstrap bootstrap = new ServerBootstrap()
+                    .group(group)
+                    .channel(DataServerTransport.EPOLL.getServerChannelClass(loader))
+                    .localAddress("127.0.0.1", 0)
+                    .option(DataServerTransport.EPOLL.getReusePortOption(loader), true)
+                    .childHandler(new ChannelInboundHandlerAdapter());
+            Channel first = bootstrap.bind().sync().channel();
+            int port = ((InetSocketAddress) first.localAddress()).getPort();
+            Channel second = bootstrap.bind("127.0.0.1", port).sync().channel();
+
+            assertThat(((InetSocketAddress) second.localAddress()).getPort(), is(port));
+
+            second.close().sync();
+            first.close().sync();
+        } finally {
+            group.shutdownGracefully().sync();
+        }
+    }
+}
@@ -0,0 +1,155 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import com.google.common.base.Ticker;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class FileStatusCacheTest
+{
+    private Path dir;
+    private long now;
+    private final Ticker ticker = new Ticker()
+    {
+        @Override
+        public long read()
+        {
+            return now;
+        }
+    };
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("statcache");
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void shouldCacheStatusWithinTimeToLive() throws Exception
+    {
+        FileStatusCache cache = new FileStatusCache(1000, 16, ticker);
+        Path path = givenFile("a", 1);
+
+        cache.getStatus(path);
+        givenFile("a", 2);
+        advance(999);
+
+        assertThat(cache.getStatus(path).getSize(), is(1L));
+    }
+
+    @Test
+    public void shouldReadStatusAgainAfterTimeToLive() throws Exception
+    {
+        FileStatusCache cache = new FileStatusCache(1000, 16, ticker);
+        Path path = givenFile("a", 1);
+
+        cache.getStatus(path);
+        givenFile("a", 2);
+        advance(1000);
+
+        assertThat(cache.getStatus(path).getSize(), is(2L));
+    }
+
+    @Test
+    public void shouldNotCacheWithZeroTimeToLive() throws Exception
+    {
+        FileStatusCache cache = new FileStatusCache(0, 16, ticker);
+        Path path = givenFile("a", 1);
+
+        cache.getStatus(path);
+        givenFile("a", 2);
+
+        assertThat(cache.getStatus(path).getSize(), is(2L));
+    }
+
+    @Test
+    public void shouldReadStatusAgainAfterInvalidation() throws Exception
+    {
+        FileStatusCache cache = new FileStatusCache(1000, 16, ticker);
+        Path path = givenFile("a", 1);
+
+        cache.getStatus(path);
+        givenFile("a", 2);
+        cache.invalidate(path);
+
+        assertThat(cache.getStatus(path).getSize(), is(2L));
+    }
+
+    @Test
+    public void shouldNotCacheMissingFiles() throws Exception
+    {
+        FileStatusCache cache = new FileStatusCache(1000, 16, ticker);
+        Path path = dir.resolve("a");
+
+        try {
+            cache.getStatus(path);
+        } catch (NoSuchFileException expected) {
+        }
+        givenFile("a", 1);
+
+        assertThat(cache.getStatus(path).getSize(), is(1L));
+    }
+
+    @Test
+    public void shouldEvictOnlyOldEntriesWhenFull() throws Exception
+    {
+        FileStatusCache cache = new FileStatusCache(1000, 64, ticker);
+        for (int i = 0; i < 80; i++) {
+            cache.getStatus(givenFile("f" + i, 1));
+        }
+        Path recent = dir.resolve("f79");
+        givenFile("f79", 2);
+
+        assertThat(cache.size(), is(both(greaterThan(32L)).and(lessThanOrEqualTo(64L))));
+        assertThat(cache.getStatus(recent).getSize(), is(1L));
+    }
+
+    private void advance(long millis)
+    {
+        now += TimeUnit.MILLISECONDS.toNanos(millis);
+    }
+
+    private Path givenFile(String name, int size) throws IOException
+    {
+        return Files.write(dir.resolve(name), new byte[size]);
+    }
+}
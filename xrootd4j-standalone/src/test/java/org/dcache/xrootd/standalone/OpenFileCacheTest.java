@@ -0,0 +1,235 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.concurrent.TimeUnit;
+
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class OpenFileCacheTest
+{
+    private static final long IDLE_TIMEOUT = 100;
+
+    private Path dir;
+    private OpenFileCache cache;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        dir = Files.createTempDirectory("openfiles");
+        cache = new OpenFileCache(IDLE_TIMEOUT, null);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        cache.shutdown();
+        try (DirectoryStream<Path> paths = Files.newDirectoryStream(dir)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(dir);
+    }
+
+    @Test
+    public void shouldShareFileOpenedTwice() throws Exception
+    {
+        Path path = givenFile("a");
+
+        RandomAccessFile first = open(path);
+        RandomAccessFile second = open(path);
+
+        assertThat(second, is(sameInstance(first)));
+        assertThat(cache.size(), is(1));
+        release(first);
+        release(second);
+    }
+
+    @Test
+    public void shouldNotShareReplacedFile() throws Exception
+    {
+        Path path = givenFile("a");
+        RandomAccessFile first = open(path);
+
+        Files.move(givenFile("b"), path, StandardCopyOption.REPLACE_EXISTING);
+        RandomAccessFile second = open(path);
+
+        assertThat(second, is(not(sameInstance(first))));
+        assertThat(cache.size(), is(2));
+        release(first);
+        release(second);
+    }
+
+    @Test
+    public void shouldNotReleaseFilesNotOpenedByCache() throws Exception
+    {
+        try (RandomAccessFile file = new RandomAccessFile(givenFile("a").toFile(), "r")) {
+            assertThat(cache.release(file), is(false));
+        }
+    }
+
+    @Test
+    public void shouldCloseFileOnceIdle() throws Exception
+    {
+        RandomAccessFile file = open(givenFile("a"));
+
+        release(file);
+
+        awaitClosed(file);
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void shouldNotCloseFileWhileReferenced() throws Exception
+    {
+        Path path = givenFile("a");
+        RandomAccessFile file = open(path);
+        open(path);
+
+        release(file);
+        Thread.sleep(3 * IDLE_TIMEOUT);
+
+        assertThat(isOpen(file), is(true));
+        release(file);
+        awaitClosed(file);
+    }
+
+    @Test
+    public void shouldOpenAgainAfterIdleClose() throws Exception
+    {
+        Path path = givenFile("a");
+        RandomAccessFile first = open(path);
+        release(first);
+        awaitClosed(first);
+
+        RandomAccessFile second = open(path);
+
+        assertThat(isOpen(second), is(true));
+        release(second);
+    }
+
+    @Test
+    public void shouldCloseUnusedFileOnInvalidationAfterRemoval() throws Exception
+    {
+        Path path = givenFile("a");
+        RandomAccessFile file = open(path);
+        release(file);
+
+        Files.delete(path);
+        cache.invalidate(path);
+
+        assertThat(isOpen(file), is(false));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void shouldCloseUnusedFileOnInvalidationAfterMove() throws Exception
+    {
+        Path path = givenFile("a");
+        RandomAccessFile file = open(path);
+        release(file);
+
+        Files.move(path, dir.resolve("b"));
+        cache.invalidate(path);
+
+        assertThat(isOpen(file), is(false));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void shouldCloseUnusedFileOnInvalidationAfterTruncation() throws Exception
+    {
+        Path path = givenFile("a");
+        RandomAccessFile file = open(path);
+        release(file);
+
+        Files.write(path, new byte[0]);
+        cache.invalidate(path);
+
+        assertThat(isOpen(file), is(false));
+        assertThat(cache.size(), is(0));
+    }
+
+    @Test
+    public void shouldNotCloseUsedFileOnInvalidation() throws Exception
+    {
+        Path path = givenFile("a");
+        RandomAccessFile file = open(path);
+
+        Files.delete(path);
+        cache.invalidate(path);
+
+        assertThat(isOpen(file), is(true));
+        release(file);
+        awaitClosed(file);
+    }
+
+    @Test
+    public void shouldNotCloseFilesWithOtherPathsOnInvalidation() throws Exception
+    {
+        RandomAccessFile file = open(givenFile("a"));
+        release(file);
+
+        cache.invalidate(dir.resolve("b"));
+
+        assertThat(isOpen(file), is(true));
+        assertThat(cache.size(), is(1));
+    }
+
+    private Path givenFile(String name) throws IOException
+    {
+        return Files.write(dir.resolve(name), new byte[] { 1, 2, 3 });
+    }
+
+    private RandomAccessFile open(Path path) throws IOException
+    {
+        return cache.open(path, FileStatusCache.readStatus(path).getId());
+    }
+
+    private void release(RandomAccessFile file)
+    {
+        assertThat(cache.release(file), is(true));
+    }
+
+    private static boolean isOpen(RandomAccessFile file) throws IOException
+    {
+        return file.getFD().valid();
+    }
+
+    private static void awaitClosed(RandomAccessFile file) throws InterruptedException, IOException
+    {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(10);
+        while (isOpen(file) && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertThat(isOpen(file), is(false));
+    }
+}
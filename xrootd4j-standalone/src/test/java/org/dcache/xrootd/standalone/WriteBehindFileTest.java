@@ -0,0 +1,304 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.standalone;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+import org.dcache.xrootd.standalone.WriteBehindFile.Durability;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class WriteBehindFileTest
+{
+    private Path path;
+    private FileChannel channel;
+    private final Queue<Runnable> tasks = new ArrayDeque<>();
+    private final List<WriteRequest> requests = new ArrayList<>();
+
+    @Before
+    public void setUp() throws IOException
+    {
+        path = Files.createTempFile("writebehind", null);
+        channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        for (WriteRequest request : requests) {
+            if (request.refCnt() > 0) {
+                request.release(request.refCnt());
+            }
+        }
+        channel.close();
+        Files.delete(path);
+    }
+
+    @Test
+    public void shouldRunActionRightAwayWithoutQueuedWrites()
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+        List<Object> events = new ArrayList<>();
+
+        file.afterWrites(error -> events.add(String.valueOf(error)));
+
+        assertThat(events, contains("null"));
+        assertThat(tasks, is(empty()));
+    }
+
+    @Test
+    public void shouldNotBlockWhileWritesAreQueued() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+        List<Object> events = new ArrayList<>();
+
+        file.write(givenWrite(0, "aaaa"), null);
+        file.afterWrites(error -> events.add("after"));
+
+        assertThat(events, is(empty()));
+        assertThat(contentOfFile(), is(""));
+    }
+
+    @Test
+    public void shouldWriteInOrderOfRequests() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+
+        file.write(givenWrite(0, "aaaa"), null);
+        file.write(givenWrite(4, "bbbb"), null);
+        file.write(givenWrite(2, "cc"), null);
+        file.write(givenWrite(8, "dd"), null);
+        runTasks();
+
+        assertThat(contentOfFile(), is("aaccbbbbdd"));
+    }
+
+    @Test
+    public void shouldRunActionsAfterPrecedingWritesOnly() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+        List<Object> events = new ArrayList<>();
+
+        file.write(givenWrite(0, "aaaa"), null);
+        file.afterWrites(error -> events.add(contentOfFileUnchecked()));
+        file.write(givenWrite(4, "bbbb"), null);
+        file.afterWrites(error -> events.add(contentOfFileUnchecked()));
+        runTasks();
+
+        assertThat(events, contains("aaaa", "aaaabbbb"));
+    }
+
+    @Test
+    public void shouldAcknowledgeQueuedWritesRightAway() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+        List<Object> events = new ArrayList<>();
+
+        boolean isAcknowledged = file.write(givenWrite(0, "aaaa"), events::add);
+        runTasks();
+
+        assertThat(isAcknowledged, is(true));
+        assertThat(events, is(empty()));
+    }
+
+    @Test
+    public void shouldAcknowledgeWritesOnceWrittenWhenQueueIsFull() throws Exception
+    {
+        WriteBehindFile file = new WriteBehindFile(channel, Durability.QUEUED, 4, tasks::add);
+        List<Object> events = new ArrayList<>();
+
+        assertThat(file.write(givenWrite(0, "aaaa"), error -> events.add("first")), is(true));
+        assertThat(file.write(givenWrite(4, "bbbb"), error -> events.add("second " + error)), is(false));
+        assertThat(events, is(empty()));
+        runTasks();
+
+        assertThat(events, contains("second null"));
+    }
+
+    @Test
+    public void shouldAcknowledgeWrittenWritesOnceWritten() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.WRITTEN);
+        List<Object> events = new ArrayList<>();
+
+        boolean isAcknowledged = file.write(givenWrite(0, "aaaa"), error -> events.add(contentOfFileUnchecked()));
+        assertThat(events, is(empty()));
+        runTasks();
+
+        assertThat(isAcknowledged, is(false));
+        assertThat(events, contains("aaaa"));
+    }
+
+    @Test
+    public void shouldNotifyOfWritesBeforeAcknowledgingThem() throws Exception
+    {
+        List<Object> events = new ArrayList<>();
+        WriteBehindFile file = new WriteBehindFile(channel, Durability.WRITTEN, 1 << 20, tasks::add,
+                                                   () -> events.add("written " + contentOfFileUnchecked()));
+
+        file.write(givenWrite(0, "aaaa"), error -> events.add("acknowledged"));
+        file.write(givenWrite(4, "bbbb"), error -> events.add("acknowledged"));
+        runTasks();
+
+        assertThat(events, contains("written aaaabbbb", "acknowledged", "acknowledged"));
+    }
+
+    @Test
+    public void shouldReportFailedWriteToNextAction() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+        List<Object> events = new ArrayList<>();
+
+        file.write(givenWrite(0, "aaaa"), null);
+        channel.close();
+        runTasks();
+        file.afterWrites(events::add);
+        file.afterWrites(events::add);
+
+        assertThat(events, contains(instanceOf(ClosedChannelException.class),
+                                    instanceOf(ClosedChannelException.class)));
+    }
+
+    @Test
+    public void shouldReportFailedWriteToActionQueuedBeforeFailure() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.WRITTEN);
+        List<Object> events = new ArrayList<>();
+
+        file.write(givenWrite(0, "aaaa"), events::add);
+        file.afterWrites(events::add);
+        channel.close();
+        runTasks();
+
+        assertThat(events, contains(instanceOf(ClosedChannelException.class),
+                                    instanceOf(ClosedChannelException.class)));
+    }
+
+    @Test(expected = ClosedChannelException.class)
+    public void shouldFailWritesAfterFailedWrite() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+        file.write(givenWrite(0, "aaaa"), null);
+        channel.close();
+        runTasks();
+
+        file.write(givenWrite(4, "bbbb"), null);
+    }
+
+    @Test
+    public void shouldReleaseRequestsOnceWritten() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+        WriteRequest request = givenWrite(0, "aaaa");
+
+        file.write(request, null);
+        request.release();
+        assertThat(request.refCnt(), is(1));
+        runTasks();
+
+        assertThat(request.refCnt(), is(0));
+    }
+
+    @Test
+    public void shouldReleaseRequestsOfFailedWrites() throws Exception
+    {
+        WriteBehindFile file = givenWriteBehindFile(Durability.QUEUED);
+        WriteRequest first = givenWrite(0, "aaaa");
+        WriteRequest second = givenWrite(4, "bbbb");
+
+        file.write(first, null);
+        channel.close();
+        runTasks();
+        first.release();
+        try {
+            file.write(second, null);
+        } catch (ClosedChannelException ignored) {
+        }
+        second.release();
+
+        assertThat(first.refCnt(), is(0));
+        assertThat(second.refCnt(), is(0));
+    }
+
+    private WriteBehindFile givenWriteBehindFile(Durability durability)
+    {
+        return new WriteBehindFile(channel, durability, 1 << 20, tasks::add);
+    }
+
+    private WriteRequest givenWrite(long offset, String data)
+    {
+        byte[] bytes = data.getBytes(StandardCharsets.US_ASCII);
+        ByteBuf frame = Unpooled.buffer(24 + bytes.length);
+        frame.writeShort(1);
+        frame.writeShort(kXR_write);
+        frame.writeInt(0);
+        frame.writeLong(offset);
+        frame.writeZero(4);
+        frame.writeInt(bytes.length);
+        frame.writeBytes(bytes);
+        try {
+            WriteRequest request = new WriteRequest(frame);
+            requests.add(request);
+            return request;
+        } finally {
+            frame.release();
+        }
+    }
+
+    private void runTasks()
+    {
+        Runnable task;
+        while ((task = tasks.poll()) != null) {
+            task.run();
+        }
+    }
+
+    private String contentOfFile() throws IOException
+    {
+        return new String(Files.readAllBytes(path), StandardCharsets.US_ASCII);
+    }
+
+    private String contentOfFileUnchecked()
+    {
+        try {
+            return contentOfFile();
+        } catch (IOException e) {
+            throw new AssertionError(e);
+        }
+    }
+}
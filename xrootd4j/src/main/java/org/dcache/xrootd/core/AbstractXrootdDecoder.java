@@ -23,35 +23,13 @@ import io.netty.handler.codec.ByteToMessageDecoder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import org.dcache.xrootd.protocol.messages.AuthenticationRequest;
-import org.dcache.xrootd.protocol.messages.CloseRequest;
-import org.dcache.xrootd.protocol.messages.DirListRequest;
-import org.dcache.xrootd.protocol.messages.EndSessionRequest;
-import org.dcache.xrootd.protocol.messages.LocateRequest;
-import org.dcache.xrootd.protocol.messages.LoginRequest;
-import org.dcache.xrootd.protocol.messages.MkDirRequest;
-import org.dcache.xrootd.protocol.messages.MvRequest;
-import org.dcache.xrootd.protocol.messages.OpenRequest;
-import org.dcache.xrootd.protocol.messages.PrepareRequest;
-import org.dcache.xrootd.protocol.messages.ProtocolRequest;
-import org.dcache.xrootd.protocol.messages.QueryRequest;
-import org.dcache.xrootd.protocol.messages.ReadRequest;
-import org.dcache.xrootd.protocol.messages.ReadVRequest;
-import org.dcache.xrootd.protocol.messages.RmDirRequest;
-import org.dcache.xrootd.protocol.messages.RmRequest;
-import org.dcache.xrootd.protocol.messages.SetRequest;
-import org.dcache.xrootd.protocol.messages.SigverRequest;
-import org.dcache.xrootd.protocol.messages.StatRequest;
-import org.dcache.xrootd.protocol.messages.StatxRequest;
-import org.dcache.xrootd.protocol.messages.SyncRequest;
-import org.dcache.xrootd.protocol.messages.UnknownRequest;
-import org.dcache.xrootd.protocol.messages.WriteRequest;
 import org.dcache.xrootd.protocol.messages.XrootdRequest;
 
 import static org.dcache.xrootd.protocol.XrootdProtocol.*;
 
 /**
- * Base class for frame decoders.
+ * Base class for frame decoders. Request objects are created by the
+ * factories of an {@link XrootdRequestRegistry}.
  *
  * TODO: Implement zero-copy handling of write requests by splitting
  * the request into fragments.
@@ -61,58 +39,21 @@ public abstract class AbstractXrootdDecoder extends ByteToMessageDecoder
     protected static final Logger LOGGER =
                     LoggerFactory.getLogger(AbstractXrootdDecoder.class);
 
-    protected XrootdRequest getRequest(ByteBuf frame)
+    protected final XrootdRequestRegistry registry;
+
+    protected AbstractXrootdDecoder()
     {
-        int requestId = frame.getUnsignedShort(2);
+        this(XrootdRequestRegistry.getDefault());
+    }
 
-        switch (requestId) {
-            case kXR_sigver:
-                return new SigverRequest(frame);
-            case kXR_login:
-                return new LoginRequest(frame);
-            case kXR_prepare:
-                return new PrepareRequest(frame);
-            case kXR_open:
-                return new OpenRequest(frame);
-            case kXR_stat:
-                return new StatRequest(frame);
-            case kXR_statx:
-                return new StatxRequest(frame);
-            case kXR_read:
-                return new ReadRequest(frame);
-            case kXR_readv:
-                return new ReadVRequest(frame);
-            case kXR_write:
-                return new WriteRequest(frame);
-            case kXR_sync:
-                return new SyncRequest(frame);
-            case kXR_close:
-                return new CloseRequest(frame);
-            case kXR_protocol:
-                return new ProtocolRequest(frame);
-            case kXR_rm:
-                return new RmRequest(frame);
-            case kXR_rmdir:
-                return new RmDirRequest(frame);
-            case kXR_mkdir:
-                return new MkDirRequest(frame);
-            case kXR_mv:
-                return new MvRequest(frame);
-            case kXR_dirlist:
-                return new DirListRequest(frame);
-            case kXR_auth:
-                return new AuthenticationRequest(frame);
-            case kXR_endsess:
-                return new EndSessionRequest(frame);
-            case kXR_locate :
-                return new LocateRequest(frame);
-            case kXR_query:
-                return new QueryRequest(frame);
-            case kXR_set:
-                return new SetRequest(frame);
-            default:
-                return new UnknownRequest(frame);
-        }
+    protected AbstractXrootdDecoder(XrootdRequestRegistry registry)
+    {
+        this.registry = registry;
+    }
+
+    protected XrootdRequest getRequest(ByteBuf frame)
+    {
+        return registry.decode(frame);
     }
 
     protected int verifyMessageLength(ByteBuf in)
@@ -73,7 +73,7 @@ public class XrootdAuthenticationHandler extends ChannelInboundHandlerAdapter
 
     private final AuthenticationFactory _authenticationFactory;
     private final ProxyDelegationClient _proxyDelegationClient;
-    private       SigningPolicy         _signingPolicy;
+    private       SigningPolicy         _signingPolicy = new SigningPolicy();
 
     private AuthenticationHandler _authenticationHandler;
 
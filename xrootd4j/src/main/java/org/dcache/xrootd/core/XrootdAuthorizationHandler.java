@@ -18,12 +18,33 @@
  */
 package org.dcache.xrootd.core;
 
-import io.netty.channel.ChannelHandler.Sharable;
+import com.google.common.base.Strings;
+import com.google.common.base.Throwables;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import io.netty.channel.ChannelHandlerContext;
+import io.netty.util.Attribute;
+import io.netty.util.AttributeKey;
+import io.netty.util.ReferenceCountUtil;
+
+import javax.security.auth.Subject;
 
 import java.net.InetSocketAddress;
 import java.security.GeneralSecurityException;
-
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.dcache.xrootd.plugins.AsyncAuthorizationHandler;
 import org.dcache.xrootd.plugins.AuthorizationFactory;
 import org.dcache.xrootd.plugins.AuthorizationHandler;
 import org.dcache.xrootd.protocol.messages.CloseRequest;
@@ -47,18 +68,109 @@ import org.dcache.xrootd.protocol.messages.SyncRequest;
 import org.dcache.xrootd.protocol.messages.WriteRequest;
 import org.dcache.xrootd.protocol.messages.XrootdRequest;
 import org.dcache.xrootd.util.OpaqueStringParser;
+import org.dcache.xrootd.util.ParallelBatches;
 import org.dcache.xrootd.util.ParseException;
 
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
 import static org.dcache.xrootd.protocol.XrootdProtocol.*;
 
-@Sharable
+/**
+ * Authorizes requests by the configured authorization plugin.
+ *
+ * Not sharable: the handler holds the requests deferred while a request
+ * awaits an asynchronous decision, so each channel needs its own
+ * instance, as created by {@link XrootdAuthorizationHandlerFactory}.
+ */
 public class XrootdAuthorizationHandler extends XrootdRequestHandler
 {
+    private static final AttributeKey<Cache<DecisionKey,Decision>> DECISIONS =
+        AttributeKey.valueOf(XrootdAuthorizationHandler.class, "decisions");
+
     private final AuthorizationFactory _authorizationFactory;
+    private final long _cacheSize;
+    private final long _cacheLifetime;
+    private final Executor _bulkExecutor;
+    private final int _bulkParallelism;
+
+    /**
+     * Messages received while a request awaits an asynchronous
+     * authorization decision.
+     */
+    private final Queue<Object> _deferred = new ArrayDeque<>();
+
+    /**
+     * Decisions available to the suspended request when it is dispatched
+     * again.
+     */
+    private final Map<DecisionKey,PendingDecision> _resumed = new HashMap<>();
+
+    private boolean _isSuspended;
+
+    /**
+     * Whether this handler disabled auto-read while suspended.
+     */
+    private boolean _isReadSuspended;
 
     public XrootdAuthorizationHandler(AuthorizationFactory authorizationFactory)
+    {
+        this(authorizationFactory, 0, 0);
+    }
+
+    /**
+     * @param authorizationFactory factory for the plugin handlers
+     * @param cacheSize maximum number of cached decisions per channel;
+     *                  zero disables the cache
+     * @param cacheLifetime time in milliseconds a cached decision is valid
+     */
+    public XrootdAuthorizationHandler(AuthorizationFactory authorizationFactory,
+                                      long cacheSize,
+                                      long cacheLifetime)
+    {
+        this(authorizationFactory, cacheSize, cacheLifetime, null, 1);
+    }
+
+    /**
+     * @param authorizationFactory factory for the plugin handlers
+     * @param cacheSize maximum number of cached decisions per channel;
+     *                  zero disables the cache
+     * @param cacheLifetime time in milliseconds a cached decision is valid
+     * @param bulkExecutor executor on which the paths of kXR_statx and
+     *                     kXR_prepare requests are authorized in parallel
+     *                     by plugins that block; null to authorize them
+     *                     one after the other
+     * @param bulkParallelism maximum number of parallel batches per request
+     */
+    public XrootdAuthorizationHandler(AuthorizationFactory authorizationFactory,
+                                      long cacheSize,
+                                      long cacheLifetime,
+                                      Executor bulkExecutor,
+                                      int bulkParallelism)
     {
         _authorizationFactory = authorizationFactory;
+        _cacheSize = cacheSize;
+        _cacheLifetime = cacheLifetime;
+        _bulkExecutor = bulkExecutor;
+        _bulkParallelism = bulkParallelism;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        if (_isSuspended) {
+            _deferred.add(msg);
+        } else {
+            super.channelRead(ctx, msg);
+        }
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception
+    {
+        Object msg;
+        while ((msg = _deferred.poll()) != null) {
+            ReferenceCountUtil.release(msg);
+        }
+        super.channelInactive(ctx);
     }
 
     @Override
@@ -78,16 +190,7 @@ public class XrootdAuthorizationHandler extends XrootdRequestHandler
             throw new XrootdException(kXR_ArgMissing, "no paths specified");
         }
 
-        String[] paths = req.getPaths();
-        String[] opaques = req.getOpaques();
-        for (int i = 0; i < paths.length; i++) {
-            paths[i] = authorize(ctx,
-                                 req,
-                                 FilePerm.READ,
-                                 paths[i],
-                                 opaques[i]);
-        }
-        req.setPaths(paths);
+        req.setPaths(authorize(ctx, req, FilePerm.READ, req.getPaths(), req.getOpaques()));
 
         ctx.fireChannelRead(req);
         return null;
@@ -174,7 +277,13 @@ public class XrootdAuthorizationHandler extends XrootdRequestHandler
 
     @Override
     protected Void doOnPrepare(ChannelHandlerContext ctx, PrepareRequest msg)
+        throws XrootdException
     {
+        /* The list of a cancel request holds a request id rather than paths.
+         */
+        if (!msg.isCancel()) {
+            msg.setPathList(authorize(ctx, msg, FilePerm.READ, msg.getPathList(), msg.getOpaques()));
+        }
         ctx.fireChannelRead(msg);
         return null;
     }
@@ -295,9 +404,131 @@ public class XrootdAuthorizationHandler extends XrootdRequestHandler
                                   request.getOpaque()));
     }
 
+    /**
+     * Performs authorization check and path mapping for the paths of a
+     * bulk request.
+     *
+     * Unless the decisions are cached, the paths are authorized
+     * concurrently: asynchronous plugins are consulted for all paths at
+     * once, and blocking plugins in parallel batches on the bulk
+     * executor, if there is one. Processing of the request is
+     * suspended until all decisions are available, after which they are
+     * picked up in order as for a single path. Thus the request takes
+     * as long as the slowest decision rather than the sum of all.
+     *
+     * @return the paths to which access is granted
+     * @throws XrootdException if access to any of the paths is denied
+     */
+    private String[] authorize(ChannelHandlerContext ctx,
+                               XrootdRequest request,
+                               FilePerm neededPerm,
+                               String[] paths,
+                               String[] opaques)
+        throws XrootdException
+    {
+        boolean isPrefetched = paths.length > 1 && _resumed.isEmpty()
+                               && prefetch(ctx, request, neededPerm, paths, opaques);
+        try {
+            String[] mappedPaths = new String[paths.length];
+            for (int i = 0; i < paths.length; i++) {
+                mappedPaths[i] = authorize(ctx, request, neededPerm, paths[i], opaques[i]);
+            }
+            return mappedPaths;
+        } finally {
+            if (isPrefetched) {
+                _resumed.clear();
+            }
+        }
+    }
+
+    /**
+     * Starts the authorization of all paths that are not decided by the
+     * cache. If some decision is not immediately available, processing
+     * of the request is suspended.
+     *
+     * @return true if decisions were added to the resumed decisions
+     */
+    private boolean prefetch(ChannelHandlerContext ctx,
+                             XrootdRequest request,
+                             FilePerm neededPerm,
+                             String[] paths,
+                             String[] opaques)
+    {
+        Cache<DecisionKey,Decision> decisions = getDecisionCache(ctx);
+        Map<DecisionKey,PendingDecision> pending = new LinkedHashMap<>();
+        List<Runnable> blocking = new ArrayList<>();
+        Subject subject = request.getSubject();
+        InetSocketAddress destination = getDestinationAddress();
+        InetSocketAddress source = getSourceAddress();
+        for (int i = 0; i < paths.length; i++) {
+            DecisionKey key = new DecisionKey(request.getRequestId(), neededPerm,
+                                              paths[i], opaques[i]);
+            if (pending.containsKey(key)) {
+                continue;
+            }
+            if (decisions != null) {
+                Decision decision = decisions.getIfPresent(key);
+                if (decision != null && decision.subject == subject) {
+                    continue;
+                }
+            }
+
+            Map<String,String> opaque;
+            try {
+                opaque = OpaqueStringParser.getOpaqueMap(opaques[i]);
+            } catch (ParseException e) {
+                /* Reported when the path is authorized in order. */
+                continue;
+            }
+
+            String path = paths[i];
+            AuthorizationHandler handler = _authorizationFactory.createHandler();
+            CompletableFuture<String> future;
+            if (handler instanceof AsyncAuthorizationHandler) {
+                future = ((AsyncAuthorizationHandler) handler).authorizeAsync(
+                        subject, destination, source, path, opaque,
+                        request.getRequestId(), neededPerm).toCompletableFuture();
+            } else if (_bulkExecutor != null) {
+                CompletableFuture<String> result = new CompletableFuture<>();
+                blocking.add(() -> {
+                    try {
+                        result.complete(handler.authorize(subject, destination, source, path, opaque,
+                                                          request.getRequestId(), neededPerm));
+                    } catch (Exception e) {
+                        result.completeExceptionally(e);
+                    }
+                });
+                future = result;
+            } else {
+                continue;
+            }
+            pending.put(key, new PendingDecision(handler, future));
+        }
+
+        ParallelBatches.run(blocking.size(), i -> blocking.get(i).run(), _bulkExecutor, _bulkParallelism);
+
+        for (PendingDecision decision : pending.values()) {
+            if (!decision.future.isDone()) {
+                suspend(ctx, request, pending);
+            }
+        }
+        _resumed.putAll(pending);
+        return !pending.isEmpty();
+    }
+
     /**
      * Performs authorization check and path mapping.
      *
+     * If the decision cache is enabled and the plugin declares its
+     * decisions cacheable, a repeated check for the same path, opaque
+     * data, request id and permission on this channel is answered from
+     * the cache, without creating a new plugin handler or parsing the
+     * opaque data.
+     *
+     * If the plugin is an {@link AsyncAuthorizationHandler} whose
+     * decision is not immediately available, processing of the request
+     * is suspended until it is.
+     *
      * @param ctx The ChannelHandlerContext
      * @param request The xrootd message
      * @param neededPerm The permission level that is required for the operation
@@ -314,18 +545,63 @@ public class XrootdAuthorizationHandler extends XrootdRequestHandler
         throws XrootdException
     {
         try {
-            InetSocketAddress destinationAddress = getDestinationAddress();
-            InetSocketAddress sourceAddress = getSourceAddress();
-
-            AuthorizationHandler handler =
-                _authorizationFactory.createHandler();
-            return handler.authorize(request.getSubject(),
-                                     destinationAddress,
-                                     sourceAddress,
-                                     path,
-                                     OpaqueStringParser.getOpaqueMap(opaque),
-                                     request.getRequestId(),
-                                     neededPerm);
+            DecisionKey key = new DecisionKey(request.getRequestId(), neededPerm,
+                                              path, opaque);
+            Cache<DecisionKey,Decision> decisions = getDecisionCache(ctx);
+            if (decisions != null) {
+                Decision decision = decisions.getIfPresent(key);
+                if (decision != null && decision.subject == request.getSubject()) {
+                    return decision.getPath();
+                }
+            }
+
+            PendingDecision resumed = _resumed.get(key);
+            AuthorizationHandler handler = (resumed != null)
+                ? resumed.handler
+                : _authorizationFactory.createHandler();
+            String mappedPath;
+            try {
+                if (resumed != null) {
+                    mappedPath = getNow(resumed.future);
+                } else if (handler instanceof AsyncAuthorizationHandler) {
+                    CompletableFuture<String> future =
+                        ((AsyncAuthorizationHandler) handler).authorizeAsync(
+                                request.getSubject(),
+                                getDestinationAddress(),
+                                getSourceAddress(),
+                                path,
+                                OpaqueStringParser.getOpaqueMap(opaque),
+                                request.getRequestId(),
+                                neededPerm).toCompletableFuture();
+                    if (!future.isDone()) {
+                        suspend(ctx, request,
+                                Collections.singletonMap(key, new PendingDecision(handler, future)));
+                    }
+                    mappedPath = getNow(future);
+                } else {
+                    mappedPath = handler.authorize(request.getSubject(),
+                                                   getDestinationAddress(),
+                                                   getSourceAddress(),
+                                                   path,
+                                                   OpaqueStringParser.getOpaqueMap(opaque),
+                                                   request.getRequestId(),
+                                                   neededPerm);
+                }
+            } catch (SecurityException e) {
+                if (decisions != null && handler.isCacheable()) {
+                    decisions.put(key, new Decision(request.getSubject(),
+                                                    null,
+                                                    e.getMessage()));
+                }
+                throw e;
+            }
+
+            if (decisions != null && handler.isCacheable()) {
+                decisions.put(key, new Decision(request.getSubject(),
+                                                mappedPath,
+                                                null));
+            }
+            return mappedPath;
         } catch (GeneralSecurityException e) {
             throw new XrootdException(kXR_ServerError,
                                       "Authorization check failed: " +
@@ -339,4 +615,175 @@ public class XrootdAuthorizationHandler extends XrootdRequestHandler
                                       " (opaque=" + opaque + ")");
         }
     }
+
+    private static String getNow(CompletableFuture<String> future)
+        throws XrootdException, GeneralSecurityException
+    {
+        try {
+            return future.join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfInstanceOf(cause, XrootdException.class);
+            Throwables.propagateIfInstanceOf(cause, GeneralSecurityException.class);
+            throw Throwables.propagate(cause);
+        }
+    }
+
+    /**
+     * Suspends processing of the request until the asynchronous
+     * authorizations complete. Later messages on the channel are
+     * deferred; once the decisions are available the request is
+     * dispatched again, this time picking up the decisions, and the
+     * deferred messages are processed in order.
+     *
+     * Reading from the channel is paused while suspended, so that a
+     * client pipelining requests behind a slow authorization cannot make
+     * the deferred messages grow without limit.
+     */
+    private void suspend(ChannelHandlerContext ctx,
+                         XrootdRequest request,
+                         Map<DecisionKey,PendingDecision> decisions)
+    {
+        _isSuspended = true;
+        if (ctx.channel().config().isAutoRead()) {
+            ctx.channel().config().setAutoRead(false);
+            _isReadSuspended = true;
+        }
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[decisions.size()];
+        int i = 0;
+        for (PendingDecision decision : decisions.values()) {
+            futures[i++] = decision.future;
+        }
+        CompletableFuture.allOf(futures).whenComplete((ignored, error) ->
+                ctx.executor().execute(() -> resume(ctx, request, decisions)));
+        throw new RequestSuspendedException();
+    }
+
+    private void resume(ChannelHandlerContext ctx,
+                        XrootdRequest request,
+                        Map<DecisionKey,PendingDecision> decisions)
+    {
+        _isSuspended = false;
+        if (!ctx.channel().isActive()) {
+            ReferenceCountUtil.release(request);
+            _resumed.clear();
+            return;
+        }
+
+        _resumed.putAll(decisions);
+        requestReceived(ctx, request);
+        if (_isSuspended) {
+            return;
+        }
+        _resumed.clear();
+
+        try {
+            while (!_isSuspended && !_deferred.isEmpty()) {
+                super.channelRead(ctx, _deferred.poll());
+            }
+        } catch (Exception e) {
+            ctx.fireExceptionCaught(e);
+        }
+        if (!_isSuspended && _isReadSuspended) {
+            _isReadSuspended = false;
+            ctx.channel().config().setAutoRead(true);
+        }
+    }
+
+    private Cache<DecisionKey,Decision> getDecisionCache(ChannelHandlerContext ctx)
+    {
+        if (_cacheSize <= 0) {
+            return null;
+        }
+
+        Attribute<Cache<DecisionKey,Decision>> attribute =
+            ctx.channel().attr(DECISIONS);
+        Cache<DecisionKey,Decision> decisions = attribute.get();
+        if (decisions == null) {
+            decisions = CacheBuilder.newBuilder()
+                                    .concurrencyLevel(1)
+                                    .maximumSize(_cacheSize)
+                                    .expireAfterWrite(_cacheLifetime, MILLISECONDS)
+                                    .build();
+            Cache<DecisionKey,Decision> existing = attribute.setIfAbsent(decisions);
+            if (existing != null) {
+                decisions = existing;
+            }
+        }
+        return decisions;
+    }
+
+    private static class DecisionKey
+    {
+        private final int requestId;
+        private final FilePerm perm;
+        private final String path;
+        private final String opaque;
+
+        DecisionKey(int requestId, FilePerm perm, String path, String opaque)
+        {
+            this.requestId = requestId;
+            this.perm = perm;
+            this.path = path;
+            this.opaque = Strings.nullToEmpty(opaque);
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof DecisionKey)) {
+                return false;
+            }
+            DecisionKey other = (DecisionKey) o;
+            return requestId == other.requestId && perm == other.perm
+                   && path.equals(other.path) && opaque.equals(other.opaque);
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(requestId, perm, path, opaque);
+        }
+    }
+
+    private static class PendingDecision
+    {
+        private final AuthorizationHandler handler;
+        private final CompletableFuture<String> future;
+
+        PendingDecision(AuthorizationHandler handler,
+                        CompletableFuture<String> future)
+        {
+            this.handler = handler;
+            this.future = future;
+        }
+    }
+
+    /**
+     * Either the mapped path, or the reason access was denied.
+     */
+    private static class Decision
+    {
+        private final Subject subject;
+        private final String path;
+        private final String denial;
+
+        Decision(Subject subject, String path, String denial)
+        {
+            this.subject = subject;
+            this.path = path;
+            this.denial = denial;
+        }
+
+        String getPath()
+        {
+            if (path == null) {
+                throw new SecurityException(denial);
+            }
+            return path;
+        }
+    }
 }
@@ -22,13 +22,39 @@ import org.dcache.xrootd.plugins.AuthorizationFactory;
 import org.dcache.xrootd.plugins.ChannelHandlerFactory;
 import io.netty.channel.ChannelHandler;
 
+import java.util.concurrent.Executor;
+
 public class XrootdAuthorizationHandlerFactory implements ChannelHandlerFactory
 {
     private final AuthorizationFactory _factory;
+    private final long _cacheSize;
+    private final long _cacheLifetime;
+    private final Executor _bulkExecutor;
+    private final int _bulkParallelism;
 
     public XrootdAuthorizationHandlerFactory(AuthorizationFactory factory)
+    {
+        this(factory, 0, 0);
+    }
+
+    public XrootdAuthorizationHandlerFactory(AuthorizationFactory factory,
+                                             long cacheSize,
+                                             long cacheLifetime)
+    {
+        this(factory, cacheSize, cacheLifetime, null, 1);
+    }
+
+    public XrootdAuthorizationHandlerFactory(AuthorizationFactory factory,
+                                             long cacheSize,
+                                             long cacheLifetime,
+                                             Executor bulkExecutor,
+                                             int bulkParallelism)
     {
         _factory = factory;
+        _cacheSize = cacheSize;
+        _cacheLifetime = cacheLifetime;
+        _bulkExecutor = bulkExecutor;
+        _bulkParallelism = bulkParallelism;
     }
 
     @Override
@@ -46,6 +72,7 @@ public class XrootdAuthorizationHandlerFactory implements ChannelHandlerFactory
     @Override
     public ChannelHandler createHandler()
     {
-        return new XrootdAuthorizationHandler(_factory);
+        return new XrootdAuthorizationHandler(_factory, _cacheSize, _cacheLifetime,
+                                               _bulkExecutor, _bulkParallelism);
     }
 }
@@ -18,6 +18,8 @@
  */
 package org.dcache.xrootd.core;
 
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
 import org.dcache.xrootd.plugins.AuthorizationFactory;
 import org.dcache.xrootd.plugins.AuthorizationProvider;
 import org.dcache.xrootd.plugins.ChannelHandlerFactory;
@@ -27,6 +29,9 @@ import org.slf4j.LoggerFactory;
 
 import java.util.Properties;
 import java.util.ServiceLoader;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
 public class XrootdAuthorizationHandlerProvider implements ChannelHandlerProvider
 {
@@ -55,7 +60,12 @@ public class XrootdAuthorizationHandlerProvider implements ChannelHandlerProvide
                 AuthorizationFactory factory = provider.createFactory(name, properties);
                 if (factory != null) {
                     _log.debug("AuthorizationHandler plugin {} is provided by {}", name, provider.getClass());
-                    return new XrootdAuthorizationHandlerFactory(factory);
+                    int bulkThreads = getBulkThreads(properties);
+                    return new XrootdAuthorizationHandlerFactory(factory,
+                                                                 getCacheSize(properties),
+                                                                 getCacheLifetime(properties),
+                                                                 createBulkExecutor(name, bulkThreads),
+                                                                 bulkThreads);
                 } else {
                     _log.debug("AuthorizationHandler plugin {} could not be provided by {}", name,
                         provider.getClass());
@@ -64,4 +74,41 @@ public class XrootdAuthorizationHandlerProvider implements ChannelHandlerProvide
         }
         return null;
     }
+
+    /**
+     * Maximum number of authorization decisions cached per channel;
+     * zero (the default) disables the cache.
+     */
+    private static long getCacheSize(Properties properties)
+    {
+        return Long.parseLong(properties.getProperty("xrootd.authz.cache.size", "0"));
+    }
+
+    /**
+     * Maximum number of threads authorizing the paths of a single
+     * kXR_statx or kXR_prepare request in parallel with a plugin that
+     * blocks; zero (the default) authorizes them one after the other.
+     */
+    private static int getBulkThreads(Properties properties)
+    {
+        return Integer.parseInt(properties.getProperty("xrootd.authz.bulk.threads", "0"));
+    }
+
+    private static ExecutorService createBulkExecutor(String name, int threads)
+    {
+        if (threads <= 0) {
+            return null;
+        }
+        return Executors.newFixedThreadPool(threads,
+                                            new ThreadFactoryBuilder()
+                                                    .setNameFormat("authz-" + name + "-%d")
+                                                    .setDaemon(true)
+                                                    .build());
+    }
+
+    private static long getCacheLifetime(Properties properties)
+    {
+        return TimeUnit.valueOf(properties.getProperty("xrootd.authz.cache.ttl.unit", "SECONDS"))
+                .toMillis(Long.parseLong(properties.getProperty("xrootd.authz.cache.ttl", "60")));
+    }
 }
@@ -29,6 +29,15 @@ import java.util.List;
  */
 public class XrootdDecoder extends AbstractXrootdDecoder
 {
+    public XrootdDecoder()
+    {
+    }
+
+    public XrootdDecoder(XrootdRequestRegistry registry)
+    {
+        super(registry);
+    }
+
     @Override
     protected void decode(ChannelHandlerContext ctx, ByteBuf in, List<Object> out)
     {
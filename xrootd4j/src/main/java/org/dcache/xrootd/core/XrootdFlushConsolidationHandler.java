@@ -0,0 +1,152 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.xrootd.core.MessageSizes.sizeOf;
+
+/**
+ * Consolidates the flushes issued while the channel is reading.
+ *
+ * XrootdRequestHandler flushes every response. A client pipelining
+ * many small requests thus causes one write system call per response.
+ * While a read is in progress, this handler holds back flushes until
+ * the read completes or until at least {@code threshold} bytes have been
+ * written since the last flush. Flushes issued outside a read, such as
+ * those of asynchronously completed requests, pass through unchanged.
+ *
+ * Must be placed at the head of the pipeline, so that it sees the encoded
+ * responses.
+ */
+public class XrootdFlushConsolidationHandler extends ChannelDuplexHandler
+{
+    private final int threshold;
+
+    private boolean isReading;
+    private boolean isFlushPending;
+    private long pendingBytes;
+    private volatile long flushes;
+
+    /**
+     * @param threshold number of unflushed bytes at which a flush is
+     *                  passed on even while reading
+     */
+    public XrootdFlushConsolidationHandler(int threshold)
+    {
+        checkArgument(threshold > 0, "Threshold must be positive");
+        this.threshold = threshold;
+    }
+
+    /**
+     * Returns the number of flushes passed on to the next handler.
+     */
+    public long getFlushes()
+    {
+        return flushes;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        isReading = true;
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) throws Exception
+    {
+        isReading = false;
+        flushIfPending(ctx);
+        ctx.fireChannelReadComplete();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception
+    {
+        if (!ctx.channel().isWritable()) {
+            /* Unflushed data counts towards the high water mark. */
+            flushIfPending(ctx);
+        }
+        ctx.fireChannelWritabilityChanged();
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) throws Exception
+    {
+        isReading = false;
+        flushIfPending(ctx);
+        ctx.fireExceptionCaught(cause);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        pendingBytes += sizeOf(msg);
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception
+    {
+        if (isReading && pendingBytes < threshold) {
+            isFlushPending = true;
+        } else {
+            flushNow(ctx);
+        }
+    }
+
+    @Override
+    public void disconnect(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception
+    {
+        flushIfPending(ctx);
+        ctx.disconnect(promise);
+    }
+
+    @Override
+    public void close(ChannelHandlerContext ctx, ChannelPromise promise) throws Exception
+    {
+        flushIfPending(ctx);
+        ctx.close(promise);
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+    {
+        flushIfPending(ctx);
+    }
+
+    private void flushIfPending(ChannelHandlerContext ctx)
+    {
+        if (isFlushPending) {
+            flushNow(ctx);
+        }
+    }
+
+    private void flushNow(ChannelHandlerContext ctx)
+    {
+        isFlushPending = false;
+        pendingBytes = 0;
+        flushes++;
+        ctx.flush();
+    }
+}
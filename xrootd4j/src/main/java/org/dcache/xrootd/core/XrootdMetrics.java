@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import org.dcache.xrootd.util.Histogram;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_auth;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sigver;
+
+/**
+ * <p>Collects request counts, error counts and latency histograms per
+ *    request id, as well as the total number of bytes received and
+ *    sent.</p>
+ *
+ * <p>Intended to be shared by all channels of a server; updates do
+ *    not contend.</p>
+ */
+public class XrootdMetrics implements XrootdMetricsSink
+{
+    private static final String[] REQUEST_NAMES = {
+        "auth", "query", "chmod", "close", "dirlist", "getfile", "protocol",
+        "login", "mkdir", "mv", "open", "ping", "putfile", "read", "rm",
+        "rmdir", "sync", "stat", "set", "write", "admin", "prepare", "statx",
+        "endsess", "bind", "readv", "verifyw", "locate", "truncate", "sigver"
+    };
+
+    private static final int SIZE = kXR_sigver - kXR_auth + 1;
+
+    private final LongAdder[] requests = new LongAdder[SIZE];
+    private final LongAdder[] errors = new LongAdder[SIZE];
+    private final Histogram[] latencies = new Histogram[SIZE];
+    private final LongAdder bytesReceived = new LongAdder();
+    private final LongAdder bytesSent = new LongAdder();
+    private final LongAdder zeroCopyReads = new LongAdder();
+    private final LongAdder zeroCopyBytes = new LongAdder();
+    private final LongAdder copiedReads = new LongAdder();
+    private final LongAdder copiedBytes = new LongAdder();
+    private final LongAdder prefetchedReads = new LongAdder();
+    private final LongAdder prefetchedBytes = new LongAdder();
+
+    public XrootdMetrics()
+    {
+        for (int i = 0; i < SIZE; i++) {
+            requests[i] = new LongAdder();
+            errors[i] = new LongAdder();
+            latencies[i] = new Histogram();
+        }
+    }
+
+    public static boolean isValid(int requestId)
+    {
+        return requestId >= kXR_auth && requestId <= kXR_sigver;
+    }
+
+    /**
+     * Returns the name of a request id without the kXR_ prefix, e.g.
+     * "read" for kXR_read.
+     */
+    public static String getRequestName(int requestId)
+    {
+        return isValid(requestId) ? REQUEST_NAMES[requestId - kXR_auth] : String.valueOf(requestId);
+    }
+
+    @Override
+    public void requestCompleted(int requestId, long latency, boolean isError)
+    {
+        if (isValid(requestId)) {
+            int i = requestId - kXR_auth;
+            requests[i].increment();
+            latencies[i].record(Math.max(0, latency));
+            if (isError) {
+                errors[i].increment();
+            }
+        }
+    }
+
+    @Override
+    public void bytesReceived(long bytes)
+    {
+        bytesReceived.add(bytes);
+    }
+
+    @Override
+    public void bytesSent(long bytes)
+    {
+        bytesSent.add(bytes);
+    }
+
+    @Override
+    public void readSelected(boolean isZeroCopy, long bytes)
+    {
+        if (isZeroCopy) {
+            zeroCopyReads.increment();
+            zeroCopyBytes.add(bytes);
+        } else {
+            copiedReads.increment();
+            copiedBytes.add(bytes);
+        }
+    }
+
+    @Override
+    public void readPrefetched(long bytes)
+    {
+        prefetchedReads.increment();
+        prefetchedBytes.add(bytes);
+    }
+
+    public long getRequests(int requestId)
+    {
+        return isValid(requestId) ? requests[requestId - kXR_auth].sum() : 0;
+    }
+
+    public long getErrors(int requestId)
+    {
+        return isValid(requestId) ? errors[requestId - kXR_auth].sum() : 0;
+    }
+
+    /**
+     * Returns the latencies, in nanoseconds, of the given request id,
+     * or null if the request id is unknown.
+     */
+    public Histogram getLatency(int requestId)
+    {
+        return isValid(requestId) ? latencies[requestId - kXR_auth] : null;
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived.sum();
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent.sum();
+    }
+
+    public long getZeroCopyReads()
+    {
+        return zeroCopyReads.sum();
+    }
+
+    public long getZeroCopyBytes()
+    {
+        return zeroCopyBytes.sum();
+    }
+
+    public long getCopiedReads()
+    {
+        return copiedReads.sum();
+    }
+
+    public long getCopiedBytes()
+    {
+        return copiedBytes.sum();
+    }
+
+    public long getPrefetchedReads()
+    {
+        return prefetchedReads.sum();
+    }
+
+    public long getPrefetchedBytes()
+    {
+        return prefetchedBytes.sum();
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < SIZE; i++) {
+            long count = requests[i].sum();
+            if (count > 0) {
+                builder.append('(').append(REQUEST_NAMES[i])
+                       .append(" requests ").append(count)
+                       .append(" errors ").append(errors[i].sum())
+                       .append(" p99 ").append(latencies[i].getValueAtPercentile(99))
+                       .append(')');
+            }
+        }
+        builder.append("(received ").append(bytesReceived.sum())
+               .append(" sent ").append(bytesSent.sum()).append(')');
+        builder.append("(zero-copy reads ").append(zeroCopyReads.sum())
+               .append(" copied reads ").append(copiedReads.sum())
+               .append(" prefetched reads ").append(prefetchedReads.sum()).append(')');
+        return builder.toString();
+    }
+}
@@ -0,0 +1,78 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+/**
+ * Receives measurements of the requests processed by an
+ * {@link XrootdRequestHandler} and of the traffic counted by an
+ * {@link XrootdTrafficCounter}.
+ *
+ * Methods are usually called on the event loop of the channel, but
+ * may be called from request processing threads too; they must be
+ * thread safe and must not block. The default implementations discard
+ * the measurements.
+ */
+public interface XrootdMetricsSink
+{
+    /**
+     * A sink discarding all measurements.
+     */
+    XrootdMetricsSink NONE = new XrootdMetricsSink() {};
+
+    /**
+     * Called when the response to a request has been written, or
+     * when the request handler passed the request on.
+     *
+     * @param requestId the kXR_* request id
+     * @param latency nanoseconds since the request was dispatched
+     * @param isError whether the request failed
+     */
+    default void requestCompleted(int requestId, long latency, boolean isError)
+    {
+    }
+
+    default void bytesReceived(long bytes)
+    {
+    }
+
+    default void bytesSent(long bytes)
+    {
+    }
+
+    /**
+     * Called when the data of a kXR_read is about to be sent.
+     *
+     * @param isZeroCopy whether the data is transferred directly from the
+     *                   file to the socket rather than copied through a buffer
+     * @param bytes the number of bytes requested
+     */
+    default void readSelected(boolean isZeroCopy, long bytes)
+    {
+    }
+
+    /**
+     * Called instead of {@link #readSelected} when the data of a kXR_read
+     * is sent from data prefetched by a {@link org.dcache.xrootd.stream.ReadAheadCache}.
+     *
+     * @param bytes the number of bytes sent
+     */
+    default void readPrefetched(long bytes)
+    {
+    }
+}
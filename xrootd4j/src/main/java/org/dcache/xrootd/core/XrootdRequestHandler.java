@@ -31,12 +31,15 @@ import org.slf4j.LoggerFactory;
 
 import java.net.InetSocketAddress;
 import java.util.Objects;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.dcache.xrootd.protocol.messages.AuthenticationRequest;
 import org.dcache.xrootd.protocol.messages.CloseRequest;
 import org.dcache.xrootd.protocol.messages.DirListRequest;
 import org.dcache.xrootd.protocol.messages.EndSessionRequest;
 import org.dcache.xrootd.protocol.messages.ErrorResponse;
+import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage.EmbeddedReadRequest;
 import org.dcache.xrootd.protocol.messages.LocateRequest;
 import org.dcache.xrootd.protocol.messages.LoginRequest;
 import org.dcache.xrootd.protocol.messages.MkDirRequest;
@@ -57,6 +60,7 @@ import org.dcache.xrootd.protocol.messages.SyncRequest;
 import org.dcache.xrootd.protocol.messages.WriteRequest;
 import org.dcache.xrootd.protocol.messages.XrootdRequest;
 import org.dcache.xrootd.protocol.messages.XrootdResponse;
+import org.dcache.xrootd.util.OrderedExecutor;
 
 import static org.dcache.xrootd.protocol.XrootdProtocol.*;
 
@@ -71,18 +75,60 @@ import static org.dcache.xrootd.protocol.XrootdProtocol.*;
  * an exception or returns a response. If the handler returns null the
  * subclass assumes responsibility to release the request, typically
  * by passing it on the next ChannelHandler in the pipeline.
+ *
+ * The latency and outcome of every request are reported to an
+ * {@link XrootdMetricsSink}. The latency of a request answered by this
+ * handler extends until its response has been written.
+ *
+ * By default requests are processed one at a time on the event loop of
+ * the channel. If constructed with an Executor, requests with different
+ * stream ids are instead processed concurrently on that executor and
+ * each response is written as soon as it is ready, as the protocol
+ * allows. Requests referring to the same file handle are still
+ * processed in order, while session requests (kXR_auth, kXR_login,
+ * kXR_protocol and kXR_endsess) are processed on the event loop.
+ * Sub-classes used in this mode must be thread safe.
  */
 public class XrootdRequestHandler extends ChannelInboundHandlerAdapter
 {
     private static final Logger _log =
         LoggerFactory.getLogger(XrootdRequestHandler.class);
 
+    private final XrootdMetricsSink _metrics;
+
+    /**
+     * Executes concurrently processed requests, or null if requests are
+     * processed on the event loop.
+     */
+    private final OrderedExecutor _executor;
+
     private boolean _isHealthCheck;
 
     private InetSocketAddress _destinationAddress;
 
     private InetSocketAddress _sourceAddress;
 
+    public XrootdRequestHandler()
+    {
+        this(XrootdMetricsSink.NONE);
+    }
+
+    public XrootdRequestHandler(XrootdMetricsSink metrics)
+    {
+        this(metrics, null);
+    }
+
+    /**
+     * @param metrics receives the metrics of every request
+     * @param executor processes requests concurrently, or null to process
+     *                 them on the event loop
+     */
+    public XrootdRequestHandler(XrootdMetricsSink metrics, Executor executor)
+    {
+        _metrics = metrics;
+        _executor = (executor != null) ? new OrderedExecutor(executor) : null;
+    }
+
     @Override
     public void channelActive(ChannelHandlerContext ctx) throws Exception
     {
@@ -95,7 +141,11 @@ public class XrootdRequestHandler extends ChannelInboundHandlerAdapter
     public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
     {
         if (msg instanceof XrootdRequest) {
-            requestReceived(ctx, (XrootdRequest) msg);
+            if (_executor == null) {
+                requestReceived(ctx, (XrootdRequest) msg);
+            } else {
+                dispatch(ctx, (XrootdRequest) msg);
+            }
         } else if (msg instanceof HAProxyMessage) {
             HAProxyMessage proxyMessage = (HAProxyMessage) msg;
             switch (proxyMessage.command()) {
@@ -126,11 +176,65 @@ public class XrootdRequestHandler extends ChannelInboundHandlerAdapter
         }
     }
 
+    private void dispatch(ChannelHandlerContext ctx, XrootdRequest req)
+    {
+        long started = System.nanoTime();
+        switch (req.getRequestId()) {
+        case kXR_auth:
+        case kXR_login:
+        case kXR_protocol:
+        case kXR_endsess:
+            requestReceived(ctx, req, started);
+            break;
+        default:
+            try {
+                _executor.execute(getFileHandle(req),
+                                  () -> requestReceived(ctx, req, started));
+            } catch (RejectedExecutionException e) {
+                record(respond(ctx, withError(req, kXR_ServerError,
+                                              "Server is shutting down")),
+                       req.getRequestId(), started, true);
+                ReferenceCountUtil.release(req);
+            }
+            break;
+        }
+    }
+
+    /**
+     * Returns the file handle a request refers to, or null if the
+     * request is not bound to a file handle. Vector reads are ordered
+     * by the handle of their first segment.
+     */
+    private static Integer getFileHandle(XrootdRequest req)
+    {
+        switch (req.getRequestId()) {
+        case kXR_read:
+            return ((ReadRequest) req).getFileHandle();
+        case kXR_readv:
+            EmbeddedReadRequest[] requests = ((ReadVRequest) req).getReadRequestList();
+            return (requests != null && requests.length > 0) ? requests[0].getFileHandle() : null;
+        case kXR_write:
+            return ((WriteRequest) req).getFileHandle();
+        case kXR_sync:
+            return ((SyncRequest) req).getFileHandle();
+        case kXR_close:
+            return ((CloseRequest) req).getFileHandle();
+        default:
+            return null;
+        }
+    }
+
     protected void requestReceived(ChannelHandlerContext ctx, XrootdRequest req)
     {
+        requestReceived(ctx, req, System.nanoTime());
+    }
+
+    private void requestReceived(ChannelHandlerContext ctx, XrootdRequest req, long started)
+    {
+        int requestId = req.getRequestId();
         try {
             Object response;
-            switch (req.getRequestId()) {
+            switch (requestId) {
             case kXR_auth:
                 response =
                     doOnAuthentication(ctx, (AuthenticationRequest) req);
@@ -221,23 +325,38 @@ public class XrootdRequestHandler extends ChannelInboundHandlerAdapter
                 break;
             }
             if (response != null) {
-                respond(ctx, response);
+                record(respond(ctx, response), requestId, started,
+                       response instanceof ErrorResponse);
             } else {
                 req = null; // Do not release reference
+                _metrics.requestCompleted(requestId, System.nanoTime() - started, false);
             }
         } catch (XrootdException e) {
-            respond(ctx, withError(req, e.getError(), e.getMessage()));
+            record(respond(ctx, withError(req, e.getError(), e.getMessage())),
+                   requestId, started, true);
+        } catch (RequestSuspendedException e) {
+            req = null; // Do not release reference
         } catch (RuntimeException e) {
             _log.error("xrootd server error while processing " + req + " (please report this to support@dcache.org)", e);
-            respond(ctx,
-                withError(req, kXR_ServerError,
-                    String.format("Internal server error (%s)",
-                        e.getMessage())));
+            record(respond(ctx,
+                           withError(req, kXR_ServerError,
+                                     String.format("Internal server error (%s)",
+                                                   e.getMessage()))),
+                   requestId, started, true);
         } finally {
             ReferenceCountUtil.release(req);
         }
     }
 
+    private void record(ChannelFuture future, int requestId, long started, boolean isError)
+    {
+        if (_metrics != XrootdMetricsSink.NONE) {
+            future.addListener(f -> _metrics.requestCompleted(requestId,
+                                                              System.nanoTime() - started,
+                                                              isError || !f.isSuccess()));
+        }
+    }
+
     protected <T extends XrootdRequest> OkResponse<T> withOk(T req)
     {
         return new OkResponse<>(req);
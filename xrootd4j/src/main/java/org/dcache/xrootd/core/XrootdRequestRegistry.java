@@ -0,0 +1,148 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+
+import java.util.Arrays;
+
+import org.dcache.xrootd.protocol.messages.AuthenticationRequest;
+import org.dcache.xrootd.protocol.messages.CloseRequest;
+import org.dcache.xrootd.protocol.messages.DirListRequest;
+import org.dcache.xrootd.protocol.messages.EndSessionRequest;
+import org.dcache.xrootd.protocol.messages.LocateRequest;
+import org.dcache.xrootd.protocol.messages.LoginRequest;
+import org.dcache.xrootd.protocol.messages.MkDirRequest;
+import org.dcache.xrootd.protocol.messages.MvRequest;
+import org.dcache.xrootd.protocol.messages.OpenRequest;
+import org.dcache.xrootd.protocol.messages.PrepareRequest;
+import org.dcache.xrootd.protocol.messages.ProtocolRequest;
+import org.dcache.xrootd.protocol.messages.QueryRequest;
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.ReadVRequest;
+import org.dcache.xrootd.protocol.messages.RmDirRequest;
+import org.dcache.xrootd.protocol.messages.RmRequest;
+import org.dcache.xrootd.protocol.messages.SetRequest;
+import org.dcache.xrootd.protocol.messages.SigverRequest;
+import org.dcache.xrootd.protocol.messages.StatRequest;
+import org.dcache.xrootd.protocol.messages.StatxRequest;
+import org.dcache.xrootd.protocol.messages.SyncRequest;
+import org.dcache.xrootd.protocol.messages.UnknownRequest;
+import org.dcache.xrootd.protocol.messages.WriteRequest;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+
+/**
+ * <p>Maps request ids to the factories creating the corresponding
+ *    request objects. Used by {@link AbstractXrootdDecoder}.</p>
+ *
+ * <p>A new registry knows all request types supported by this library.
+ *    Plugins may register factories for additional request types, or
+ *    replace the factory of an existing one, either in the registry
+ *    shared by all decoders or in a registry of their own passed to
+ *    the decoder.</p>
+ *
+ * <p>Lookups are a single array access and do not synchronize;
+ *    registration copies the table.</p>
+ */
+public class XrootdRequestRegistry
+{
+    private static final XrootdRequestRegistry DEFAULT = new XrootdRequestRegistry();
+
+    private volatile XrootdRequestFactory[] factories = new XrootdRequestFactory[0];
+
+    public XrootdRequestRegistry()
+    {
+        register(kXR_sigver, SigverRequest::new);
+        register(kXR_login, LoginRequest::new);
+        register(kXR_prepare, PrepareRequest::new);
+        register(kXR_open, OpenRequest::new);
+        register(kXR_stat, StatRequest::new);
+        register(kXR_statx, StatxRequest::new);
+        register(kXR_read, ReadRequest::new);
+        register(kXR_readv, ReadVRequest::new);
+        register(kXR_write, WriteRequest::new);
+        register(kXR_sync, SyncRequest::new);
+        register(kXR_close, CloseRequest::new);
+        register(kXR_protocol, ProtocolRequest::new);
+        register(kXR_rm, RmRequest::new);
+        register(kXR_rmdir, RmDirRequest::new);
+        register(kXR_mkdir, MkDirRequest::new);
+        register(kXR_mv, MvRequest::new);
+        register(kXR_dirlist, DirListRequest::new);
+        register(kXR_auth, AuthenticationRequest::new);
+        register(kXR_endsess, EndSessionRequest::new);
+        register(kXR_locate, LocateRequest::new);
+        register(kXR_query, QueryRequest::new);
+        register(kXR_set, SetRequest::new);
+    }
+
+    /**
+     * Returns the registry used by decoders that were not given a
+     * registry of their own.
+     */
+    public static XrootdRequestRegistry getDefault()
+    {
+        return DEFAULT;
+    }
+
+    /**
+     * Registers the factory for a request id.
+     *
+     * @return the factory previously registered for the request id, or
+     *         null if there was none
+     */
+    public synchronized XrootdRequestFactory register(int requestId, XrootdRequestFactory factory)
+    {
+        checkArgument(requestId >= kXR_auth && requestId <= 0xFFFF,
+                      "Invalid request id: %s", requestId);
+        checkNotNull(factory);
+        int index = requestId - kXR_auth;
+        XrootdRequestFactory[] table = factories;
+        XrootdRequestFactory[] copy = Arrays.copyOf(table, Math.max(table.length, index + 1));
+        XrootdRequestFactory previous = copy[index];
+        copy[index] = factory;
+        factories = copy;
+        return previous;
+    }
+
+    /**
+     * Returns the factory for a request id, or null if none is
+     * registered.
+     */
+    public XrootdRequestFactory getFactory(int requestId)
+    {
+        int index = requestId - kXR_auth;
+        XrootdRequestFactory[] table = factories;
+        return (index >= 0 && index < table.length) ? table[index] : null;
+    }
+
+    /**
+     * Creates the request object for a frame. Frames of unregistered
+     * request types are decoded as {@link UnknownRequest}.
+     */
+    public XrootdRequest decode(ByteBuf frame)
+    {
+        XrootdRequestFactory factory = getFactory(frame.getUnsignedShort(2));
+        return (factory == null) ? new UnknownRequest(frame) : factory.create(frame);
+    }
+}
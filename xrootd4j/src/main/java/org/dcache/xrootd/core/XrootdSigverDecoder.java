@@ -27,12 +27,13 @@ import javax.crypto.BadPaddingException;
 import javax.crypto.IllegalBlockSizeException;
 import javax.crypto.NoSuchPaddingException;
 
+import java.nio.ByteBuffer;
+import java.security.DigestException;
 import java.security.InvalidAlgorithmParameterException;
 import java.security.InvalidKeyException;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
 import java.security.NoSuchProviderException;
-import java.util.Arrays;
 import java.util.Formatter;
 import java.util.List;
 
@@ -42,6 +43,7 @@ import org.dcache.xrootd.protocol.messages.XrootdRequest;
 import org.dcache.xrootd.security.BufferDecrypter;
 import org.dcache.xrootd.security.SigningPolicy;
 
+import static org.dcache.xrootd.protocol.XrootdProtocol.CLIENT_REQUEST_LEN;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ArgInvalid;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_error;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_write;
@@ -63,6 +65,8 @@ import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_nodata;
  */
 public class XrootdSigverDecoder extends AbstractXrootdDecoder
 {
+    private static final int SHA256_LENGTH = 32;
+
     private static String printHex(byte[] array)
     {
         Formatter formatter = new Formatter();
@@ -75,12 +79,27 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
     private final BufferDecrypter decryptionHandler;
     private final SigningPolicy   signingPolicy;
 
+    /*
+     * Per-channel hashing state, reused for every signed request.
+     */
+    private final ByteBuffer    seqnoBuffer = ByteBuffer.allocate(8);
+    private final byte[]        hash = new byte[SHA256_LENGTH];
+    private       MessageDigest digest;
+
     private SigverRequest currentSigverRequest;
     private long          lastSeqNo = -1L;
 
     public XrootdSigverDecoder(SigningPolicy signingPolicy,
                                BufferDecrypter decryptionHandler)
     {
+        this(signingPolicy, decryptionHandler, XrootdRequestRegistry.getDefault());
+    }
+
+    public XrootdSigverDecoder(SigningPolicy signingPolicy,
+                               BufferDecrypter decryptionHandler,
+                               XrootdRequestRegistry registry)
+    {
+        super(registry);
         this.signingPolicy = signingPolicy;
         this.decryptionHandler = decryptionHandler;
     }
@@ -114,10 +133,13 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
             int requestId = request.getRequestId();
 
             if (signingPolicy.requiresSigning(requestId)) {
-                verifySignedHash(request.getStreamId(),
-                                 requestId,
-                                 frame,
-                                 ctx);
+                if (signingPolicy.isExempt(request)) {
+                    skipSignedHash(request.getStreamId(), requestId);
+                } else {
+                    verifySignedHash(request.getStreamId(),
+                                     requestId,
+                                     frame);
+                }
             }
         } catch (XrootdException e) {
             ErrorResponse<?> response
@@ -163,8 +185,7 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
 
     private void verifySignedHash(int streamId,
                                   int requestId,
-                                  ByteBuf frame,
-                                  ChannelHandlerContext ctx)
+                                  ByteBuf frame)
                     throws XrootdException
     {
         boolean forceSigning = signingPolicy.isForceSigning();
@@ -218,13 +239,14 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
         }
 
         if (received != null) {
-            byte[] contents = extractContents(requestId,
-                                              currentSigverRequest.getFlags(),
-                                              frame);
+            int length = getSignedLength(requestId,
+                                         currentSigverRequest.getFlags(),
+                                         frame);
             compareHashes(received,
                           generateHash(currentSigverRequest.getSeqno(),
-                                       contents,
-                                       ctx));
+                                       frame,
+                                       length));
+            signingPolicy.getStatistics().verified(requestId, length);
         }
 
         LOGGER.debug("verify signed hash for request {} on stream {}, "
@@ -233,6 +255,29 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
         updateSeqNo();
     }
 
+    /**
+     *  The path of the request is exempt from verification by the policy.
+     *  A sigver request the client may nevertheless have sent for it is
+     *  consumed without computing the hash.
+     */
+    private void skipSignedHash(int streamId, int requestId)
+    {
+        LOGGER.debug("skipping verify signed hash for exempt request {} "
+                                     + "on stream {}.",
+                     requestId, streamId);
+        signingPolicy.getStatistics().exempted(requestId);
+
+        if (currentSigverRequest != null
+                        && currentSigverRequest.getStreamId() == streamId
+                        && currentSigverRequest.getExpectrid() == requestId) {
+            updateSeqNo();
+        }
+    }
+
+    /**
+     *  The comparison does not short-circuit on the first differing byte,
+     *  so as not to leak how much of a forged hash was correct.
+     */
     private void compareHashes(byte[] received, byte[] generated)
                     throws XrootdException
     {
@@ -244,7 +289,7 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
                             + " received hash length does not match generated hash.");
         }
 
-        if (!Arrays.equals(received, generated)) {
+        if (!MessageDigest.isEqual(received, generated)) {
             LOGGER.info("compareHashes, do not match:\n\treceived {}\n\tgenerated {}",
                          printHex(received),
                          printHex(generated));
@@ -253,16 +298,12 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
         }
     }
 
-    private byte[] extractContents(int requestId,
-                                   int flags,
-                                   ByteBuf frame)
+    private int getSignedLength(int requestId, int flags, ByteBuf frame)
                     throws XrootdException
     {
-        int len;
-
         /*
          *  If this is a write request, kXR_nodata should be set;
-         *  extract only the header.
+         *  sign only the header.
          */
         if (requestId == kXR_write) {
             if (flags != kXR_nodata) {
@@ -271,14 +312,10 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
                                                           + " kXR_nodata not set, "
                                                           + "cannot verify write request.");
             }
-            len = 24;
-        } else {
-            len = frame.readableBytes();
+            return CLIENT_REQUEST_LEN;
         }
 
-        byte[] contents = new byte[len];
-        frame.getBytes(0, contents);
-        return contents;
+        return frame.readableBytes();
     }
 
     /**
@@ -289,27 +326,49 @@ public class XrootdSigverDecoder extends AbstractXrootdDecoder
      *  in that exact order.
      *
      *  In this case, 2 + 3 are given in order by the frame buffer, which
-     *  contains the raw bytes of the request.
+     *  contains the raw bytes of the request.  The frame is fed to the
+     *  digest in place; the digest itself is reused for the lifetime of
+     *  the channel.
      */
-    private byte[] generateHash(long seqno,
-                                byte[] payload,
-                                ChannelHandlerContext ctx)
+    private byte[] generateHash(long seqno, ByteBuf frame, int length)
                     throws XrootdException
     {
-        ByteBuf buffer = ctx.alloc().buffer(8 + payload.length);
+        MessageDigest digest = getDigest();
+
+        seqnoBuffer.clear();
+        seqnoBuffer.putLong(seqno);
+        seqnoBuffer.flip();
+        digest.update(seqnoBuffer);
+
+        if (frame.hasArray()) {
+            digest.update(frame.array(), frame.arrayOffset(), length);
+        } else {
+            for (ByteBuffer buffer : frame.nioBuffers(0, length)) {
+                digest.update(buffer);
+            }
+        }
+
         try {
-            buffer.writeLong(seqno);
-            buffer.writeBytes(payload);
-            byte[] contents = new byte[buffer.readableBytes()];
-            buffer.getBytes(0, contents);
-
-            MessageDigest digest = MessageDigest.getInstance("SHA-256");
-            return digest.digest(contents);
-        } catch (NoSuchAlgorithmException e) {
+            digest.digest(hash, 0, hash.length);
+        } catch (DigestException e) {
             throw new XrootdException(kXR_error, e.toString());
-        } finally {
-            buffer.release();
         }
+
+        return hash;
+    }
+
+    private MessageDigest getDigest() throws XrootdException
+    {
+        if (digest == null) {
+            try {
+                digest = MessageDigest.getInstance("SHA-256");
+            } catch (NoSuchAlgorithmException e) {
+                throw new XrootdException(kXR_error, e.toString());
+            }
+        } else {
+            digest.reset();
+        }
+        return digest;
     }
 
     private void updateSeqNo()
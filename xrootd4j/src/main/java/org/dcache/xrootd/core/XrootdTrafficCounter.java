@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+
+import static org.dcache.xrootd.core.MessageSizes.sizeOf;
+
+/**
+ * Counts the bytes received and sent on a channel and reports them to
+ * a {@link XrootdMetricsSink}.
+ *
+ * Must be placed at the head of the pipeline, so that it sees the raw
+ * bytes. Sent bytes are counted when written, not when flushed.
+ */
+public class XrootdTrafficCounter extends ChannelDuplexHandler
+{
+    private final XrootdMetricsSink metrics;
+
+    private volatile long bytesReceived;
+    private volatile long bytesSent;
+
+    public XrootdTrafficCounter(XrootdMetricsSink metrics)
+    {
+        this.metrics = metrics;
+    }
+
+    public long getBytesReceived()
+    {
+        return bytesReceived;
+    }
+
+    public long getBytesSent()
+    {
+        return bytesSent;
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        long size = sizeOf(msg);
+        if (size > 0) {
+            bytesReceived += size;
+            metrics.bytesReceived(size);
+        }
+        super.channelRead(ctx, msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        long size = sizeOf(msg);
+        if (size > 0) {
+            bytesSent += size;
+            metrics.bytesSent(size);
+        }
+        super.write(ctx, msg, promise);
+    }
+}
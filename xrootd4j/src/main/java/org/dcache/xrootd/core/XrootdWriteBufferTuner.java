@@ -0,0 +1,286 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.WriteBufferWaterMark;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.LongSupplier;
+
+import org.dcache.xrootd.protocol.messages.SigverRequest;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.xrootd.core.MessageSizes.sizeOf;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_oksofar;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_waitresp;
+
+/**
+ * Sizes the write buffer water marks of a channel to its bandwidth-delay
+ * product.
+ *
+ * ChunkedResponseWriteHandler keeps producing chunks while the channel is
+ * writable, so the high water mark bounds the data in flight between the
+ * server and the kernel. Netty's default of 64 KiB keeps a WAN client
+ * well below line rate. Raising it for every channel wastes memory on
+ * LAN clients.
+ *
+ * The round trip time is taken from the kernel's TCP_INFO if the channel
+ * provides it, as the native epoll transport does. Otherwise it is
+ * estimated as the shortest time within the last ten seconds between
+ * flushing a response that leaves no request of the client unanswered
+ * and receiving the next request. Without the latter condition, the
+ * next request of a client that pipelines its requests is already
+ * waiting in the socket when the response is flushed, and the estimate
+ * drops to nothing. Outstanding requests are counted by the handler
+ * returned by {@link #newRequestTracker}, to be placed behind the
+ * decoder; without it every flush is sampled. The throughput is the decaying maximum of the rate at
+ * which responses are written. The high water mark is set to twice the
+ * product of the two, bounded by the configured limits, and the low
+ * water mark to half of that. While the water mark limits the throughput,
+ * each adjustment thus doubles it, until the network becomes the limit.
+ *
+ * The kernel send buffer is left alone, as setting SO_SNDBUF disables
+ * the kernel's own tuning of it.
+ *
+ * Must be placed at the head of the pipeline, so that it sees the
+ * encoded responses.
+ */
+public class XrootdWriteBufferTuner extends ChannelDuplexHandler
+{
+    private static final long PERIOD = TimeUnit.MILLISECONDS.toNanos(100);
+    private static final long RTT_WINDOW = TimeUnit.SECONDS.toNanos(10);
+    private static final double DECAY = 0.875;
+
+    private final int minHighWaterMark;
+    private final int maxHighWaterMark;
+    private final LongSupplier clock;
+
+    private ScheduledFuture<?> timer;
+
+    /**
+     * Methods reading the round trip time from TCP_INFO, or null if the
+     * channel does not provide it.
+     */
+    private Method tcpInfo;
+    private Method tcpInfoRtt;
+
+    private int outstandingRequests;
+
+    private long roundTripTime = Long.MAX_VALUE;
+    private long roundTripTimeExpires;
+    private long lastFlush;
+
+    private long periodStart;
+    private long bytesWritten;
+    private double throughput;
+
+    /**
+     * @param minHighWaterMark lower bound of the high water mark in bytes
+     * @param maxHighWaterMark upper bound of the high water mark in bytes
+     */
+    public XrootdWriteBufferTuner(int minHighWaterMark, int maxHighWaterMark)
+    {
+        this(minHighWaterMark, maxHighWaterMark, System::nanoTime);
+    }
+
+    XrootdWriteBufferTuner(int minHighWaterMark, int maxHighWaterMark, LongSupplier clock)
+    {
+        checkArgument(minHighWaterMark > 1, "Minimum high water mark is too small");
+        checkArgument(maxHighWaterMark >= minHighWaterMark,
+                      "Maximum high water mark is smaller than the minimum");
+        this.minHighWaterMark = minHighWaterMark;
+        this.maxHighWaterMark = maxHighWaterMark;
+        this.clock = clock;
+    }
+
+    /**
+     * Returns the estimated round trip time in nanoseconds, or -1 if not
+     * known yet.
+     */
+    public long getRoundTripTime()
+    {
+        return (roundTripTime == Long.MAX_VALUE) ? -1 : roundTripTime;
+    }
+
+    /**
+     * Returns the estimated throughput in bytes per second.
+     */
+    public long getThroughput()
+    {
+        return (long) throughput;
+    }
+
+    /**
+     * Returns a handler counting the requests of the client that have not
+     * been answered completely. It must be placed behind the decoder, and
+     * in front of the handlers producing responses.
+     */
+    public ChannelHandler newRequestTracker()
+    {
+        return new RequestTracker();
+    }
+
+    @Override
+    public void channelActive(ChannelHandlerContext ctx) throws Exception
+    {
+        periodStart = clock.getAsLong();
+        Channel channel = ctx.channel();
+        try {
+            Method method = channel.getClass().getMethod("tcpInfo");
+            tcpInfoRtt = method.getReturnType().getMethod("rtt");
+            tcpInfo = method;
+        } catch (NoSuchMethodException e) {
+            tcpInfo = null;
+        }
+        timer = ctx.executor().scheduleAtFixedRate(() -> tune(channel),
+                                                   PERIOD, PERIOD, TimeUnit.NANOSECONDS);
+        ctx.fireChannelActive();
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception
+    {
+        cancel();
+        ctx.fireChannelInactive();
+    }
+
+    @Override
+    public void handlerRemoved(ChannelHandlerContext ctx) throws Exception
+    {
+        cancel();
+    }
+
+    @Override
+    public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+    {
+        if (lastFlush != 0) {
+            long now = clock.getAsLong();
+            long sample = now - lastFlush;
+            if (sample < roundTripTime || now > roundTripTimeExpires) {
+                roundTripTime = sample;
+                roundTripTimeExpires = now + RTT_WINDOW;
+            }
+            lastFlush = 0;
+        }
+        ctx.fireChannelRead(msg);
+    }
+
+    @Override
+    public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+    {
+        bytesWritten += sizeOf(msg);
+        ctx.write(msg, promise);
+    }
+
+    @Override
+    public void flush(ChannelHandlerContext ctx) throws Exception
+    {
+        lastFlush = (outstandingRequests == 0) ? clock.getAsLong() : 0;
+        ctx.flush();
+    }
+
+    void tune(Channel channel)
+    {
+        long now = clock.getAsLong();
+        long elapsed = now - periodStart;
+        if (elapsed <= 0) {
+            return;
+        }
+        throughput = Math.max(bytesWritten * 1e9 / elapsed, throughput * DECAY);
+        bytesWritten = 0;
+        periodStart = now;
+
+        if (tcpInfo != null) {
+            long rtt = readTcpInfoRoundTripTime(channel);
+            if (rtt > 0) {
+                roundTripTime = rtt;
+            }
+        }
+        if (roundTripTime == Long.MAX_VALUE) {
+            return;
+        }
+
+        double bdp = throughput * roundTripTime / 1e9;
+        int high = (int) Math.max(minHighWaterMark, Math.min(maxHighWaterMark, 2 * bdp));
+        WriteBufferWaterMark current = channel.config().getWriteBufferWaterMark();
+        if (Math.abs(high - current.high()) > current.high() / 4) {
+            channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(high / 2, high));
+        }
+    }
+
+    /**
+     * Returns the smoothed round trip time in nanoseconds measured by the
+     * kernel, or 0 if it cannot be read.
+     */
+    private long readTcpInfoRoundTripTime(Channel channel)
+    {
+        try {
+            return TimeUnit.MICROSECONDS.toNanos(((Number) tcpInfoRtt.invoke(tcpInfo.invoke(channel))).longValue());
+        } catch (ReflectiveOperationException | RuntimeException e) {
+            tcpInfo = null;
+            return 0;
+        }
+    }
+
+    private void cancel()
+    {
+        if (timer != null) {
+            timer.cancel(false);
+            timer = null;
+        }
+    }
+
+    /**
+     * Counts the requests decoded and the final responses written.
+     * Intermediate responses (kXR_oksofar, kXR_waitresp) do not complete
+     * a request, and kXR_sigver requests are not answered.
+     */
+    private class RequestTracker extends ChannelDuplexHandler
+    {
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception
+        {
+            if (msg instanceof XrootdRequest && !(msg instanceof SigverRequest)) {
+                outstandingRequests++;
+            }
+            ctx.fireChannelRead(msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception
+        {
+            if (msg instanceof XrootdResponse && outstandingRequests > 0) {
+                int status = ((XrootdResponse<?>) msg).getStatus();
+                if (status != kXR_oksofar && status != kXR_waitresp) {
+                    outstandingRequests--;
+                }
+            }
+            ctx.write(msg, promise);
+        }
+    }
+}
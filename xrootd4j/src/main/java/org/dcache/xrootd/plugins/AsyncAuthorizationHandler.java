@@ -0,0 +1,95 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.plugins;
+
+import com.google.common.base.Throwables;
+
+import javax.security.auth.Subject;
+
+import java.net.InetSocketAddress;
+import java.security.GeneralSecurityException;
+import java.util.Map;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.ExecutionException;
+
+import org.dcache.xrootd.core.XrootdException;
+import org.dcache.xrootd.protocol.XrootdProtocol.FilePerm;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ServerError;
+
+/**
+ * Authorization and path mapping plugin that does not block the
+ * calling thread, e.g. because it consults an external policy service.
+ *
+ * While the returned stage is incomplete, processing of the request,
+ * and of any later request on the same connection, is suspended.
+ * Requests are resumed in the order in which they were received.
+ */
+public interface AsyncAuthorizationHandler extends AuthorizationHandler
+{
+    /**
+     * Asynchronous authorization and path mapping hook.
+     *
+     * The stage is completed with the mapped path, or exceptionally with
+     * a SecurityException if access is denied, a GeneralSecurityException
+     * if the process of authorizing fails, or an XrootdException if some
+     * specific error should be propagated back to the xrootd client.
+     *
+     * The stage may be completed by any thread.
+     *
+     * @param subject the user
+     * @param localAddress local socket address of client connection
+     * @param remoteAddress remote socket address of client connection
+     * @param path the file which is checked
+     * @param opaque the opaque data from the request
+     * @param request xrootd request id of the operation
+     * @param mode the requested mode
+     */
+    CompletionStage<String> authorizeAsync(Subject subject,
+                                           InetSocketAddress localAddress,
+                                           InetSocketAddress remoteAddress,
+                                           String path, Map<String,String> opaque,
+                                           int request, FilePerm mode);
+
+    /**
+     * Blocks until {@link #authorizeAsync} completes.
+     */
+    @Override
+    default String authorize(Subject subject,
+                             InetSocketAddress localAddress,
+                             InetSocketAddress remoteAddress,
+                             String path, Map<String,String> opaque,
+                             int request, FilePerm mode)
+        throws XrootdException, SecurityException, GeneralSecurityException
+    {
+        try {
+            return authorizeAsync(subject, localAddress, remoteAddress,
+                                  path, opaque, request, mode)
+                    .toCompletableFuture().get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new XrootdException(kXR_ServerError, "Authorization interrupted");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            Throwables.propagateIfInstanceOf(cause, XrootdException.class);
+            Throwables.propagateIfInstanceOf(cause, GeneralSecurityException.class);
+            throw Throwables.propagate(cause);
+        }
+    }
+}
@@ -59,4 +59,20 @@ public interface AuthorizationHandler
                      String path, Map<String,String> opaque,
                      int request, FilePerm mode)
         throws XrootdException, SecurityException, GeneralSecurityException;
+
+    /**
+     * Whether the result of {@link #authorize} may be cached.
+     *
+     * Implementations should only return true if the mapped path, or the
+     * denial of access, depends on nothing but the arguments, and remains
+     * valid for the lifetime of the session. Cached decisions are reused
+     * for the same session, path, opaque data, request id and mode without
+     * calling the plugin again.
+     *
+     * @return true if decisions may be cached, false by default.
+     */
+    default boolean isCacheable()
+    {
+        return false;
+    }
 }
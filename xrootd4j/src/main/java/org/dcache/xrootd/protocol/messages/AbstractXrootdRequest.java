@@ -19,12 +19,17 @@
 package org.dcache.xrootd.protocol.messages;
 
 import io.netty.buffer.ByteBuf;
+import io.netty.util.ByteProcessor;
 
 import javax.security.auth.Subject;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import org.dcache.xrootd.core.XrootdSession;
 
 import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.US_ASCII;
 
 public class AbstractXrootdRequest implements XrootdRequest
 {
@@ -73,4 +78,30 @@ public class AbstractXrootdRequest implements XrootdRequest
     {
         return (session == null) ? null : session.getSubject();
     }
+
+    /**
+     * Decodes a newline separated list of paths, as sent with bulk
+     * requests.
+     *
+     * Each path is decoded directly from the buffer, without first
+     * decoding the whole list into a single string. Like
+     * {@link String#split}, empty paths at the end of the list are
+     * dropped; an empty list yields no paths.
+     */
+    protected static String[] readPathList(ByteBuf buffer, int index, int length)
+    {
+        List<String> paths = new ArrayList<>();
+        int end = index + length;
+        int nonEmpty = 0;
+        while (index < end) {
+            int lf = buffer.forEachByte(index, end - index, ByteProcessor.FIND_LF);
+            int next = (lf == -1) ? end : lf;
+            paths.add(buffer.toString(index, next - index, US_ASCII));
+            if (next > index) {
+                nonEmpty = paths.size();
+            }
+            index = next + 1;
+        }
+        return paths.subList(0, nonEmpty).toArray(new String[nonEmpty]);
+    }
 }
@@ -18,6 +18,7 @@
  */
 package org.dcache.xrootd.protocol.messages;
 
+import com.google.common.primitives.Bytes;
 import io.netty.buffer.ByteBuf;
 
 import org.dcache.xrootd.protocol.XrootdProtocol;
@@ -30,48 +31,61 @@ import static java.nio.charset.StandardCharsets.US_ASCII;
  * The path and opaque data is found at offset 24 in the message, with
  * the length at offset 20. The path and opaque data are delimited by
  * a question mark.
+ *
+ * The field is copied from the frame, but only decoded into strings
+ * when the path or opaque data is first accessed, so that requests
+ * rejected early, and opaque data that is never looked at, cost no
+ * string decoding.
  */
 public class PathRequest extends AbstractXrootdRequest
 {
+    private final byte[] pathAndOpaque;
+    private final int delimiter;
+
+    private boolean isPathDecoded;
+    private boolean isOpaqueDecoded;
     private String path;
     private String opaque;
 
     public PathRequest(ByteBuf buffer, int requestId)
     {
         super(buffer, requestId);
-        setPathAndOpaque(buffer, 24, buffer.getInt(20));
-    }
-
-    private void setPathAndOpaque(ByteBuf buffer, int begin, int length)
-    {
-        int end = begin + length;
-        int pos = buffer.indexOf(begin, end, XrootdProtocol.OPAQUE_DELIMITER);
-        if (pos > -1) {
-            setPath(buffer.toString(begin, pos - begin, US_ASCII));
-            setOpaque(buffer.toString(pos + 1, end - (pos + 1), US_ASCII));
-        } else {
-            setPath(buffer.toString(begin, end - begin, US_ASCII));
-            setOpaque("");
-        }
+        pathAndOpaque = new byte[buffer.getInt(20)];
+        buffer.getBytes(24, pathAndOpaque);
+        delimiter = Bytes.indexOf(pathAndOpaque, XrootdProtocol.OPAQUE_DELIMITER);
     }
 
     public String getOpaque()
     {
+        if (!isOpaqueDecoded) {
+            opaque = (delimiter > -1)
+                     ? new String(pathAndOpaque, delimiter + 1,
+                                  pathAndOpaque.length - (delimiter + 1), US_ASCII)
+                     : "";
+            isOpaqueDecoded = true;
+        }
         return opaque;
     }
 
     public void setOpaque(String opaque)
     {
         this.opaque = opaque;
+        isOpaqueDecoded = true;
     }
 
     public String getPath()
     {
+        if (!isPathDecoded) {
+            path = new String(pathAndOpaque, 0,
+                              (delimiter > -1) ? delimiter : pathAndOpaque.length, US_ASCII);
+            isPathDecoded = true;
+        }
         return path;
     }
 
     public void setPath(String path)
     {
         this.path = path;
+        isPathDecoded = true;
     }
 }
@@ -22,26 +22,36 @@ import io.netty.buffer.ByteBuf;
 
 import java.util.Arrays;
 
-import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.dcache.xrootd.protocol.XrootdProtocol.*;
 
 public class PrepareRequest extends AbstractXrootdRequest
 {
     private final int options;
     private final int priority;
-    private final String[] plist;
+    private String[] plist;
+    private final String[] opaques;
 
     public PrepareRequest(ByteBuf buffer)
     {
         super(buffer, kXR_prepare);
 
-        options = buffer.getUnsignedShort(4);
-        priority = buffer.getUnsignedShort(5);
+        options = buffer.getUnsignedByte(4);
+        priority = buffer.getUnsignedByte(5);
 
         int plen = buffer.getInt(20);
         int end = 24 + plen;
 
-        plist = buffer.toString(24, end - 24, US_ASCII).split("\n");
+        plist = readPathList(buffer, 24, end - 24);
+        opaques = new String[plist.length];
+
+        for (int i = 0; i < plist.length; i++) {
+            String path = plist[i];
+            int pos = path.indexOf('?');
+            if (pos > -1) {
+                plist[i] = path.substring(0, pos);
+                opaques[i] = path.substring(pos + 1);
+            }
+        }
     }
 
     public int getOptions()
@@ -59,6 +69,16 @@ public class PrepareRequest extends AbstractXrootdRequest
         return plist;
     }
 
+    public void setPathList(String[] plist)
+    {
+        this.plist = plist;
+    }
+
+    public String[] getOpaques()
+    {
+        return opaques;
+    }
+
     public boolean isCancel() {
         return (getOptions() & kXR_cancel) == kXR_cancel;
     }
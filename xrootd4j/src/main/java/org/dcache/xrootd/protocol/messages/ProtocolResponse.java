@@ -44,11 +44,10 @@ import org.dcache.xrootd.security.SigningPolicy;
  *  <p>dlen is either 8, if no security requirements are returned,
  *     or 14 + secvsz*2.</p>
  *
- *  <p>For the moment, the dCache server does not set any overrides,
- *     but merely communicates the security level (this determines
- *     which requests it expects to be preceded by a signed hash
- *     verification request).  This may change in the future, so
- *     provision is made for non-zero secvsz.</p>
+ *  <p>The security level determines which requests the server expects
+ *     to be preceded by a signed hash verification request; the
+ *     per-request overrides of the signing policy refine this, e.g., to
+ *     exempt reads.</p>
  *
  *  <p>Signing can be enforced if the protocol does not
  *     provide encryption by setting a dCache property.  In this
@@ -91,7 +90,8 @@ public class ProtocolResponse extends AbstractXrootdResponse<ProtocolRequest>
     @Override
     public int getDataLength()
     {
-        return signingPolicy.isSigningOn() ? 14 : 8;
+        return signingPolicy.isSigningOn()
+                        ? 14 + 2 * signingPolicy.getOverrideCount() : 8;
     }
 
     @Override
@@ -99,7 +99,7 @@ public class ProtocolResponse extends AbstractXrootdResponse<ProtocolRequest>
     {
         buffer.writeInt(XrootdProtocol.PROTOCOL_VERSION);
         buffer.writeInt(flags);
-        if (getDataLength() == 14) {
+        if (signingPolicy.isSigningOn()) {
             buffer.writeByte('S');
             buffer.writeByte(RESERVED);
             buffer.writeByte(SECVER);
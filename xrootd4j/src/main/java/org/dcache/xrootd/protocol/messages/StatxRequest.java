@@ -20,7 +20,6 @@ package org.dcache.xrootd.protocol.messages;
 
 import io.netty.buffer.ByteBuf;
 
-import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_statx;
 
 public class StatxRequest extends AbstractXrootdRequest
@@ -33,7 +32,7 @@ public class StatxRequest extends AbstractXrootdRequest
         super(buffer, kXR_statx);
 
         int dlen = buffer.getInt(20);
-        paths = buffer.toString(24, dlen, US_ASCII).split("\n");
+        paths = readPathList(buffer, 24, dlen);
         opaques = new String[paths.length];
 
         for (int i = 0; i < paths.length; i++) {
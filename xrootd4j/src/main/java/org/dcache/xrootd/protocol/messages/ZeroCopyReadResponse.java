@@ -31,17 +31,43 @@ import java.nio.channels.FileChannel;
 import static com.google.common.base.Preconditions.checkNotNull;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
 
+/**
+ * Response to a kXR_read request, transferring the data directly from
+ * the file to the socket.
+ *
+ * The file is not closed once the data has been sent.
+ */
 public class ZeroCopyReadResponse implements XrootdResponse<ReadRequest>
 {
     private final ReadRequest request;
     private final FileChannel file;
+    private final long position;
     private final int count;
+    private final int status;
 
     public ZeroCopyReadResponse(ReadRequest request, FileChannel file) throws IOException
+    {
+        this(request, file, request.getReadOffset(),
+             (int) Math.max(0, Math.min(request.bytesToRead(), file.size() - request.getReadOffset())),
+             kXR_ok);
+    }
+
+    /**
+     * Creates a response carrying part of the data requested.
+     *
+     * @param position offset in the file of the first byte to send
+     * @param count number of bytes to send
+     * @param status kXR_oksofar if more responses to the request follow,
+     *               kXR_ok otherwise
+     */
+    public ZeroCopyReadResponse(ReadRequest request, FileChannel file, long position, int count,
+                                int status)
     {
         this.request = checkNotNull(request);
         this.file = checkNotNull(file);
-        this.count = (int) Math.min(request.bytesToRead(), file.size()  - request.getReadOffset());
+        this.position = position;
+        this.count = count;
+        this.status = status;
     }
 
     @Override
@@ -53,7 +79,7 @@ public class ZeroCopyReadResponse implements XrootdResponse<ReadRequest>
     @Override
     public int getStatus()
     {
-        return kXR_ok;
+        return status;
     }
 
     @Override
@@ -67,8 +93,12 @@ public class ZeroCopyReadResponse implements XrootdResponse<ReadRequest>
     {
         ByteBuf header = ctx.alloc().buffer(8);
         header.writeShort(request.getStreamId());
-        header.writeShort(kXR_ok);
+        header.writeShort(status);
         header.writeInt(count);
+        if (count == 0) {
+            ctx.write(header, promise);
+            return;
+        }
         ctx.write(header).addListener(
                 new ChannelFutureListener()
                 {
@@ -80,7 +110,7 @@ public class ZeroCopyReadResponse implements XrootdResponse<ReadRequest>
                         }
                     }
                 });
-        ctx.write(new DefaultFileRegion(file, request.getReadOffset(), count)).addListener(
+        ctx.write(new SharedFileRegion(file, position, count)).addListener(
                 new ChannelFutureListener()
                 {
                     @Override
@@ -98,6 +128,24 @@ public class ZeroCopyReadResponse implements XrootdResponse<ReadRequest>
     @Override
     public String toString()
     {
-        return String.format("zero-copy-read-response[offset=%d,bytes=%d]", request.getReadOffset(), count);
+        return String.format("zero-copy-read-response[offset=%d,bytes=%d]", position, count);
+    }
+
+    /**
+     * DefaultFileRegion closes its file once released, but the file stays
+     * open until the client closes it. Remains a DefaultFileRegion, so
+     * that native transports still use sendfile.
+     */
+    private static class SharedFileRegion extends DefaultFileRegion
+    {
+        SharedFileRegion(FileChannel file, long position, long count)
+        {
+            super(file, position, count);
+        }
+
+        @Override
+        protected void deallocate()
+        {
+        }
     }
 }
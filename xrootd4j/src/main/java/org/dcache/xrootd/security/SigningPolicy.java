@@ -18,24 +18,45 @@
  */
 package org.dcache.xrootd.security;
 
+import com.google.common.collect.ImmutableList;
 import io.netty.buffer.ByteBuf;
 
 import java.util.Collections;
+import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 
+import org.dcache.xrootd.protocol.messages.PathRequest;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+
 import static org.dcache.xrootd.protocol.XrootdProtocol.*;
 import static org.dcache.xrootd.security.XrootdSecurityProtocol.*;
 
 /**
  * <p>Encapsulates information about (a) the server-side requirements, and
  *    (b) whether a request needs to be signed accordingly.</p>
+ *
+ * <p>The security level determines which classes of request must be
+ *    signed.  Per-request overrides (keyed by request id, with values
+ *    kXR_signIgnore, kXR_signLikely or kXR_signNeeded) refine this;
+ *    they are advertised to the client in the kXR_protocol response,
+ *    so that, e.g., kXR_read and kXR_readv can be exempted from signing
+ *    at the pedantic level.</p>
+ *
+ * <p>Exempt path prefixes are a purely server-side refinement: the
+ *    protocol has no way of advertising them, so the client will still
+ *    sign such requests, but the server does not spend the cost of
+ *    verifying the hash. Prefixes match whole path segments of the
+ *    normalized path, and paths with {@code ..} segments are never
+ *    exempt.</p>
  */
 public class SigningPolicy
 {
     private final int                   secLvl;
     private final Map<Integer, Integer> overrides;
     private final byte                  secOFrce;
+    private final List<String>          exemptPaths;
+    private final SigningStatistics     statistics = new SigningStatistics();
 
     public SigningPolicy()
     {
@@ -56,10 +77,35 @@ public class SigningPolicy
     public SigningPolicy(int secLvl,
                          byte secOFrce,
                          Map<Integer, Integer> overrides)
+    {
+        this(secLvl, secOFrce, overrides, Collections.<String>emptyList());
+    }
+
+    /**
+     * @param secLvl the security level (kXR_secNone to kXR_secPedantic).
+     * @param secOFrce kXR_secOFrce if signing is required even without
+     *                 encryption, 0 otherwise.
+     * @param overrides signing action keyed by request id.
+     * @param exemptPaths path prefixes for which signed hashes are
+     *                    not verified.
+     */
+    public SigningPolicy(int secLvl,
+                         byte secOFrce,
+                         Map<Integer, Integer> overrides,
+                         List<String> exemptPaths)
     {
         this.secLvl = secLvl;
         this.secOFrce = secOFrce;
         this.overrides = overrides;
+        ImmutableList.Builder<String> prefixes = ImmutableList.builder();
+        for (String prefix : exemptPaths) {
+            String normalized = normalize(prefix);
+            if (normalized == null) {
+                throw new IllegalArgumentException("Exempt path must not contain '..': " + prefix);
+            }
+            prefixes.add(normalized);
+        }
+        this.exemptPaths = prefixes.build();
     }
 
     public boolean isForceSigning()
@@ -75,10 +121,6 @@ public class SigningPolicy
     public boolean requiresSigning(int requestId)
     {
         int signingLevel;
-        Integer override =  overrides.get(requestId);
-        if (override == null) {
-            override = kXR_signIgnore;
-        }
 
         switch (requestId) {
             case kXR_dirlist:
@@ -109,14 +151,84 @@ public class SigningPolicy
                 signingLevel = kXR_secNone;
         }
 
-        return signingLevel != kXR_secNone &&
-                        (secLvl >= signingLevel || override == kXR_signNeeded);
+        if (signingLevel == kXR_secNone) {
+            return false;
+        }
+
+        Integer override = overrides.get(requestId);
+        if (override != null) {
+            switch (override) {
+                case kXR_signNeeded:
+                    return true;
+                case kXR_signIgnore:
+                    return false;
+            }
+        }
+
+        return secLvl >= signingLevel;
+    }
+
+    /**
+     * @return true if the request targets a path for which the signed
+     *         hash need not be verified.
+     */
+    public boolean isExempt(XrootdRequest request)
+    {
+        if (exemptPaths.isEmpty() || !(request instanceof PathRequest)) {
+            return false;
+        }
+
+        String path = normalize(((PathRequest) request).getPath());
+        if (path == null) {
+            return false;
+        }
+        for (String prefix : exemptPaths) {
+            if (path.equals(prefix) || path.startsWith(prefix + "/")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns the absolute form of a path without empty or {@code .}
+     * segments and without a trailing slash, so that the root is the
+     * empty string, or null if the path has {@code ..} segments.
+     */
+    private static String normalize(String path)
+    {
+        StringBuilder normalized = new StringBuilder(path.length());
+        for (String segment : path.split("/")) {
+            if (segment.equals("..")) {
+                return null;
+            }
+            if (!segment.isEmpty() && !segment.equals(".")) {
+                normalized.append('/').append(segment);
+            }
+        }
+        return normalized.toString();
+    }
+
+    public List<String> getExemptPaths()
+    {
+        return exemptPaths;
+    }
+
+    public int getOverrideCount()
+    {
+        return overrides.size();
+    }
+
+    public SigningStatistics getStatistics()
+    {
+        return statistics;
     }
 
     public String toString()
     {
         return "(secLvl " + secLvl
                         + ")(overrides " + overrides
+                        + ")(exempt " + exemptPaths
                         + ")(force " + isForceSigning() + ")";
     }
 
@@ -127,11 +239,13 @@ public class SigningPolicy
         /*
          * kXR_char secvsz = length of data array, that is, size of map
          * {kXR_char,kXR_char} [reqidx,reqlvl]
+         *
+         * reqidx is the request id relative to kXR_auth.
          */
         buffer.writeByte(overrides.size());
 
         for (Entry<Integer,Integer> entry : overrides.entrySet()) {
-            buffer.writeByte(entry.getKey());
+            buffer.writeByte(entry.getKey() - kXR_auth);
             buffer.writeByte(entry.getValue());
         }
     }
@@ -0,0 +1,102 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.security;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_auth;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sigver;
+
+/**
+ * <p>Counts, per request id, how many requests and bytes had their
+ *    signed hash verified, and how many were exempted by path.</p>
+ *
+ * <p>Shared by all channels using the same {@link SigningPolicy};
+ *    updates do not contend.</p>
+ */
+public class SigningStatistics
+{
+    private static final int SIZE = kXR_sigver - kXR_auth + 1;
+
+    private final LongAdder[] verifiedRequests = newCounters();
+    private final LongAdder[] verifiedBytes = newCounters();
+    private final LongAdder[] exemptRequests = newCounters();
+
+    private static LongAdder[] newCounters()
+    {
+        LongAdder[] counters = new LongAdder[SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            counters[i] = new LongAdder();
+        }
+        return counters;
+    }
+
+    private static boolean isValid(int requestId)
+    {
+        return requestId >= kXR_auth && requestId <= kXR_sigver;
+    }
+
+    public void verified(int requestId, int bytes)
+    {
+        if (isValid(requestId)) {
+            verifiedRequests[requestId - kXR_auth].increment();
+            verifiedBytes[requestId - kXR_auth].add(bytes);
+        }
+    }
+
+    public void exempted(int requestId)
+    {
+        if (isValid(requestId)) {
+            exemptRequests[requestId - kXR_auth].increment();
+        }
+    }
+
+    public long getVerifiedRequests(int requestId)
+    {
+        return isValid(requestId) ? verifiedRequests[requestId - kXR_auth].sum() : 0;
+    }
+
+    public long getVerifiedBytes(int requestId)
+    {
+        return isValid(requestId) ? verifiedBytes[requestId - kXR_auth].sum() : 0;
+    }
+
+    public long getExemptRequests(int requestId)
+    {
+        return isValid(requestId) ? exemptRequests[requestId - kXR_auth].sum() : 0;
+    }
+
+    @Override
+    public String toString()
+    {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < SIZE; i++) {
+            long requests = verifiedRequests[i].sum();
+            long exempt = exemptRequests[i].sum();
+            if (requests > 0 || exempt > 0) {
+                builder.append('(').append(kXR_auth + i)
+                       .append(" verified ").append(requests)
+                       .append(" bytes ").append(verifiedBytes[i].sum())
+                       .append(" exempt ").append(exempt)
+                       .append(')');
+            }
+        }
+        return builder.toString();
+    }
+}
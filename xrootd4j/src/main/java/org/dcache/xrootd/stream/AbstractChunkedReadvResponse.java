@@ -23,6 +23,8 @@ import io.netty.buffer.ByteBufAllocator;
 import io.netty.util.ReferenceCountUtil;
 
 import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
 
 import org.dcache.xrootd.core.XrootdException;
 import org.dcache.xrootd.protocol.messages.GenericReadRequestMessage;
@@ -30,6 +32,15 @@ import org.dcache.xrootd.protocol.messages.ReadVRequest;
 import org.dcache.xrootd.protocol.messages.ReadVResponse;
 import org.dcache.xrootd.protocol.messages.XrootdRequest;
 
+/**
+ * A response to a kXR_readv, split into frames of at most maxFrameSize
+ * bytes.
+ *
+ * The frames are planned when the first frame is requested: the size of
+ * every file involved is determined once, each segment is truncated at
+ * the end of its file, and the segments are assigned to frames. The
+ * following frames only read data.
+ */
 public abstract class AbstractChunkedReadvResponse implements ChunkedResponse
 {
     protected final ReadVRequest request;
@@ -37,6 +48,20 @@ public abstract class AbstractChunkedReadvResponse implements ChunkedResponse
     protected final GenericReadRequestMessage.EmbeddedReadRequest[] requests;
     protected int index;
 
+    /**
+     * Length of each segment truncated at the end of its file, or null
+     * if the frames have not been planned yet.
+     */
+    private int[] lengths;
+
+    /**
+     * Index of the first segment of each frame, followed by the number
+     * of segments as the end of the last frame.
+     */
+    private int[] frames;
+
+    private int frame;
+
     public AbstractChunkedReadvResponse(ReadVRequest request, int maxFrameSize)
     {
         this.maxFrameSize = maxFrameSize;
@@ -57,16 +82,21 @@ public abstract class AbstractChunkedReadvResponse implements ChunkedResponse
             return null;
         }
 
-        int count = getChunksInNextFrame(maxFrameSize);
+        if (lengths == null) {
+            planFrames();
+        }
+
+        int count = frames[frame + 1] - frames[frame];
         ByteBuf[] chunks = new ByteBuf[requests.length];
         try {
             for (int i = index; i < index + count; i++) {
-                chunks[i] = read(alloc, requests[i]);
+                chunks[i] = read(alloc, requests[i].getFileHandle(), requests[i].getOffset(), lengths[i]);
             }
 
             ReadVResponse response =
                     new ReadVResponse(request, requests, chunks, index, count, index + count < requests.length);
             index += count;
+            frame++;
             return response;
         } catch (RuntimeException | IOException | XrootdException e) {
             for (ByteBuf chunk : chunks) {
@@ -89,35 +119,54 @@ public abstract class AbstractChunkedReadvResponse implements ChunkedResponse
     {
     }
 
-    private int getLengthOfRequest(GenericReadRequestMessage.EmbeddedReadRequest request)
-        throws IOException, XrootdException
+    private void planFrames() throws IOException, XrootdException
     {
-        return (int) Math.min(request.BytesToRead(),
-            getSize(request.getFileHandle()) - request.getOffset());
+        Map<Integer, Long> sizes = new HashMap<>();
+        int[] lengths = new int[requests.length];
+        for (int i = 0; i < requests.length; i++) {
+            int fd = requests[i].getFileHandle();
+            Long size = sizes.get(fd);
+            if (size == null) {
+                size = getSize(fd);
+                sizes.put(fd, size);
+            }
+            lengths[i] = (int) Math.max(0, Math.min(requests[i].BytesToRead(),
+                                                    size - requests[i].getOffset()));
+        }
+
+        int[] frames = new int[requests.length + 1];
+        int count = 0;
+        int start = 0;
+        while (start < requests.length) {
+            frames[count++] = start;
+            start = getEndOfFrame(lengths, start);
+        }
+        frames[count] = start;
+
+        this.lengths = lengths;
+        this.frames = frames;
     }
 
-    private int getChunksInNextFrame(int maxFrameSize) throws IOException, XrootdException
+    /**
+     * Returns the index of the first segment not fitting into a frame
+     * starting with the given segment.
+     */
+    private int getEndOfFrame(int[] lengths, int start)
     {
         long length = 0;
-        int count = 0;
-        for (int i = index; i < requests.length && length < maxFrameSize; i++) {
+        int end = start;
+        while (end < lengths.length && length < maxFrameSize) {
             length += ReadVResponse.READ_LIST_HEADER_SIZE;
-            length += getLengthOfRequest(requests[i]);
-            count++;
+            length += lengths[end];
+            end++;
         }
         if (length > maxFrameSize) {
-            count--;
+            end--;
         }
-        if (count == 0) {
+        if (end == start) {
             throw new IllegalStateException("Maximum chunk size exceeded");
         }
-        return count;
-    }
-
-    private ByteBuf read(ByteBufAllocator alloc, GenericReadRequestMessage.EmbeddedReadRequest request)
-        throws IOException, XrootdException
-    {
-        return read(alloc, request.getFileHandle(), request.getOffset(), request.BytesToRead());
+        return end;
     }
 
     protected abstract long getSize(int fd) throws IOException, XrootdException;
@@ -0,0 +1,453 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import com.google.common.base.Throwables;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPromise;
+import io.netty.util.ReferenceCounted;
+
+import java.io.IOException;
+import java.nio.file.DirectoryIteratorException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+import org.dcache.xrootd.protocol.messages.DirListRequest;
+import org.dcache.xrootd.protocol.messages.ErrorResponse;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+import org.dcache.xrootd.util.FileStatus;
+import org.dcache.xrootd.util.ParallelBatches;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static java.util.concurrent.CompletableFuture.completedFuture;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_IOError;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_oksofar;
+
+/**
+ * Streams the entries of a directory to the client.
+ *
+ * Entries are read from the directory stream only when the channel can
+ * take another frame, and are encoded directly into the frame, so that
+ * the memory needed does not depend on the size of the directory.
+ *
+ * If the client asked for kXR_dstat, the status of the entries of a
+ * frame is looked up in parallel batches. An entry whose status cannot
+ * be found because it was removed after being listed is skipped.
+ *
+ * If an executor is given, the entries of a frame are read and their
+ * status looked up on the executor ahead of the frame being sent, and
+ * {@link #nextChunk} merely encodes entries that have already been
+ * fetched. The event loop thus never blocks on the file system.
+ */
+public class ChunkedDirListResponse implements ChunkedResponse
+{
+    /**
+     * Looks up the status of a directory entry.
+     */
+    public interface StatFunction
+    {
+        /**
+         * @return the status of the file, or null if it no longer exists
+         */
+        FileStatus stat(Path path) throws IOException;
+    }
+
+    /**
+     * Upper bound of the length of a FileStatus in text form.
+     */
+    private static final int MAX_STATUS_LENGTH = 80;
+
+    /**
+     * Maximum length of a file name on common file systems.
+     */
+    private static final int MAX_NAME_LENGTH = 255;
+
+    /**
+     * Maximum number of entries in a frame of a kXR_dstat listing,
+     * bounding the time to stat the entries of a frame.
+     */
+    private static final int MAX_STAT_ENTRIES = 1000;
+
+    private static final String DOT_ENTRY = ".\n" + new FileStatus(0, 0, 0, 0);
+
+    private final DirListRequest request;
+    private final DirectoryStream<Path> stream;
+    private final Iterator<Path> entries;
+    private final int maxFrameSize;
+    private final StatFunction stat;
+    private final Executor executor;
+    private final int parallelism;
+    private boolean isFirst = true;
+    private volatile boolean isEndOfInput;
+    private CompletableFuture<Frame> next;
+
+    /**
+     * Creates a listing without the status of the entries.
+     */
+    public ChunkedDirListResponse(DirListRequest request, DirectoryStream<Path> stream, int maxFrameSize)
+    {
+        this(request, stream, maxFrameSize, null, null, 1);
+    }
+
+    /**
+     * Creates a listing, including the status of the entries if
+     * {@code stat} is not null.
+     *
+     * @param stat looks up the status of an entry, or null to list only
+     *             the names of the entries
+     * @param executor reads the entries and looks up their status, or
+     *                 null to do so on the thread calling nextChunk
+     * @param parallelism number of batches the entries of a frame are
+     *                    split into to look up their status in parallel
+     */
+    public ChunkedDirListResponse(DirListRequest request, DirectoryStream<Path> stream, int maxFrameSize,
+                                  StatFunction stat, Executor executor, int parallelism)
+    {
+        this.request = checkNotNull(request);
+        this.stream = stream;
+        this.entries = stream.iterator();
+        this.maxFrameSize = maxFrameSize;
+        this.stat = stat;
+        this.executor = executor;
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    @Override
+    public DirListRequest getRequest()
+    {
+        return request;
+    }
+
+    /**
+     * Starts fetching the next frame on the executor, unless a fetch is
+     * already in progress or the listing is complete.
+     */
+    @Override
+    public CompletableFuture<?> whenReady()
+    {
+        return prefetch();
+    }
+
+    private synchronized CompletableFuture<Frame> prefetch()
+    {
+        if (next == null && !isEndOfInput) {
+            next = fetch();
+        }
+        return next;
+    }
+
+    @Override
+    public XrootdResponse<DirListRequest> nextChunk(ByteBufAllocator alloc) throws Exception
+    {
+        checkState(!isEndOfInput);
+        Frame frame = prefetch().join();
+        synchronized (this) {
+            next = null;
+        }
+
+        if (frame.error != null) {
+            isEndOfInput = true;
+            if (frame.error instanceof DirectoryIteratorException) {
+                return new ErrorResponse<>(request, kXR_IOError,
+                                           "Failed to list directory: " + frame.error.getCause().getMessage());
+            }
+            if (frame.error instanceof IOException) {
+                return new ErrorResponse<>(request, kXR_IOError,
+                                           "Failed to list directory: " + frame.error.getMessage());
+            }
+            throw Throwables.propagate(frame.error);
+        }
+        isEndOfInput = frame.isLast;
+
+        List<Path> paths = frame.paths;
+        FileStatus[] status = frame.status;
+        ByteBuf buffer = alloc.ioBuffer(8 + frame.length);
+        try {
+            buffer.writerIndex(8);
+            boolean isEmpty = true;
+            if (status != null && isFirst && countFound(status) > 0) {
+                buffer.writeCharSequence(DOT_ENTRY, US_ASCII);
+                isEmpty = false;
+            }
+            for (int i = 0; i < paths.size(); i++) {
+                if (status != null && status[i] == null) {
+                    continue;
+                }
+                if (!isEmpty) {
+                    buffer.writeByte('\n');
+                }
+                buffer.writeCharSequence(paths.get(i).getFileName().toString(), US_ASCII);
+                if (status != null) {
+                    buffer.writeByte('\n');
+                    buffer.writeCharSequence(status[i].toString(), US_ASCII);
+                }
+                isEmpty = false;
+            }
+            /* If no more entries follow, the last entry in the list is terminated
+             * by a 0 rather than by a \n.
+             */
+            if (!isEmpty) {
+                buffer.writeByte(isEndOfInput ? 0 : '\n');
+            }
+            isFirst = false;
+
+            int statusCode = isEndOfInput ? kXR_ok : kXR_oksofar;
+            buffer.setShort(0, request.getStreamId());
+            buffer.setShort(2, statusCode);
+            buffer.setInt(4, buffer.writerIndex() - 8);
+            return new EncodedResponse(request, statusCode, buffer);
+        } catch (RuntimeException e) {
+            buffer.release();
+            throw e;
+        } finally {
+            /* Prefetch the next frame while this one is sent. */
+            if (executor != null) {
+                prefetch();
+            }
+        }
+    }
+
+    /**
+     * Reads the entries of the next frame and looks up their status.
+     * Frames of a kXR_dstat listing in which none of the entries exist
+     * any longer are skipped.
+     */
+    private CompletableFuture<Frame> fetch()
+    {
+        Executor executor = (this.executor == null) ? Runnable::run : this.executor;
+        /* The continuations are async, as they would otherwise run on the thread
+         * attaching them if the previous stage has already completed.
+         */
+        return CompletableFuture
+                .supplyAsync(this::list, executor)
+                .thenComposeAsync(frame -> (stat == null || frame.error != null)
+                                           ? completedFuture(frame) : stat(frame), executor)
+                .thenComposeAsync(frame -> frame.isSkippable() ? fetch() : completedFuture(frame), executor);
+    }
+
+    private Frame list()
+    {
+        Frame frame = new Frame();
+        try {
+            frame.length = nextEntries(frame.paths, (stat == null) ? 0 : MAX_STATUS_LENGTH + 1);
+            frame.isLast = !entries.hasNext();
+        } catch (RuntimeException e) {
+            frame.error = e;
+        }
+        return frame;
+    }
+
+    /**
+     * Adds the next entries to {@code paths}, as many as fit into a frame
+     * if each name is followed by up to {@code extra} bytes.
+     *
+     * @return an upper bound of the length of the encoded entries
+     */
+    private int nextEntries(List<Path> paths, int extra)
+    {
+        int maxEntries = (stat == null) ? Integer.MAX_VALUE : MAX_STAT_ENTRIES;
+        int length = (stat != null && isFirst) ? DOT_ENTRY.length() + 1 : 0;
+        while (paths.size() < maxEntries && entries.hasNext()) {
+            Path path = entries.next();
+            length += path.getFileName().toString().length() + 1 + extra;
+            paths.add(path);
+            if (length + MAX_NAME_LENGTH + 1 + extra > maxFrameSize) {
+                break;
+            }
+        }
+        return length;
+    }
+
+    private CompletableFuture<Frame> stat(Frame frame)
+    {
+        List<Path> paths = frame.paths;
+        FileStatus[] status = new FileStatus[paths.size()];
+        return ParallelBatches.run(paths.size(), i -> status[i] = stat.stat(paths.get(i)), executor, parallelism)
+                .handle((ignored, error) -> {
+                    if (error != null) {
+                        frame.error = (error instanceof CompletionException) ? error.getCause() : error;
+                    } else {
+                        frame.status = status;
+                    }
+                    return frame;
+                });
+    }
+
+    private static int countFound(FileStatus[] status)
+    {
+        int count = 0;
+        for (FileStatus s : status) {
+            if (s != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    @Override
+    public boolean isEndOfInput() throws Exception
+    {
+        return isEndOfInput;
+    }
+
+    /**
+     * Closes the directory stream, or, if a frame is still being fetched,
+     * closes it once the fetch has completed.
+     */
+    @Override
+    public void close() throws Exception
+    {
+        CompletableFuture<Frame> pending;
+        synchronized (this) {
+            pending = next;
+            isEndOfInput = true;
+        }
+        if (pending == null || pending.isDone()) {
+            stream.close();
+        } else {
+            pending.whenComplete((frame, error) -> {
+                try {
+                    stream.close();
+                } catch (IOException ignored) {
+                }
+            });
+        }
+    }
+
+    /**
+     * The entries of a frame of the listing, fetched ahead of encoding them.
+     */
+    private class Frame
+    {
+        final List<Path> paths = new ArrayList<>();
+        FileStatus[] status;
+        int length;
+        boolean isLast;
+        Throwable error;
+
+        boolean isSkippable()
+        {
+            return error == null && !isLast && status != null && countFound(status) == 0;
+        }
+    }
+
+    /**
+     * A frame of the listing, encoded including its header.
+     */
+    private static class EncodedResponse implements XrootdResponse<DirListRequest>, ReferenceCounted
+    {
+        private final DirListRequest request;
+        private final int stat;
+        private final ByteBuf frame;
+
+        EncodedResponse(DirListRequest request, int stat, ByteBuf frame)
+        {
+            this.request = request;
+            this.stat = stat;
+            this.frame = frame;
+        }
+
+        @Override
+        public DirListRequest getRequest()
+        {
+            return request;
+        }
+
+        @Override
+        public int getStatus()
+        {
+            return stat;
+        }
+
+        @Override
+        public int getDataLength()
+        {
+            return frame.readableBytes() - 8;
+        }
+
+        @Override
+        public void writeTo(ChannelHandlerContext ctx, ChannelPromise promise)
+        {
+            ctx.write(frame, promise);
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("dirlist-response[stat=%d,bytes=%d]", stat, getDataLength());
+        }
+
+        @Override
+        public int refCnt()
+        {
+            return frame.refCnt();
+        }
+
+        @Override
+        public EncodedResponse retain()
+        {
+            frame.retain();
+            return this;
+        }
+
+        @Override
+        public EncodedResponse retain(int increment)
+        {
+            frame.retain(increment);
+            return this;
+        }
+
+        @Override
+        public EncodedResponse touch()
+        {
+            frame.touch();
+            return this;
+        }
+
+        @Override
+        public EncodedResponse touch(Object hint)
+        {
+            frame.touch(hint);
+            return this;
+        }
+
+        @Override
+        public boolean release()
+        {
+            return frame.release();
+        }
+
+        @Override
+        public boolean release(int decrement)
+        {
+            return frame.release(decrement);
+        }
+    }
+}
@@ -31,17 +31,37 @@ import org.dcache.xrootd.protocol.messages.ReadRequest;
 public class ChunkedFileChannelReadResponse extends AbstractChunkedReadResponse
 {
     private final FileChannel channel;
+    private final MappedFileCache mappings;
 
     public ChunkedFileChannelReadResponse(ReadRequest request, int maxFrameSize, FileChannel channel)
+    {
+        this(request, maxFrameSize, channel, null);
+    }
+
+    /**
+     * @param mappings if not null, the data is sent from memory mapped
+     *                 regions of the file rather than copied into buffers
+     */
+    public ChunkedFileChannelReadResponse(ReadRequest request, int maxFrameSize, FileChannel channel,
+                                          MappedFileCache mappings)
     {
         super(request, maxFrameSize);
         this.channel = channel;
+        this.mappings = mappings;
     }
 
     @Override
     protected ByteBuf read(ByteBufAllocator alloc, long position, int length)
         throws IOException
     {
+        if (mappings != null) {
+            try {
+                return mappings.read(channel, position, length);
+            } catch (IOException e) {
+                /* Mapping fails if the address space or the number of
+                 * mappings of the process is exhausted. */
+            }
+        }
         ByteBuf chunk = alloc.ioBuffer(length);
         try {
             chunk.writerIndex(length);
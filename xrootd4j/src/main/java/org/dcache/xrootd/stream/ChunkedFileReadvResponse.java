@@ -30,37 +30,52 @@ import java.util.List;
 
 import org.dcache.xrootd.core.XrootdException;
 import org.dcache.xrootd.protocol.messages.ReadVRequest;
+import org.dcache.xrootd.util.FileHandleTable;
 
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_FileNotOpen;
 
 public class ChunkedFileReadvResponse extends AbstractChunkedReadvResponse
 {
     private final List<RandomAccessFile> files;
+    private final FileHandleTable<RandomAccessFile> table;
 
     public ChunkedFileReadvResponse(ReadVRequest request, int maxFrameSize, List<RandomAccessFile> files)
     {
         super(request, maxFrameSize);
         this.files = files;
+        this.table = null;
     }
 
-    @Override
-    protected long getSize(int fd) throws IOException, XrootdException
+    public ChunkedFileReadvResponse(ReadVRequest request, int maxFrameSize,
+                                    FileHandleTable<RandomAccessFile> table)
+    {
+        super(request, maxFrameSize);
+        this.files = null;
+        this.table = table;
+    }
+
+    private RandomAccessFile getFile(int fd) throws XrootdException
     {
+        if (table != null) {
+            return table.get(fd);
+        }
         if (fd < 0 || fd >= files.size() || files.get(fd) == null) {
             throw new XrootdException(kXR_FileNotOpen, "Invalid file descriptor");
         }
-        return files.get(fd).length();
+        return files.get(fd);
+    }
+
+    @Override
+    protected long getSize(int fd) throws IOException, XrootdException
+    {
+        return getFile(fd).length();
     }
 
     @Override
     protected ByteBuf read(ByteBufAllocator alloc, int fd, long position, int length)
         throws IOException, XrootdException
     {
-        if (fd < 0 || fd >= files.size() || files.get(fd) == null) {
-            throw new XrootdException(kXR_FileNotOpen, "Invalid file descriptor");
-        }
-
-        FileChannel channel = files.get(fd).getChannel();
+        FileChannel channel = getFile(fd).getChannel();
 
         ByteBuf chunk = alloc.ioBuffer(length);
         try {
@@ -20,6 +20,8 @@ package org.dcache.xrootd.stream;
 
 import io.netty.buffer.ByteBufAllocator;
 
+import java.util.concurrent.CompletableFuture;
+
 import org.dcache.xrootd.protocol.messages.XrootdResponse;
 import org.dcache.xrootd.protocol.messages.XrootdRequest;
 
@@ -34,6 +36,19 @@ public interface ChunkedResponse
      */
     XrootdRequest getRequest();
 
+    /**
+     * Returns a future that completes once {@link #nextChunk} can produce
+     * the next chunk without blocking, or null if it can do so right away.
+     *
+     * {@link ChunkedResponseWriteHandler} does not call {@code nextChunk}
+     * before the future has completed, so that a response that has to do
+     * blocking I/O to produce a chunk does not stall the event loop.
+     */
+    default CompletableFuture<?> whenReady()
+    {
+        return null;
+    }
+
     /**
      * Fetches a chunk from the stream.
      *
@@ -39,6 +39,7 @@ import org.slf4j.LoggerFactory;
 import java.nio.channels.ClosedChannelException;
 import java.util.ArrayDeque;
 import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * A {@link io.netty.channel.ChannelHandler} that adds support for writing chunked xrootd replies.
@@ -50,7 +51,9 @@ import java.util.Queue;
  * Since the handler is protocol specific, it can generated proper xrootd error responses in case
  * of faults.
  *
- * ChunkedResponseWriteHandler does not support suspended transfers.
+ * A response that is not ready to produce its next chunk, as signalled by
+ * {@link ChunkedResponse#whenReady}, suspends the transfer until it is.
+ * Writing resumes on the event loop of the channel.
  *
  * To use {@link ChunkedResponseWriteHandler}, you have to insert
  * a new {@link ChunkedResponseWriteHandler} instance:
@@ -154,7 +157,7 @@ public class ChunkedResponseWriteHandler
             discard(null);
             return false;
         }
-        boolean flushed = false;
+        boolean written = false;
         while (channel.isWritable()) {
             if (currentWrite == null) {
                 currentWrite = queue.poll();
@@ -169,6 +172,11 @@ public class ChunkedResponseWriteHandler
             boolean endOfInput;
             Object message = null;
             try {
+                CompletableFuture<?> ready = pendingMessage.whenReady();
+                if (ready != null && !ready.isDone()) {
+                    resumeWhenReady(ctx, currentWrite, ready);
+                    break;
+                }
                 message = pendingMessage.nextChunk(ctx.alloc());
                 endOfInput = pendingMessage.isEndOfInput();
             } catch (final Throwable t) {
@@ -222,23 +230,44 @@ public class ChunkedResponseWriteHandler
                 });
             }
 
-            // Always need to flush
-            ctx.flush();
-            flushed = true;
+            written = true;
 
             if (!channel.isActive()) {
                 discard(new ClosedChannelException());
                 break;
             }
         }
-        return flushed;
 
+        // Unflushed chunks count towards the high water mark, so the loop
+        // above stops once enough data is queued. A single flush per pass
+        // thus writes several small chunks with one system call.
+        if (written) {
+            ctx.flush();
+        }
+        return written;
+
+    }
+
+    private void resumeWhenReady(ChannelHandlerContext ctx, PendingWrite write, CompletableFuture<?> ready)
+    {
+        if (!write.isWaiting) {
+            write.isWaiting = true;
+            ready.whenComplete((result, error) -> ctx.executor().execute(() -> {
+                write.isWaiting = false;
+                try {
+                    doFlush(ctx);
+                } catch (Exception e) {
+                    ctx.fireExceptionCaught(e);
+                }
+            }));
+        }
     }
 
     private static final class PendingWrite {
         final ChunkedResponse msg;
         final ChannelPromise promise;
         private long progress;
+        private boolean isWaiting;
 
         PendingWrite(ChunkedResponse msg, ChannelPromise promise) {
             this.msg = msg;
@@ -0,0 +1,88 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBufAllocator;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.dcache.xrootd.protocol.messages.ZeroCopyReadResponse;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_oksofar;
+
+/**
+ * Sends the data of a large read as a series of kXR_oksofar frames, each
+ * transferred directly from the file to the socket.
+ *
+ * Unlike a single ZeroCopyReadResponse, this lets responses to other
+ * requests of the same client be interleaved with the frames, provided
+ * file regions count towards the write buffer water marks (see
+ * {@link FileRegionSizeEstimator}).
+ */
+public class ChunkedZeroCopyReadResponse implements ChunkedResponse
+{
+    private final ReadRequest request;
+    private final FileChannel file;
+    private final int maxFrameSize;
+    private long position;
+    private int length;
+
+    public ChunkedZeroCopyReadResponse(ReadRequest request, int maxFrameSize, FileChannel file)
+        throws IOException
+    {
+        this.request = request;
+        this.file = file;
+        this.maxFrameSize = maxFrameSize;
+        this.position = request.getReadOffset();
+        this.length = (int) Math.max(0, Math.min(request.bytesToRead(), file.size() - position));
+    }
+
+    @Override
+    public XrootdRequest getRequest()
+    {
+        return request;
+    }
+
+    @Override
+    public ZeroCopyReadResponse nextChunk(ByteBufAllocator alloc)
+    {
+        int count = Math.min(length, maxFrameSize);
+        ZeroCopyReadResponse chunk =
+                new ZeroCopyReadResponse(request, file, position, count,
+                                         (count < length) ? kXR_oksofar : kXR_ok);
+        position += count;
+        length -= count;
+        return chunk;
+    }
+
+    @Override
+    public boolean isEndOfInput()
+    {
+        return length == 0;
+    }
+
+    @Override
+    public void close()
+    {
+    }
+}
@@ -0,0 +1,57 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufHolder;
+import io.netty.channel.FileRegion;
+import io.netty.channel.MessageSizeEstimator;
+
+/**
+ * Estimates the size of outbound messages, including file regions.
+ *
+ * Netty's default estimator counts a FileRegion as zero bytes, so
+ * zero-copy responses never make a channel unwritable and
+ * ChunkedResponseWriteHandler queues all frames of a response at once.
+ * Counting file regions by their size makes them subject to the write
+ * buffer water marks like any other data.
+ */
+public class FileRegionSizeEstimator implements MessageSizeEstimator
+{
+    public static final FileRegionSizeEstimator DEFAULT = new FileRegionSizeEstimator();
+
+    private static final int UNKNOWN_SIZE = 8;
+
+    private final Handle handle = msg -> {
+        if (msg instanceof ByteBuf) {
+            return ((ByteBuf) msg).readableBytes();
+        } else if (msg instanceof ByteBufHolder) {
+            return ((ByteBufHolder) msg).content().readableBytes();
+        } else if (msg instanceof FileRegion) {
+            return (int) Math.min(((FileRegion) msg).count(), Integer.MAX_VALUE);
+        }
+        return UNKNOWN_SIZE;
+    };
+
+    @Override
+    public Handle newHandle()
+    {
+        return handle;
+    }
+}
@@ -0,0 +1,281 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.util.AbstractReferenceCounted;
+import io.netty.util.ReferenceCounted;
+import io.netty.util.internal.PlatformDependent;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Memory maps regions of files to serve reads without copying the data
+ * from the kernel into a buffer first.
+ *
+ * Files are mapped in regions of a fixed size, which are shared by all
+ * reads of the same file. The total size of the mapped regions is
+ * bounded; when it is exceeded, the least recently used regions are
+ * dropped. A region is unmapped once it has been dropped and all
+ * buffers returned by {@link #read} referring to it have been released,
+ * so a region is never unmapped while its data is still being written
+ * to a client.
+ *
+ * Accessing a mapped region of a file that has been truncated in the
+ * meantime faults, so this is only suitable for files that are not
+ * modified while being read, and only if the data is passed to the
+ * socket unaltered, as the kernel then reports the fault as an error
+ * of the write.
+ */
+public class MappedFileCache
+{
+    private final long capacity;
+    private final int regionSize;
+
+    /**
+     * Mapped regions, least recently used first.
+     */
+    private final LinkedHashMap<RegionKey, Region> regions = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Bytes of mapped regions in {@code regions}.
+     */
+    private long size;
+
+    /**
+     * @param capacity maximum number of bytes mapped at a time, not
+     *                 counting dropped regions still referenced by buffers
+     * @param regionSize number of bytes of a file mapped at a time
+     */
+    public MappedFileCache(long capacity, int regionSize)
+    {
+        checkArgument(regionSize > 0, "Region size must be positive");
+        checkArgument(capacity >= regionSize, "Capacity must be at least the region size");
+        this.capacity = capacity;
+        this.regionSize = regionSize;
+    }
+
+    /**
+     * Returns the data of a file as a buffer backed by mapped regions of
+     * the file.
+     *
+     * @return a buffer the caller must release; it is shorter than
+     *         {@code length} if the file ends before
+     */
+    public ByteBuf read(FileChannel file, long position, int length) throws IOException
+    {
+        long end = Math.min(position + length, file.size());
+        MappedSlice slice = new MappedSlice();
+        try {
+            while (position < end) {
+                long index = position / regionSize;
+                Region region = getRegion(file, index, end);
+                try {
+                    int offset = (int) (position - region.position);
+                    int bytes = (int) Math.min(end - position, region.buffer.capacity() - offset);
+                    ByteBuffer data = region.buffer.duplicate();
+                    data.position(offset).limit(offset + bytes);
+                    slice.add(region.retain(), data.slice());
+                    position += bytes;
+                } finally {
+                    region.release();
+                }
+            }
+            return slice;
+        } catch (IOException | RuntimeException e) {
+            slice.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Drops the regions of a file, e.g. because it is closed. They are
+     * unmapped once no longer referenced.
+     */
+    public synchronized void unmap(FileChannel file)
+    {
+        Iterator<Map.Entry<RegionKey, Region>> entries = regions.entrySet().iterator();
+        while (entries.hasNext()) {
+            Map.Entry<RegionKey, Region> entry = entries.next();
+            if (entry.getKey().file == file) {
+                size -= entry.getValue().buffer.capacity();
+                entry.getValue().release();
+                entries.remove();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes of mapped regions.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Returns a region of the file covering at least the data up to
+     * {@code end} that falls into the region, which the caller must
+     * release.
+     */
+    private Region getRegion(FileChannel file, long index, long end) throws IOException
+    {
+        RegionKey key = new RegionKey(file, index);
+        long position = index * regionSize;
+        int length = (int) Math.min(regionSize, end - position);
+        synchronized (this) {
+            Region region = regions.get(key);
+            if (region != null && region.buffer.capacity() >= length) {
+                return region.retain();
+            }
+        }
+
+        /* Mapping may block on I/O, hence outside the lock. Regions at the
+         * end of the file are mapped up to the current end of the file and
+         * are mapped again once the file has grown.
+         */
+        Region region = new Region(position, file.map(FileChannel.MapMode.READ_ONLY, position,
+                                                      Math.min(regionSize, file.size() - position)));
+        synchronized (this) {
+            Region existing = regions.remove(key);
+            if (existing != null) {
+                size -= existing.buffer.capacity();
+                existing.release();
+            }
+            List<Region> victims = new ArrayList<>();
+            Iterator<Region> lru = regions.values().iterator();
+            while (size + region.buffer.capacity() > capacity && lru.hasNext()) {
+                Region victim = lru.next();
+                lru.remove();
+                size -= victim.buffer.capacity();
+                victims.add(victim);
+            }
+            regions.put(key, region.retain());
+            size += region.buffer.capacity();
+            victims.forEach(Region::release);
+        }
+        return region;
+    }
+
+    private static class RegionKey
+    {
+        private final FileChannel file;
+        private final long index;
+
+        RegionKey(FileChannel file, long index)
+        {
+            this.file = file;
+            this.index = index;
+        }
+
+        @Override
+        public boolean equals(Object o)
+        {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof RegionKey)) {
+                return false;
+            }
+            RegionKey other = (RegionKey) o;
+            return file == other.file && index == other.index;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return Objects.hash(System.identityHashCode(file), index);
+        }
+    }
+
+    /**
+     * A mapped region of a file, unmapped once no longer referenced.
+     */
+    private static class Region extends AbstractReferenceCounted
+    {
+        private final long position;
+        private final MappedByteBuffer buffer;
+
+        Region(long position, MappedByteBuffer buffer)
+        {
+            this.position = position;
+            this.buffer = buffer;
+        }
+
+        @Override
+        public Region retain()
+        {
+            super.retain();
+            return this;
+        }
+
+        @Override
+        public ReferenceCounted touch(Object hint)
+        {
+            return this;
+        }
+
+        @Override
+        protected void deallocate()
+        {
+            PlatformDependent.freeDirectBuffer(buffer);
+        }
+    }
+
+    /**
+     * Buffer of the data of one or more regions, releasing the regions
+     * once it is deallocated.
+     */
+    private static class MappedSlice extends CompositeByteBuf
+    {
+        private final List<Region> regions = new ArrayList<>(2);
+
+        MappedSlice()
+        {
+            super(UnpooledByteBufAllocator.DEFAULT, true, Integer.MAX_VALUE);
+        }
+
+        void add(Region region, ByteBuffer data)
+        {
+            regions.add(region);
+            addComponent(true, Unpooled.wrappedBuffer(data));
+        }
+
+        @Override
+        protected void deallocate()
+        {
+            super.deallocate();
+            regions.forEach(Region::release);
+        }
+    }
+}
@@ -0,0 +1,417 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.buffer.CompositeByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Prefetches the data of files that are read sequentially.
+ *
+ * Clients reading a file sequentially in small blocks leave the disk
+ * idle while a response travels to the client and the next request
+ * travels back. Each reader of a file has a {@link Stream} that
+ * recognizes sequential access and, once detected, reads the next
+ * windows of the file ahead of the client on an executor. Later reads
+ * falling into a prefetched window are served from memory.
+ *
+ * Windows are held in pooled direct buffers. The memory used by the
+ * windows of all streams is bounded; when it is exhausted, the least
+ * recently used windows of other streams are discarded.
+ *
+ * Prefetched data is not updated when the file changes. Whoever writes or
+ * truncates a file must call {@link #invalidate} afterwards.
+ */
+public class ReadAheadCache
+{
+    /**
+     * Number of consecutive sequential reads after which a stream
+     * starts prefetching.
+     */
+    private static final int SEQUENTIAL_READS = 2;
+
+    /**
+     * Default number of windows prefetched ahead of the reader.
+     */
+    private static final int DEFAULT_DEPTH = 2;
+
+    private final long capacity;
+    private final int windowSize;
+    private final int depth;
+    private final Executor executor;
+    private final ByteBufAllocator alloc;
+
+    /**
+     * The windows of all streams, least recently used first.
+     */
+    private final LinkedHashMap<Window,Window> windows = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * The open streams by file key.
+     */
+    private final Map<Object,List<Stream>> streams = new HashMap<>();
+
+    /**
+     * Bytes allocated for windows.
+     */
+    private long size;
+
+    /**
+     * @param capacity maximum number of bytes of all windows
+     * @param windowSize number of bytes prefetched at a time
+     * @param executor runs the reads of the prefetched windows
+     */
+    public ReadAheadCache(long capacity, int windowSize, Executor executor)
+    {
+        this(capacity, windowSize, DEFAULT_DEPTH, executor, PooledByteBufAllocator.DEFAULT);
+    }
+
+    /**
+     * @param capacity maximum number of bytes of all windows
+     * @param windowSize number of bytes prefetched at a time
+     * @param depth maximum number of windows prefetched ahead of a reader
+     * @param executor runs the reads of the prefetched windows
+     * @param alloc allocates the buffers of the windows
+     */
+    public ReadAheadCache(long capacity, int windowSize, int depth, Executor executor, ByteBufAllocator alloc)
+    {
+        checkArgument(windowSize > 0, "Window size must be positive");
+        checkArgument(depth > 0, "Depth must be positive");
+        this.capacity = capacity;
+        this.windowSize = windowSize;
+        this.depth = depth;
+        this.executor = executor;
+        this.alloc = alloc;
+    }
+
+    /**
+     * Returns a new stream for a reader of a file. The stream must be
+     * closed before the file is closed.
+     */
+    public Stream newStream(FileChannel file)
+    {
+        return newStream(file, file);
+    }
+
+    /**
+     * Returns a new stream for a reader of a file. The stream must be
+     * closed before the file is closed.
+     *
+     * @param fileKey identifies the file for {@link #invalidate}, e.g.
+     *                {@link java.nio.file.attribute.BasicFileAttributes#fileKey}
+     */
+    public synchronized Stream newStream(FileChannel file, Object fileKey)
+    {
+        Stream stream = new Stream(file, fileKey);
+        streams.computeIfAbsent(fileKey, key -> new ArrayList<>()).add(stream);
+        return stream;
+    }
+
+    /**
+     * Discards the prefetched data of all streams of a file. To be called
+     * after the file has been written or truncated, so that later reads
+     * see the new content.
+     */
+    public synchronized void invalidate(Object fileKey)
+    {
+        List<Stream> streamsOfFile = streams.get(fileKey);
+        if (streamsOfFile != null) {
+            for (Stream stream : streamsOfFile) {
+                stream.isEndOfFile = false;
+                stream.discardAll();
+            }
+        }
+    }
+
+    /**
+     * Returns the number of bytes allocated for prefetched data.
+     */
+    public synchronized long getSize()
+    {
+        return size;
+    }
+
+    /**
+     * Makes room for a window of {@code stream} by discarding the least
+     * recently used windows of other streams.
+     *
+     * @return true if there is room for another window
+     */
+    private boolean reserve(Stream stream)
+    {
+        Iterator<Window> lru = windows.keySet().iterator();
+        List<Window> victims = new ArrayList<>();
+        long available = capacity - size;
+        while (available < windowSize && lru.hasNext()) {
+            Window window = lru.next();
+            if (window.stream != stream) {
+                victims.add(window);
+                available += windowSize;
+            }
+        }
+        if (available < windowSize) {
+            return false;
+        }
+        for (Window victim : victims) {
+            victim.stream.discard(victim);
+        }
+        return true;
+    }
+
+    /**
+     * Reads the data of a window. Runs on the executor.
+     */
+    private void load(Window window)
+    {
+        ByteBuffer buffer = window.data.nioBuffer(0, windowSize);
+        long position = window.position;
+        boolean isFailed = false;
+        try {
+            while (buffer.hasRemaining()) {
+                int bytes = window.stream.file.read(buffer, position);
+                if (bytes < 0) {
+                    break;
+                }
+                position += bytes;
+            }
+        } catch (IOException | RuntimeException e) {
+            isFailed = true;
+        }
+
+        synchronized (this) {
+            window.isLoading = false;
+            if (window.isDiscarded) {
+                window.data.release();
+            } else if (isFailed) {
+                window.stream.isEndOfFile = true;
+                window.stream.discard(window);
+            } else {
+                window.length = buffer.position();
+                window.isLoaded = true;
+                if (window.length < windowSize) {
+                    window.stream.isEndOfFile = true;
+                }
+            }
+        }
+    }
+
+    /**
+     * Access to a file by a single reader.
+     *
+     * Streams may be used from any thread.
+     */
+    public class Stream implements Closeable
+    {
+        private final FileChannel file;
+        private final Object fileKey;
+
+        /**
+         * Prefetched windows ahead of the reader in ascending order of
+         * position.
+         */
+        private final Deque<Window> ahead = new ArrayDeque<>();
+
+        /**
+         * Position at which a sequential reader reads next.
+         */
+        private long expected = -1;
+
+        private int sequentialReads;
+        private boolean isEndOfFile;
+        private boolean isClosed;
+
+        private Stream(FileChannel file, Object fileKey)
+        {
+            this.file = file;
+            this.fileKey = fileKey;
+        }
+
+        /**
+         * Records a read of the file and returns the data if it has been
+         * prefetched.
+         *
+         * @return a buffer the caller must release, or null if the data
+         *         has not been prefetched; the buffer is shorter than
+         *         {@code length} if the file ends before
+         */
+        public ByteBuf read(long position, int length)
+        {
+            synchronized (ReadAheadCache.this) {
+                if (isClosed) {
+                    return null;
+                }
+                if (position == expected) {
+                    sequentialReads++;
+                } else {
+                    sequentialReads = 1;
+                    isEndOfFile = false;
+                    discardAll();
+                }
+                expected = position + length;
+
+                ByteBuf data = (length <= windowSize) ? slice(position, length) : null;
+                while (!ahead.isEmpty() && ahead.peekFirst().end() <= expected) {
+                    discard(ahead.peekFirst());
+                }
+                if (sequentialReads >= SEQUENTIAL_READS) {
+                    prefetch();
+                }
+                return data;
+            }
+        }
+
+        @Override
+        public void close()
+        {
+            synchronized (ReadAheadCache.this) {
+                if (!isClosed) {
+                    isClosed = true;
+                    discardAll();
+                    List<Stream> streamsOfFile = streams.get(fileKey);
+                    streamsOfFile.remove(this);
+                    if (streamsOfFile.isEmpty()) {
+                        streams.remove(fileKey);
+                    }
+                }
+            }
+        }
+
+        private ByteBuf slice(long position, int length)
+        {
+            List<ByteBuf> slices = new ArrayList<>(2);
+            long end = position + length;
+            for (Window window : ahead) {
+                if (position >= end) {
+                    break;
+                }
+                if (!window.isLoaded || position < window.position || position >= window.end()) {
+                    break;
+                }
+                int offset = (int) (position - window.position);
+                int bytes = (int) Math.min(end - position, window.length - offset);
+                slices.add(window.data.retainedSlice(offset, bytes));
+                windows.get(window);
+                position += bytes;
+                if (window.length < windowSize) {
+                    /* End of file. */
+                    end = position;
+                }
+            }
+            if (position < end || slices.isEmpty()) {
+                for (ByteBuf slice : slices) {
+                    slice.release();
+                }
+                return null;
+            }
+            if (slices.size() == 1) {
+                return slices.get(0);
+            }
+            CompositeByteBuf composite = alloc.compositeBuffer(slices.size());
+            composite.addComponents(true, slices);
+            return composite;
+        }
+
+        private void prefetch()
+        {
+            while (!isEndOfFile && ahead.size() < depth) {
+                long position = ahead.isEmpty() ? expected : ahead.peekLast().end();
+                if (!reserve(this)) {
+                    break;
+                }
+                Window window = new Window(this, position, alloc.directBuffer(windowSize, windowSize));
+                ahead.addLast(window);
+                windows.put(window, window);
+                size += windowSize;
+                try {
+                    executor.execute(() -> load(window));
+                } catch (RejectedExecutionException e) {
+                    window.isLoading = false;
+                    discard(window);
+                    break;
+                }
+            }
+        }
+
+        private void discardAll()
+        {
+            while (!ahead.isEmpty()) {
+                discard(ahead.peekFirst());
+            }
+        }
+
+        private void discard(Window window)
+        {
+            ahead.remove(window);
+            windows.remove(window);
+            size -= windowSize;
+            window.isDiscarded = true;
+            if (!window.isLoading) {
+                window.data.release();
+            }
+        }
+    }
+
+    /**
+     * Prefetched data of a file.
+     */
+    private class Window
+    {
+        private final Stream stream;
+        private final long position;
+        private final ByteBuf data;
+        private int length;
+        private boolean isLoading = true;
+        private boolean isLoaded;
+        private boolean isDiscarded;
+
+        Window(Stream stream, long position, ByteBuf data)
+        {
+            this.stream = stream;
+            this.position = position;
+            this.data = data;
+        }
+
+        /**
+         * Position following the window.
+         */
+        long end()
+        {
+            return position + (isLoaded ? length : windowSize);
+        }
+    }
+}
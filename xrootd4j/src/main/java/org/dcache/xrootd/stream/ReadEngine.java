@@ -0,0 +1,158 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.oio.OioSocketChannel;
+import io.netty.handler.ssl.SslHandler;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+
+import org.dcache.xrootd.core.XrootdMetricsSink;
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.ReadResponse;
+import org.dcache.xrootd.protocol.messages.ZeroCopyReadResponse;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Chooses, per kXR_read, how the data is sent to the client.
+ *
+ * Zero-copy transfers the data directly from the file to the socket,
+ * but only pays off for large reads and only works if the transport
+ * can transfer a FileRegion without copying it and no handler in the
+ * pipeline has to transform the data, e.g. to encrypt it. All other
+ * reads are copied through pooled buffers by a
+ * {@link ChunkedFileChannelReadResponse}.
+ *
+ * Zero-copy reads larger than the maximum frame size are split into
+ * kXR_oksofar frames, so a single large read does not monopolize the
+ * connection.
+ *
+ * Data already prefetched by a {@link ReadAheadCache} is sent from
+ * memory.
+ *
+ * Given a {@link MappedFileCache}, reads not sent with zero-copy are sent
+ * from memory mapped regions of the file instead of being copied. Like
+ * zero-copy, this is limited to transports passing the data to the
+ * socket unaltered, as only then a file truncated while mapped results
+ * in a failed write rather than a fault of the JVM.
+ */
+public class ReadEngine
+{
+    private final boolean isZeroCopyEnabled;
+    private final int zeroCopyThreshold;
+    private final int maxFrameSize;
+    private final XrootdMetricsSink metrics;
+    private final MappedFileCache mappings;
+
+    /**
+     * @param isZeroCopyEnabled whether zero-copy may be used at all
+     * @param zeroCopyThreshold minimum number of bytes of a read to use zero-copy
+     * @param maxFrameSize maximum number of bytes in a single response frame
+     * @param metrics receives the path chosen for each read
+     */
+    public ReadEngine(boolean isZeroCopyEnabled, int zeroCopyThreshold, int maxFrameSize,
+                      XrootdMetricsSink metrics)
+    {
+        this(isZeroCopyEnabled, zeroCopyThreshold, maxFrameSize, metrics, null);
+    }
+
+    /**
+     * @param isZeroCopyEnabled whether zero-copy may be used at all
+     * @param zeroCopyThreshold minimum number of bytes of a read to use zero-copy
+     * @param maxFrameSize maximum number of bytes in a single response frame
+     * @param metrics receives the path chosen for each read
+     * @param mappings memory maps files for reads not using zero-copy, or null
+     */
+    public ReadEngine(boolean isZeroCopyEnabled, int zeroCopyThreshold, int maxFrameSize,
+                      XrootdMetricsSink metrics, MappedFileCache mappings)
+    {
+        checkArgument(zeroCopyThreshold >= 0, "Zero-copy threshold must not be negative");
+        checkArgument(maxFrameSize > 0, "Maximum frame size must be positive");
+        this.isZeroCopyEnabled = isZeroCopyEnabled;
+        this.zeroCopyThreshold = zeroCopyThreshold;
+        this.maxFrameSize = maxFrameSize;
+        this.metrics = metrics;
+        this.mappings = mappings;
+    }
+
+    /**
+     * Returns the response to a read request, either a
+     * {@link ZeroCopyReadResponse} or a {@link ChunkedResponse}.
+     *
+     * @param channel the channel the response is written to
+     * @param request the read request
+     * @param file the file to read from; it is not closed by the response
+     */
+    public Object read(Channel channel, ReadRequest request, FileChannel file)
+        throws IOException
+    {
+        int length = request.bytesToRead();
+        boolean isUnaltered = supportsZeroCopy(channel);
+        if (isZeroCopyEnabled && length >= zeroCopyThreshold && isUnaltered) {
+            metrics.readSelected(true, length);
+            if (length <= maxFrameSize) {
+                return new ZeroCopyReadResponse(request, file);
+            }
+            return new ChunkedZeroCopyReadResponse(request, maxFrameSize, file);
+        }
+        metrics.readSelected(false, length);
+        return new ChunkedFileChannelReadResponse(request, maxFrameSize, file,
+                                                  isUnaltered ? mappings : null);
+    }
+
+    /**
+     * Like {@link #read(Channel, ReadRequest, FileChannel)}, but serves
+     * the data from memory if it has been prefetched by the read-ahead
+     * stream of the reader.
+     *
+     * @param readAhead the read-ahead stream of the reader, or null
+     */
+    public Object read(Channel channel, ReadRequest request, FileChannel file,
+                       ReadAheadCache.Stream readAhead)
+        throws IOException
+    {
+        if (readAhead != null) {
+            ByteBuf data = readAhead.read(request.getReadOffset(), request.bytesToRead());
+            if (data != null) {
+                if (data.readableBytes() <= maxFrameSize) {
+                    metrics.readPrefetched(data.readableBytes());
+                    return new ReadResponse(request, data, false);
+                }
+                data.release();
+            }
+        }
+        return read(channel, request, file);
+    }
+
+    /**
+     * Returns whether the transport of {@code channel} transfers file
+     * regions without copying them to user space and whether the data
+     * reaches the socket unaltered.
+     */
+    public static boolean supportsZeroCopy(Channel channel)
+    {
+        return channel instanceof SocketChannel && !(channel instanceof OioSocketChannel)
+               && channel.pipeline().get(SslHandler.class) == null;
+    }
+}
@@ -26,6 +26,7 @@ import java.util.Map;
 import org.dcache.xrootd.core.XrootdException;
 import org.dcache.xrootd.security.SigningPolicy;
 
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_auth;
 import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_protocol;
 import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_secNone;
 
@@ -48,7 +49,7 @@ import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_secNone;
  *  </table>
  *
  *  <p>dlen is either 8, if no security requirements are returned,
- *     or 14 + secvsz*2.</p>
+ *     or 14 + secvsz*2.  reqidx is relative to kXR_auth.</p>
  */
 public class InboundProtocolResponse extends AbstractXrootdInboundResponse
 {
@@ -69,7 +70,7 @@ public class InboundProtocolResponse extends AbstractXrootdInboundResponse
             int secvsz = buffer.getByte(21);
             int index = 22;
             for (int i = 0; i < secvsz; ++i) {
-                overrides.put((int) buffer.getByte(index++),
+                overrides.put(kXR_auth + buffer.getByte(index++),
                               (int) buffer.getByte(index++));
             }
         }
@@ -0,0 +1,206 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+
+import org.dcache.xrootd.core.XrootdException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_FileNotOpen;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_overQuota;
+
+/**
+ * Maps the file handles of a connection to its open files.
+ *
+ * Free slots are kept in a free list, so opening and closing a file
+ * takes constant time regardless of the number of open files. A handle
+ * combines the slot with a generation counter that advances whenever
+ * the slot is freed, so a handle used after its file was closed is
+ * rejected even if the slot has been reused.
+ *
+ * The number of open files is limited per table and, optionally, by a
+ * semaphore shared by all tables of a server. All methods are thread
+ * safe.
+ *
+ * @param <T> the type of open files
+ */
+public class FileHandleTable<T>
+{
+    private static final int SLOT_BITS = 20;
+    private static final int SLOT_MASK = (1 << SLOT_BITS) - 1;
+    private static final int GENERATION_MASK = (1 << (31 - SLOT_BITS)) - 1;
+
+    /**
+     * Largest number of files a table can hold.
+     */
+    public static final int MAX_HANDLES = 1 << SLOT_BITS;
+
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final int maxHandles;
+    private final Semaphore globalHandles;
+
+    private Object[] files = new Object[INITIAL_CAPACITY];
+    private int[] generations = new int[INITIAL_CAPACITY];
+
+    /**
+     * Next free slot for each free slot, or -1 for the last one.
+     */
+    private int[] nextFree = new int[INITIAL_CAPACITY];
+    private int firstFree = -1;
+
+    /**
+     * Slots at and above this index have never been used.
+     */
+    private int used;
+    private int size;
+
+    /**
+     * @param maxHandles maximum number of files open at a time
+     * @param globalHandles permits for the files open in all tables, or
+     *                      null if only this table limits the number of
+     *                      open files
+     */
+    public FileHandleTable(int maxHandles, Semaphore globalHandles)
+    {
+        checkArgument(maxHandles > 0 && maxHandles <= MAX_HANDLES,
+                      "Maximum number of handles must be between 1 and %s", MAX_HANDLES);
+        this.maxHandles = maxHandles;
+        this.globalHandles = globalHandles;
+    }
+
+    public FileHandleTable(int maxHandles)
+    {
+        this(maxHandles, null);
+    }
+
+    /**
+     * Adds an open file to the table.
+     *
+     * @return the handle of the file
+     * @throws XrootdException kXR_overQuota if too many files are open
+     */
+    public synchronized int add(T file) throws XrootdException
+    {
+        if (size == maxHandles) {
+            throw new XrootdException(kXR_overQuota,
+                                      "Too many open files (" + maxHandles + " per connection)");
+        }
+        if (globalHandles != null && !globalHandles.tryAcquire()) {
+            throw new XrootdException(kXR_overQuota, "Too many open files");
+        }
+
+        int slot;
+        if (firstFree >= 0) {
+            slot = firstFree;
+            firstFree = nextFree[slot];
+        } else {
+            if (used == files.length) {
+                int capacity = Math.min(files.length * 2, MAX_HANDLES);
+                files = Arrays.copyOf(files, capacity);
+                generations = Arrays.copyOf(generations, capacity);
+                nextFree = Arrays.copyOf(nextFree, capacity);
+            }
+            slot = used++;
+        }
+        files[slot] = file;
+        size++;
+        return (generations[slot] << SLOT_BITS) | slot;
+    }
+
+    /**
+     * Returns the file with the given handle.
+     *
+     * @throws XrootdException kXR_FileNotOpen if the handle is invalid
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T get(int handle) throws XrootdException
+    {
+        return (T) files[slotOf(handle)];
+    }
+
+    /**
+     * Removes the file with the given handle from the table. The handle
+     * becomes invalid.
+     *
+     * @return the removed file
+     * @throws XrootdException kXR_FileNotOpen if the handle is invalid
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized T remove(int handle) throws XrootdException
+    {
+        int slot = slotOf(handle);
+        T file = (T) files[slot];
+        release(slot);
+        return file;
+    }
+
+    /**
+     * Removes all files from the table, e.g. to close them once the
+     * connection is gone.
+     *
+     * @return the removed files
+     */
+    @SuppressWarnings("unchecked")
+    public synchronized List<T> removeAll()
+    {
+        List<T> removed = new ArrayList<>(size);
+        for (int slot = 0; slot < used; slot++) {
+            if (files[slot] != null) {
+                removed.add((T) files[slot]);
+                release(slot);
+            }
+        }
+        return removed;
+    }
+
+    /**
+     * Returns the number of open files.
+     */
+    public synchronized int size()
+    {
+        return size;
+    }
+
+    private int slotOf(int handle) throws XrootdException
+    {
+        int slot = handle & SLOT_MASK;
+        if (handle < 0 || slot >= used || files[slot] == null
+                || generations[slot] != (handle >>> SLOT_BITS)) {
+            throw new XrootdException(kXR_FileNotOpen, "Invalid file descriptor");
+        }
+        return slot;
+    }
+
+    private void release(int slot)
+    {
+        files[slot] = null;
+        generations[slot] = (generations[slot] + 1) & GENERATION_MASK;
+        nextFree[slot] = firstFree;
+        firstFree = slot;
+        size--;
+        if (globalHandles != null) {
+            globalHandles.release();
+        }
+    }
+}
@@ -0,0 +1,133 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * Immutable map of the key-value pairs of an opaque string.
+ *
+ * Opaque strings rarely carry more than a handful of entries, so the
+ * pairs are kept in a single array of alternating keys and values and
+ * looked up by a linear scan. This avoids the table and entry objects
+ * of a HashMap.  Keys are unique; the parser keeps the last value of a
+ * repeated key.
+ */
+final class OpaqueMap extends AbstractMap<String,String>
+{
+    private final String[] entries;
+    private final int size;
+
+    private Set<Entry<String,String>> entrySet;
+
+    /**
+     * @param entries alternating keys and values; only the first
+     *                {@code 2 * size} elements are used
+     * @param size number of key-value pairs
+     */
+    OpaqueMap(String[] entries, int size)
+    {
+        this.entries = entries;
+        this.size = size;
+    }
+
+    private int indexOf(Object key)
+    {
+        for (int i = 0; i < size << 1; i += 2) {
+            String k = entries[i];
+            if (k == key || k.equals(key)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    @Override
+    public int size()
+    {
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return indexOf(key) > -1;
+    }
+
+    @Override
+    public String get(Object key)
+    {
+        int i = indexOf(key);
+        return (i > -1) ? entries[i + 1] : null;
+    }
+
+    @Override
+    public Set<Entry<String,String>> entrySet()
+    {
+        if (entrySet == null) {
+            entrySet = new AbstractSet<Entry<String,String>>()
+            {
+                @Override
+                public Iterator<Entry<String,String>> iterator()
+                {
+                    return new Iterator<Entry<String,String>>()
+                    {
+                        private int next;
+
+                        @Override
+                        public boolean hasNext()
+                        {
+                            return next < size << 1;
+                        }
+
+                        @Override
+                        public Entry<String,String> next()
+                        {
+                            if (!hasNext()) {
+                                throw new NoSuchElementException();
+                            }
+                            Entry<String,String> entry =
+                                new SimpleImmutableEntry<>(entries[next],
+                                                           entries[next + 1]);
+                            next += 2;
+                            return entry;
+                        }
+                    };
+                }
+
+                @Override
+                public int size()
+                {
+                    return size;
+                }
+            };
+        }
+        return entrySet;
+    }
+}
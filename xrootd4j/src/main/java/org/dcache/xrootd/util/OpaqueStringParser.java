@@ -19,9 +19,10 @@
 package org.dcache.xrootd.util;
 
 import com.google.common.base.Joiner;
+import io.netty.buffer.ByteBuf;
 
+import java.util.Arrays;
 import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 /**
@@ -64,6 +65,29 @@ public class OpaqueStringParser {
     public static final char OPAQUE_PREFIX = '&';
     public static final char OPAQUE_SEPARATOR = '=';
 
+    /**
+     * Keys found in most opaque strings handled by the server. The parser
+     * returns these instances rather than copying the key.
+     */
+    private static final String[] WELL_KNOWN_KEYS = {
+            "authz",
+            "oss.asize",
+            "tpc.key",
+            "tpc.org",
+            "tpc.src",
+            "tpc.dst",
+            "tpc.lfn",
+            "tpc.cks",
+            "tpc.ttl",
+            "tpc.stage",
+            "tpc.dlg",
+            "tpc.dlgon",
+            "tpc.spr",
+            "tpc.tpr",
+            "tpc.str",
+            "tpc.scgi"
+    };
+
     /**
      * The opaque information is included in the path in a format similar to
      * URL-encoding (&amp;key1=val1&amp;key2=val2...). This method translates that
@@ -78,6 +102,8 @@ public class OpaqueStringParser {
      *  firstKey=firstValue?&amp;secondKey=secondValue
      *  firstKey=firstValue?secondkey=secondValue
      *
+     * The returned map is immutable.
+     *
      * @param opaque The opaque string, as usually attached to the path
      * @return Map from keys to values in the opaque string
      * @throws ParseException if value is missing for a key in the string
@@ -87,38 +113,185 @@ public class OpaqueStringParser {
     {
         if (opaque == null || opaque.isEmpty()) {
             return Collections.emptyMap();
-        } else {
-            Map<String,String> map = new HashMap<>();
+        }
+        return parse(opaque);
+    }
 
-            String [] prefixBlocks = opaque.split("\\?");
+    /**
+     * Like {@link #getOpaqueMap(String)}, but parses the US-ASCII encoded
+     * opaque string directly from a buffer without first decoding it to
+     * a string.  The reader index of the buffer is not modified.
+     *
+     * @param buffer buffer holding the opaque string
+     * @param index index of the first byte of the opaque string
+     * @param length length of the opaque string in bytes
+     * @return Map from keys to values in the opaque string
+     * @throws ParseException if value is missing for a key in the string
+     */
+    public static Map<String,String> getOpaqueMap(ByteBuf buffer, int index,
+                                                  int length)
+                                                        throws ParseException
+    {
+        if (length == 0) {
+            return Collections.emptyMap();
+        }
+        return parse(new AsciiSequence(buffer, index, length));
+    }
 
-            for (String prefixBlock : prefixBlocks) {
+    /**
+     * Single pass over the opaque string. Blocks are separated by
+     * '?' or '&amp;'; empty blocks are skipped.  Only the keys and values
+     * themselves are copied, and well-known keys not even that.
+     */
+    private static Map<String,String> parse(CharSequence opaque)
+                                                        throws ParseException
+    {
+        int length = opaque.length();
+        String[] entries = null;
+        int size = 0;
 
-                if (prefixBlock.isEmpty()) {
-                    continue;
+        int start = 0;
+        while (start < length) {
+            int end = start;
+            int separator = -1;
+            for (char c; end < length
+                         && (c = opaque.charAt(end)) != OPAQUE_STRING_PREFIX
+                         && c != OPAQUE_PREFIX; end++) {
+                if (c == OPAQUE_SEPARATOR && separator == -1) {
+                    separator = end;
                 }
+            }
 
-                String [] prefixSubBlocks = prefixBlock.split("&");
+            if (end > start) {
+                if (separator == -1) {
+                    throw new ParseException("Opaque information is missing a"
+                                             + "value for variable " +
+                                             substring(opaque, start, end));
+                }
 
-                for (String prefixSubBlock : prefixSubBlocks) {
+                String key = key(opaque, start, separator);
+                String value = substring(opaque, separator + 1, end);
 
-                    if (prefixSubBlock.isEmpty()) {
-                        continue;
+                int i = 0;
+                while (i < size << 1 && !entries[i].equals(key)) {
+                    i += 2;
+                }
+                if (i < size << 1) {
+                    entries[i + 1] = value;
+                } else {
+                    if (entries == null) {
+                        entries = new String[8];
+                    } else if (i == entries.length) {
+                        entries = Arrays.copyOf(entries, i << 1);
                     }
+                    entries[i] = key;
+                    entries[i + 1] = value;
+                    size++;
+                }
+            }
 
-                    int delimiter = prefixSubBlock.indexOf(OPAQUE_SEPARATOR);
-                    if (delimiter == -1) {
-                        throw new ParseException("Opaque information is missing a"
-                                                 + "value for variable " +
-                                                  prefixSubBlock);
-                    }
+            start = end + 1;
+        }
 
-                    map.put(prefixSubBlock.substring(0, delimiter),
-                            prefixSubBlock.substring(delimiter + 1, prefixSubBlock.length()));
-                }
+        return (size == 0) ? Collections.emptyMap() : new OpaqueMap(entries, size);
+    }
+
+    /**
+     * Returns the shared instance of a well-known key, or a new string
+     * otherwise.
+     */
+    private static String key(CharSequence opaque, int start, int end)
+    {
+        int length = end - start;
+        for (String key : WELL_KNOWN_KEYS) {
+            if (key.length() == length && regionMatches(opaque, start, key)) {
+                return key;
+            }
+        }
+        return substring(opaque, start, end);
+    }
+
+    private static boolean regionMatches(CharSequence opaque, int start,
+                                         String key)
+    {
+        for (int i = 0; i < key.length(); i++) {
+            if (opaque.charAt(start + i) != key.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static String substring(CharSequence opaque, int start, int end)
+    {
+        if (opaque instanceof String) {
+            return ((String) opaque).substring(start, end);
+        }
+        return ((AsciiSequence) opaque).substring(start, end);
+    }
+
+    /**
+     * Read-only view of US-ASCII encoded bytes. Buffers without an
+     * accessible backing array are copied once.
+     */
+    private static final class AsciiSequence implements CharSequence
+    {
+        private final byte[] bytes;
+        private final int offset;
+        private final int length;
+
+        AsciiSequence(ByteBuf buffer, int index, int length)
+        {
+            if (buffer.hasArray()) {
+                this.bytes = buffer.array();
+                this.offset = buffer.arrayOffset() + index;
+            } else {
+                this.bytes = new byte[length];
+                this.offset = 0;
+                buffer.getBytes(index, bytes);
             }
+            this.length = length;
+        }
+
+        private AsciiSequence(byte[] bytes, int offset, int length)
+        {
+            this.bytes = bytes;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        @Override
+        public int length()
+        {
+            return length;
+        }
+
+        @Override
+        public char charAt(int i)
+        {
+            return (char) (bytes[offset + i] & 0xFF);
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end)
+        {
+            return new AsciiSequence(bytes, offset + start, end - start);
+        }
+
+        /**
+         * Widens each byte to a char. Unlike decoding with a Charset, this
+         * does not allocate a decoder per call.
+         */
+        @SuppressWarnings("deprecation")
+        String substring(int start, int end)
+        {
+            return new String(bytes, 0, offset + start, end - start);
+        }
 
-            return map;
+        @Override
+        public String toString()
+        {
+            return substring(0, length);
         }
     }
 
@@ -0,0 +1,104 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Executes tasks on a delegate executor such that tasks submitted with
+ * the same key run one at a time and in submission order. Tasks with
+ * different keys, or without a key, may run concurrently.
+ *
+ * A key occupies at most one thread of the delegate at a time, so a
+ * long queue for one key does not starve the others.
+ */
+public class OrderedExecutor
+{
+    private final Executor executor;
+
+    /**
+     * Tasks waiting for the running task of the same key. A key is
+     * present while one of its tasks runs.
+     */
+    private final Map<Object,Queue<Runnable>> queues = new HashMap<>();
+
+    public OrderedExecutor(Executor executor)
+    {
+        this.executor = executor;
+    }
+
+    /**
+     * Executes the task after all tasks previously submitted with
+     * the same key have completed.
+     *
+     * @param key the key to order the task by, or null if the task may
+     *            run at any time
+     * @param task the task to run
+     * @throws RejectedExecutionException if the delegate rejects the task
+     */
+    public void execute(Object key, Runnable task)
+    {
+        if (key == null) {
+            executor.execute(task);
+            return;
+        }
+
+        synchronized (queues) {
+            Queue<Runnable> queue = queues.get(key);
+            if (queue != null) {
+                queue.add(task);
+                return;
+            }
+            queues.put(key, new ArrayDeque<>());
+        }
+
+        try {
+            executor.execute(() -> runAll(key, task));
+        } catch (RejectedExecutionException e) {
+            synchronized (queues) {
+                queues.remove(key);
+            }
+            throw e;
+        }
+    }
+
+    private void runAll(Object key, Runnable first)
+    {
+        Runnable task = first;
+        while (task != null) {
+            try {
+                task.run();
+            } catch (RuntimeException e) {
+                Thread me = Thread.currentThread();
+                me.getUncaughtExceptionHandler().uncaughtException(me, e);
+            }
+            synchronized (queues) {
+                task = queues.get(key).poll();
+                if (task == null) {
+                    queues.remove(key);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,116 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+
+/**
+ * Applies an operation to the elements of a list, such as the paths of
+ * a bulk request, in parallel batches.
+ *
+ * The elements are split into up to {@code parallelism} batches of
+ * consecutive elements. Each batch is processed sequentially by one task
+ * of the executor, so that the time to process all elements is that of
+ * the slowest batch rather than the sum of all elements, while the
+ * number of threads used by a single request stays bounded.
+ */
+public final class ParallelBatches
+{
+    /**
+     * Operation on the element with the given index.
+     */
+    public interface Operation
+    {
+        void apply(int index) throws Exception;
+    }
+
+    private ParallelBatches()
+    {
+    }
+
+    /**
+     * Applies the operation to the elements 0 to {@code count - 1}.
+     *
+     * A batch stops at the first element for which the operation fails.
+     *
+     * @param executor runs the batches, or null to apply the operation
+     *                 on the calling thread
+     * @param parallelism maximum number of batches
+     * @return a future completed once all batches have completed, or
+     *         completed exceptionally with the first failure
+     */
+    public static CompletableFuture<Void> run(int count, Operation operation,
+                                              Executor executor, int parallelism)
+    {
+        int batches = (executor == null) ? 1 : Math.min(parallelism, count);
+        if (batches <= 1) {
+            CompletableFuture<Void> future = new CompletableFuture<>();
+            try {
+                apply(operation, 0, count);
+                future.complete(null);
+            } catch (Exception e) {
+                future.completeExceptionally(e);
+            }
+            return future;
+        }
+
+        CompletableFuture<?>[] futures = new CompletableFuture<?>[batches];
+        for (int i = 0; i < batches; i++) {
+            int from = (int) ((long) i * count / batches);
+            int to = (int) ((long) (i + 1) * count / batches);
+            futures[i] = CompletableFuture.runAsync(() -> {
+                try {
+                    apply(operation, from, to);
+                } catch (Exception e) {
+                    throw new CompletionException(e);
+                }
+            }, executor);
+        }
+        return CompletableFuture.allOf(futures);
+    }
+
+    /**
+     * Like {@link #run}, but waits for all batches to complete.
+     *
+     * @throws Exception the first failure of the operation
+     */
+    public static void runAndWait(int count, Operation operation,
+                                  Executor executor, int parallelism)
+        throws Exception
+    {
+        try {
+            run(count, operation, executor, parallelism).join();
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Exception) {
+                throw (Exception) cause;
+            }
+            throw e;
+        }
+    }
+
+    private static void apply(Operation operation, int from, int to) throws Exception
+    {
+        for (int i = from; i < to; i++) {
+            operation.apply(i);
+        }
+    }
+}
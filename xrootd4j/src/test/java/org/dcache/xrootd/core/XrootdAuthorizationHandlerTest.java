@@ -0,0 +1,488 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import javax.security.auth.Subject;
+
+import java.net.InetSocketAddress;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.dcache.xrootd.plugins.AsyncAuthorizationHandler;
+import org.dcache.xrootd.plugins.AuthorizationFactory;
+import org.dcache.xrootd.plugins.AuthorizationHandler;
+import org.dcache.xrootd.protocol.XrootdProtocol.FilePerm;
+import org.dcache.xrootd.protocol.messages.ErrorResponse;
+import org.dcache.xrootd.protocol.messages.PrepareRequest;
+import org.dcache.xrootd.protocol.messages.StatRequest;
+import org.dcache.xrootd.protocol.messages.StatxRequest;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_NotAuthorized;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_cancel;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_prepare;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_stage;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_statx;
+import static org.dcache.xrootd.protocol.messages.RequestFixtures.statRequest;
+import static org.hamcrest.Matchers.arrayContaining;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+public class XrootdAuthorizationHandlerTest
+{
+    private EmbeddedChannel channel;
+    private ChannelHandlerContext ctx;
+    private CountingFactory factory;
+
+    @Before
+    public void setUp()
+    {
+        channel = new EmbeddedChannel();
+        ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        when(ctx.executor()).thenReturn(channel.eventLoop());
+        when(ctx.writeAndFlush(any())).thenReturn(channel.newSucceededFuture());
+        factory = new CountingFactory();
+    }
+
+    @Test
+    public void shouldNotBeSharableAsItHoldsStateOfItsChannel()
+    {
+        assertThat(new XrootdAuthorizationHandler(factory).isSharable(), is(false));
+    }
+
+    @Test
+    public void shouldReuseCacheableDecision() throws Exception
+    {
+        factory.cacheable = true;
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(factory, 10, 60000);
+
+        StatRequest first = statRequest("/data/file");
+        handler.doOnStat(ctx, first);
+        StatRequest second = statRequest("/data/file");
+        handler.doOnStat(ctx, second);
+
+        assertThat(factory.created, is(1));
+        assertThat(second.getPath(), is("/mapped/data/file"));
+    }
+
+    @Test
+    public void shouldNotReuseNonCacheableDecision() throws Exception
+    {
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(factory, 10, 60000);
+
+        handler.doOnStat(ctx, statRequest("/data/file"));
+        handler.doOnStat(ctx, statRequest("/data/file"));
+
+        assertThat(factory.created, is(2));
+    }
+
+    @Test
+    public void shouldNotCacheWhenDisabled() throws Exception
+    {
+        factory.cacheable = true;
+        XrootdAuthorizationHandler handler = new XrootdAuthorizationHandler(factory);
+
+        handler.doOnStat(ctx, statRequest("/data/file"));
+        handler.doOnStat(ctx, statRequest("/data/file"));
+
+        assertThat(factory.created, is(2));
+    }
+
+    @Test
+    public void shouldReuseCachedDenial() throws Exception
+    {
+        factory.cacheable = true;
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(factory, 10, 60000);
+
+        for (int i = 0; i < 2; i++) {
+            try {
+                handler.doOnStat(ctx, statRequest("/denied"));
+                fail("Expected XrootdException");
+            } catch (XrootdException e) {
+                assertThat(e.getError(), is(kXR_NotAuthorized));
+            }
+        }
+        assertThat(factory.created, is(1));
+    }
+
+    @Test
+    public void shouldSuspendRequestsUntilAsyncDecisionCompletes() throws Exception
+    {
+        StubPolicyService service = new StubPolicyService();
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(new AsyncFactory(service));
+
+        StatRequest first = statRequest("/a");
+        StatRequest second = statRequest("/b");
+        handler.channelRead(ctx, first);
+        handler.channelRead(ctx, second);
+
+        verify(ctx, never()).fireChannelRead(any());
+        assertThat(service.pending.keySet(), contains("/a"));
+
+        service.pending.remove("/a").complete("/mapped/a");
+        channel.runPendingTasks();
+
+        verify(ctx).fireChannelRead(first);
+        verify(ctx, never()).fireChannelRead(second);
+        assertThat(first.getPath(), is("/mapped/a"));
+        assertThat(service.pending.keySet(), contains("/b"));
+
+        service.pending.remove("/b").complete("/mapped/b");
+        channel.runPendingTasks();
+
+        verify(ctx).fireChannelRead(second);
+        assertThat(second.getPath(), is("/mapped/b"));
+    }
+
+    @Test
+    public void shouldPauseReadingWhileSuspended() throws Exception
+    {
+        StubPolicyService service = new StubPolicyService();
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(new AsyncFactory(service));
+
+        handler.channelRead(ctx, statRequest("/a"));
+        handler.channelRead(ctx, statRequest("/b"));
+
+        assertThat(channel.config().isAutoRead(), is(false));
+
+        service.pending.remove("/a").complete("/mapped/a");
+        channel.runPendingTasks();
+
+        assertThat(channel.config().isAutoRead(), is(false));
+
+        service.pending.remove("/b").complete("/mapped/b");
+        channel.runPendingTasks();
+
+        assertThat(channel.config().isAutoRead(), is(true));
+    }
+
+    @Test
+    public void shouldNotSuspendWhenAsyncDecisionIsAvailable() throws Exception
+    {
+        StubPolicyService service = new StubPolicyService();
+        service.immediate = true;
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(new AsyncFactory(service));
+
+        StatRequest request = statRequest("/a");
+        handler.channelRead(ctx, request);
+
+        verify(ctx).fireChannelRead(request);
+        assertThat(request.getPath(), is("/mapped/a"));
+    }
+
+    @Test
+    public void shouldRespondWithErrorWhenAsyncDecisionDenies() throws Exception
+    {
+        StubPolicyService service = new StubPolicyService();
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(new AsyncFactory(service));
+
+        StatRequest denied = statRequest("/a");
+        StatRequest next = statRequest("/b");
+        handler.channelRead(ctx, denied);
+        handler.channelRead(ctx, next);
+
+        service.pending.remove("/a").completeExceptionally(new SecurityException("denied"));
+        channel.runPendingTasks();
+
+        ArgumentCaptor<Object> response = ArgumentCaptor.forClass(Object.class);
+        verify(ctx).writeAndFlush(response.capture());
+        assertThat(response.getValue(), is(instanceOf(ErrorResponse.class)));
+        verify(ctx, never()).fireChannelRead(denied);
+        assertThat(service.pending.keySet(), contains("/b"));
+    }
+
+    @Test
+    public void shouldAuthorizeBulkPathsConcurrentlyWithAsyncPlugin() throws Exception
+    {
+        StubPolicyService service = new StubPolicyService();
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(new AsyncFactory(service));
+
+        StatxRequest request = statxRequest("/a\n/b\n/c");
+        handler.channelRead(ctx, request);
+
+        assertThat(service.pending.keySet(), contains("/a", "/b", "/c"));
+        service.pending.remove("/c").complete("/mapped/c");
+        service.pending.remove("/a").complete("/mapped/a");
+        channel.runPendingTasks();
+        verify(ctx, never()).fireChannelRead(any());
+
+        service.pending.remove("/b").complete("/mapped/b");
+        channel.runPendingTasks();
+
+        verify(ctx).fireChannelRead(request);
+        assertThat(request.getPaths(), is(arrayContaining("/mapped/a", "/mapped/b", "/mapped/c")));
+        assertThat(service.pending.isEmpty(), is(true));
+    }
+
+    @Test
+    public void shouldDenyBulkRequestIfAnyPathIsDenied() throws Exception
+    {
+        StubPolicyService service = new StubPolicyService();
+        XrootdAuthorizationHandler handler =
+            new XrootdAuthorizationHandler(new AsyncFactory(service));
+
+        StatxRequest request = statxRequest("/a\n/b");
+        handler.channelRead(ctx, request);
+
+        service.pending.remove("/a").complete("/mapped/a");
+        service.pending.remove("/b").completeExceptionally(new SecurityException("denied"));
+        channel.runPendingTasks();
+
+        ArgumentCaptor<Object> response = ArgumentCaptor.forClass(Object.class);
+        verify(ctx).writeAndFlush(response.capture());
+        assertThat(response.getValue(), is(instanceOf(ErrorResponse.class)));
+        verify(ctx, never()).fireChannelRead(request);
+    }
+
+    @Test
+    public void shouldAuthorizeBulkPathsInParallelWithBlockingPlugin() throws Exception
+    {
+        CountDownLatch allStarted = new CountDownLatch(3);
+        AuthorizationFactory blocking = new CountingFactory()
+        {
+            @Override
+            public AuthorizationHandler createHandler()
+            {
+                return (subject, localAddress, remoteAddress, path, opaque, request, mode) -> {
+                    allStarted.countDown();
+                    try {
+                        if (!allStarted.await(10, TimeUnit.SECONDS)) {
+                            throw new SecurityException("not authorized in parallel");
+                        }
+                    } catch (InterruptedException e) {
+                        throw new SecurityException("interrupted");
+                    }
+                    return "/mapped" + path;
+                };
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(3);
+        try {
+            XrootdAuthorizationHandler handler =
+                new XrootdAuthorizationHandler(blocking, 0, 0, executor, 3);
+
+            StatxRequest request = statxRequest("/a\n/b\n/c");
+            handler.channelRead(ctx, request);
+
+            assertThat(allStarted.await(10, TimeUnit.SECONDS), is(true));
+            executor.shutdown();
+            executor.awaitTermination(10, TimeUnit.SECONDS);
+            channel.runPendingTasks();
+
+            verify(ctx).fireChannelRead(request);
+            assertThat(request.getPaths(), is(arrayContaining("/mapped/a", "/mapped/b", "/mapped/c")));
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void shouldNotAuthorizePathsOfPrepareCancellation() throws Exception
+    {
+        XrootdAuthorizationHandler handler = new XrootdAuthorizationHandler(factory);
+
+        PrepareRequest request = prepareRequest(kXR_cancel, "12345");
+        handler.doOnPrepare(ctx, request);
+
+        assertThat(factory.created, is(0));
+        assertThat(request.getPathList(), is(arrayContaining("12345")));
+    }
+
+    @Test
+    public void shouldAuthorizePathsOfPrepare() throws Exception
+    {
+        XrootdAuthorizationHandler handler = new XrootdAuthorizationHandler(factory);
+
+        PrepareRequest request = prepareRequest(kXR_stage, "/a?x=1\n/b");
+        handler.doOnPrepare(ctx, request);
+
+        assertThat(request.getPathList(), is(arrayContaining("/mapped/a", "/mapped/b")));
+    }
+
+    private static StatxRequest statxRequest(String paths)
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeShort(1);
+        buffer.writeShort(kXR_statx);
+        buffer.writeZero(16);      // reserved
+        buffer.writeInt(paths.length());
+        buffer.writeCharSequence(paths, US_ASCII);
+        try {
+            return new StatxRequest(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static PrepareRequest prepareRequest(int options, String paths)
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeShort(1);
+        buffer.writeShort(kXR_prepare);
+        buffer.writeByte(options);
+        buffer.writeByte(0);       // prty
+        buffer.writeZero(14);      // reserved
+        buffer.writeInt(paths.length());
+        buffer.writeCharSequence(paths, US_ASCII);
+        try {
+            return new PrepareRequest(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+
+    private static class CountingFactory implements AuthorizationFactory
+    {
+        boolean cacheable;
+        int created;
+
+        @Override
+        public String getName()
+        {
+            return "counting";
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Counts created handlers";
+        }
+
+        @Override
+        public AuthorizationHandler createHandler()
+        {
+            created++;
+            return new AuthorizationHandler()
+            {
+                @Override
+                public String authorize(Subject subject,
+                                        InetSocketAddress localAddress,
+                                        InetSocketAddress remoteAddress,
+                                        String path,
+                                        Map<String, String> opaque,
+                                        int request,
+                                        FilePerm mode)
+                {
+                    if (path.equals("/denied")) {
+                        throw new SecurityException("denied");
+                    }
+                    return "/mapped" + path;
+                }
+
+                @Override
+                public boolean isCacheable()
+                {
+                    return cacheable;
+                }
+            };
+        }
+    }
+
+    /**
+     * Stand-in for an external policy service; decisions are completed
+     * by the test.
+     */
+    private static class StubPolicyService
+    {
+        final Map<String,CompletableFuture<String>> pending = new LinkedHashMap<>();
+        boolean immediate;
+
+        CompletableFuture<String> lookup(String path)
+        {
+            if (immediate) {
+                return CompletableFuture.completedFuture("/mapped" + path);
+            }
+            CompletableFuture<String> future = new CompletableFuture<>();
+            pending.put(path, future);
+            return future;
+        }
+    }
+
+    private static class AsyncFactory implements AuthorizationFactory
+    {
+        private final StubPolicyService service;
+
+        AsyncFactory(StubPolicyService service)
+        {
+            this.service = service;
+        }
+
+        @Override
+        public String getName()
+        {
+            return "async";
+        }
+
+        @Override
+        public String getDescription()
+        {
+            return "Consults the stub policy service";
+        }
+
+        @Override
+        public AuthorizationHandler createHandler()
+        {
+            return new AsyncAuthorizationHandler()
+            {
+                @Override
+                public CompletionStage<String> authorizeAsync(Subject subject,
+                                                              InetSocketAddress localAddress,
+                                                              InetSocketAddress remoteAddress,
+                                                              String path,
+                                                              Map<String, String> opaque,
+                                                              int request,
+                                                              FilePerm mode)
+                {
+                    return service.lookup(path);
+                }
+            };
+        }
+    }
+}
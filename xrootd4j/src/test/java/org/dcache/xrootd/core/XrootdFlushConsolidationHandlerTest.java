@@ -0,0 +1,132 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInboundHandlerAdapter;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Test;
+
+import org.dcache.xrootd.protocol.messages.OkResponse;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+public class XrootdFlushConsolidationHandlerTest
+{
+    private static final int REQUESTS = 16;
+
+    private EmbeddedChannel channel;
+    private XrootdFlushConsolidationHandler flusher;
+
+    private void givenPipelineWithThreshold(int threshold)
+    {
+        flusher = new XrootdFlushConsolidationHandler(threshold);
+        channel = new EmbeddedChannel(flusher,
+                                      new XrootdEncoder(),
+                                      new XrootdDecoder(),
+                                      new ChannelInboundHandlerAdapter()
+                                      {
+                                          @Override
+                                          public void channelRead(ChannelHandlerContext ctx,
+                                                                  Object msg)
+                                          {
+                                              ctx.writeAndFlush(new OkResponse<>((XrootdRequest) msg));
+                                          }
+                                      });
+    }
+
+    @After
+    public void tearDown()
+    {
+        for (Object msg; (msg = channel.readOutbound()) != null; ) {
+            ReferenceCountUtil.release(msg);
+        }
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldFlushPipelinedResponsesOnceAtEndOfRead()
+    {
+        givenPipelineWithThreshold(65536);
+
+        channel.pipeline().fireChannelRead(statRequests(REQUESTS));
+
+        assertThat(channel.outboundMessages().size(), is(0));
+
+        channel.pipeline().fireChannelReadComplete();
+
+        assertThat(channel.outboundMessages().size(), is(REQUESTS));
+        assertThat(flusher.getFlushes(), is(1L));
+    }
+
+    @Test
+    public void shouldFlushWhenThresholdIsReached()
+    {
+        givenPipelineWithThreshold(1);
+
+        channel.pipeline().fireChannelRead(statRequests(REQUESTS));
+
+        assertThat(channel.outboundMessages().size(), is(REQUESTS));
+        assertThat(flusher.getFlushes(), is((long) REQUESTS));
+    }
+
+    @Test
+    public void shouldNotDelayFlushesOutsideOfRead()
+    {
+        givenPipelineWithThreshold(65536);
+
+        channel.writeAndFlush(Unpooled.wrappedBuffer(new byte[8]));
+
+        assertThat(channel.outboundMessages().size(), is(1));
+        assertThat(flusher.getFlushes(), is(1L));
+    }
+
+    @Test
+    public void shouldFlushPendingResponsesOnClose()
+    {
+        givenPipelineWithThreshold(65536);
+
+        channel.pipeline().fireChannelRead(statRequests(REQUESTS));
+        channel.close();
+
+        assertThat(channel.outboundMessages().size(), is(REQUESTS));
+    }
+
+    private static ByteBuf statRequests(int count)
+    {
+        byte[] path = "/file".getBytes(US_ASCII);
+        ByteBuf buffer = Unpooled.buffer();
+        for (int i = 0; i < count; i++) {
+            buffer.writeShort(i);
+            buffer.writeShort(kXR_stat);
+            buffer.writeZero(16);
+            buffer.writeInt(path.length);
+            buffer.writeBytes(path);
+        }
+        return buffer;
+    }
+}
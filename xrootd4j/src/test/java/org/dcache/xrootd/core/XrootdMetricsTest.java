@@ -0,0 +1,125 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import org.dcache.xrootd.protocol.messages.StatRequest;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+import static org.dcache.xrootd.protocol.messages.RequestFixtures.statRequest;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class XrootdMetricsTest
+{
+    private EmbeddedChannel channel;
+    private ChannelHandlerContext ctx;
+    private XrootdMetrics metrics;
+
+    @Before
+    public void setUp()
+    {
+        channel = new EmbeddedChannel();
+        ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        when(ctx.writeAndFlush(any())).thenReturn(channel.newSucceededFuture());
+        metrics = new XrootdMetrics();
+    }
+
+    @Test
+    public void shouldRecordSuccessfulRequests()
+    {
+        XrootdRequestHandler handler = new XrootdRequestHandler(metrics)
+        {
+            @Override
+            protected Object doOnStat(ChannelHandlerContext ctx, StatRequest msg)
+            {
+                return withOk(msg);
+            }
+        };
+
+        handler.requestReceived(ctx, statRequest("/file"));
+        handler.requestReceived(ctx, statRequest("/file"));
+
+        assertThat(metrics.getRequests(kXR_stat), is(2L));
+        assertThat(metrics.getErrors(kXR_stat), is(0L));
+        assertThat(metrics.getLatency(kXR_stat).getCount(), is(2L));
+    }
+
+    @Test
+    public void shouldRecordFailedRequests()
+    {
+        XrootdRequestHandler handler = new XrootdRequestHandler(metrics);
+
+        handler.requestReceived(ctx, statRequest("/file"));
+
+        assertThat(metrics.getRequests(kXR_stat), is(1L));
+        assertThat(metrics.getErrors(kXR_stat), is(1L));
+    }
+
+    @Test
+    public void shouldRecordRequestsFailingToBeWritten()
+    {
+        when(ctx.writeAndFlush(any())).thenReturn(channel.newFailedFuture(new Exception()));
+        XrootdRequestHandler handler = new XrootdRequestHandler(metrics)
+        {
+            @Override
+            protected Object doOnStat(ChannelHandlerContext ctx, StatRequest msg)
+            {
+                return withOk(msg);
+            }
+        };
+
+        handler.requestReceived(ctx, statRequest("/file"));
+
+        assertThat(metrics.getErrors(kXR_stat), is(1L));
+    }
+
+    @Test
+    public void shouldCountTraffic()
+    {
+        XrootdTrafficCounter counter = new XrootdTrafficCounter(metrics);
+        EmbeddedChannel channel = new EmbeddedChannel(counter);
+
+        channel.writeInbound(Unpooled.buffer().writeZero(24));
+        channel.writeOutbound(Unpooled.buffer().writeZero(8));
+
+        assertThat(counter.getBytesReceived(), is(24L));
+        assertThat(counter.getBytesSent(), is(8L));
+        assertThat(metrics.getBytesReceived(), is(24L));
+        assertThat(metrics.getBytesSent(), is(8L));
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldNameRequests()
+    {
+        assertThat(XrootdMetrics.getRequestName(kXR_auth), is("auth"));
+        assertThat(XrootdMetrics.getRequestName(kXR_readv), is("readv"));
+        assertThat(XrootdMetrics.getRequestName(kXR_sigver), is("sigver"));
+    }
+}
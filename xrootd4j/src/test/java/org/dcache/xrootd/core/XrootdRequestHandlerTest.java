@@ -0,0 +1,162 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.dcache.xrootd.protocol.messages.StatRequest;
+import org.dcache.xrootd.protocol.messages.SyncRequest;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+import static org.dcache.xrootd.protocol.messages.RequestFixtures.statRequest;
+import static org.hamcrest.Matchers.contains;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Matchers.any;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class XrootdRequestHandlerTest
+{
+    private EmbeddedChannel channel;
+    private ChannelHandlerContext ctx;
+    private ExecutorService executor;
+    private List<Integer> responses;
+    private CountDownLatch responded;
+
+    @Before
+    public void setUp()
+    {
+        channel = new EmbeddedChannel();
+        ctx = mock(ChannelHandlerContext.class);
+        when(ctx.channel()).thenReturn(channel);
+        responses = new CopyOnWriteArrayList<>();
+        when(ctx.writeAndFlush(any())).then(invocation -> {
+            XrootdResponse<?> response = (XrootdResponse<?>) invocation.getArguments()[0];
+            responses.add(response.getRequest().getStreamId());
+            responded.countDown();
+            return channel.newSucceededFuture();
+        });
+        executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown()
+    {
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void shouldNotBlockRequestsBehindSlowRequest() throws Exception
+    {
+        CountDownLatch slow = new CountDownLatch(1);
+        responded = new CountDownLatch(1);
+        XrootdRequestHandler handler = new XrootdRequestHandler(XrootdMetricsSink.NONE, executor)
+        {
+            @Override
+            protected Object doOnStat(ChannelHandlerContext ctx, StatRequest msg)
+                throws XrootdException
+            {
+                if (msg.getPath().equals("/slow")) {
+                    try {
+                        slow.await();
+                    } catch (InterruptedException e) {
+                        throw new XrootdException(kXR_ServerError, "Interrupted");
+                    }
+                }
+                return withOk(msg);
+            }
+        };
+
+        handler.channelRead(ctx, statRequest(1, "/slow"));
+        handler.channelRead(ctx, statRequest(2, "/fast"));
+
+        assertTrue(responded.await(5, TimeUnit.SECONDS));
+        assertThat(responses, contains(2));
+
+        responded = new CountDownLatch(1);
+        slow.countDown();
+
+        assertTrue(responded.await(5, TimeUnit.SECONDS));
+        assertThat(responses, contains(2, 1));
+    }
+
+    @Test
+    public void shouldProcessRequestsForSameFileHandleInOrder() throws Exception
+    {
+        int count = 32;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger overlaps = new AtomicInteger();
+        responded = new CountDownLatch(count);
+        XrootdRequestHandler handler = new XrootdRequestHandler(XrootdMetricsSink.NONE, executor)
+        {
+            @Override
+            protected Object doOnSync(ChannelHandlerContext ctx, SyncRequest msg)
+            {
+                if (running.incrementAndGet() > 1) {
+                    overlaps.incrementAndGet();
+                }
+                Thread.yield();
+                running.decrementAndGet();
+                return withOk(msg);
+            }
+        };
+
+        for (int i = 0; i < count; i++) {
+            handler.channelRead(ctx, syncRequest(i, 7));
+        }
+
+        assertTrue(responded.await(5, TimeUnit.SECONDS));
+        assertThat(overlaps.get(), is(0));
+        for (int i = 0; i < count; i++) {
+            assertThat(responses.get(i), is(i));
+        }
+    }
+
+    private static SyncRequest syncRequest(int streamId, int fileHandle)
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeShort(streamId);
+        buffer.writeShort(kXR_sync);
+        buffer.writeInt(fileHandle);
+        buffer.writeZero(12);      // reserved
+        buffer.writeInt(0);        // dlen
+        try {
+            return new SyncRequest(buffer);
+        } finally {
+            buffer.release();
+        }
+    }
+}
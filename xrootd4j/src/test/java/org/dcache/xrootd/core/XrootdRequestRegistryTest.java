@@ -0,0 +1,113 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import org.dcache.xrootd.protocol.messages.AbstractXrootdRequest;
+import org.dcache.xrootd.protocol.messages.StatRequest;
+import org.dcache.xrootd.protocol.messages.UnknownRequest;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+import static org.hamcrest.Matchers.instanceOf;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+public class XrootdRequestRegistryTest
+{
+    private static final int kXR_custom = 3100;
+
+    private final XrootdRequestRegistry registry = new XrootdRequestRegistry();
+
+    @Test
+    public void shouldDecodeKnownRequests()
+    {
+        XrootdRequest request = registry.decode(frame(kXR_stat, "/file?a=b"));
+
+        assertThat(request, is(instanceOf(StatRequest.class)));
+        assertThat(((StatRequest) request).getPath(), is("/file"));
+        assertThat(((StatRequest) request).getOpaque(), is("a=b"));
+    }
+
+    @Test
+    public void shouldDecodePathWithoutOpaque()
+    {
+        StatRequest request = (StatRequest) registry.decode(frame(kXR_stat, "/file"));
+
+        assertThat(request.getPath(), is("/file"));
+        assertThat(request.getOpaque(), is(""));
+    }
+
+    @Test
+    public void shouldPreferAssignedPathOverFrame()
+    {
+        StatRequest request = (StatRequest) registry.decode(frame(kXR_stat, "/file?a=b"));
+
+        request.setPath("/mapped");
+
+        assertThat(request.getPath(), is("/mapped"));
+        assertThat(request.getOpaque(), is("a=b"));
+    }
+
+    @Test
+    public void shouldDecodeUnregisteredRequestsAsUnknown()
+    {
+        assertThat(registry.getFactory(kXR_custom), is(nullValue()));
+        assertThat(registry.decode(frame(kXR_custom, "")), is(instanceOf(UnknownRequest.class)));
+    }
+
+    @Test
+    public void shouldDecodeRegisteredRequests()
+    {
+        registry.register(kXR_custom, CustomRequest::new);
+
+        assertThat(registry.decode(frame(kXR_custom, "")), is(instanceOf(CustomRequest.class)));
+        assertThat(XrootdRequestRegistry.getDefault().getFactory(kXR_custom), is(nullValue()));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectInvalidRequestIds()
+    {
+        registry.register(kXR_handshake, CustomRequest::new);
+    }
+
+    private static ByteBuf frame(int requestId, String path)
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeShort(1);
+        buffer.writeShort(requestId);
+        buffer.writeZero(16);
+        buffer.writeInt(path.length());
+        buffer.writeCharSequence(path, US_ASCII);
+        return buffer;
+    }
+
+    private static class CustomRequest extends AbstractXrootdRequest
+    {
+        CustomRequest(ByteBuf buffer)
+        {
+            super(buffer, kXR_custom);
+        }
+    }
+}
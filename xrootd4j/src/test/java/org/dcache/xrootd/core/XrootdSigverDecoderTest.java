@@ -0,0 +1,165 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.security.MessageDigest;
+import java.util.Collections;
+
+import org.dcache.xrootd.protocol.messages.ErrorResponse;
+import org.dcache.xrootd.protocol.messages.StatRequest;
+import org.dcache.xrootd.security.SigningPolicy;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_sigver;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_stat;
+import static org.dcache.xrootd.protocol.messages.RequestFixtures.statFrame;
+import static org.dcache.xrootd.protocol.messages.SigverRequest.kXR_SHA256;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_secOFrce;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.kXR_secPedantic;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class XrootdSigverDecoderTest
+{
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp()
+    {
+        channel = new EmbeddedChannel(
+                        new XrootdSigverDecoder(new SigningPolicy(kXR_secPedantic, true),
+                                                null));
+    }
+
+    @Test
+    public void shouldPassRequestWithMatchingHash() throws Exception
+    {
+        ByteBuf stat = statFrame(1, "/my-file.dat");
+
+        channel.writeInbound(sigverRequest(1, kXR_stat, 1L, hash(1L, stat)));
+        channel.writeInbound(stat);
+
+        Object decoded = channel.readInbound();
+        assertThat(decoded, is(instanceOf(StatRequest.class)));
+        assertThat(((StatRequest) decoded).getPath(), is(equalTo("/my-file.dat")));
+        assertThat(channel.readOutbound(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldPassSuccessiveRequestsWithMatchingHashes() throws Exception
+    {
+        for (long seqno = 1; seqno <= 3; seqno++) {
+            ByteBuf stat = statFrame(1, "/file-" + seqno);
+            channel.writeInbound(sigverRequest(1, kXR_stat, seqno, hash(seqno, stat)));
+            channel.writeInbound(stat);
+            assertThat(channel.readInbound(), is(instanceOf(StatRequest.class)));
+        }
+        assertThat(channel.readOutbound(), is(nullValue()));
+    }
+
+    @Test
+    public void shouldRejectRequestWithWrongHash() throws Exception
+    {
+        ByteBuf stat = statFrame(1, "/my-file.dat");
+        byte[] signature = hash(2L, stat);
+
+        channel.writeInbound(sigverRequest(1, kXR_stat, 1L, signature));
+        channel.writeInbound(stat);
+
+        assertThat(channel.readInbound(), is(nullValue()));
+        assertThat(channel.readOutbound(), is(instanceOf(ErrorResponse.class)));
+    }
+
+    @Test
+    public void shouldRejectUnsignedRequestWhenForced() throws Exception
+    {
+        channel.writeInbound(statFrame(1, "/my-file.dat"));
+
+        assertThat(channel.readInbound(), is(nullValue()));
+        assertThat(channel.readOutbound(), is(instanceOf(ErrorResponse.class)));
+    }
+
+    @Test
+    public void shouldNotVerifyRequestOnExemptPath() throws Exception
+    {
+        SigningPolicy policy = new SigningPolicy(kXR_secPedantic,
+                                                 kXR_secOFrce,
+                                                 Collections.emptyMap(),
+                                                 Collections.singletonList("/public/"));
+        channel = new EmbeddedChannel(new XrootdSigverDecoder(policy, null));
+
+        ByteBuf stat = statFrame(1, "/public/my-file.dat");
+        channel.writeInbound(sigverRequest(1, kXR_stat, 1L, new byte[32]));
+        channel.writeInbound(stat);
+
+        assertThat(channel.readInbound(), is(instanceOf(StatRequest.class)));
+        assertThat(channel.readOutbound(), is(nullValue()));
+        assertThat(policy.getStatistics().getExemptRequests(kXR_stat), is(1L));
+        assertThat(policy.getStatistics().getVerifiedRequests(kXR_stat), is(0L));
+    }
+
+    @Test
+    public void shouldCountVerifiedRequestsAndBytes() throws Exception
+    {
+        SigningPolicy policy = new SigningPolicy(kXR_secPedantic, true);
+        channel = new EmbeddedChannel(new XrootdSigverDecoder(policy, null));
+
+        ByteBuf stat = statFrame(1, "/my-file.dat");
+        int length = stat.readableBytes();
+        channel.writeInbound(sigverRequest(1, kXR_stat, 1L, hash(1L, stat)));
+        channel.writeInbound(stat);
+
+        assertThat(channel.readInbound(), is(instanceOf(StatRequest.class)));
+        assertThat(policy.getStatistics().getVerifiedRequests(kXR_stat), is(1L));
+        assertThat(policy.getStatistics().getVerifiedBytes(kXR_stat), is((long) length));
+    }
+
+    private static ByteBuf sigverRequest(int streamId, int expectrid,
+                                         long seqno, byte[] signature)
+    {
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeShort(streamId);
+        buffer.writeShort(kXR_sigver);
+        buffer.writeShort(expectrid);
+        buffer.writeByte(0);       // version
+        buffer.writeByte(0);       // flags
+        buffer.writeLong(seqno);
+        buffer.writeByte(kXR_SHA256);
+        buffer.writeZero(3);       // reserved
+        buffer.writeInt(signature.length);
+        buffer.writeBytes(signature);
+        return buffer;
+    }
+
+    private static byte[] hash(long seqno, ByteBuf request) throws Exception
+    {
+        MessageDigest digest = MessageDigest.getInstance("SHA-256");
+        ByteBuf buffer = Unpooled.buffer();
+        buffer.writeLong(seqno);
+        buffer.writeBytes(request, request.readerIndex(), request.readableBytes());
+        byte[] contents = new byte[buffer.readableBytes()];
+        buffer.readBytes(contents);
+        return digest.digest(contents);
+    }
+}
@@ -0,0 +1,232 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.core;
+
+import io.netty.buffer.Unpooled;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.dcache.xrootd.protocol.messages.SigverRequest;
+import org.dcache.xrootd.protocol.messages.XrootdRequest;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_oksofar;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class XrootdWriteBufferTunerTest
+{
+    private static final int MIN = 64 << 10;
+    private static final int MAX = 16 << 20;
+
+    private final AtomicLong clock = new AtomicLong(1);
+    private final byte[] chunk = new byte[1 << 20];
+
+    private XrootdWriteBufferTuner tuner;
+    private EmbeddedChannel channel;
+
+    @Before
+    public void setUp()
+    {
+        tuner = new XrootdWriteBufferTuner(MIN, MAX, clock::get);
+        channel = new EmbeddedChannel(tuner);
+    }
+
+    @After
+    public void tearDown()
+    {
+        channel.finishAndReleaseAll();
+    }
+
+    @Test
+    public void shouldGrowWaterMarkToBandwidthDelayProduct()
+    {
+        givenRoundTripTime(TimeUnit.MILLISECONDS.toNanos(50));
+
+        // 10 MiB in 100 ms
+        for (int i = 0; i < 10; i++) {
+            channel.writeOutbound(Unpooled.wrappedBuffer(chunk));
+        }
+        advance(TimeUnit.MILLISECONDS.toNanos(100));
+        tuner.tune(channel);
+
+        // 100 MiB/s * 50 ms = 5 MiB
+        assertThat(tuner.getRoundTripTime(), is(TimeUnit.MILLISECONDS.toNanos(50)));
+        assertThat(channel.config().getWriteBufferHighWaterMark(), is(10 << 20));
+        assertThat(channel.config().getWriteBufferLowWaterMark(), is(5 << 20));
+    }
+
+    @Test
+    public void shouldNotShrinkBelowMinimum()
+    {
+        givenRoundTripTime(TimeUnit.MICROSECONDS.toNanos(100));
+
+        channel.writeOutbound(Unpooled.wrappedBuffer(chunk));
+        advance(TimeUnit.MILLISECONDS.toNanos(100));
+        tuner.tune(channel);
+
+        assertThat(channel.config().getWriteBufferHighWaterMark(), is(MIN));
+    }
+
+    @Test
+    public void shouldNotGrowBeyondMaximum()
+    {
+        givenRoundTripTime(TimeUnit.MILLISECONDS.toNanos(200));
+
+        for (int i = 0; i < 100; i++) {
+            channel.writeOutbound(Unpooled.wrappedBuffer(chunk));
+        }
+        advance(TimeUnit.MILLISECONDS.toNanos(100));
+        tuner.tune(channel);
+
+        assertThat(channel.config().getWriteBufferHighWaterMark(), is(MAX));
+    }
+
+    @Test
+    public void shouldNotTuneWithoutRoundTripTime()
+    {
+        int high = channel.config().getWriteBufferHighWaterMark();
+
+        channel.writeOutbound(Unpooled.wrappedBuffer(chunk));
+        advance(TimeUnit.MILLISECONDS.toNanos(100));
+        tuner.tune(channel);
+
+        assertThat(tuner.getRoundTripTime(), is(-1L));
+        assertThat(channel.config().getWriteBufferHighWaterMark(), is(high));
+    }
+
+    @Test
+    public void shouldNotSampleRoundTripTimeWhileRequestsAreOutstanding()
+    {
+        givenChannel(tuner -> new EmbeddedChannel(tuner, tuner.newRequestTracker()));
+
+        // A pipelining client has sent its next request before receiving a response
+        channel.writeInbound(mock(XrootdRequest.class));
+        channel.writeInbound(mock(XrootdRequest.class));
+        channel.writeOutbound(response(kXR_ok));
+        advance(TimeUnit.MICROSECONDS.toNanos(1));
+        channel.writeInbound(mock(XrootdRequest.class));
+
+        assertThat(tuner.getRoundTripTime(), is(-1L));
+
+        channel.writeOutbound(response(kXR_oksofar));
+        channel.writeOutbound(response(kXR_ok));
+        channel.writeOutbound(response(kXR_ok));
+        advance(TimeUnit.MILLISECONDS.toNanos(50));
+        channel.writeInbound(mock(XrootdRequest.class));
+
+        assertThat(tuner.getRoundTripTime(), is(TimeUnit.MILLISECONDS.toNanos(50)));
+    }
+
+    @Test
+    public void shouldNotExpectResponsesToSigverRequests()
+    {
+        givenChannel(tuner -> new EmbeddedChannel(tuner, tuner.newRequestTracker()));
+
+        channel.writeInbound(mock(SigverRequest.class));
+        channel.writeInbound(mock(XrootdRequest.class));
+        channel.writeOutbound(response(kXR_ok));
+        advance(TimeUnit.MILLISECONDS.toNanos(50));
+        channel.writeInbound(mock(XrootdRequest.class));
+
+        assertThat(tuner.getRoundTripTime(), is(TimeUnit.MILLISECONDS.toNanos(50)));
+    }
+
+    @Test
+    public void shouldPreferRoundTripTimeOfTcpInfo()
+    {
+        givenChannel(tuner -> new TcpInfoChannel(tuner, 30_000));
+        givenRoundTripTime(TimeUnit.MICROSECONDS.toNanos(1));
+
+        assertThat(tuner.getRoundTripTime(), is(TimeUnit.MILLISECONDS.toNanos(30)));
+    }
+
+    private void givenChannel(Function<XrootdWriteBufferTuner, EmbeddedChannel> factory)
+    {
+        channel.finishAndReleaseAll();
+        tuner = new XrootdWriteBufferTuner(MIN, MAX, clock::get);
+        channel = factory.apply(tuner);
+    }
+
+    private static XrootdResponse<?> response(int status)
+    {
+        XrootdResponse<?> response = mock(XrootdResponse.class);
+        when(response.getStatus()).thenReturn(status);
+        return response;
+    }
+
+    private void givenRoundTripTime(long nanos)
+    {
+        channel.flush();
+        advance(nanos);
+        channel.writeInbound(Unpooled.buffer().writeZero(24));
+        tuner.tune(channel);
+    }
+
+    private void advance(long nanos)
+    {
+        clock.addAndGet(nanos);
+    }
+
+    /**
+     * A channel providing TCP_INFO like the epoll transport does.
+     */
+    public static class TcpInfoChannel extends EmbeddedChannel
+    {
+        private final long rtt;
+
+        TcpInfoChannel(XrootdWriteBufferTuner tuner, long rtt)
+        {
+            super(tuner);
+            this.rtt = rtt;
+        }
+
+        public TcpInfo tcpInfo()
+        {
+            return new TcpInfo(rtt);
+        }
+    }
+
+    public static class TcpInfo
+    {
+        private final long rtt;
+
+        TcpInfo(long rtt)
+        {
+            this.rtt = rtt;
+        }
+
+        /**
+         * Round trip time in microseconds.
+         */
+        public long rtt()
+        {
+            return rtt;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.protocol.messages;
+
+import io.netty.buffer.ByteBuf;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_stat;
+
+/**
+ * Requests shared by the test cases of several packages.
+ */
+public class RequestFixtures
+{
+    private RequestFixtures()
+    {
+    }
+
+    /**
+     * Returns the frame of a kXR_stat request. The caller must release it.
+     */
+    public static ByteBuf statFrame(int streamId, String path)
+    {
+        return new ByteBufBuilder()
+                .withShort(streamId)
+                .withShort(kXR_stat)
+                .withByte(0)        // opts
+                .withZeros(11)      // reserved
+                .withInt(0)         // fhandle
+                .withString(path, US_ASCII)
+                .build();
+    }
+
+    public static StatRequest statRequest(int streamId, String path)
+    {
+        ByteBuf frame = statFrame(streamId, path);
+        try {
+            return new StatRequest(frame);
+        } finally {
+            frame.release();
+        }
+    }
+
+    public static StatRequest statRequest(String path)
+    {
+        return statRequest(1, path);
+    }
+}
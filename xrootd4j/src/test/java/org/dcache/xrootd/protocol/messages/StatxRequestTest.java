@@ -0,0 +1,77 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.protocol.messages;
+
+import org.junit.Test;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class StatxRequestTest extends DecoderTest<StatxRequest>
+{
+    public StatxRequestTest()
+    {
+        super(StatxRequest::new);
+    }
+
+    @Test
+    public void shouldDecodeEmptyList()
+    {
+        given(encodedRequest()
+                .withShort(1)    // streamid
+                .withShort(3022) // kXR_statx
+                .withZeros(16)   // reserved
+                .withString("", US_ASCII)); // paths
+
+        StatxRequest decoded = whenDecoded();
+
+        assertThat(decoded.getPaths(), is(emptyArray()));
+        assertThat(decoded.getOpaques(), is(emptyArray()));
+    }
+
+    @Test
+    public void shouldDecodePathsWithOpaque()
+    {
+        given(encodedRequest()
+                .withShort(1)    // streamid
+                .withShort(3022) // kXR_statx
+                .withZeros(16)   // reserved
+                .withString("/a\n/b?x=1\n/c\n", US_ASCII)); // paths
+
+        StatxRequest decoded = whenDecoded();
+
+        assertThat(decoded.getPaths(), is(arrayContaining("/a", "/b", "/c")));
+        assertThat(decoded.getOpaques(), is(arrayContaining(null, "x=1", null)));
+    }
+
+    @Test
+    public void shouldKeepEmptyPathsInsideList()
+    {
+        given(encodedRequest()
+                .withShort(1)    // streamid
+                .withShort(3022) // kXR_statx
+                .withZeros(16)   // reserved
+                .withString("/a\n\n/c", US_ASCII)); // paths
+
+        StatxRequest decoded = whenDecoded();
+
+        assertThat(decoded.getPaths(), is(arrayContaining("/a", "", "/c")));
+    }
+}
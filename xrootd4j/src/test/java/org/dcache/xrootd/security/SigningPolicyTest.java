@@ -0,0 +1,128 @@
+/**
+ * Copyright (C) 2011-2019 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.security;
+
+import com.google.common.collect.ImmutableMap;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+import org.junit.Test;
+
+import java.util.Collections;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.*;
+import static org.dcache.xrootd.protocol.messages.RequestFixtures.statRequest;
+import static org.dcache.xrootd.security.XrootdSecurityProtocol.*;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class SigningPolicyTest
+{
+    @Test
+    public void shouldRequireSigningAccordingToLevel()
+    {
+        SigningPolicy policy = new SigningPolicy(kXR_secIntense, false);
+
+        assertThat(policy.requiresSigning(kXR_open), is(true));
+        assertThat(policy.requiresSigning(kXR_write), is(true));
+        assertThat(policy.requiresSigning(kXR_read), is(false));
+        assertThat(policy.requiresSigning(kXR_login), is(false));
+    }
+
+    @Test
+    public void shouldApplyOverrides()
+    {
+        SigningPolicy policy = new SigningPolicy(kXR_secPedantic,
+                                                 ImmutableMap.of(kXR_read, kXR_signIgnore,
+                                                                 kXR_readv, kXR_signIgnore,
+                                                                 kXR_stat, kXR_signLikely));
+
+        assertThat(policy.requiresSigning(kXR_read), is(false));
+        assertThat(policy.requiresSigning(kXR_readv), is(false));
+        assertThat(policy.requiresSigning(kXR_stat), is(true));
+
+        policy = new SigningPolicy(kXR_secCompatible,
+                                   ImmutableMap.of(kXR_write, kXR_signNeeded));
+
+        assertThat(policy.requiresSigning(kXR_write), is(true));
+        assertThat(policy.requiresSigning(kXR_close), is(false));
+    }
+
+    @Test
+    public void shouldAdvertiseOverridesRelativeToAuth()
+    {
+        SigningPolicy policy = new SigningPolicy(kXR_secPedantic,
+                                                 kXR_secOFrce,
+                                                 ImmutableMap.of(kXR_read, kXR_signIgnore),
+                                                 Collections.singletonList("/public"));
+        ByteBuf buffer = Unpooled.buffer();
+        policy.writeBytes(buffer);
+
+        assertThat(buffer.readByte(), is(kXR_secOFrce));
+        assertThat((int) buffer.readByte(), is(kXR_secPedantic));
+        assertThat((int) buffer.readByte(), is(1));
+        assertThat((int) buffer.readByte(), is(kXR_read - kXR_auth));
+        assertThat((int) buffer.readByte(), is(kXR_signIgnore));
+        assertThat(buffer.isReadable(), is(false));
+        buffer.release();
+    }
+
+    @Test
+    public void shouldExemptPathsBelowPrefix()
+    {
+        SigningPolicy policy = exempting("/public");
+
+        assertThat(policy.isExempt(statRequest("/public")), is(true));
+        assertThat(policy.isExempt(statRequest("/public/f")), is(true));
+        assertThat(policy.isExempt(statRequest("//public/./dir//f")), is(true));
+        assertThat(policy.isExempt(statRequest("/public/f?opaque=1")), is(true));
+        assertThat(policy.isExempt(statRequest("/private/f")), is(false));
+    }
+
+    @Test
+    public void shouldMatchPrefixOnSegmentBoundaries()
+    {
+        SigningPolicy policy = exempting("/public/");
+
+        assertThat(policy.isExempt(statRequest("/publicity/f")), is(false));
+        assertThat(policy.isExempt(statRequest("/public2")), is(false));
+        assertThat(policy.isExempt(statRequest("/public/f")), is(true));
+    }
+
+    @Test
+    public void shouldNotExemptPathsWithParentSegments()
+    {
+        SigningPolicy policy = exempting("/public");
+
+        assertThat(policy.isExempt(statRequest("/public/../private/f")), is(false));
+        assertThat(policy.isExempt(statRequest("/public/dir/../f")), is(false));
+        assertThat(policy.isExempt(statRequest("/public/..")), is(false));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void shouldRejectExemptPathsWithParentSegments()
+    {
+        exempting("/public/../private");
+    }
+
+    private static SigningPolicy exempting(String prefix)
+    {
+        return new SigningPolicy(kXR_secPedantic, (byte) 0, Collections.emptyMap(),
+                                 Collections.singletonList(prefix));
+    }
+}
@@ -0,0 +1,288 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import com.google.common.util.concurrent.Futures;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.embedded.EmbeddedChannel;
+import io.netty.util.ReferenceCountUtil;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.protocol.messages.DirListRequest;
+import org.dcache.xrootd.protocol.messages.XrootdResponse;
+import org.dcache.xrootd.util.FileStatus;
+
+import static java.nio.charset.StandardCharsets.US_ASCII;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_error;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_oksofar;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChunkedDirListResponseTest
+{
+    private static final int SOME_ID = 1234;
+
+    private Path _dir;
+    private DirListRequest _request;
+    private ExecutorService _executor;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _dir = Files.createTempDirectory("dirlist");
+        _request = mock(DirListRequest.class);
+        when(_request.getStreamId()).thenReturn(SOME_ID);
+        _executor = Executors.newFixedThreadPool(4);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _executor.shutdown();
+        try (java.nio.file.DirectoryStream<Path> paths = Files.newDirectoryStream(_dir)) {
+            for (Path path : paths) {
+                Files.delete(path);
+            }
+        }
+        Files.delete(_dir);
+    }
+
+    @Test
+    public void shouldListAllEntriesInFramesOfMaxFrameSize() throws Exception
+    {
+        givenFiles(500);
+
+        List<ByteBuf> frames = drain(new ChunkedDirListResponse(_request, Files.newDirectoryStream(_dir), 1024));
+
+        assertThat(frames.size(), is(greaterThan(1)));
+        StringBuilder body = new StringBuilder();
+        for (int i = 0; i < frames.size(); i++) {
+            ByteBuf frame = frames.get(i);
+            assertThat(frame.getUnsignedShort(0), is(SOME_ID));
+            assertThat(frame.getUnsignedShort(2), is(i < frames.size() - 1 ? kXR_oksofar : kXR_ok));
+            assertThat(frame.getInt(4), is(frame.readableBytes() - 8));
+            assertThat(frame.getInt(4), is(lessThanOrEqualTo(1024)));
+            body.append(frame.toString(8, frame.readableBytes() - 8, US_ASCII));
+            frame.release();
+        }
+        assertThat(body.charAt(body.length() - 1), is('\0'));
+        List<String> names = Arrays.asList(body.substring(0, body.length() - 1).split("\n"));
+        assertThat(names.size(), is(500));
+        assertThat(names, hasItems("f0", "f499"));
+    }
+
+    @Test
+    public void shouldIncludeStatusOfEntries() throws Exception
+    {
+        givenFiles(100);
+
+        List<ByteBuf> frames = drain(new ChunkedDirListResponse(_request, Files.newDirectoryStream(_dir), 1024,
+                                                                path -> new FileStatus(7, 42, 0, 1),
+                                                                _executor, 4));
+
+        StringBuilder body = new StringBuilder();
+        for (ByteBuf frame : frames) {
+            body.append(frame.toString(8, frame.readableBytes() - 8, US_ASCII));
+            frame.release();
+        }
+        String[] lines = body.substring(0, body.length() - 1).split("\n");
+        assertThat(lines.length, is(2 * 101));
+        assertThat(lines[0], is("."));
+        assertThat(lines[1], is("0 0 0 0"));
+        for (int i = 3; i < lines.length; i += 2) {
+            assertThat(lines[i], is("7 42 0 1"));
+        }
+    }
+
+    @Test
+    public void shouldSkipEntriesThatVanished() throws Exception
+    {
+        givenFiles(10);
+
+        List<ByteBuf> frames = drain(new ChunkedDirListResponse(_request, Files.newDirectoryStream(_dir), 8192,
+                                                                path -> path.getFileName().toString().equals("f3")
+                                                                        ? null : new FileStatus(1, 1, 0, 1),
+                                                                null, 1));
+
+        assertThat(frames.size(), is(1));
+        String body = frames.get(0).toString(8, frames.get(0).readableBytes() - 8, US_ASCII);
+        frames.get(0).release();
+        assertThat(body.split("\n").length, is(2 * 10));
+        assertThat(body, not(containsString("f3\n")));
+    }
+
+    @Test
+    public void shouldReturnEmptyResponseForEmptyDirectory() throws Exception
+    {
+        List<ByteBuf> frames = drain(new ChunkedDirListResponse(_request, Files.newDirectoryStream(_dir), 1024,
+                                                                path -> new FileStatus(1, 1, 0, 1),
+                                                                null, 1));
+
+        assertThat(frames.size(), is(1));
+        assertThat(frames.get(0).getUnsignedShort(2), is(kXR_ok));
+        assertThat(frames.get(0).getInt(4), is(0));
+        frames.get(0).release();
+    }
+
+    @Test
+    public void shouldFailWithErrorResponseIfStatFails() throws Exception
+    {
+        givenFiles(10);
+
+        List<ByteBuf> frames = drain(new ChunkedDirListResponse(_request, Files.newDirectoryStream(_dir), 1024,
+                                                                path -> { throw new IOException("disk on fire"); },
+                                                                _executor, 4));
+
+        assertThat(frames.size(), is(1));
+        assertThat(frames.get(0).getUnsignedShort(2), is(kXR_error));
+        assertThat(frames.get(0).toString(US_ASCII), containsString("disk on fire"));
+        frames.get(0).release();
+    }
+
+    @Test
+    public void shouldFetchEntriesOnExecutorAheadOfEncoding() throws Exception
+    {
+        givenFiles(10);
+        List<Runnable> tasks = new ArrayList<>();
+
+        ChunkedDirListResponse response =
+                new ChunkedDirListResponse(_request, Files.newDirectoryStream(_dir), 8192,
+                                           path -> new FileStatus(1, 1, 0, 1), tasks::add, 1);
+        try {
+            CompletableFuture<?> ready = response.whenReady();
+            assertThat(ready.isDone(), is(false));
+
+            runAll(tasks);
+
+            assertThat(ready.isDone(), is(true));
+            XrootdResponse<?> frame = response.nextChunk(UnpooledByteBufAllocator.DEFAULT);
+            assertThat(frame.getStatus(), is(kXR_ok));
+            assertThat(response.isEndOfInput(), is(true));
+            assertThat(response.whenReady(), is(nullValue()));
+            ReferenceCountUtil.release(frame);
+        } finally {
+            response.close();
+        }
+    }
+
+    @Test
+    public void shouldLookUpStatusOnExecutorEvenIfListingCompletedFirst() throws Exception
+    {
+        givenFiles(10);
+        Set<Thread> threads = ConcurrentHashMap.newKeySet();
+        /* Completes each task before returning, so that every stage has completed
+         * by the time the next one is attached.
+         */
+        Executor executor = task -> Futures.getUnchecked(_executor.submit(task));
+
+        ChunkedDirListResponse response =
+                new ChunkedDirListResponse(_request, Files.newDirectoryStream(_dir), 8192,
+                                           path -> {
+                                               threads.add(Thread.currentThread());
+                                               return new FileStatus(1, 1, 0, 1);
+                                           }, executor, 1);
+        try {
+            response.whenReady().get();
+            ReferenceCountUtil.release(response.nextChunk(UnpooledByteBufAllocator.DEFAULT));
+        } finally {
+            response.close();
+        }
+
+        assertThat(threads, is(not(empty())));
+        assertThat(threads, not(hasItem(Thread.currentThread())));
+    }
+
+    @Test
+    public void shouldResumeWritingOnceNextFrameIsFetched() throws Exception
+    {
+        givenFiles(500);
+        List<Runnable> tasks = new ArrayList<>();
+        EmbeddedChannel channel = new EmbeddedChannel(new XrootdEncoder(), new ChunkedResponseWriteHandler());
+
+        ChannelFuture written = channel.writeAndFlush(
+                new ChunkedDirListResponse(_request, Files.newDirectoryStream(_dir), 1024, null, tasks::add, 1));
+
+        int frames = 0;
+        while (!written.isDone()) {
+            assertThat(channel.outboundMessages().isEmpty(), is(true));
+            assertThat(tasks.isEmpty(), is(false));
+            runAll(tasks);
+            channel.runPendingTasks();
+            ByteBuf frame;
+            while ((frame = channel.readOutbound()) != null) {
+                frames++;
+                frame.release();
+            }
+        }
+
+        assertThat(written.isSuccess(), is(true));
+        assertThat(frames, is(greaterThan(1)));
+        channel.finish();
+    }
+
+    private static void runAll(List<Runnable> tasks)
+    {
+        while (!tasks.isEmpty()) {
+            tasks.remove(0).run();
+        }
+    }
+
+    private void givenFiles(int count) throws IOException
+    {
+        for (int i = 0; i < count; i++) {
+            Files.createFile(_dir.resolve("f" + i));
+        }
+    }
+
+    private static List<ByteBuf> drain(ChunkedResponse response) throws Exception
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new XrootdEncoder());
+        List<ByteBuf> frames = new ArrayList<>();
+        try {
+            while (!response.isEndOfInput()) {
+                channel.writeOutbound(response.nextChunk(UnpooledByteBufAllocator.DEFAULT));
+                frames.add(channel.readOutbound());
+            }
+        } finally {
+            response.close();
+        }
+        return frames;
+    }
+}
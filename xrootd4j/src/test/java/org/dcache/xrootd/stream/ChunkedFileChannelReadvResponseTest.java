@@ -153,6 +153,22 @@ public class ChunkedFileChannelReadvResponseTest
         assertThat(response2, is(nullValue()));
     }
 
+    @Test
+    public void shouldDetermineFileSizeOnlyOnce() throws Exception
+    {
+        givenFileDescriptor().withFileHandle(SOME_FH).withSize(10000);
+        for (int i = 0; i < 20; i++) {
+            givenReadRequest().forFileHandle(SOME_FH).atOffset(i * 500).forLength(500);
+        }
+
+        AbstractChunkedReadvResponse response = aResponseWithMaxFrameSizeOf(1024);
+        while (!response.isEndOfInput()) {
+            response.nextChunk(UnpooledByteBufAllocator.DEFAULT).getSegmentLengths();
+        }
+
+        verify(channel(SOME_FH), times(1)).size();
+    }
+
     @Test(expected = IllegalStateException.class)
     public void shouldNotOverflowWithLargeRequests() throws Exception
     {
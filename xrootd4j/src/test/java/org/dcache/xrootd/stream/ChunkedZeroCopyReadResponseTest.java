@@ -0,0 +1,140 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import io.netty.channel.FileRegion;
+import io.netty.channel.embedded.EmbeddedChannel;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.channels.FileChannel;
+
+import org.dcache.xrootd.core.XrootdEncoder;
+import org.dcache.xrootd.core.XrootdMetricsSink;
+import org.dcache.xrootd.protocol.messages.ReadRequest;
+import org.dcache.xrootd.protocol.messages.ZeroCopyReadResponse;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_ok;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_oksofar;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ChunkedZeroCopyReadResponseTest
+{
+    private static final int SOME_ID = 1234;
+
+    private File _file;
+    private RandomAccessFile _raf;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _file = File.createTempFile("zerocopy", null);
+        _raf = new RandomAccessFile(_file, "rw");
+        _raf.setLength(10000);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _raf.close();
+        _file.delete();
+    }
+
+    @Test
+    public void shouldSplitReadIntoFramesOfMaxFrameSize() throws Exception
+    {
+        ChunkedZeroCopyReadResponse response =
+                new ChunkedZeroCopyReadResponse(aReadRequest(100, 2500), 1024, _raf.getChannel());
+
+        ZeroCopyReadResponse chunk1 = response.nextChunk(UnpooledByteBufAllocator.DEFAULT);
+        ZeroCopyReadResponse chunk2 = response.nextChunk(UnpooledByteBufAllocator.DEFAULT);
+        ZeroCopyReadResponse chunk3 = response.nextChunk(UnpooledByteBufAllocator.DEFAULT);
+
+        assertThat(chunk1.getDataLength(), is(1024));
+        assertThat(chunk1.getStatus(), is(kXR_oksofar));
+        assertThat(chunk2.getDataLength(), is(1024));
+        assertThat(chunk2.getStatus(), is(kXR_oksofar));
+        assertThat(chunk3.getDataLength(), is(452));
+        assertThat(chunk3.getStatus(), is(kXR_ok));
+        assertThat(response.isEndOfInput(), is(true));
+    }
+
+    @Test
+    public void shouldStopAtEndOfFile() throws Exception
+    {
+        ChunkedZeroCopyReadResponse response =
+                new ChunkedZeroCopyReadResponse(aReadRequest(9000, 4096), 1024, _raf.getChannel());
+
+        int total = 0;
+        int status = kXR_oksofar;
+        while (!response.isEndOfInput()) {
+            ZeroCopyReadResponse chunk = response.nextChunk(UnpooledByteBufAllocator.DEFAULT);
+            total += chunk.getDataLength();
+            status = chunk.getStatus();
+        }
+
+        assertThat(total, is(1000));
+        assertThat(status, is(kXR_ok));
+    }
+
+    @Test
+    public void shouldNotCloseFileWhenRegionIsReleased() throws Exception
+    {
+        EmbeddedChannel channel = new EmbeddedChannel(new XrootdEncoder());
+
+        channel.writeOutbound(new ZeroCopyReadResponse(aReadRequest(0, 100), _raf.getChannel()));
+
+        ByteBuf header = channel.readOutbound();
+        FileRegion region = channel.readOutbound();
+        assertThat(header.getUnsignedShort(2), is(kXR_ok));
+        assertThat(header.getInt(4), is(100));
+        assertThat(region.count(), is(100L));
+        header.release();
+        region.release();
+        assertThat(_raf.getChannel().isOpen(), is(true));
+    }
+
+    @Test
+    public void shouldNotUseZeroCopyWithoutSocketTransport() throws Exception
+    {
+        ReadEngine engine = new ReadEngine(true, 0, 1024, XrootdMetricsSink.NONE);
+
+        Object response = engine.read(new EmbeddedChannel(), aReadRequest(0, 100), _raf.getChannel());
+
+        assertThat(response, is(instanceOf(ChunkedFileChannelReadResponse.class)));
+    }
+
+    private static ReadRequest aReadRequest(long offset, int length)
+    {
+        ReadRequest request = mock(ReadRequest.class);
+        when(request.getStreamId()).thenReturn(SOME_ID);
+        when(request.getReadOffset()).thenReturn(offset);
+        when(request.bytesToRead()).thenReturn(length);
+        return request;
+    }
+}
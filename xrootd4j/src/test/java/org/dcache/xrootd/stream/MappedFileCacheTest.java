@@ -0,0 +1,156 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class MappedFileCacheTest
+{
+    private static final int REGION = 1024;
+    private static final int FILE_SIZE = 10 * REGION + 100;
+
+    private Path _path;
+    private FileChannel _file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _path = Files.createTempFile("mapped", null);
+        byte[] data = new byte[FILE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(_path, data);
+        _file = FileChannel.open(_path, READ, WRITE);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _file.close();
+        Files.delete(_path);
+    }
+
+    @Test
+    public void shouldReadWithinRegion() throws IOException
+    {
+        MappedFileCache cache = new MappedFileCache(4 * REGION, REGION);
+
+        assertData(cache.read(_file, 100, 200), 100, 200);
+        assertThat(cache.getSize(), is((long) REGION));
+    }
+
+    @Test
+    public void shouldReadAcrossRegions() throws IOException
+    {
+        MappedFileCache cache = new MappedFileCache(4 * REGION, REGION);
+
+        assertData(cache.read(_file, REGION - 10, 2 * REGION + 20), REGION - 10, 2 * REGION + 20);
+        assertThat(cache.getSize(), is(4L * REGION));
+    }
+
+    @Test
+    public void shouldStopAtEndOfFile() throws IOException
+    {
+        MappedFileCache cache = new MappedFileCache(4 * REGION, REGION);
+
+        assertData(cache.read(_file, FILE_SIZE - 50, 200), FILE_SIZE - 50, 50);
+        assertData(cache.read(_file, FILE_SIZE, 200), FILE_SIZE, 0);
+        assertThat(cache.getSize(), is(100L));
+    }
+
+    @Test
+    public void shouldMapLastRegionAgainWhenFileGrows() throws IOException
+    {
+        MappedFileCache cache = new MappedFileCache(4 * REGION, REGION);
+        assertData(cache.read(_file, FILE_SIZE - 50, 50), FILE_SIZE - 50, 50);
+
+        ByteBuffer data = ByteBuffer.allocate(100);
+        for (int i = 0; i < 100; i++) {
+            data.put((byte) (FILE_SIZE + i));
+        }
+        data.flip();
+        _file.write(data, FILE_SIZE);
+
+        assertData(cache.read(_file, FILE_SIZE - 50, 150), FILE_SIZE - 50, 150);
+        assertThat(cache.getSize(), is(200L));
+    }
+
+    @Test
+    public void shouldLimitMappedBytes() throws IOException
+    {
+        MappedFileCache cache = new MappedFileCache(2 * REGION, REGION);
+
+        for (int position = 0; position < 8 * REGION; position += REGION) {
+            assertData(cache.read(_file, position, REGION), position, REGION);
+            assertThat(cache.getSize(), is(lessThanOrEqualTo(2L * REGION)));
+        }
+    }
+
+    @Test
+    public void shouldKeepEvictedRegionsMappedWhileReferenced() throws IOException
+    {
+        MappedFileCache cache = new MappedFileCache(REGION, REGION);
+        ByteBuf first = cache.read(_file, 0, REGION);
+
+        assertData(cache.read(_file, REGION, REGION), REGION, REGION);
+        assertData(cache.read(_file, 2 * REGION, REGION), 2 * REGION, REGION);
+
+        assertData(first, 0, REGION);
+    }
+
+    @Test
+    public void shouldDropRegionsOfUnmappedFile() throws IOException
+    {
+        MappedFileCache cache = new MappedFileCache(4 * REGION, REGION);
+        ByteBuf data = cache.read(_file, 0, 2 * REGION);
+
+        cache.unmap(_file);
+
+        assertThat(cache.getSize(), is(0L));
+        assertData(data, 0, 2 * REGION);
+    }
+
+    private static void assertData(ByteBuf data, long position, int length)
+    {
+        assertThat(data, is(notNullValue()));
+        try {
+            assertThat(data.readableBytes(), is(length));
+            for (int i = 0; i < length; i++) {
+                assertThat(data.getByte(data.readerIndex() + i), is((byte) (position + i)));
+            }
+        } finally {
+            data.release();
+        }
+    }
+}
@@ -0,0 +1,261 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.stream;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.UnpooledByteBufAllocator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+import static org.hamcrest.Matchers.*;
+import static org.junit.Assert.assertThat;
+
+public class ReadAheadCacheTest
+{
+    private static final int WINDOW = 1024;
+    private static final int FILE_SIZE = 10 * WINDOW + 100;
+    private static final Executor DIRECT = Runnable::run;
+
+    private Path _path;
+    private FileChannel _file;
+
+    @Before
+    public void setUp() throws IOException
+    {
+        _path = Files.createTempFile("readahead", null);
+        byte[] data = new byte[FILE_SIZE];
+        for (int i = 0; i < data.length; i++) {
+            data[i] = (byte) i;
+        }
+        Files.write(_path, data);
+        _file = FileChannel.open(_path, READ);
+    }
+
+    @After
+    public void tearDown() throws IOException
+    {
+        _file.close();
+        Files.delete(_path);
+    }
+
+    @Test
+    public void shouldServeSequentialReadsFromPrefetchedData()
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream stream = cache.newStream(_file);
+
+        assertThat(stream.read(0, 256), is(nullValue()));
+        assertThat(stream.read(256, 256), is(nullValue()));
+        for (int position = 512; position < 4 * WINDOW; position += 256) {
+            assertData(stream.read(position, 256), position, 256);
+        }
+        stream.close();
+        assertThat(cache.getSize(), is(0L));
+    }
+
+    @Test
+    public void shouldServeReadsSpanningWindows()
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream stream = cache.newStream(_file);
+
+        stream.read(0, 300);
+        stream.read(300, 300);
+        assertData(stream.read(600, 600), 600, 600);
+        assertData(stream.read(1200, 1000), 1200, 1000);
+        stream.close();
+    }
+
+    @Test
+    public void shouldNotPrefetchForRandomReads()
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream stream = cache.newStream(_file);
+
+        for (int i = 0; i < 10; i++) {
+            assertThat(stream.read((i * 7919) % FILE_SIZE, 100), is(nullValue()));
+        }
+        assertThat(cache.getSize(), is(0L));
+        stream.close();
+    }
+
+    @Test
+    public void shouldDiscardPrefetchedDataWhenReaderSeeks()
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream stream = cache.newStream(_file);
+
+        stream.read(0, 256);
+        stream.read(256, 256);
+        assertThat(cache.getSize(), is(greaterThan(0L)));
+
+        assertThat(stream.read(8 * WINDOW, 256), is(nullValue()));
+        assertThat(cache.getSize(), is(0L));
+        stream.close();
+    }
+
+    @Test
+    public void shouldReturnShortDataAtEndOfFile()
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream stream = cache.newStream(_file);
+
+        int position = FILE_SIZE - 700;
+        stream.read(position - 1024, 512);
+        stream.read(position - 512, 512);
+        assertData(stream.read(position, 512), position, 512);
+        assertData(stream.read(position + 512, 512), position + 512, 188);
+        assertThat(cache.getSize(), is(0L));
+        stream.close();
+    }
+
+    @Test
+    public void shouldBoundMemoryByEvictingOtherStreams()
+    {
+        ReadAheadCache cache = new ReadAheadCache(2 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream first = cache.newStream(_file);
+        ReadAheadCache.Stream second = cache.newStream(_file);
+
+        first.read(0, 256);
+        first.read(256, 256);
+        assertThat(cache.getSize(), is(2L * WINDOW));
+
+        second.read(0, 256);
+        second.read(256, 256);
+        assertThat(cache.getSize(), is(2L * WINDOW));
+        assertData(second.read(512, 256), 512, 256);
+        assertThat(first.read(512, 256), is(nullValue()));
+        assertThat(cache.getSize(), is(lessThanOrEqualTo(2L * WINDOW)));
+
+        first.close();
+        second.close();
+        assertThat(cache.getSize(), is(0L));
+    }
+
+    @Test
+    public void shouldNotPrefetchIfExecutorFails()
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, 2, task -> {
+            throw new java.util.concurrent.RejectedExecutionException();
+        }, UnpooledByteBufAllocator.DEFAULT);
+        ReadAheadCache.Stream stream = cache.newStream(_file);
+
+        stream.read(0, 256);
+        stream.read(256, 256);
+        assertThat(stream.read(512, 256), is(nullValue()));
+        assertThat(cache.getSize(), is(0L));
+        stream.close();
+    }
+
+    @Test
+    public void shouldReadWrittenDataAfterInvalidation() throws IOException
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream stream = cache.newStream(_file, _path);
+
+        stream.read(0, 256);
+        stream.read(256, 256);
+        assertData(stream.read(512, 256), 512, 256);
+        givenWritten(0, FILE_SIZE, (byte) 42);
+        cache.invalidate(_path);
+
+        assertThat(stream.read(768, 256), is(nullValue()));
+        assertData(stream.read(1024, 256), (byte) 42, 256);
+        stream.close();
+        assertThat(cache.getSize(), is(0L));
+    }
+
+    @Test
+    public void shouldReadBeyondOldEndOfFileAfterInvalidation() throws IOException
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream stream = cache.newStream(_file, _path);
+
+        int position = FILE_SIZE - 700;
+        stream.read(position - 1024, 512);
+        stream.read(position - 512, 512);
+        assertData(stream.read(position, 512), position, 512);
+        givenWritten(FILE_SIZE, WINDOW, (byte) 42);
+        cache.invalidate(_path);
+
+        assertThat(stream.read(position + 512, 512), is(nullValue()));
+        assertData(stream.read(position + 1024, 512), (byte) 42, 512);
+        stream.close();
+    }
+
+    @Test
+    public void shouldKeepPrefetchedDataOfOtherFiles() throws IOException
+    {
+        ReadAheadCache cache = new ReadAheadCache(8 * WINDOW, WINDOW, DIRECT);
+        ReadAheadCache.Stream stream = cache.newStream(_file, _path);
+
+        stream.read(0, 256);
+        stream.read(256, 256);
+        cache.invalidate(_path.resolveSibling("other"));
+
+        assertData(stream.read(512, 256), 512, 256);
+        stream.close();
+    }
+
+    private void givenWritten(long position, int length, byte value) throws IOException
+    {
+        byte[] data = new byte[length];
+        Arrays.fill(data, value);
+        try (FileChannel channel = FileChannel.open(_path, WRITE)) {
+            channel.write(ByteBuffer.wrap(data), position);
+        }
+    }
+
+    private static void assertData(ByteBuf data, byte value, int length)
+    {
+        assertThat(data, is(notNullValue()));
+        try {
+            assertThat(data.readableBytes(), is(length));
+            for (int i = 0; i < length; i++) {
+                assertThat(data.getByte(data.readerIndex() + i), is(value));
+            }
+        } finally {
+            data.release();
+        }
+    }
+
+    private static void assertData(ByteBuf data, long position, int length)
+    {
+        assertThat(data, is(notNullValue()));
+        try {
+            assertThat(data.readableBytes(), is(length));
+            for (int i = 0; i < length; i++) {
+                assertThat(data.getByte(data.readerIndex() + i), is((byte) (position + i)));
+            }
+        } finally {
+            data.release();
+        }
+    }
+}
@@ -0,0 +1,138 @@
+/**
+ * Copyright (C) 2011-2018 dCache.org <support@dcache.org>
+ *
+ * This file is part of xrootd4j.
+ *
+ * xrootd4j is free software: you can redistribute it and/or modify it
+ * under the terms of the GNU Lesser General Public License as published
+ * by the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * xrootd4j is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with xrootd4j.  If not, see http://www.gnu.org/licenses/.
+ */
+package org.dcache.xrootd.util;
+
+import org.junit.Test;
+
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+
+import org.dcache.xrootd.core.XrootdException;
+
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_FileNotOpen;
+import static org.dcache.xrootd.protocol.XrootdProtocol.kXR_overQuota;
+import static org.junit.Assert.*;
+
+public class FileHandleTableTest
+{
+    private final FileHandleTable<String> table = new FileHandleTable<>(1000);
+
+    @Test
+    public void shouldReturnAddedFile() throws Exception
+    {
+        int a = table.add("a");
+        int b = table.add("b");
+
+        assertNotEquals(a, b);
+        assertEquals("a", table.get(a));
+        assertEquals("b", table.get(b));
+        assertEquals(2, table.size());
+    }
+
+    @Test
+    public void shouldRejectHandleAfterRemove() throws Exception
+    {
+        int a = table.add("a");
+        assertEquals("a", table.remove(a));
+
+        assertErrorCode(kXR_FileNotOpen, () -> table.get(a));
+        assertErrorCode(kXR_FileNotOpen, () -> table.remove(a));
+    }
+
+    @Test
+    public void shouldRejectStaleHandleWhenSlotIsReused() throws Exception
+    {
+        int a = table.add("a");
+        table.remove(a);
+        int b = table.add("b");
+
+        assertNotEquals(a, b);
+        assertErrorCode(kXR_FileNotOpen, () -> table.get(a));
+        assertEquals("b", table.get(b));
+    }
+
+    @Test
+    public void shouldRejectUnknownHandles()
+    {
+        assertErrorCode(kXR_FileNotOpen, () -> table.get(0));
+        assertErrorCode(kXR_FileNotOpen, () -> table.get(-1));
+        assertErrorCode(kXR_FileNotOpen, () -> table.get(Integer.MAX_VALUE));
+    }
+
+    @Test
+    public void shouldEnforceLimitPerTable() throws Exception
+    {
+        for (int i = 0; i < 1000; i++) {
+            table.add("f" + i);
+        }
+
+        assertErrorCode(kXR_overQuota, () -> table.add("one too many"));
+    }
+
+    @Test
+    public void shouldEnforceGlobalLimit() throws Exception
+    {
+        Semaphore permits = new Semaphore(3);
+        FileHandleTable<String> table1 = new FileHandleTable<>(10, permits);
+        FileHandleTable<String> table2 = new FileHandleTable<>(10, permits);
+        int a = table1.add("a");
+        table1.add("b");
+        table2.add("c");
+
+        assertErrorCode(kXR_overQuota, () -> table2.add("d"));
+
+        table1.remove(a);
+        table2.add("d");
+        assertEquals(0, permits.availablePermits());
+
+        table1.removeAll();
+        table2.removeAll();
+        assertEquals(3, permits.availablePermits());
+    }
+
+    @Test
+    public void shouldReuseSlotsOfRemovedFiles() throws Exception
+    {
+        Set<Integer> handles = new HashSet<>();
+        for (int i = 0; i < 100_000; i++) {
+            int handle = table.add("f");
+            handles.add(handle);
+            table.remove(handle);
+        }
+
+        assertEquals(0, table.size());
+        assertTrue(handles.size() > 1);
+    }
+
+    private interface Call
+    {
+        void call() throws XrootdException;
+    }
+
+    private static void assertErrorCode(int code, Call call)
+    {
+        try {
+            call.call();
+            fail("Expected XrootdException " + code);
+        } catch (XrootdException e) {
+            assertEquals(code, e.getError());
+        }
+    }
+}
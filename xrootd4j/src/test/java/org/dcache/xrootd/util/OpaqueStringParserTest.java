@@ -18,8 +18,13 @@
  */
 package org.dcache.xrootd.util;
 
+import static java.nio.charset.StandardCharsets.US_ASCII;
 import static org.junit.Assert.*;
 
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.Unpooled;
+
+import java.util.HashMap;
 import java.util.Map;
 
 import org.junit.Test;
@@ -252,4 +257,75 @@ public class OpaqueStringParserTest
                      "",
                      resultMap.get(OS_KEY));
     }
+
+    @Test
+    public void testDuplicateKeyKeepsLastValue() throws ParseException
+    {
+        String opaque = OPAQUE_PREFIX + OS_KEY + OPAQUE_SEPARATOR + "bsd" +
+            OPAQUE_PREFIX + EDITOR_KEY + OPAQUE_SEPARATOR + EDITOR_VALUE +
+            OPAQUE_STRING_PREFIX + OS_KEY + OPAQUE_SEPARATOR + OS_VALUE;
+        Map<String, String> resultMap =
+            OpaqueStringParser.getOpaqueMap(opaque);
+
+        assertEquals(2, resultMap.size());
+        assertEquals(OS_VALUE, resultMap.get(OS_KEY));
+        assertEquals(EDITOR_VALUE, resultMap.get(EDITOR_KEY));
+    }
+
+    @Test
+    public void testSeparatorInValue() throws ParseException
+    {
+        Map<String, String> resultMap =
+            OpaqueStringParser.getOpaqueMap("authz=a=b&os=linux");
+
+        assertEquals("a=b", resultMap.get("authz"));
+        assertEquals(OS_VALUE, resultMap.get(OS_KEY));
+    }
+
+    @Test
+    public void testManyPairs() throws ParseException
+    {
+        StringBuilder opaque = new StringBuilder();
+        for (int i = 0; i < 20; i++) {
+            opaque.append(OPAQUE_PREFIX).append("key").append(i)
+                  .append(OPAQUE_SEPARATOR).append(i);
+        }
+        Map<String, String> resultMap =
+            OpaqueStringParser.getOpaqueMap(opaque.toString());
+
+        assertEquals(20, resultMap.size());
+        for (int i = 0; i < 20; i++) {
+            assertEquals(String.valueOf(i), resultMap.get("key" + i));
+        }
+        assertEquals(new HashMap<>(resultMap), resultMap);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testMapIsImmutable() throws ParseException
+    {
+        OpaqueStringParser.getOpaqueMap("os=linux").put(EDITOR_KEY,
+                                                        EDITOR_VALUE);
+    }
+
+    @Test
+    public void testBuffer() throws ParseException
+    {
+        String opaque = RT5946_EXAMPLE + OPAQUE_STRING_PREFIX + OPAQUE_PREFIX +
+                        DCACHE_MOVER_KEY + OPAQUE_SEPARATOR +
+                        DCACHE_MOVER_VALUE;
+        ByteBuf buffer = Unpooled.copiedBuffer("/path?" + opaque, US_ASCII);
+
+        Map<String, String> resultMap =
+            OpaqueStringParser.getOpaqueMap(buffer, 6, opaque.length());
+
+        assertEquals(OpaqueStringParser.getOpaqueMap(opaque), resultMap);
+        assertEquals(0, buffer.readerIndex());
+    }
+
+    @Test(expected = ParseException.class)
+    public void testBufferMissingValue() throws ParseException
+    {
+        ByteBuf buffer = Unpooled.copiedBuffer("os=linux&editor", US_ASCII);
+        OpaqueStringParser.getOpaqueMap(buffer, 0, buffer.readableBytes());
+    }
 }